@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.api;
+
+import com.google.common.annotations.Beta;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * A sink for values computed by a benchmark. Consuming a value keeps the JIT from eliminating the
+ * code that computed it as dead code, without the cost and pitfalls of folding results into a
+ * dummy return value.
+ *
+ * <p>To use a blackhole, declare it as the last parameter of a {@code @Benchmark} method (e.g.
+ * {@code timeFoo(long reps, Blackhole blackhole)}) or of a {@code @BeforeExperiment} method and
+ * caliper will pass one in.
+ *
+ * <p>Consuming a value neither writes it to the heap nor synchronizes, so it costs on the order of
+ * a nanosecond. Instances are not thread safe and should not be shared between threads.
+ *
+ * <p>This API is likely to change.
+ */
+@Beta
+public final class Blackhole {
+  /*
+   * Each value is compared against two fields that always hold different values, so the branch is
+   * never taken. The fields are volatile so that the JIT can't prove that, and so has to compute
+   * every consumed value.
+   */
+  private volatile boolean bool1 = false;
+  private volatile boolean bool2 = true;
+  private volatile byte byte1 = 1;
+  private volatile byte byte2 = 2;
+  private volatile char char1 = 'A';
+  private volatile char char2 = 'B';
+  private volatile short short1 = 1;
+  private volatile short short2 = 2;
+  private volatile int int1 = 1;
+  private volatile int int2 = 2;
+  private volatile long long1 = 1;
+  private volatile long long2 = 2;
+  private volatile float float1 = 1;
+  private volatile float float2 = 2;
+  private volatile double double1 = 1;
+  private volatile double double2 = 2;
+
+  /*
+   * Objects can't be compared the same way without the JIT concluding that a newly allocated object
+   * can't be equal to anything. Instead, a pseudo-random, increasingly rare subset of consumed
+   * objects is published to a field, which means that every object may escape.
+   */
+  private int random = (int) System.nanoTime();
+  private volatile int publishMask = 1;
+  private WeakReference<Object> published;
+
+  /** Creates a new blackhole. Benchmarks normally have caliper pass one in instead. */
+  public Blackhole() {}
+
+  public void consume(boolean value) {
+    if (value == bool1 & value == bool2) {
+      throw new AssertionError();
+    }
+  }
+
+  public void consume(byte value) {
+    if (value == byte1 & value == byte2) {
+      throw new AssertionError();
+    }
+  }
+
+  public void consume(char value) {
+    if (value == char1 & value == char2) {
+      throw new AssertionError();
+    }
+  }
+
+  public void consume(short value) {
+    if (value == short1 & value == short2) {
+      throw new AssertionError();
+    }
+  }
+
+  public void consume(int value) {
+    if (value == int1 & value == int2) {
+      throw new AssertionError();
+    }
+  }
+
+  public void consume(long value) {
+    if (value == long1 & value == long2) {
+      throw new AssertionError();
+    }
+  }
+
+  public void consume(float value) {
+    if (value == float1 & value == float2) {
+      throw new AssertionError();
+    }
+  }
+
+  public void consume(double value) {
+    if (value == double1 & value == double2) {
+      throw new AssertionError();
+    }
+  }
+
+  public void consume(Object value) {
+    int mask = publishMask;
+    // a linear congruential generator (the constants are from Numerical Recipes)
+    int next = random * 1664525 + 1013904223;
+    random = next;
+    if ((next & mask) == 0) {
+      // Happens a few dozen times at most, since the mask grows each time
+      published = new WeakReference<Object>(value);
+      publishMask = (mask << 1) + 1;
+    }
+  }
+}
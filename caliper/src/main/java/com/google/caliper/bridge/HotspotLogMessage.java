@@ -20,7 +20,7 @@ package com.google.caliper.bridge;
  * A message representing output produced by the JVM when {@code -XX:+PrintCompliation} is enabled.
  */
 public final class HotspotLogMessage extends LogMessage {
-  HotspotLogMessage() {}
+  public HotspotLogMessage() {}
 
   @Override
   public void accept(LogMessageVisitor visitor) {
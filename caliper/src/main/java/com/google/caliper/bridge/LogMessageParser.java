@@ -16,49 +16,271 @@
 
 package com.google.caliper.bridge;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 import com.google.caliper.util.Parser;
 import com.google.caliper.util.ShortDuration;
 
 import java.math.BigDecimal;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 /**
- * Parses {@link LogMessage} strings.
+ * Parses {@link LogMessage} strings: the lines that a worker VM prints for {@code -XX:+PrintGC},
+ * {@code -XX:+PrintCompilation} and {@code -XX:+PrintFlagsFinal}, and for the unified logging
+ * ({@code -Xlog}) of {@code gc} and {@code jit+compilation} on JDK 9 and later.
+ *
+ * <p>Workers print many thousands of lines while trials are running, so each line is scanned at
+ * most a couple of times, without regular expressions and without copying it to a string. Only the
+ * parts of a line that make up a message are copied.
  */
 final class LogMessageParser implements Parser<LogMessage> {
   @Inject LogMessageParser() {}
 
-  private static final Pattern GC_PATTERN =
-      Pattern.compile(".*\\[(?:(Full) )?GC.*(\\d+\\.\\d+) secs\\]");
-  private static final Pattern JIT_PATTERN =
-      Pattern.compile(".*::.*( \\(((\\d+ bytes)|(static))\\))?");
-  private static final Pattern VM_OPTION_PATTERN =
-      Pattern.compile("\\s*(\\w+)\\s+(\\w+)\\s+:?=\\s+([^\\s]*)\\s+\\{([^}]*)\\}\\s*");
-
   @Override public LogMessage parse(CharSequence text) {
-    // TODO(gak): do this stuff in terms of CharSequence instead of String
-    String string = text.toString();
-    Matcher gcMatcher = GC_PATTERN.matcher(string);
-    if (gcMatcher.matches()) {
-      return new GcLogMessage(
-          "Full".equals(gcMatcher.group(1))
-              ? GcLogMessage.Type.FULL
-              : GcLogMessage.Type.INCREMENTAL,
-          ShortDuration.of(BigDecimal.valueOf(Double.parseDouble(gcMatcher.group(2))), SECONDS));
+    int start = skipWhitespace(text, 0);
+    if (start == text.length()) {
+      return null;
+    }
+    if (text.charAt(start) == '[') {
+      LogMessage unified = parseUnifiedLogging(text, start);
+      if (unified != null) {
+        return unified;
+      }
     }
-    Matcher jitMatcher = JIT_PATTERN.matcher(string);
-    if (jitMatcher.matches()) {
+    LogMessage gc = parseGc(text, start);
+    if (gc != null) {
+      return gc;
+    }
+    // PrintCompilation names methods as Class::method
+    if (indexOf(text, "::", start) >= 0) {
       return new HotspotLogMessage();
     }
-    Matcher vmOptionMatcher = VM_OPTION_PATTERN.matcher(string);
-    if (vmOptionMatcher.matches()) {
-      return new VmOptionLogMessage(vmOptionMatcher.group(2), vmOptionMatcher.group(3));
+    return parseVmOption(text, start);
+  }
+
+  /**
+   * Parses a line of {@code -Xlog} output with the {@code uptime}, {@code level} and {@code tags}
+   * decorations, such as {@code [0.178s][info ][gc   ] GC(0) Pause Young (...) 7M->6M(31M) 12.3ms}.
+   */
+  @Nullable private static LogMessage parseUnifiedLogging(CharSequence text, int start) {
+    // the tags are the last decoration, and the message follows them
+    int tagsStart = -1;
+    int tagsEnd = -1;
+    int position = start;
+    while (position < text.length() && text.charAt(position) == '[') {
+      int end = indexOf(text, ']', position);
+      if (end < 0) {
+        return null;
+      }
+      tagsStart = position + 1;
+      tagsEnd = end;
+      position = end + 1;
+    }
+    int messageStart = skipWhitespace(text, position);
+    if (tagsMatch(text, tagsStart, tagsEnd, "gc")) {
+      // "GC(12) Pause Young (Allocation Failure) 7M->6M(31M) 12.362ms", but not "Using Parallel"
+      if (!regionMatches(text, messageStart, "GC(")) {
+        return null;
+      }
+      int end = trimTrailingWhitespace(text, messageStart);
+      if (!endsWith(text, end, "ms")) {
+        return null;
+      }
+      ShortDuration duration = parseDuration(text, end - "ms".length(), MILLISECONDS);
+      if (duration == null) {
+        return null;
+      }
+      boolean full = indexOf(text, "Pause Full", messageStart) >= 0;
+      return new GcLogMessage(
+          full ? GcLogMessage.Type.FULL : GcLogMessage.Type.INCREMENTAL, duration);
+    } else if (tagsMatch(text, tagsStart, tagsEnd, "jit,compilation")) {
+      return new HotspotLogMessage();
     }
     return null;
   }
+
+  /**
+   * Parses a line of {@code -XX:+PrintGC} output, such as
+   * {@code 0.099: [Full GC 576K->486K(62848K), 0.0044860 secs]}.
+   */
+  @Nullable private static LogMessage parseGc(CharSequence text, int start) {
+    int gcStart = indexOf(text, '[', start);
+    if (gcStart < 0) {
+      return null;
+    }
+    boolean full;
+    if (regionMatches(text, gcStart, "[GC")) {
+      full = false;
+    } else if (regionMatches(text, gcStart, "[Full GC")) {
+      full = true;
+    } else {
+      return null;
+    }
+    int end = trimTrailingWhitespace(text, gcStart);
+    if (!endsWith(text, end, " secs]")) {
+      return null;
+    }
+    ShortDuration duration = parseDuration(text, end - " secs]".length(), SECONDS);
+    return (duration == null)
+        ? null
+        : new GcLogMessage(full ? GcLogMessage.Type.FULL : GcLogMessage.Type.INCREMENTAL, duration);
+  }
+
+  /**
+   * Parses a line of {@code -XX:+PrintFlagsFinal} output, such as
+   * {@code bool UseParallelGC := true {product}} or, on JDK 9 and later,
+   * {@code bool UseParallelGC = true {product} {command line}}.
+   */
+  @Nullable private static LogMessage parseVmOption(CharSequence text, int start) {
+    int typeEnd = skipWordCharacters(text, start);
+    int nameStart = skipWhitespace(text, typeEnd);
+    if (typeEnd == start || nameStart == typeEnd) {
+      return null;
+    }
+    int nameEnd = skipWordCharacters(text, nameStart);
+    int position = skipWhitespace(text, nameEnd);
+    if (nameEnd == nameStart || position == nameEnd) {
+      return null;
+    }
+    if (position < text.length() && text.charAt(position) == ':') {
+      position++;
+    }
+    if (position == text.length() || text.charAt(position) != '=') {
+      return null;
+    }
+    int valueStart = skipWhitespace(text, position + 1);
+    if (valueStart == position + 1) {
+      return null;
+    }
+    // an empty value leaves the first origin, e.g. "{product}", right after the '='
+    int valueEnd = (valueStart < text.length() && text.charAt(valueStart) == '{')
+        ? valueStart
+        : skipNonWhitespace(text, valueStart);
+    position = skipWhitespace(text, valueEnd);
+    if (position == text.length() || (valueEnd > valueStart && position == valueEnd)) {
+      return null;
+    }
+    // one or more origins in braces, which may contain spaces, e.g. "{C2 product} {default}"
+    while (position < text.length()) {
+      if (text.charAt(position) != '{') {
+        return null;
+      }
+      int originEnd = indexOf(text, '}', position);
+      if (originEnd < 0) {
+        return null;
+      }
+      position = skipWhitespace(text, originEnd + 1);
+    }
+    return new VmOptionLogMessage(
+        text.subSequence(nameStart, nameEnd).toString(),
+        text.subSequence(valueStart, valueEnd).toString());
+  }
+
+  /**
+   * Parses the decimal number that ends at {@code end}, and is preceded by whitespace or the start
+   * of the text.
+   */
+  @Nullable private static ShortDuration parseDuration(CharSequence text, int end, TimeUnit unit) {
+    int start = end;
+    boolean sawDigit = false;
+    while (start > 0) {
+      char c = text.charAt(start - 1);
+      if (c >= '0' && c <= '9') {
+        sawDigit = true;
+      } else if (c != '.') {
+        break;
+      }
+      start--;
+    }
+    if (!sawDigit) {
+      return null;
+    }
+    try {
+      return ShortDuration.of(new BigDecimal(text.subSequence(start, end).toString()), unit);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static boolean tagsMatch(CharSequence text, int start, int end, String tags) {
+    return start >= 0 && regionMatches(text, start, tags)
+        && skipWhitespace(text, start + tags.length()) >= end;
+  }
+
+  private static boolean regionMatches(CharSequence text, int start, String prefix) {
+    if (start + prefix.length() > text.length()) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); i++) {
+      if (text.charAt(start + i) != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean endsWith(CharSequence text, int end, String suffix) {
+    return end >= suffix.length() && regionMatches(text, end - suffix.length(), suffix);
+  }
+
+  private static int indexOf(CharSequence text, char c, int start) {
+    for (int i = start; i < text.length(); i++) {
+      if (text.charAt(i) == c) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int indexOf(CharSequence text, String target, int start) {
+    char first = target.charAt(0);
+    for (int i = indexOf(text, first, start); i >= 0; i = indexOf(text, first, i + 1)) {
+      if (regionMatches(text, i, target)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int skipWhitespace(CharSequence text, int start) {
+    int i = start;
+    while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  private static int skipNonWhitespace(CharSequence text, int start) {
+    int i = start;
+    while (i < text.length() && !Character.isWhitespace(text.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  private static int skipWordCharacters(CharSequence text, int start) {
+    int i = start;
+    while (i < text.length()) {
+      char c = text.charAt(i);
+      if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+          || c == '_')) {
+        break;
+      }
+      i++;
+    }
+    return i;
+  }
+
+  /** Returns the end of the text without trailing whitespace, but not before {@code start}. */
+  private static int trimTrailingWhitespace(CharSequence text, int start) {
+    int end = text.length();
+    while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+      end--;
+    }
+    return end;
+  }
 }
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.bridge;
+
+import static com.google.common.base.Charsets.UTF_8;
+
+import com.google.caliper.model.LatencyHistogram;
+import com.google.caliper.model.Measurement;
+import com.google.caliper.model.Value;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+/**
+ * Encodes the messages that are sent between the runner and its workers as the payload of a
+ * {@linkplain OpenedSocket frame}. Each payload starts with a tag byte for its type.
+ *
+ * <p>The messages that are sent once per measurement, and strings, have an explicit encoding, so
+ * that sending them neither allocates much nor retains anything. Everything else, such as the
+ * {@link WorkerSpec} that is sent once per trial, falls back to Java serialization with a stream of
+ * its own, so that the handle table of the stream is dropped along with the frame.
+ */
+final class MessageCodec {
+  private static final byte STRING = 1;
+  private static final byte START_MEASUREMENT = 2;
+  private static final byte STOP_MEASUREMENT = 3;
+  private static final byte SHOULD_CONTINUE = 4;
+  private static final byte STARTUP_ANNOUNCE = 5;
+  private static final byte FAILURE = 6;
+  private static final byte VM_PROPERTIES = 7;
+  private static final byte SERIALIZED = 8;
+
+  private MessageCodec() {}
+
+  /**
+   * Writes {@code message} to {@code out}, which must also be an {@link OutputStream} for messages
+   * that fall back to serialization.
+   */
+  static void encode(Serializable message, DataOutput out) throws IOException {
+    if (message instanceof String) {
+      out.writeByte(STRING);
+      writeString(out, (String) message);
+    } else if (message instanceof StartMeasurementLogMessage) {
+      out.writeByte(START_MEASUREMENT);
+    } else if (message instanceof StopMeasurementLogMessage) {
+      out.writeByte(STOP_MEASUREMENT);
+      writeStopMeasurement(out, (StopMeasurementLogMessage) message);
+    } else if (message instanceof ShouldContinueMessage) {
+      ShouldContinueMessage shouldContinue = (ShouldContinueMessage) message;
+      out.writeByte(SHOULD_CONTINUE);
+      out.writeBoolean(shouldContinue.shouldContinue());
+      out.writeBoolean(shouldContinue.isWarmupComplete());
+      out.writeInt(shouldContinue.measurementBudget());
+    } else if (message instanceof StartupAnnounceMessage) {
+      StartupAnnounceMessage announce = (StartupAnnounceMessage) message;
+      out.writeByte(STARTUP_ANNOUNCE);
+      out.writeLong(announce.workerId().getMostSignificantBits());
+      out.writeLong(announce.workerId().getLeastSignificantBits());
+      writeString(out, announce.sharedMemoryRing().orNull());
+    } else if (message instanceof FailureLogMessage) {
+      out.writeByte(FAILURE);
+      writeString(out, ((FailureLogMessage) message).stackTrace());
+    } else if (message instanceof VmPropertiesLogMessage) {
+      ImmutableMap<String, String> properties = ((VmPropertiesLogMessage) message).properties();
+      out.writeByte(VM_PROPERTIES);
+      out.writeInt(properties.size());
+      for (Map.Entry<String, String> entry : properties.entrySet()) {
+        writeString(out, entry.getKey());
+        writeString(out, entry.getValue());
+      }
+    } else {
+      out.writeByte(SERIALIZED);
+      ObjectOutputStream objectOutput = new ObjectOutputStream((OutputStream) out);
+      objectOutput.writeObject(message);
+      objectOutput.flush();
+    }
+  }
+
+  /**
+   * Reads a message written by {@link #encode} from {@code in}, which must also be an
+   * {@link InputStream} for messages that fell back to serialization.
+   */
+  static Serializable decode(DataInput in) throws IOException {
+    byte tag = in.readByte();
+    switch (tag) {
+      case STRING:
+        return readString(in);
+      case START_MEASUREMENT:
+        return new StartMeasurementLogMessage();
+      case STOP_MEASUREMENT:
+        return readStopMeasurement(in);
+      case SHOULD_CONTINUE:
+        boolean shouldContinue = in.readBoolean();
+        boolean warmupComplete = in.readBoolean();
+        return new ShouldContinueMessage(shouldContinue, warmupComplete, in.readInt());
+      case STARTUP_ANNOUNCE:
+        long mostSignificantBits = in.readLong();
+        UUID workerId = new UUID(mostSignificantBits, in.readLong());
+        return new StartupAnnounceMessage(workerId, readString(in));
+      case FAILURE:
+        return new FailureLogMessage(readString(in));
+      case VM_PROPERTIES:
+        int size = in.readInt();
+        ImmutableMap.Builder<String, String> properties = ImmutableMap.builder();
+        for (int i = 0; i < size; i++) {
+          properties.put(readString(in), readString(in));
+        }
+        return new VmPropertiesLogMessage(properties.build());
+      case SERIALIZED:
+        try {
+          return (Serializable) new ObjectInputStream((InputStream) in).readObject();
+        } catch (ClassNotFoundException e) {
+          throw new AssertionError(e);
+        }
+      default:
+        throw new IOException("Unknown message type: " + tag);
+    }
+  }
+
+  private static void writeStopMeasurement(DataOutput out, StopMeasurementLogMessage message)
+      throws IOException {
+    ImmutableList<Measurement> measurements = message.measurements();
+    out.writeInt(measurements.size());
+    for (Measurement measurement : measurements) {
+      writeString(out, measurement.description());
+      out.writeDouble(measurement.value().magnitude());
+      writeString(out, measurement.value().unit());
+      out.writeDouble(measurement.weight());
+    }
+    out.writeBoolean(message.latencyHistogram().isPresent());
+    if (message.latencyHistogram().isPresent()) {
+      message.latencyHistogram().get().writeTo(out);
+    }
+    out.writeBoolean(message.vmActivity().isPresent());
+    if (message.vmActivity().isPresent()) {
+      VmActivity vmActivity = message.vmActivity().get();
+      out.writeLong(vmActivity.gcCount());
+      out.writeLong(vmActivity.gcMillis());
+      out.writeLong(vmActivity.compilationMillis());
+    }
+  }
+
+  private static StopMeasurementLogMessage readStopMeasurement(DataInput in) throws IOException {
+    int size = in.readInt();
+    ImmutableList.Builder<Measurement> measurements = ImmutableList.builder();
+    for (int i = 0; i < size; i++) {
+      String description = readString(in);
+      double magnitude = in.readDouble();
+      String unit = readString(in);
+      measurements.add(new Measurement.Builder()
+          .description(description)
+          .value(Value.create(magnitude, unit))
+          .weight(in.readDouble())
+          .build());
+    }
+    LatencyHistogram latencyHistogram =
+        in.readBoolean() ? LatencyHistogram.readFrom(in) : null;
+    VmActivity vmActivity = null;
+    if (in.readBoolean()) {
+      long gcCount = in.readLong();
+      long gcMillis = in.readLong();
+      vmActivity = new VmActivity(gcCount, gcMillis, in.readLong());
+    }
+    return new StopMeasurementLogMessage(measurements.build(), latencyHistogram, vmActivity);
+  }
+
+  /** Writes a string of any length, unlike {@link DataOutput#writeUTF}. */
+  private static void writeString(DataOutput out, @Nullable String string) throws IOException {
+    if (string == null) {
+      out.writeInt(-1);
+    } else {
+      byte[] bytes = string.getBytes(UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  @Nullable private static String readString(DataInput in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, UTF_8);
+  }
+}
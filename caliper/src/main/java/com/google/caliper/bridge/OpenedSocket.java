@@ -15,31 +15,60 @@
 package com.google.caliper.bridge;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
+import com.google.caliper.bridge.SharedMemoryRing.RingInputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.Flushable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
 /**
  * A simple tuple for the opened streams of a socket.
  */
 public final class OpenedSocket {
   /**
-   * Waits for the channel to connect and returns a new {@link OpenedSocket}.
+   * Frames longer than this are rejected rather than buffered, since they can only come from a
+   * corrupt stream.
+   */
+  private static final int MAX_FRAME_LENGTH = 1 << 26;
+
+  /**
+   * Waits for the channel to connect and returns a new {@link OpenedSocket}. The channel may be put
+   * into non-blocking mode afterwards, to {@linkplain Reader#poll poll} its reader.
    */
   public static OpenedSocket fromSocket(SocketChannel socket) throws IOException {
     socket.configureBlocking(true);
     socket.finishConnect();
-    return fromSocket(socket.socket());
+    if (socket.getLocalAddress() instanceof InetSocketAddress) {
+      // see fromSocket(Socket)
+      socket.socket().setTcpNoDelay(true);
+    }
+    // the streams of the Socket adaptor only work in blocking mode, and Unix domain sockets don't
+    // have one anyway
+    ChannelStreams streams = new ChannelStreams(socket);
+    return new OpenedSocket(streams, streams.input, streams.output);
   }
+
   /**
    * Returns a new {@link OpenedSocket} for the given connected {@link Socket} instance.
    */
@@ -52,21 +81,49 @@ public final class OpenedSocket {
     // though in practice I have only observed 40ms).  So we need to enable the TCP_NO_DELAY option
     // here.
     socket.setTcpNoDelay(true);
-    // N.B. order is important here, constructing an ObjectOutputStream requires writing a header
-    // and constructing an ObjectInputStream requires reading that header.  So we always need to
-    // construct the OOS first so we don't deadlock. 
-    ObjectOutputStream output = new ObjectOutputStream(getOutputStream(socket));
-    ObjectInputStream input = new ObjectInputStream(getInputStream(socket));
-    return new OpenedSocket(new Reader(input), new Writer(output));
+    InputStream input = getInputStream(socket);
+    return new OpenedSocket(new StreamSource(input), input, getOutputStream(socket));
   }
-  
+
+  private final Source source;
+  private final InputStream socketInput;
+  private final OutputStream socketOutput;
   private final Reader reader;
   private final Writer writer;
 
-  private OpenedSocket(Reader reader,
-      Writer objectOutputStream) {
+  private OpenedSocket(Source source, InputStream socketInput, OutputStream socketOutput) {
+    this(source, socketInput, socketOutput, new Reader(source), newWriter(socketOutput));
+  }
+
+  private OpenedSocket(Source source, InputStream socketInput, OutputStream socketOutput,
+      Reader reader, Writer writer) {
+    this.source = source;
+    this.socketInput = socketInput;
+    this.socketOutput = socketOutput;
     this.reader = reader;
-    this.writer = objectOutputStream;
+    this.writer = writer;
+  }
+
+  private static Writer newWriter(OutputStream output) {
+    return new Writer(new DataOutputStream(new BufferedOutputStream(output)));
+  }
+
+  /**
+   * Returns a socket that reads from {@code ring} instead, and only reads from this socket to wait
+   * for the writer. This socket's reader must not be used any more.
+   */
+  public OpenedSocket withSharedMemoryReader(SharedMemoryRing ring) {
+    Source ringSource = new RingSource(ring.ringInputStream(socketInput), source);
+    return new OpenedSocket(source, socketInput, socketOutput, new Reader(ringSource), writer);
+  }
+
+  /**
+   * Returns a socket that writes to {@code ring} instead, and only writes to this socket to wake
+   * the reader. This socket's writer must not be used any more.
+   */
+  public OpenedSocket withSharedMemoryWriter(SharedMemoryRing ring) {
+    return new OpenedSocket(
+        source, socketInput, socketOutput, reader, newWriter(ring.outputStream(socketOutput)));
   }
 
   public Reader reader() {
@@ -77,43 +134,140 @@ public final class OpenedSocket {
     return writer;
   }
   
-  /** Reads objects from the socket. */
+  /**
+   * Reads objects from the socket. Each object is a frame: its length as an int, followed by the
+   * encoding of the object by {@link MessageCodec}. The frame buffer is reused, so it only grows
+   * to the size of the largest object.
+   *
+   * <p>Objects can be {@linkplain #read read} one at a time, blocking until each arrives, or, by a
+   * caller that multiplexes many sockets on one thread, {@linkplain #poll polled} whenever the
+   * {@linkplain #selectableChannel channel} is readable.
+   */
   public static final class Reader implements Closeable {
-    private final ObjectInputStream input;
+    private final Source source;
+    /** The bytes that have been read but not yet decoded, from 0 up to the position. */
+    private ByteBuffer buffer = ByteBuffer.allocate(8192);
+    private boolean eof;
 
-    Reader(ObjectInputStream is) {
-      this.input = is;
+    Reader(Source source) {
+      this.source = source;
     }
     
     /** Returns the next object, or {@code null} if we are at EOF. */
     public Serializable read() throws IOException {
-      try {
-        return (Serializable) checkNotNull(input.readObject());
-      } catch (EOFException eof) {
-        // TODO(lukes): The only 'better' way to handle this would be to use an explicit poison pill
-        // marker in the stream.  Otherwise we just have to catch EOFException.
+      while (true) {
+        Serializable object = nextFrame();
+        if (object != null) {
+          return object;
+        }
+        if (eof) {
+          return atEof();
+        }
+        if (source.read(buffer) == -1) {
+          eof = true;
+        }
+      }
+    }
+
+    /**
+     * Returns the next object if it can be read without blocking, or {@code null} if it can't,
+     * which is also the case at EOF. The channel (if any) must be in non-blocking mode.
+     */
+    @Nullable public Serializable poll() throws IOException {
+      Serializable object = nextFrame();
+      if (object != null || eof) {
+        return object;
+      }
+      int read = source.readNow(buffer);
+      if (read == -1) {
+        eof = true;
+        return atEof();
+      }
+      return (read == 0) ? null : nextFrame();
+    }
+
+    /** Returns whether the stream has ended and every object in it has been read. */
+    public boolean isAtEof() {
+      return eof && buffer.position() == 0;
+    }
+
+    /**
+     * Returns the channel to select for {@link SelectionKey#OP_READ} before {@linkplain #poll
+     * polling}, or {@code null} if the stream has no channel and can only be polled periodically.
+     */
+    @Nullable public SelectableChannel selectableChannel() {
+      return source.selectableChannel();
+    }
+
+    /**
+     * Prepares to wait for the {@linkplain #selectableChannel channel} to be readable once
+     * {@link #poll} has returned {@code null}, and returns false if there is no need to, because
+     * there is already something to poll.
+     */
+    public boolean prepareToWait() {
+      return !eof && source.prepareToWait();
+    }
+
+    @Nullable private Serializable atEof() throws EOFException {
+      if (buffer.position() > 0) {
+        throw new EOFException("EOF in the middle of a frame");
+      }
+      // TODO(lukes): The only 'better' way to handle this would be to use an explicit poison pill
+      // marker in the stream.  Otherwise we just have to treat EOF between frames as the end.
+      return null;
+    }
+
+    /** Decodes the frame at the start of the buffer, or returns null if it hasn't all arrived. */
+    @Nullable private Serializable nextFrame() throws IOException {
+      if (buffer.position() < 4) {
+        return null;
+      }
+      int length = buffer.getInt(0);
+      if (length <= 0 || length > MAX_FRAME_LENGTH) {
+        throw new IOException("Invalid frame length: " + length);
+      }
+      if (buffer.position() < 4 + length) {
+        if (buffer.capacity() < 4 + length) {
+          ByteBuffer larger = ByteBuffer.allocate(
+              Math.max(4 + length, Math.min(2 * buffer.capacity(), 4 + MAX_FRAME_LENGTH)));
+          buffer.flip();
+          buffer = larger.put(buffer);
+        }
         return null;
-      } catch (ClassNotFoundException e) {
-        throw new AssertionError(e);
       }
+      Serializable object = checkNotNull(MessageCodec.decode(
+          new DataInputStream(new ByteArrayInputStream(buffer.array(), 4, length))));
+      buffer.flip();
+      buffer.position(4 + length);
+      buffer.compact();
+      return object;
     }
 
     @Override public void close() throws IOException  {
-      input.close();
+      source.close();
     }
   }
 
-  /** Writes objects to the socket. */
+  /**
+   * Writes objects to the socket, in the frames that {@link Reader} reads. Unlike an
+   * {@link java.io.ObjectOutputStream}, nothing refers to an object once it has been written, so
+   * memory use doesn't grow with the number of objects.
+   */
   public static final class Writer implements Closeable, Flushable {
-    private final ObjectOutputStream output;
+    private final DataOutputStream output;
+    private final ByteArrayOutputStream frame = new ByteArrayOutputStream(256);
+    private final DataOutputStream frameOutput = new DataOutputStream(frame);
 
-    Writer(ObjectOutputStream output) {
+    Writer(DataOutputStream output) {
       this.output = output;
     }
 
-    /** Returns the next object, or {@code null} if we are at EOF. */
+    /** Writes the object to the socket. Call {@link #flush} to make sure it is sent. */
     public void write(Serializable serializable) throws IOException {
-      output.writeObject(serializable);
+      frame.reset();
+      MessageCodec.encode(checkNotNull(serializable), frameOutput);
+      output.writeInt(frame.size());
+      frame.writeTo(output);
     }
 
     @Override public void flush() throws IOException {
@@ -124,7 +278,213 @@ public final class OpenedSocket {
       output.close();
     }
   }
-  
+
+  /** Where a {@link Reader} reads its bytes from. */
+  private abstract static class Source implements Closeable {
+    /**
+     * Reads at least one byte into the buffer, which must have room for it, blocking until there
+     * is one. Returns -1 at EOF.
+     */
+    abstract int read(ByteBuffer buffer) throws IOException;
+
+    /** Reads what it can without blocking. Returns 0 if there is nothing to read, and -1 at EOF. */
+    abstract int readNow(ByteBuffer buffer) throws IOException;
+
+    @Nullable SelectableChannel selectableChannel() {
+      return null;
+    }
+
+    boolean prepareToWait() {
+      return true;
+    }
+  }
+
+  /** A stream that can't be selected, so {@link #readNow} relies on its {@code available()}. */
+  private static final class StreamSource extends Source {
+    final InputStream input;
+
+    StreamSource(InputStream input) {
+      this.input = input;
+    }
+
+    @Override int read(ByteBuffer buffer) throws IOException {
+      return read(buffer, buffer.remaining());
+    }
+
+    @Override int readNow(ByteBuffer buffer) throws IOException {
+      int available = input.available();
+      return (available > 0) ? read(buffer, Math.min(available, buffer.remaining())) : 0;
+    }
+
+    private int read(ByteBuffer buffer, int length) throws IOException {
+      int read = input.read(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+      if (read > 0) {
+        buffer.position(buffer.position() + read);
+      }
+      return read;
+    }
+
+    @Override public void close() throws IOException {
+      input.close();
+    }
+  }
+
+  /**
+   * A {@link SharedMemoryRing}, with the socket as its doorbell. The doorbell is only rung when the
+   * reader has {@linkplain #prepareToWait asked for it}, so when the reader is busy nothing but the
+   * ring is touched.
+   */
+  private static final class RingSource extends Source {
+    final RingInputStream ring;
+    final Source doorbell;
+    final ByteBuffer rings = ByteBuffer.allocate(64);
+
+    RingSource(RingInputStream ring, Source doorbell) {
+      this.ring = ring;
+      this.doorbell = doorbell;
+    }
+
+    @Override int read(ByteBuffer buffer) throws IOException {
+      int read = ring.read(buffer.array(), buffer.arrayOffset() + buffer.position(),
+          buffer.remaining());
+      if (read > 0) {
+        buffer.position(buffer.position() + read);
+      }
+      return read;
+    }
+
+    @Override int readNow(ByteBuffer buffer) throws IOException {
+      // the doorbell carries no data, but it has to be drained so that it isn't selected again
+      int rang;
+      do {
+        rings.clear();
+        rang = doorbell.readNow(rings);
+      } while (rang > 0);
+      if (rang == -1) {
+        ring.doorbellClosed();
+      }
+      int read = ring.readNow(buffer.array(), buffer.arrayOffset() + buffer.position(),
+          buffer.remaining());
+      if (read > 0) {
+        buffer.position(buffer.position() + read);
+      }
+      return read;
+    }
+
+    @Override SelectableChannel selectableChannel() {
+      return doorbell.selectableChannel();
+    }
+
+    @Override boolean prepareToWait() {
+      return ring.requestDoorbell();
+    }
+
+    @Override public void close() throws IOException {
+      ring.close();
+    }
+  }
+
+  /**
+   * The streams of a channel, which like {@link #getInputStream(Socket)} and
+   * {@link #getOutputStream(Socket)} only close their own end of the channel. They also work when
+   * the channel is in non-blocking mode, in which case they wait for it with a selector of their
+   * own.
+   */
+  private static final class ChannelStreams extends Source {
+    final SocketChannel channel;
+    @GuardedBy("this") boolean inputShutdown;
+    @GuardedBy("this") boolean outputShutdown;
+
+    final InputStream input = new InputStream() {
+      @Override public int read() throws IOException {
+        byte[] b = new byte[1];
+        return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xFF);
+      }
+
+      @Override public int read(byte[] b, int off, int len) throws IOException {
+        return (len == 0) ? 0 : ChannelStreams.this.read(ByteBuffer.wrap(b, off, len));
+      }
+
+      @Override public void close() throws IOException {
+        synchronized (ChannelStreams.this) {
+          channel.shutdownInput();
+          inputShutdown = true;
+          if (outputShutdown) {
+            channel.close();
+          }
+        }
+      }
+    };
+
+    final OutputStream output = new OutputStream() {
+      @Override public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+      }
+
+      @Override public void write(byte[] b, int off, int len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        while (buffer.hasRemaining()) {
+          if (channel.write(buffer) == 0) {
+            await(SelectionKey.OP_WRITE);
+          }
+        }
+      }
+
+      @Override public void close() throws IOException {
+        synchronized (ChannelStreams.this) {
+          channel.shutdownOutput();
+          outputShutdown = true;
+          if (inputShutdown) {
+            channel.close();
+          }
+        }
+      }
+    };
+
+    ChannelStreams(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    @Override int read(ByteBuffer buffer) throws IOException {
+      while (true) {
+        int read = channel.read(buffer);
+        if (read != 0 || channel.isBlocking()) {
+          return read;
+        }
+        await(SelectionKey.OP_READ);
+      }
+    }
+
+    @Override int readNow(ByteBuffer buffer) throws IOException {
+      checkState(!channel.isBlocking(), "Polling a channel in blocking mode");
+      return channel.read(buffer);
+    }
+
+    @Override SelectableChannel selectableChannel() {
+      return channel;
+    }
+
+    /** Waits for a channel in non-blocking mode to be ready for {@code op}. */
+    private void await(int op) throws IOException {
+      if (channel.isBlocking()) {
+        return;
+      }
+      // this is only for the rare reads and writes that can't be done at once, so the selector
+      // isn't worth keeping
+      Selector selector = Selector.open();
+      try {
+        channel.register(selector, op);
+        selector.select();
+      } finally {
+        selector.close();
+      }
+    }
+
+    @Override public void close() throws IOException {
+      input.close();
+    }
+  }
+
   /**
    * Returns an {@link OutputStream} for the socket, but unlike {@link Socket#getOutputStream()}
    * when you call {@link OutputStream#close() close} it only closes the output end of the socket
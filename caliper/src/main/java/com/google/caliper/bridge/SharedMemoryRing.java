@@ -0,0 +1,411 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.bridge;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nullable;
+
+/**
+ * A single-producer, single-consumer ring of bytes in a memory-mapped file, which lets a worker
+ * send messages to the runner without a system call for each one.
+ *
+ * <p>The worker {@linkplain #create creates} the ring and the runner {@linkplain #open opens} it
+ * once it knows the path of the file, which it can then delete. The {@linkplain #outputStream
+ * output stream} makes what was written visible when it is flushed. The {@linkplain #inputStream
+ * input stream} spins briefly when the ring is empty, and then asks to be woken and blocks on a
+ * byte from a "doorbell" stream, which is the worker's socket. So the writer only makes a system
+ * call when the reader is idle, and if the worker dies the doorbell reaches EOF.
+ *
+ * <p>The two processes only see each other's writes in order with memory fences, which Java 7
+ * has no API for. They are reached by reflection, from {@code VarHandle} on JDK 9 and later or
+ * from {@code sun.misc.Unsafe} on JDK 8, and on VMs with neither {@link #isSupported} is false
+ * and workers send their messages over the socket.
+ */
+public final class SharedMemoryRing {
+  /** The default number of bytes in the ring, which holds a great many measurements. */
+  public static final int DEFAULT_CAPACITY = 1 << 20;
+
+  // Each field is in a cache line of its own, so that the two ends don't contend for one.
+  private static final int WRITE_POSITION = 0;
+  private static final int READ_POSITION = 64;
+  private static final int READER_WAITING = 128;
+  private static final int CLOSED = 192;
+  private static final int DATA = 256;
+
+  /** The number of times to check an empty (or full) ring before blocking (or parking). */
+  private static final int SPINS = 100;
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  /** Orders loads before later loads and stores, or null if this VM offers no fences. */
+  @Nullable private static final MethodHandle LOAD_FENCE;
+  /** Orders loads and stores before later stores. */
+  @Nullable private static final MethodHandle STORE_FENCE;
+  /** Orders loads and stores before later loads and stores. */
+  @Nullable private static final MethodHandle FULL_FENCE;
+
+  static {
+    MethodHandle[] fences = varHandleFences();
+    if (fences == null) {
+      fences = unsafeFences();
+    }
+    LOAD_FENCE = (fences == null) ? null : fences[0];
+    STORE_FENCE = (fences == null) ? null : fences[1];
+    FULL_FENCE = (fences == null) ? null : fences[2];
+  }
+
+  private final File file;
+  private final MappedByteBuffer buffer;
+  private final int capacity;
+
+  private SharedMemoryRing(File file, MappedByteBuffer buffer) {
+    this.file = file;
+    this.buffer = buffer;
+    this.capacity = buffer.capacity() - DATA;
+  }
+
+  /** Returns whether this VM offers the memory fences that a ring needs. */
+  public static boolean isSupported() {
+    return FULL_FENCE != null;
+  }
+
+  /** Creates a ring with room for {@code capacity} bytes in a new temporary file. */
+  public static SharedMemoryRing create(int capacity) throws IOException {
+    checkState(isSupported(), "Shared memory rings are not supported by this VM");
+    checkArgument(capacity > 0, "capacity must be positive: %s", capacity);
+    File file = File.createTempFile("caliper-worker-", ".ring");
+    file.deleteOnExit();
+    return new SharedMemoryRing(file, map(file, DATA + capacity));
+  }
+
+  /** Opens a ring that was {@linkplain #create created} by another process. */
+  public static SharedMemoryRing open(File file) throws IOException {
+    checkState(isSupported(), "Shared memory rings are not supported by this VM");
+    long length = file.length();
+    if (length <= DATA || length > Integer.MAX_VALUE) {
+      throw new IOException(String.format("%s is not a ring (length %d)", file, length));
+    }
+    return new SharedMemoryRing(file, map(file, (int) length));
+  }
+
+  private static MappedByteBuffer map(File file, int length) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    try {
+      randomAccessFile.setLength(length);
+      // the mapping stays valid once the file is closed
+      return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  /** The file that backs the ring. */
+  public File file() {
+    return file;
+  }
+
+  /**
+   * Returns the end of the ring to write to. Closing it closes {@code doorbell} too, which wakes
+   * the reader if it is waiting.
+   */
+  public OutputStream outputStream(OutputStream doorbell) {
+    return new RingOutputStream(buffer.duplicate(), doorbell);
+  }
+
+  /**
+   * Returns the end of the ring to read from, which reaches EOF once the writer has been closed,
+   * or once the ring is empty and {@code doorbell} has reached EOF.
+   */
+  public InputStream inputStream(InputStream doorbell) {
+    return ringInputStream(doorbell);
+  }
+
+  /** Like {@link #inputStream}, but can also be read without blocking. */
+  RingInputStream ringInputStream(InputStream doorbell) {
+    return new RingInputStream(buffer.duplicate(), doorbell);
+  }
+
+  private final class RingOutputStream extends OutputStream {
+    final ByteBuffer ring;
+    final OutputStream doorbell;
+    final byte[] singleByte = new byte[1];
+    long writePosition;
+    long publishedPosition;
+    long readPosition;
+
+    RingOutputStream(ByteBuffer ring, OutputStream doorbell) {
+      this.ring = ring;
+      this.doorbell = doorbell;
+      this.writePosition = ring.getLong(WRITE_POSITION);
+      this.publishedPosition = writePosition;
+    }
+
+    @Override public void write(int b) throws IOException {
+      singleByte[0] = (byte) b;
+      write(singleByte, 0, 1);
+    }
+
+    @Override public void write(byte[] bytes, int offset, int length) throws IOException {
+      while (length > 0) {
+        int free = awaitSpace();
+        int index = (int) (writePosition % capacity);
+        int count = Math.min(length, Math.min(free, capacity - index));
+        ring.position(DATA + index);
+        ring.put(bytes, offset, count);
+        writePosition += count;
+        offset += count;
+        length -= count;
+      }
+    }
+
+    /** Returns the number of free bytes, waiting for the reader to make room if there are none. */
+    private int awaitSpace() throws IOException {
+      long parkNanos = 1;
+      for (int i = 0; ; i++) {
+        int free = (int) (capacity - (writePosition - readPosition));
+        if (free > 0) {
+          return free;
+        }
+        if (i == 0) {
+          // the reader can't make room until it can see what we have written
+          publish();
+        } else if (i < SPINS) {
+          Thread.yield();
+        } else {
+          LockSupport.parkNanos(parkNanos);
+          parkNanos = Math.min(2 * parkNanos, MAX_PARK_NANOS);
+        }
+        readPosition = ring.getLong(READ_POSITION);
+        fence(LOAD_FENCE);
+      }
+    }
+
+    private void publish() throws IOException {
+      if (writePosition == publishedPosition) {
+        return;
+      }
+      fence(STORE_FENCE);
+      ring.putLong(WRITE_POSITION, writePosition);
+      publishedPosition = writePosition;
+      // the reader sets its flag and then checks for data, so one of us sees the other
+      fence(FULL_FENCE);
+      if (ring.getInt(READER_WAITING) != 0) {
+        doorbell.write(0);
+        doorbell.flush();
+      }
+    }
+
+    @Override public void flush() throws IOException {
+      publish();
+    }
+
+    @Override public void close() throws IOException {
+      try {
+        publish();
+        fence(STORE_FENCE);
+        ring.putInt(CLOSED, 1);
+      } finally {
+        doorbell.close();
+      }
+    }
+  }
+
+  /**
+   * The end of the ring to read from. Besides blocking like any {@link InputStream}, it can be read
+   * {@linkplain #readNow without blocking}, by a caller that waits for the doorbell itself.
+   */
+  final class RingInputStream extends InputStream {
+    final ByteBuffer ring;
+    final InputStream doorbell;
+    final byte[] singleByte = new byte[1];
+    long readPosition;
+    boolean doorbellClosed;
+
+    RingInputStream(ByteBuffer ring, InputStream doorbell) {
+      this.ring = ring;
+      this.doorbell = doorbell;
+      this.readPosition = ring.getLong(READ_POSITION);
+    }
+
+    @Override public int read() throws IOException {
+      return (read(singleByte, 0, 1) == -1) ? -1 : (singleByte[0] & 0xFF);
+    }
+
+    @Override public int read(byte[] bytes, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      long available = awaitData();
+      return (available == 0) ? -1 : copy(bytes, offset, length, available);
+    }
+
+    /**
+     * Reads whatever has been published, without waiting for more. Returns 0 if there is nothing to
+     * read yet, and -1 at EOF.
+     */
+    int readNow(byte[] bytes, int offset, int length) {
+      ring.putInt(READER_WAITING, 0);
+      long available = published() - readPosition;
+      if (available == 0) {
+        if (!isClosed()) {
+          return 0;
+        }
+        // anything written before closing was published first
+        fence(LOAD_FENCE);
+        available = published() - readPosition;
+        if (available == 0) {
+          return -1;
+        }
+      }
+      return (length == 0) ? 0 : copy(bytes, offset, length, available);
+    }
+
+    /**
+     * Asks the writer to ring the doorbell when it next publishes, before the caller waits for it.
+     * Returns false, without asking, if there is already something to {@linkplain #readNow read}.
+     */
+    boolean requestDoorbell() {
+      ring.putInt(READER_WAITING, 1);
+      fence(FULL_FENCE);
+      if (published() != readPosition || isClosed()) {
+        ring.putInt(READER_WAITING, 0);
+        return false;
+      }
+      return true;
+    }
+
+    /** Records that the doorbell has reached EOF, for a caller that reads the doorbell itself. */
+    void doorbellClosed() {
+      doorbellClosed = true;
+    }
+
+    private int copy(byte[] bytes, int offset, int length, long available) {
+      int index = (int) (readPosition % capacity);
+      int count = (int) Math.min(length, Math.min(available, capacity - index));
+      ring.position(DATA + index);
+      ring.get(bytes, offset, count);
+      readPosition += count;
+      // the writer may reuse the bytes once it sees that we have read them
+      fence(STORE_FENCE);
+      ring.putLong(READ_POSITION, readPosition);
+      return count;
+    }
+
+    @Override public int available() {
+      return (int) Math.min(Integer.MAX_VALUE, published() - readPosition);
+    }
+
+    /** Returns the number of bytes that can be read, which is 0 only at EOF. */
+    private long awaitData() throws IOException {
+      for (int i = 0; ; i++) {
+        long available = published() - readPosition;
+        if (available > 0) {
+          return available;
+        }
+        if (isClosed()) {
+          // anything written before closing was published first
+          fence(LOAD_FENCE);
+          available = published() - readPosition;
+          return available;
+        }
+        if (i < SPINS) {
+          Thread.yield();
+          continue;
+        }
+        if (requestDoorbell()) {
+          doorbellClosed = doorbell.read() == -1;
+          ring.putInt(READER_WAITING, 0);
+        }
+        i = 0;
+      }
+    }
+
+    private boolean isClosed() {
+      return ring.getInt(CLOSED) != 0 || doorbellClosed;
+    }
+
+    private long published() {
+      long published = ring.getLong(WRITE_POSITION);
+      fence(LOAD_FENCE);
+      return published;
+    }
+
+    @Override public void close() throws IOException {
+      doorbell.close();
+    }
+  }
+
+  private static void fence(MethodHandle fence) {
+    try {
+      fence.invokeExact();
+    } catch (Throwable e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /** Returns the load, store and full fences of {@code VarHandle}, or null before JDK 9. */
+  @Nullable private static MethodHandle[] varHandleFences() {
+    try {
+      Class<?> varHandle = Class.forName("java.lang.invoke.VarHandle");
+      MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+      MethodType type = MethodType.methodType(void.class);
+      return new MethodHandle[] {
+          lookup.findStatic(varHandle, "acquireFence", type),
+          lookup.findStatic(varHandle, "releaseFence", type),
+          lookup.findStatic(varHandle, "fullFence", type)};
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  /** Returns the load, store and full fences of {@code sun.misc.Unsafe}, or null before JDK 8. */
+  @Nullable private static MethodHandle[] unsafeFences() {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field field = unsafeClass.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      Object unsafe = field.get(null);
+      MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+      MethodType type = MethodType.methodType(void.class);
+      return new MethodHandle[] {
+          lookup.findVirtual(unsafeClass, "loadFence", type).bindTo(unsafe),
+          lookup.findVirtual(unsafeClass, "storeFence", type).bindTo(unsafe),
+          lookup.findVirtual(unsafeClass, "fullFence", type).bindTo(unsafe)};
+    } catch (ReflectiveOperationException e) {
+      return null;
+    } catch (RuntimeException e) {
+      // the VM doesn't let us at it
+      return null;
+    }
+  }
+}
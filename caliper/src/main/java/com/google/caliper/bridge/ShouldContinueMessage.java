@@ -16,21 +16,36 @@
 
 package com.google.caliper.bridge;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import java.io.Serializable;
 
 /**
  * A message sent from the runner to the worker to indicate whether or not measuring should 
  * continue.
+ *
+ * <p>If measuring should continue, the message also carries a measurement budget: the number of
+ * measurements that the worker should take and report before it waits for the next message. A
+ * budget of 1 means that the runner acknowledges every measurement individually.
  */
 public class ShouldContinueMessage implements Serializable {
   private static final long serialVersionUID = 1L;
 
   private final boolean shouldContinue;
   private final boolean warmupComplete;
+  private final int measurementBudget;
 
   public ShouldContinueMessage(boolean shouldContinue, boolean warmupComplete) {
+    this(shouldContinue, warmupComplete, 1);
+  }
+
+  public ShouldContinueMessage(
+      boolean shouldContinue, boolean warmupComplete, int measurementBudget) {
+    checkArgument(measurementBudget > 0, "measurementBudget must be positive: %s",
+        measurementBudget);
     this.shouldContinue = shouldContinue;
     this.warmupComplete = warmupComplete;
+    this.measurementBudget = measurementBudget;
   }
   
   public boolean shouldContinue() {
@@ -49,4 +64,12 @@ public class ShouldContinueMessage implements Serializable {
   public boolean isWarmupComplete() {
     return warmupComplete;
   }
+
+  /**
+   * Returns the number of measurements that the worker should report before it waits for the next
+   * {@link ShouldContinueMessage}.
+   */
+  public int measurementBudget() {
+    return measurementBudget;
+  }
 }
@@ -18,32 +18,55 @@ package com.google.caliper.bridge;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+
 import java.io.Serializable;
 import java.util.UUID;
 
+import javax.annotation.Nullable;
+
 /**
- * A message sent from the worker to the runner immediately after startup to identify the trial
- * that it is performing.
+ * A message sent from the worker to the runner immediately after startup to identify itself, so
+ * that the runner can hand the connection to the trial that claims the worker.
  */
 public final class StartupAnnounceMessage implements Serializable {
   private static final long serialVersionUID = 1L;
 
-  private final UUID trialId;
+  private final UUID workerId;
+  @Nullable private final String sharedMemoryRing;
+
+  public StartupAnnounceMessage(UUID workerId) {
+    this(workerId, null);
+  }
+
+  /**
+   * @param sharedMemoryRing the path of the {@link SharedMemoryRing} that the worker will send all
+   *     further messages through, or {@code null} if it uses the socket
+   */
+  public StartupAnnounceMessage(UUID workerId, @Nullable String sharedMemoryRing) {
+    this.workerId = checkNotNull(workerId);
+    this.sharedMemoryRing = sharedMemoryRing;
+  }
 
-  public StartupAnnounceMessage(UUID trialId) {
-    this.trialId = checkNotNull(trialId);
+  public UUID workerId() {
+    return workerId;
   }
 
-  public UUID trialId() {
-    return trialId;
+  public Optional<String> sharedMemoryRing() {
+    return Optional.fromNullable(sharedMemoryRing);
   }
 
   @Override public int hashCode() {
-    return trialId.hashCode();
+    return Objects.hashCode(workerId, sharedMemoryRing);
   }
 
   @Override public boolean equals(Object obj) {
-    return obj instanceof StartupAnnounceMessage
-        && trialId.equals(((StartupAnnounceMessage) obj).trialId);
+    if (obj instanceof StartupAnnounceMessage) {
+      StartupAnnounceMessage that = (StartupAnnounceMessage) obj;
+      return this.workerId.equals(that.workerId)
+          && Objects.equal(this.sharedMemoryRing, that.sharedMemoryRing);
+    }
+    return false;
   }
 }
@@ -16,12 +16,16 @@
 
 package com.google.caliper.bridge;
 
+import com.google.caliper.model.LatencyHistogram;
 import com.google.caliper.model.Measurement;
 import com.google.common.base.Objects;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 
 import java.io.Serializable;
 
+import javax.annotation.Nullable;
+
 /**
  * A message signaling that the timing interval has ended in the worker.
  */
@@ -29,21 +33,51 @@ public class StopMeasurementLogMessage extends LogMessage implements Serializabl
   private static final long serialVersionUID = 1L;
 
   private final ImmutableList<Measurement> measurements;
+  @Nullable private final LatencyHistogram latencyHistogram;
+  @Nullable private final VmActivity vmActivity;
 
   public StopMeasurementLogMessage(Iterable<Measurement> measurements) {
+    this(measurements, null, null);
+  }
+
+  public StopMeasurementLogMessage(
+      Iterable<Measurement> measurements, @Nullable LatencyHistogram latencyHistogram) {
+    this(measurements, latencyHistogram, null);
+  }
+
+  public StopMeasurementLogMessage(Iterable<Measurement> measurements,
+      @Nullable LatencyHistogram latencyHistogram, @Nullable VmActivity vmActivity) {
     this.measurements = ImmutableList.copyOf(measurements);
+    this.latencyHistogram = latencyHistogram;
+    this.vmActivity = vmActivity;
   }
 
   public ImmutableList<Measurement> measurements() {
     return measurements;
   }
 
+  /**
+   * Returns the latencies of the individual invocations that make up the measurements, if the
+   * worker recorded them.
+   */
+  public Optional<LatencyHistogram> latencyHistogram() {
+    return Optional.fromNullable(latencyHistogram);
+  }
+
+  /**
+   * Returns the garbage collection and compilation that occurred while the measurements were
+   * taken, if the worker VM reports them.
+   */
+  public Optional<VmActivity> vmActivity() {
+    return Optional.fromNullable(vmActivity);
+  }
+
   @Override public void accept(LogMessageVisitor visitor) {
     visitor.visit(this);
   }
 
   @Override public int hashCode() {
-    return Objects.hashCode(measurements);
+    return Objects.hashCode(measurements, latencyHistogram, vmActivity);
   }
 
   @Override
@@ -52,7 +86,9 @@ public class StopMeasurementLogMessage extends LogMessage implements Serializabl
       return true;
     } else if (obj instanceof StopMeasurementLogMessage) {
       StopMeasurementLogMessage that = (StopMeasurementLogMessage) obj;
-      return this.measurements.equals(that.measurements);
+      return this.measurements.equals(that.measurements)
+          && Objects.equal(this.latencyHistogram, that.latencyHistogram)
+          && Objects.equal(this.vmActivity, that.vmActivity);
     } else {
       return false;
     }
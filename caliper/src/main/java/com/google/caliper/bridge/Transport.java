@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.bridge;
+
+/**
+ * How workers send messages to the runner, as chosen by the {@code runner.transport} option.
+ * Workers always fall back to loopback TCP when their VM can't use the chosen transport.
+ */
+public enum Transport {
+  /** A loopback TCP connection. */
+  TCP("tcp"),
+  /** A Unix domain socket, which needs JDK 16 or later in both the runner and the worker. */
+  UNIX("unix"),
+  /**
+   * A {@link SharedMemoryRing} for the messages from the worker, along with a Unix domain socket
+   * (or TCP connection) for the messages to the worker and to wake the runner when it is idle.
+   * The ring needs JDK 8 or later in both the runner and the worker.
+   */
+  SHARED_MEMORY("shared-memory");
+
+  private final String optionValue;
+
+  Transport(String optionValue) {
+    this.optionValue = optionValue;
+  }
+
+  /** The value of the {@code runner.transport} option that selects this transport. */
+  public String optionValue() {
+    return optionValue;
+  }
+
+  /** Returns the transport for a value of the {@code runner.transport} option. */
+  public static Transport forOptionValue(String optionValue) {
+    for (Transport transport : values()) {
+      if (transport.optionValue.equals(optionValue)) {
+        return transport;
+      }
+    }
+    throw new IllegalArgumentException("Unknown transport: " + optionValue);
+  }
+}
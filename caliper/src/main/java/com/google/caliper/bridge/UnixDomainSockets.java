@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.bridge;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.base.Throwables;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import javax.annotation.Nullable;
+
+/**
+ * Opens AF_UNIX sockets, which the JDK only supports from version 16. They are reached by
+ * reflection, so that caliper still runs on older VMs, where {@link #isSupported} is false.
+ */
+public final class UnixDomainSockets {
+  /** The prefix of a worker address that is the path of a Unix domain socket. */
+  public static final String ADDRESS_PREFIX = "unix:";
+
+  @Nullable private static final Method ADDRESS_OF;
+  @Nullable private static final Method OPEN_SERVER_CHANNEL;
+  @Nullable private static final ProtocolFamily UNIX;
+
+  static {
+    Method addressOf;
+    Method openServerChannel;
+    ProtocolFamily unix;
+    try {
+      addressOf = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+      openServerChannel = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+      unix = StandardProtocolFamily.valueOf("UNIX");
+    } catch (ClassNotFoundException e) {
+      addressOf = null;
+      openServerChannel = null;
+      unix = null;
+    } catch (NoSuchMethodException e) {
+      addressOf = null;
+      openServerChannel = null;
+      unix = null;
+    } catch (IllegalArgumentException e) {
+      // there is no UNIX protocol family
+      addressOf = null;
+      openServerChannel = null;
+      unix = null;
+    }
+    ADDRESS_OF = addressOf;
+    OPEN_SERVER_CHANNEL = openServerChannel;
+    UNIX = unix;
+  }
+
+  private UnixDomainSockets() {}
+
+  /** Returns whether this VM can open Unix domain sockets. */
+  public static boolean isSupported() {
+    return ADDRESS_OF != null;
+  }
+
+  /** Returns a server channel that is bound to a new socket file at {@code path}. */
+  public static ServerSocketChannel bind(File path) throws IOException {
+    checkState(isSupported(), "Unix domain sockets are not supported by this VM");
+    ServerSocketChannel channel =
+        (ServerSocketChannel) invoke(OPEN_SERVER_CHANNEL, null, UNIX);
+    try {
+      channel.bind(address(path));
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    return channel;
+  }
+
+  /** Returns a channel that is connected to the socket at {@code path}. */
+  public static SocketChannel connect(File path) throws IOException {
+    checkState(isSupported(), "Unix domain sockets are not supported by this VM");
+    return SocketChannel.open(address(path));
+  }
+
+  private static SocketAddress address(File path) throws IOException {
+    return (SocketAddress) invoke(ADDRESS_OF, null, path.getPath());
+  }
+
+  private static Object invoke(Method method, @Nullable Object target, Object argument)
+      throws IOException {
+    try {
+      return method.invoke(target, argument);
+    } catch (IllegalAccessException e) {
+      throw new AssertionError(e);
+    } catch (InvocationTargetException e) {
+      Throwables.propagateIfPossible(e.getCause(), IOException.class);
+      throw new AssertionError(e);
+    }
+  }
+}
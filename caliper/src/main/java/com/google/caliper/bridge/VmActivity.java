@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.bridge;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+
+import java.io.Serializable;
+
+/**
+ * The garbage collection and compilation that occurred in the worker VM while a measurement was
+ * taken, as reported by its {@link java.lang.management.GarbageCollectorMXBean}s and its
+ * {@link java.lang.management.CompilationMXBean}. Unlike the lines that the VM prints, these are
+ * known to belong to the measurement they are sent with.
+ */
+public final class VmActivity implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final long gcCount;
+  private final long gcMillis;
+  private final long compilationMillis;
+
+  public VmActivity(long gcCount, long gcMillis, long compilationMillis) {
+    checkArgument(gcCount >= 0, "gcCount must not be negative: %s", gcCount);
+    checkArgument(gcMillis >= 0, "gcMillis must not be negative: %s", gcMillis);
+    checkArgument(compilationMillis >= 0,
+        "compilationMillis must not be negative: %s", compilationMillis);
+    this.gcCount = gcCount;
+    this.gcMillis = gcMillis;
+    this.compilationMillis = compilationMillis;
+  }
+
+  /** Returns the number of collections, summed over all of the VM's collectors. */
+  public long gcCount() {
+    return gcCount;
+  }
+
+  /** Returns the approximate time spent in collections, summed over all collectors. */
+  public long gcMillis() {
+    return gcMillis;
+  }
+
+  /** Returns the approximate time spent compiling, summed over all compiler threads. */
+  public long compilationMillis() {
+    return compilationMillis;
+  }
+
+  public boolean gcOccurred() {
+    return gcCount > 0;
+  }
+
+  /**
+   * Returns whether anything was compiled. The VM only reports compilation time in milliseconds, so
+   * a single compilation that takes much less than that may go unnoticed.
+   */
+  public boolean compilationOccurred() {
+    return compilationMillis > 0;
+  }
+
+  @Override public int hashCode() {
+    return Objects.hashCode(gcCount, gcMillis, compilationMillis);
+  }
+
+  @Override public boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    } else if (obj instanceof VmActivity) {
+      VmActivity that = (VmActivity) obj;
+      return this.gcCount == that.gcCount
+          && this.gcMillis == that.gcMillis
+          && this.compilationMillis == that.compilationMillis;
+    } else {
+      return false;
+    }
+  }
+
+  @Override public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("gcCount", gcCount)
+        .add("gcMillis", gcMillis)
+        .add("compilationMillis", compilationMillis)
+        .toString();
+  }
+}
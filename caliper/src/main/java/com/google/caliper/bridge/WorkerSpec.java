@@ -24,8 +24,8 @@ import java.io.Serializable;
 import java.util.UUID;
 
 /**
- * This object is sent from the parent process to the child to tell it what to do. If the child
- * does not do it, it will not get its allowance this week.
+ * This object is sent from the parent process to the child over the socket to tell it what to do.
+ * If the child does not do it, it will not get its allowance this week.
  */
 public final class WorkerSpec implements Serializable {
   private static final long serialVersionUID = 1L;
@@ -40,20 +40,17 @@ public final class WorkerSpec implements Serializable {
    * The names of the benchmark method parameters so that the method can be uniquely identified.
    */
   public final ImmutableList<Class<?>> methodParameterClasses;
-  public final int port;
 
   public WorkerSpec(
       UUID trialId,
       Class<?> workerClass,
       ImmutableMap<String, String> workerOptions,
       BenchmarkSpec benchmarkSpec,
-      ImmutableList<Class<?>> methodParameterClasses,
-      int port) {
+      ImmutableList<Class<?>> methodParameterClasses) {
     this.trialId = trialId;
     this.workerClass = workerClass;
     this.workerOptions = workerOptions;
     this.benchmarkSpec = benchmarkSpec;
     this.methodParameterClasses = methodParameterClasses;
-    this.port = port;
   }
 }
@@ -84,7 +84,7 @@ public final class VmConfig {
   }
 
   public ImmutableSet<String> workerProcessArgs() {
-    return platform.workerProcessArgs();
+    return platform.workerProcessArgs(vmHome);
   }
 
   public ImmutableSet<String> commonInstrumentVmArgs() {
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.memory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A set of objects compared by identity that several threads can add to at once. Objects are
+ * spread over a number of {@link IdentitySet}s by hash code, and each of those is locked only
+ * while an object is added to it, so threads rarely wait for each other. Objects can't be removed.
+ */
+final class ConcurrentIdentitySet {
+  private final IdentitySet[] stripes;
+  private final int shift;
+
+  /**
+   * Creates a set for the given number of threads, with enough stripes that threads adding at the
+   * same time seldom contend.
+   */
+  ConcurrentIdentitySet(int concurrencyLevel) {
+    checkArgument(concurrencyLevel > 0, "concurrencyLevel must be positive: %s", concurrencyLevel);
+    int stripeBits = 32 - Integer.numberOfLeadingZeros(Math.min(concurrencyLevel, 1 << 12) * 8 - 1);
+    this.stripes = new IdentitySet[1 << stripeBits];
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new IdentitySet();
+    }
+    // stripes are picked by the high bits of the hash, since each stripe indexes by the low bits
+    this.shift = 32 - stripeBits;
+  }
+
+  /** Adds the given object, and returns true if it wasn't already in the set. */
+  boolean add(Object object) {
+    checkNotNull(object);
+    IdentitySet stripe = stripes[IdentitySet.hash(object) >>> shift];
+    synchronized (stripe) {
+      return stripe.add(object);
+    }
+  }
+
+  int size() {
+    int size = 0;
+    for (IdentitySet stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.size();
+      }
+    }
+    return size;
+  }
+}
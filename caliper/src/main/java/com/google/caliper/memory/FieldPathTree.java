@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.memory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.caliper.memory.ObjectGraphMeasurer.PathFootprint;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * The paths of fields and array elements through which the objects of a graph are first reached,
+ * with the number of objects and bytes reached through each. Paths are the same for every element
+ * of an array, so the objects of a collection share a few paths however large it is.
+ *
+ * <p>The tree is kept small in two ways. A path that would go through a field that it has gone
+ * through already folds back to where it first did, so that a linked list of a million nodes has
+ * one path for its nodes rather than a million; such a field is shown with a {@code *}, as in
+ * {@code root.first.next*.item}. And once the tree holds its maximum number of paths, objects
+ * reached through a new path are counted in the longest path that is already tracked.
+ */
+final class FieldPathTree {
+  /** The segment of a path that leads from an array to one of its elements. */
+  private static final Object ARRAY_ELEMENT = new Object();
+
+  static final int DEFAULT_MAX_PATHS = 1 << 16;
+
+  private final int maxPaths;
+  private final List<Node> nodes = Lists.newArrayList();
+  private final Node root;
+
+  FieldPathTree(int maxPaths) {
+    checkArgument(maxPaths > 0, "maxPaths must be positive: %s", maxPaths);
+    this.maxPaths = maxPaths;
+    this.root = new Node(null, null);
+    nodes.add(root);
+  }
+
+  /** Returns the path of the root object. */
+  Node root() {
+    return root;
+  }
+
+  /** Returns the path that leads from the object at the given path through a field. */
+  Node field(Node parent, Field field) {
+    return child(parent, field);
+  }
+
+  /** Returns the path that leads from the array at the given path to its elements. */
+  Node arrayElement(Node parent) {
+    return child(parent, ARRAY_ELEMENT);
+  }
+
+  private Node child(Node parent, Object segment) {
+    Node child = parent.children.get(segment);
+    if (child != null) {
+      return child;
+    }
+    for (Node ancestor = parent; ancestor.parent != null; ancestor = ancestor.parent) {
+      if (ancestor.segment.equals(segment)) {
+        ancestor.recursive = true;
+        // remember the fold, so that the ancestors aren't searched again
+        parent.children.put(segment, ancestor);
+        return ancestor;
+      }
+    }
+    if (nodes.size() >= maxPaths) {
+      return parent;
+    }
+    child = new Node(parent, segment);
+    parent.children.put(segment, child);
+    nodes.add(child);
+    return child;
+  }
+
+  /** Returns the given number of paths with the most bytes, heaviest first. */
+  ImmutableList<PathFootprint> heaviestPaths(int count) {
+    ImmutableList.Builder<PathFootprint> paths = ImmutableList.builder();
+    for (Node node : BY_WEIGHT.greatestOf(nodes, count)) {
+      if (node.objects > 0) {
+        paths.add(new PathFootprint(node.toString(), Ints.checkedCast(node.objects), node.bytes));
+      }
+    }
+    return paths.build();
+  }
+
+  private static final Ordering<Node> BY_WEIGHT = new Ordering<Node>() {
+    @Override public int compare(Node left, Node right) {
+      int result = Longs.compare(left.bytes, right.bytes);
+      return (result != 0) ? result : Longs.compare(left.objects, right.objects);
+    }
+  };
+
+  /** A path, and the objects first reached through it. */
+  static final class Node {
+    @Nullable private final Node parent;
+    /** The {@link Field} or {@link #ARRAY_ELEMENT} that leads here from the parent. */
+    @Nullable private final Object segment;
+    private final Map<Object, Node> children = Maps.newHashMapWithExpectedSize(4);
+    private boolean recursive;
+    long objects;
+    long bytes;
+
+    private Node(@Nullable Node parent, @Nullable Object segment) {
+      this.parent = parent;
+      this.segment = segment;
+    }
+
+    @Override public String toString() {
+      Deque<Node> path = new ArrayDeque<Node>();
+      for (Node node = this; node.parent != null; node = node.parent) {
+        path.addFirst(node);
+      }
+      StringBuilder sb = new StringBuilder("root");
+      for (Node node : path) {
+        if (node.segment == ARRAY_ELEMENT) {
+          sb.append("[]");
+        } else {
+          sb.append('.').append(((Field) node.segment).getName());
+        }
+        if (node.recursive) {
+          sb.append('*');
+        }
+      }
+      return sb.toString();
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.memory;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A set of objects compared by identity, stored in a single open-addressing table with linear
+ * probing. Unlike a set backed by an {@link java.util.IdentityHashMap}, adding an object doesn't
+ * allocate, and the table takes one reference per slot, which matters when measuring graphs of
+ * tens of millions of objects. Objects can't be removed.
+ */
+final class IdentitySet {
+  private static final int INITIAL_CAPACITY = 1 << 10;
+
+  private Object[] table = new Object[INITIAL_CAPACITY];
+  private int size = 0;
+
+  /** Adds the given object, and returns true if it wasn't already in the set. */
+  boolean add(Object object) {
+    checkNotNull(object);
+    Object[] table = this.table;
+    int mask = table.length - 1;
+    int index = hash(object) & mask;
+    for (Object current = table[index]; current != null; current = table[index]) {
+      if (current == object) {
+        return false;
+      }
+      index = (index + 1) & mask;
+    }
+    table[index] = object;
+    // keep the table at most half full, so probe sequences stay short
+    if (++size > table.length / 2) {
+      resize();
+    }
+    return true;
+  }
+
+  int size() {
+    return size;
+  }
+
+  private void resize() {
+    Object[] oldTable = table;
+    Object[] newTable = new Object[oldTable.length * 2];
+    int mask = newTable.length - 1;
+    for (Object object : oldTable) {
+      if (object != null) {
+        int index = hash(object) & mask;
+        while (newTable[index] != null) {
+          index = (index + 1) & mask;
+        }
+        newTable[index] = object;
+      }
+    }
+    table = newTable;
+  }
+
+  static int hash(Object object) {
+    // identity hash codes are not well distributed in their low bits on every VM
+    int h = System.identityHashCode(object) * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
@@ -25,12 +25,9 @@ import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.ArrayDeque;
-import java.util.Collections;
 import java.util.Deque;
 import java.util.EnumSet;
-import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nonnull;
@@ -97,6 +94,8 @@ public final class ObjectExplorer {
    */
   public static <T> T exploreObject(Object rootObject,
       ObjectVisitor<T> visitor, EnumSet<Feature> features) {
+    boolean visitPrimitives = features.contains(Feature.VISIT_PRIMITIVES);
+    boolean visitNull = features.contains(Feature.VISIT_NULL);
     Deque<Chain> stack = new ArrayDeque<Chain>(32);
     if (rootObject != null) stack.push(Chain.root(rootObject));
 
@@ -114,19 +113,24 @@ public final class ObjectExplorer {
       @Nonnull Object value = chain.getValue();
       Class<?> valueClass = value.getClass();
       if (valueClass.isArray()) {
-        boolean isPrimitive = valueClass.getComponentType().isPrimitive();
+        if (valueClass.getComponentType().isPrimitive()) {
+          // only box the elements if the visitor wants to see them
+          if (visitPrimitives) {
+            for (int i = Array.getLength(value) - 1; i >= 0; i--) {
+              visitor.visit(chain.appendArrayIndex(i, Array.get(value, i)));
+            }
+          }
+          continue;
+        }
         /*
          * Since we push paths to explore in a stack, we push references found in the array in
          * reverse order, so when we pop them, they will be in the array's order.
          */
-        for (int i = Array.getLength(value) - 1; i >= 0; i--) {
-          Object childValue = Array.get(value, i);
-          if (isPrimitive) {
-            if (features.contains(Feature.VISIT_PRIMITIVES)) {
-              visitor.visit(chain.appendArrayIndex(i, childValue));
-            }
-          } else if (childValue == null) {
-            if (features.contains(Feature.VISIT_NULL)) {
+        Object[] array = (Object[]) value;
+        for (int i = array.length - 1; i >= 0; i--) {
+          Object childValue = array[i];
+          if (childValue == null) {
+            if (visitNull) {
               visitor.visit(chain.appendArrayIndex(i, childValue));
             }
           } else {
@@ -139,29 +143,20 @@ public final class ObjectExplorer {
          * them to the stack in reverse order, so when we pop them, we get them in the original
          * (declaration) order.
          */
-        final Field[] fields = getAllFields(value);
+        ClassFields classFields = getClassFields(valueClass);
+        final Field[] fields = visitPrimitives ? classFields.all : classFields.references;
         for (int j = fields.length - 1; j >= 0; j--) {
           final Field field = fields[j];
-          Object childValue = null;
-          try {
-            childValue = field.get(value);
-          } catch (Exception e) {
-            throw new AssertionError(e);
-          }
+          // primitives are only read (and boxed) if the visitor wants to see them
+          Object childValue = getFieldValue(field, value);
           if (childValue == null) { // handling nulls
-            if (features.contains(Feature.VISIT_NULL)) {
+            if (visitNull) {
               visitor.visit(chain.appendField(field, childValue));
             }
-          } else { // handling primitives or references
-            boolean isPrimitive = field.getType().isPrimitive();
-            Chain extendedChain = chain.appendField(field, childValue);
-            if (isPrimitive) {
-              if (features.contains(Feature.VISIT_PRIMITIVES)) {
-                visitor.visit(extendedChain);
-              }
-            } else {
-              stack.push(extendedChain);
-            }
+          } else if (field.getType().isPrimitive()) {
+            visitor.visit(chain.appendField(field, childValue));
+          } else {
+            stack.push(chain.appendField(field, childValue));
           }
         }
       }
@@ -173,11 +168,11 @@ public final class ObjectExplorer {
    * A stateful predicate that allows exploring an object (the tail of the chain) only once.
    */
   static class AtMostOncePredicate implements Predicate<Chain> {
-    private final Set<Object> seen = Collections.newSetFromMap(
-        new IdentityHashMap<Object, Boolean>());
+    private final IdentitySet seen = new IdentitySet();
 
     @Override public boolean apply(Chain chain) {
-      return seen.add(chain.getValue());
+      Object value = chain.getValue();
+      return value == null || seen.add(value);
     }
   }
 
@@ -196,32 +191,61 @@ public final class ObjectExplorer {
   };
 
   /**
-   * A cache of {@code Field}s that are accessible for a given {@code Class<?>}.
+   * A cache of the {@code Field}s that are accessible for a given {@code Class<?>}.
    */
-  private static final ConcurrentHashMap<Class<?>, Field[]> clazzFields =
-      new ConcurrentHashMap<Class<?>, Field[]>();
-
-  private static Field[] getAllFields(Object o) {
-    Class<?> clazz = o.getClass();
-    return getAllFields(clazz);
-  }
+  private static final ConcurrentHashMap<Class<?>, ClassFields> clazzFields =
+      new ConcurrentHashMap<Class<?>, ClassFields>();
 
   /**
    * Keep a cache of fields per class of interest.
    *
    * @param clazz - the {@code Class<?>} to interrogate.
-   * @return An array of fields of the given class.
+   * @return The fields of the given class.
    */
-  private static Field[] getAllFields(Class<?> clazz) {
-    Field[] f = clazzFields.get(clazz);
+  static ClassFields getClassFields(Class<?> clazz) {
+    ClassFields f = clazzFields.get(clazz);
     if (f == null) {
-      f = computeAllFields(clazz);
-      Field[] u = clazzFields.putIfAbsent(clazz, f);
+      f = new ClassFields(computeAllFields(clazz));
+      ClassFields u = clazzFields.putIfAbsent(clazz, f);
       return u == null ? f : u;
     }
     return f;
   }
 
+  static Object getFieldValue(Field field, Object object) {
+    try {
+      return field.get(object);
+    } catch (IllegalAccessException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * The accessible non-static fields of a class, in declaration order, with the reference fields
+   * and the types of the primitive fields split out so that a traversal that doesn't visit
+   * primitives never reads them.
+   */
+  static final class ClassFields {
+    final Field[] all;
+    final Field[] references;
+    final Class<?>[] primitiveTypes;
+
+    ClassFields(Field[] all) {
+      List<Field> references = Lists.newArrayListWithCapacity(all.length);
+      List<Class<?>> primitiveTypes = Lists.newArrayListWithCapacity(all.length);
+      for (Field field : all) {
+        if (field.getType().isPrimitive()) {
+          primitiveTypes.add(field.getType());
+        } else {
+          references.add(field);
+        }
+      }
+      this.all = all;
+      this.references = references.toArray(new Field[references.size()]);
+      this.primitiveTypes = primitiveTypes.toArray(new Class<?>[primitiveTypes.size()]);
+    }
+  }
+
   private static Field[] computeAllFields(Class<?> clazz) {
     List<Field> fields = Lists.newArrayListWithCapacity(8);
     while (clazz != null) {
@@ -16,7 +16,7 @@
 
 package com.google.caliper.memory;
 
-import com.google.caliper.memory.ObjectExplorer.Feature;
+import com.google.caliper.memory.ObjectExplorer.ClassFields;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
@@ -24,16 +24,30 @@ import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultiset;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multiset;
+import com.google.common.primitives.Ints;
 
-import java.util.EnumSet;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import javax.annotation.Nullable;
 
 /**
  * A tool that can qualitatively measure the footprint
  * ({@literal e.g.}, number of objects, references,
- * primitives) of a graph structure.
+ * primitives) of a graph structure, and estimate its size
+ * in bytes with an {@link ObjectLayout}.
  */
 public final class ObjectGraphMeasurer {
   /**
@@ -44,6 +58,10 @@ public final class ObjectGraphMeasurer {
     private final int nonNullRefs;
     private final int nullRefs;
     private final ImmutableMultiset<Class<?>> primitives;
+    private final ImmutableMap<Class<?>, Long> bytesByClass;
+    private final long bytes;
+    private final ImmutableMultiset<Class<?>> objectsByClass;
+    private final ImmutableList<PathFootprint> heaviestPaths;
 
     private static final ImmutableSet<Class<?>> primitiveTypes = ImmutableSet.<Class<?>>of(
         boolean.class, byte.class, char.class, short.class,
@@ -61,6 +79,46 @@ public final class ObjectGraphMeasurer {
      */
     public Footprint(int objects, int nonNullRefs, int nullRefs,
         Multiset<Class<?>> primitives) {
+      this(objects, nonNullRefs, nullRefs, primitives, ImmutableMap.<Class<?>, Long>of());
+    }
+
+    /**
+     * Constructs a Footprint, by specifying the number of objects,
+     * references, and primitives (represented as a {@link Multiset}),
+     * and the number of bytes taken by the objects of each class.
+     *
+     * @param objects the number of objects
+     * @param nonNullRefs the number of non-null references
+     * @param nullRefs the number of null references
+     * @param primitives the number of primitives (represented by the
+     * respective primitive classes, e.g. {@code int.class} etc)
+     * @param bytesByClass the total shallow size, in bytes, of the objects
+     * of each class
+     */
+    public Footprint(int objects, int nonNullRefs, int nullRefs,
+        Multiset<Class<?>> primitives, Map<Class<?>, Long> bytesByClass) {
+      this(objects, nonNullRefs, nullRefs, primitives, bytesByClass,
+          ImmutableMultiset.<Class<?>>of(), ImmutableList.<PathFootprint>of());
+    }
+
+    /**
+     * Constructs a Footprint, by specifying the number of objects,
+     * references, and primitives (represented as a {@link Multiset}),
+     * and its breakdown by class and by path.
+     *
+     * @param objects the number of objects
+     * @param nonNullRefs the number of non-null references
+     * @param nullRefs the number of null references
+     * @param primitives the number of primitives (represented by the
+     * respective primitive classes, e.g. {@code int.class} etc)
+     * @param bytesByClass the total shallow size, in bytes, of the objects
+     * of each class
+     * @param objectsByClass the number of objects of each class
+     * @param heaviestPaths the paths with the most bytes, heaviest first
+     */
+    public Footprint(int objects, int nonNullRefs, int nullRefs,
+        Multiset<Class<?>> primitives, Map<Class<?>, Long> bytesByClass,
+        Multiset<Class<?>> objectsByClass, List<PathFootprint> heaviestPaths) {
       Preconditions.checkArgument(objects >= 0, "Negative number of objects");
       Preconditions.checkArgument(nonNullRefs >= 0, "Negative number of references");
       Preconditions.checkArgument(nullRefs >= 0, "Negative number of references");
@@ -70,6 +128,15 @@ public final class ObjectGraphMeasurer {
       this.nonNullRefs = nonNullRefs;
       this.nullRefs = nullRefs;
       this.primitives = ImmutableMultiset.copyOf(primitives);
+      long bytes = 0;
+      for (Long classBytes : bytesByClass.values()) {
+        Preconditions.checkArgument(classBytes >= 0, "Negative number of bytes");
+        bytes += classBytes;
+      }
+      this.bytesByClass = ImmutableMap.copyOf(bytesByClass);
+      this.bytes = bytes;
+      this.objectsByClass = ImmutableMultiset.copyOf(objectsByClass);
+      this.heaviestPaths = ImmutableList.copyOf(heaviestPaths);
     }
 
     /**
@@ -109,12 +176,50 @@ public final class ObjectGraphMeasurer {
       return primitives;
     }
 
+    /**
+     * Returns the total shallow size of the objects of this footprint
+     * in bytes, or 0 if it was constructed without sizes.
+     */
+    public long getBytes() {
+      return bytes;
+    }
+
+    /**
+     * Returns the total shallow size in bytes of the objects of each
+     * class in this footprint.
+     */
+    public ImmutableMap<Class<?>, Long> getBytesByClass() {
+      return bytesByClass;
+    }
+
+    /**
+     * Returns the number of objects of each class in this footprint, or
+     * an empty multiset if it was constructed without a breakdown.
+     */
+    public ImmutableMultiset<Class<?>> getObjectsByClass() {
+      return objectsByClass;
+    }
+
+    /**
+     * Returns the paths through which the objects of this footprint were
+     * first reached that have the most bytes, heaviest first, or an empty
+     * list if the footprint wasn't broken down by path.
+     */
+    public ImmutableList<PathFootprint> getHeaviestPaths() {
+      return heaviestPaths;
+    }
+
     @Override
     public int hashCode() {
       return Objects.hashCode(getClass().getName(),
           objects, nonNullRefs, nullRefs, primitives);
     }
 
+    /**
+     * Footprints are equal if they have the same counts. The sizes in
+     * bytes depend on the layout of the VM that measured them, and the
+     * breakdowns on how they were measured, so neither is compared.
+     */
     @Override
     public boolean equals(Object o) {
       if (o instanceof Footprint) {
@@ -134,10 +239,72 @@ public final class ObjectGraphMeasurer {
           .add("NonNullRefs", nonNullRefs)
           .add("NullRefs", nullRefs)
           .add("Primitives", primitives)
+          .add("Bytes", bytes)
           .toString();
     }
   }
 
+  /**
+   * The objects of a footprint that were first reached through a path of
+   * fields and array elements from the root, such as
+   * {@code root.table[].next*.value}. Every element of an array has the same
+   * path, and a {@code *} marks a field that the path goes through any
+   * number of times, as in a linked list.
+   */
+  public static final class PathFootprint {
+    private final String path;
+    private final int objects;
+    private final long bytes;
+
+    /**
+     * Constructs a PathFootprint.
+     *
+     * @param path the path, starting with {@code root}
+     * @param objects the number of objects first reached through the path
+     * @param bytes the total shallow size of those objects in bytes
+     */
+    public PathFootprint(String path, int objects, long bytes) {
+      Preconditions.checkArgument(objects >= 0, "Negative number of objects");
+      Preconditions.checkArgument(bytes >= 0, "Negative number of bytes");
+      this.path = Preconditions.checkNotNull(path);
+      this.objects = objects;
+      this.bytes = bytes;
+    }
+
+    public String getPath() {
+      return path;
+    }
+
+    public int getObjects() {
+      return objects;
+    }
+
+    public long getBytes() {
+      return bytes;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(path, objects, bytes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (o instanceof PathFootprint) {
+        PathFootprint that = (PathFootprint) o;
+        return this.path.equals(that.path)
+            && this.objects == that.objects
+            && this.bytes == that.bytes;
+      }
+      return false;
+    }
+
+    @Override
+    public String toString() {
+      return path + ": " + objects + " objects, " + bytes + " bytes";
+    }
+  }
+
   /**
    * Measures the footprint of the specified object graph.
    * The object graph is defined by a root object and whatever object can be
@@ -147,6 +314,7 @@ public final class ObjectGraphMeasurer {
    * graph).
    *
    * <p>Equivalent to {@code measure(rootObject, Predicates.alwaysTrue())}.
+   * Sizes in bytes are those of the running VM's {@link ObjectLayout}.
    *
    * @param rootObject the root object of the object graph
    * @return the footprint of the object graph
@@ -171,51 +339,363 @@ public final class ObjectGraphMeasurer {
    * @return the footprint of the object graph
    */
   public static Footprint measure(Object rootObject, Predicate<Object> objectAcceptor) {
+    return measure(rootObject, objectAcceptor, ObjectLayout.forCurrentVm());
+  }
+
+  /**
+   * Measures the footprint of the specified object graph, as
+   * {@link #measure(Object, Predicate)} does, with sizes in bytes computed
+   * for the given layout rather than the running VM's. That allows
+   * comparing, say, the cost of a structure with and without compressed
+   * references.
+   *
+   * @param rootObject the root object of the object graph
+   * @param objectAcceptor a predicate that returns {@code true} for objects
+   * to be explored (and treated as part of the footprint), or {@code false}
+   * to forbid the traversal to traverse the given object
+   * @param layout the layout that determines the size of each object
+   * @return the footprint of the object graph
+   */
+  public static Footprint measure(Object rootObject, Predicate<Object> objectAcceptor,
+      ObjectLayout layout) {
+    return measure(rootObject, objectAcceptor, layout, 0);
+  }
+
+  /**
+   * Measures the footprint of the specified object graph, as
+   * {@link #measure(Object, Predicate, ObjectLayout)} does, and breaks it
+   * down by the path of fields and array elements through which each object
+   * was first reached, such as {@code root.table[].next*.value}. The
+   * footprint's {@linkplain Footprint#getHeaviestPaths heaviest paths} are
+   * the given number of paths with the most bytes.
+   *
+   * <p>The breakdown takes memory in proportion to the number of distinct
+   * paths rather than the number of objects, and the number of paths is
+   * bounded: paths that repeat a field (as in a linked list) are folded, and
+   * past a limit, objects are counted in the longest path already known.
+   *
+   * @param rootObject the root object of the object graph
+   * @param objectAcceptor a predicate that returns {@code true} for objects
+   * to be explored (and treated as part of the footprint), or {@code false}
+   * to forbid the traversal to traverse the given object
+   * @param layout the layout that determines the size of each object
+   * @param reportedPaths the number of paths to report, or 0 not to break
+   * the footprint down by path
+   * @return the footprint of the object graph
+   */
+  public static Footprint measure(Object rootObject, Predicate<Object> objectAcceptor,
+      ObjectLayout layout, int reportedPaths) {
+    Preconditions.checkNotNull(objectAcceptor, "predicate");
+    Preconditions.checkNotNull(layout, "layout");
+    Preconditions.checkArgument(reportedPaths >= 0, "Negative number of paths");
+
+    final IdentitySet visited = new IdentitySet();
+    FootprintBuilder builder = new FootprintBuilder(objectAcceptor, layout) {
+      @Override boolean markVisited(Object value) {
+        return visited.add(value);
+      }
+    };
+    if (reportedPaths > 0) {
+      builder.trackPaths(new FieldPathTree(FieldPathTree.DEFAULT_MAX_PATHS), reportedPaths);
+    }
+    builder.root(rootObject);
+    while (!builder.stack.isEmpty()) {
+      builder.explore(builder.stack.pop());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Measures the footprint of the specified object graph, as
+   * {@link #measure(Object, Predicate)} does, but splits the traversal
+   * into tasks that run in the given pool. The result is the same as that
+   * of the sequential measurement. The predicate is called from several
+   * threads at once. Which path first reaches an object depends on how the
+   * tasks are scheduled, so parallel measurements aren't broken down by
+   * path.
+   *
+   * @param rootObject the root object of the object graph
+   * @param objectAcceptor a thread-safe predicate that returns {@code true}
+   * for objects to be explored (and treated as part of the footprint), or
+   * {@code false} to forbid the traversal to traverse the given object
+   * @param pool the pool that runs the traversal
+   * @return the footprint of the object graph
+   */
+  public static Footprint measureInParallel(Object rootObject, Predicate<Object> objectAcceptor,
+      ForkJoinPool pool) {
+    return measureInParallel(rootObject, objectAcceptor, ObjectLayout.forCurrentVm(), pool);
+  }
+
+  /**
+   * Measures the footprint of the specified object graph in parallel, as
+   * {@link #measureInParallel(Object, Predicate, ForkJoinPool)} does, with
+   * sizes in bytes computed for the given layout.
+   *
+   * @param rootObject the root object of the object graph
+   * @param objectAcceptor a thread-safe predicate that returns {@code true}
+   * for objects to be explored (and treated as part of the footprint), or
+   * {@code false} to forbid the traversal to traverse the given object
+   * @param layout the layout that determines the size of each object
+   * @param pool the pool that runs the traversal
+   * @return the footprint of the object graph
+   */
+  public static Footprint measureInParallel(Object rootObject, Predicate<Object> objectAcceptor,
+      ObjectLayout layout, ForkJoinPool pool) {
     Preconditions.checkNotNull(objectAcceptor, "predicate");
+    Preconditions.checkNotNull(layout, "layout");
+    Preconditions.checkNotNull(pool, "pool");
+
+    ConcurrentIdentitySet visited = new ConcurrentIdentitySet(pool.getParallelism());
+    FootprintBuilder builder = new SharedVisitsFootprintBuilder(objectAcceptor, layout, visited);
+    builder.root(rootObject);
+    if (!builder.stack.isEmpty()) {
+      builder.add(pool.invoke(new MeasureTask(
+          objectAcceptor, layout, visited, builder.stack.toArray())));
+    }
+    return builder.build();
+  }
 
-    Predicate<Chain> completePredicate = Predicates.and(ImmutableList.of(
-        ObjectExplorer.notEnumFieldsOrClasses,
-        new ObjectExplorer.AtMostOncePredicate(),
-        Predicates.compose(objectAcceptor, ObjectExplorer.chainToObject)
-    ));
+  /**
+   * Explores part of an object graph, starting from some objects that have already been visited,
+   * and hands part of what is left to explore to new tasks whenever the pool has idle threads.
+   */
+  private static final class MeasureTask extends RecursiveTask<FootprintBuilder> {
+    /** Tasks are never split off with fewer objects to explore than this. */
+    private static final int MIN_SPLIT = 16;
+
+    private final Predicate<Object> objectAcceptor;
+    private final ObjectLayout layout;
+    private final ConcurrentIdentitySet visited;
+    private final Object[] objects;
+
+    MeasureTask(Predicate<Object> objectAcceptor, ObjectLayout layout,
+        ConcurrentIdentitySet visited, Object[] objects) {
+      this.objectAcceptor = objectAcceptor;
+      this.layout = layout;
+      this.visited = visited;
+      this.objects = objects;
+    }
 
-    return ObjectExplorer.exploreObject(rootObject, new ObjectGraphVisitor(completePredicate),
-        EnumSet.of(Feature.VISIT_PRIMITIVES, Feature.VISIT_NULL));
+    @Override protected FootprintBuilder compute() {
+      FootprintBuilder builder = new SharedVisitsFootprintBuilder(objectAcceptor, layout, visited);
+      for (Object object : objects) {
+        builder.stack.push(object);
+      }
+      List<MeasureTask> subtasks = Lists.newArrayList();
+      while (!builder.stack.isEmpty()) {
+        builder.explore(builder.stack.pop());
+        if (builder.stack.size() >= 2 * MIN_SPLIT && getSurplusQueuedTaskCount() == 0) {
+          // the oldest objects on the stack are the roots of the largest unexplored subgraphs
+          Object[] split = new Object[builder.stack.size() / 2];
+          for (int i = 0; i < split.length; i++) {
+            split[i] = builder.stack.pollLast();
+          }
+          MeasureTask subtask = new MeasureTask(objectAcceptor, layout, visited, split);
+          subtask.fork();
+          subtasks.add(subtask);
+        }
+      }
+      for (MeasureTask subtask : subtasks) {
+        builder.add(subtask.join());
+      }
+      return builder;
+    }
   }
 
-  private static class ObjectGraphVisitor implements ObjectVisitor<Footprint> {
+  /** A {@link FootprintBuilder} whose visited objects are shared with other builders. */
+  private static final class SharedVisitsFootprintBuilder extends FootprintBuilder {
+    private final ConcurrentIdentitySet visited;
+
+    SharedVisitsFootprintBuilder(Predicate<Object> objectAcceptor, ObjectLayout layout,
+        ConcurrentIdentitySet visited) {
+      super(objectAcceptor, layout);
+      this.visited = visited;
+    }
+
+    @Override boolean markVisited(Object value) {
+      return visited.add(value);
+    }
+  }
+
+  /**
+   * Counts the objects, references and primitives of an object graph, or of part of it, as it is
+   * explored. This is the traversal of {@link ObjectExplorer} specialized to what a footprint needs:
+   * it never builds a {@link Chain}, reads only reference fields, and counts primitives per class
+   * rather than visiting them. Subclasses decide where visited objects are remembered.
+   */
+  private abstract static class FootprintBuilder {
+    final Deque<Object> stack = new ArrayDeque<Object>(32);
+    private final Predicate<Object> objectAcceptor;
+    private final ObjectLayout layout;
+    private final Map<Class<?>, ClassStats> statsByClass = Maps.newHashMap();
     private int objects;
-    // -1 to account for the root, which has no reference leading to it
-    private int nonNullReferences = -1;
+    private int nonNullReferences = 0;
     private int nullReferences = 0;
-    private final Multiset<Class<?>> primitives = HashMultiset.create();
-    private final Predicate<Chain> predicate;
+    @Nullable private FieldPathTree paths;
+    private int reportedPaths;
+    /** The paths of the objects on the stack, if paths are tracked. */
+    private final Deque<FieldPathTree.Node> pathStack = new ArrayDeque<FieldPathTree.Node>();
+    @Nullable private FieldPathTree.Node currentPath;
+
+    FootprintBuilder(Predicate<Object> objectAcceptor, ObjectLayout layout) {
+      this.objectAcceptor = objectAcceptor;
+      this.layout = layout;
+    }
+
+    /** Remembers that the given object has been reached, and returns false if it already was. */
+    abstract boolean markVisited(Object value);
 
-    ObjectGraphVisitor(Predicate<Chain> predicate) {
-      this.predicate = predicate;
+    /**
+     * Attributes objects to the paths through which they are first reached, and reports the given
+     * number of paths with the most bytes. This must be called before the traversal starts, and
+     * only for a builder that explores the whole graph.
+     */
+    void trackPaths(FieldPathTree paths, int reportedPaths) {
+      this.paths = paths;
+      this.reportedPaths = reportedPaths;
+    }
+
+    /** Starts the traversal at the given root object. */
+    void root(@Nullable Object rootObject) {
+      // -1 to account for the root, which has no reference leading to it
+      nonNullReferences--;
+      if (rootObject != null) {
+        reference(rootObject, rootObject.getClass(), null);
+      }
     }
 
-    @Override public Traversal visit(Chain chain) {
-      if (chain.isPrimitive()) {
-        primitives.add(chain.getValueType());
-        return Traversal.SKIP;
+    /** Counts the fields or elements of an object, and pushes the objects they refer to. */
+    void explore(Object value) {
+      if (paths != null) {
+        currentPath = pathStack.pop();
+      }
+      ClassStats stats = statsByClass.get(value.getClass());
+      if (stats == null) {
+        // the object was accepted by another builder
+        stats = statsFor(value.getClass());
+      }
+      if (stats.fields == null) {
+        Class<?> componentType = stats.type.getComponentType();
+        if (componentType.isPrimitive()) {
+          stats.primitiveElements += Array.getLength(value);
+        } else {
+          for (Object element : (Object[]) value) {
+            reference(element, componentType, null);
+          }
+        }
       } else {
-        if (chain.getValue() == null) {
-          nullReferences++;
+        stats.explored++;
+        for (Field field : stats.fields.references) {
+          reference(ObjectExplorer.getFieldValue(field, value), field.getType(), field);
+        }
+      }
+    }
+
+    /**
+     * Counts a reference, and pushes the object it refers to if it hasn't been reached yet. The
+     * field is that of the object being explored, or null for an array element or the root.
+     */
+    private void reference(@Nullable Object value, Class<?> declaredType, @Nullable Field field) {
+      if (value == null) {
+        nullReferences++;
+        return;
+      }
+      nonNullReferences++;
+      // enums and Class objects are shared values, like statics
+      if (Enum.class.isAssignableFrom(declaredType) || value instanceof Class<?>
+          || !markVisited(value) || !objectAcceptor.apply(value)) {
+        return;
+      }
+      objects++;
+      ClassStats stats = statsFor(value.getClass());
+      long size = (stats.fields == null) ? layout.sizeOf(value) : stats.instanceSize;
+      stats.objects++;
+      stats.bytes += size;
+      stack.push(value);
+      if (paths != null) {
+        FieldPathTree.Node path;
+        if (currentPath == null) {
+          path = paths.root();
+        } else if (field == null) {
+          path = paths.arrayElement(currentPath);
         } else {
-          nonNullReferences++;
+          path = paths.field(currentPath, field);
         }
+        path.objects++;
+        path.bytes += size;
+        pathStack.push(path);
       }
-      if (predicate.apply(chain) && chain.getValue() != null) {
-        objects++;
-        return Traversal.EXPLORE;
+    }
+
+    private ClassStats statsFor(Class<?> type) {
+      ClassStats stats = statsByClass.get(type);
+      if (stats == null) {
+        stats = new ClassStats(type, layout);
+        statsByClass.put(type, stats);
+      }
+      return stats;
+    }
+
+    /** Adds the counts of another builder, which has finished exploring its part of the graph. */
+    void add(FootprintBuilder other) {
+      objects += other.objects;
+      nonNullReferences += other.nonNullReferences;
+      nullReferences += other.nullReferences;
+      for (ClassStats otherStats : other.statsByClass.values()) {
+        ClassStats stats = statsFor(otherStats.type);
+        stats.explored += otherStats.explored;
+        stats.objects += otherStats.objects;
+        stats.bytes += otherStats.bytes;
+        stats.primitiveElements += otherStats.primitiveElements;
       }
-      return Traversal.SKIP;
     }
 
-    @Override public Footprint result() {
+    Footprint build() {
+      Multiset<Class<?>> primitives = HashMultiset.create();
+      Map<Class<?>, Long> bytesByClass = Maps.newHashMapWithExpectedSize(statsByClass.size());
+      Multiset<Class<?>> objectsByClass = HashMultiset.create();
+      for (ClassStats stats : statsByClass.values()) {
+        if (stats.fields == null) {
+          if (stats.primitiveElements > 0) {
+            primitives.add(
+                stats.type.getComponentType(), Ints.checkedCast(stats.primitiveElements));
+          }
+        } else {
+          for (Class<?> primitiveType : stats.fields.primitiveTypes) {
+            primitives.add(primitiveType, Ints.checkedCast(stats.explored));
+          }
+        }
+        if (stats.objects > 0) {
+          objectsByClass.add(stats.type, Ints.checkedCast(stats.objects));
+          bytesByClass.put(stats.type, stats.bytes);
+        }
+      }
       return new Footprint(objects, nonNullReferences, nullReferences,
-          ImmutableMultiset.copyOf(primitives));
+          ImmutableMultiset.copyOf(primitives), bytesByClass, objectsByClass,
+          (paths == null) ? ImmutableList.<PathFootprint>of() : paths.heaviestPaths(reportedPaths));
+    }
+  }
+
+  /** What a {@link FootprintBuilder} knows and has counted about the instances of a class. */
+  private static final class ClassStats {
+    final Class<?> type;
+    /** The fields of the class, or null for an array class. */
+    @Nullable final ClassFields fields;
+    final long instanceSize;
+    long explored;
+    long objects;
+    long bytes;
+    long primitiveElements;
+
+    ClassStats(Class<?> type, ObjectLayout layout) {
+      this.type = type;
+      if (type.isArray()) {
+        this.fields = null;
+        this.instanceSize = 0;
+      } else {
+        this.fields = ObjectExplorer.getClassFields(type);
+        this.instanceSize = layout.instanceSize(type);
+      }
     }
   }
 
@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.memory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A model of how a HotSpot VM lays out objects in memory, used to compute the shallow size of an
+ * object: its header, its fields (or array elements) and the padding that aligns it.
+ *
+ * <p>Fields are laid out the way HotSpot does by default: each class's fields start after its
+ * superclass's, longs and doubles first, then ints and floats, shorts and chars, bytes and
+ * booleans, and references last, and a gap before the first long is filled with smaller fields.
+ * The model is exact for the common cases, but other VMs, or HotSpot with non-default field layout
+ * flags, may differ; {@link #mismatches} compares it against {@link Instrumentation}.
+ */
+public final class ObjectLayout {
+  private static final ImmutableMap<Class<?>, Integer> PRIMITIVE_SIZES =
+      ImmutableMap.<Class<?>, Integer>builder()
+          .put(boolean.class, 1)
+          .put(byte.class, 1)
+          .put(char.class, 2)
+          .put(short.class, 2)
+          .put(int.class, 4)
+          .put(float.class, 4)
+          .put(long.class, 8)
+          .put(double.class, 8)
+          .build();
+
+  private final int referenceSize;
+  private final int objectHeaderSize;
+  private final int arrayHeaderSize;
+  private final int objectAlignment;
+  private final ConcurrentHashMap<Class<?>, Long> instanceSizes =
+      new ConcurrentHashMap<Class<?>, Long>();
+
+  private ObjectLayout(int referenceSize, int objectHeaderSize, int arrayHeaderSize,
+      int objectAlignment) {
+    this.referenceSize = referenceSize;
+    this.objectHeaderSize = objectHeaderSize;
+    this.arrayHeaderSize = arrayHeaderSize;
+    this.objectAlignment = objectAlignment;
+  }
+
+  /**
+   * Returns the layout of the running VM, as determined by its data model and its
+   * {@code UseCompressedOops}, {@code UseCompressedClassPointers} and
+   * {@code ObjectAlignmentInBytes} flags. On VMs that aren't HotSpot, and so have no such flags,
+   * this is the default layout of a 64-bit HotSpot VM.
+   */
+  public static ObjectLayout forCurrentVm() {
+    return CurrentVm.LAYOUT;
+  }
+
+  /**
+   * Returns the layout of a 64-bit HotSpot VM.
+   *
+   * @param compressedOops whether references are 4 bytes rather than 8
+   * @param compressedClassPointers whether object headers hold a 4 byte class pointer rather than
+   *     an 8 byte one
+   * @param objectAlignment the alignment of objects in bytes, a power of two of at least 8
+   */
+  public static ObjectLayout hotspot64(boolean compressedOops, boolean compressedClassPointers,
+      int objectAlignment) {
+    checkArgument(objectAlignment >= 8 && Integer.bitCount(objectAlignment) == 1,
+        "invalid object alignment: %s", objectAlignment);
+    int objectHeaderSize = compressedClassPointers ? 12 : 16;
+    // the array header is word aligned: mark word, class pointer and length
+    int arrayHeaderSize = compressedClassPointers ? 16 : 24;
+    return new ObjectLayout(
+        compressedOops ? 4 : 8, objectHeaderSize, arrayHeaderSize, objectAlignment);
+  }
+
+  /** Returns the layout of a 32-bit HotSpot VM. */
+  public static ObjectLayout hotspot32() {
+    return new ObjectLayout(4, 8, 12, 8);
+  }
+
+  /** Returns the size of a reference field or array element in bytes. */
+  public int referenceSize() {
+    return referenceSize;
+  }
+
+  /** Returns the size of the header of an object that is not an array, in bytes. */
+  public int objectHeaderSize() {
+    return objectHeaderSize;
+  }
+
+  /** Returns the size of the header of an array, including its length, in bytes. */
+  public int arrayHeaderSize() {
+    return arrayHeaderSize;
+  }
+
+  /** Returns the alignment of objects in bytes. Every object's size is a multiple of it. */
+  public int objectAlignment() {
+    return objectAlignment;
+  }
+
+  /**
+   * Returns the shallow size of the given object in bytes: its header, its fields or array
+   * elements, and padding, but not the objects that it references.
+   */
+  public long sizeOf(Object object) {
+    Class<?> type = object.getClass();
+    return type.isArray()
+        ? arraySize(type.getComponentType(), Array.getLength(object))
+        : instanceSize(type);
+  }
+
+  /** Returns the size in bytes of an array with the given component type and length. */
+  public long arraySize(Class<?> componentType, int length) {
+    checkArgument(length >= 0, "negative array length: %s", length);
+    int elementSize = fieldSize(componentType);
+    long baseOffset = alignUp(arrayHeaderSize, (elementSize == 8) ? 8 : 1);
+    return alignUp(baseOffset + (long) length * elementSize, objectAlignment);
+  }
+
+  /** Returns the size in bytes of an instance of the given class, which must not be an array. */
+  public long instanceSize(Class<?> type) {
+    checkArgument(!type.isArray(), "%s is an array type", type);
+    Long size = instanceSizes.get(type);
+    if (size == null) {
+      size = alignUp(fieldsEnd(type), objectAlignment);
+      Long existing = instanceSizes.putIfAbsent(type, size);
+      return (existing == null) ? size : existing;
+    }
+    return size;
+  }
+
+  /**
+   * Returns a description of each of the given objects whose size under this layout is not the
+   * size that {@link Instrumentation#getObjectSize} reports, which is the VM's own. An agent that
+   * has an {@link Instrumentation} can use this to check that the model fits its VM.
+   */
+  public ImmutableList<String> mismatches(Instrumentation instrumentation, Iterable<?> objects) {
+    checkNotNull(instrumentation);
+    ImmutableList.Builder<String> mismatches = ImmutableList.builder();
+    for (Object object : objects) {
+      long expected = instrumentation.getObjectSize(object);
+      long actual = sizeOf(object);
+      if (expected != actual) {
+        mismatches.add(String.format("%s: %d bytes, but the VM says %d",
+            object.getClass().getName(), actual, expected));
+      }
+    }
+    return mismatches.build();
+  }
+
+  /** Returns the offset just past the last instance field of the given class. */
+  private long fieldsEnd(Class<?> type) {
+    List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+    for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+      hierarchy.add(c);
+    }
+    Collections.reverse(hierarchy);
+
+    long offset = objectHeaderSize;
+    for (Class<?> c : hierarchy) {
+      // counts of the fields declared by this class, by size, in HotSpot's allocation order
+      int longs = 0;
+      int ints = 0;
+      int shorts = 0;
+      int bytes = 0;
+      int references = 0;
+      for (Field field : c.getDeclaredFields()) {
+        if (Modifier.isStatic(field.getModifiers())) {
+          continue;
+        }
+        Class<?> fieldType = field.getType();
+        if (!fieldType.isPrimitive()) {
+          references++;
+          continue;
+        }
+        switch (PRIMITIVE_SIZES.get(fieldType)) {
+          case 8: longs++; break;
+          case 4: ints++; break;
+          case 2: shorts++; break;
+          case 1: bytes++; break;
+          default: throw new AssertionError(fieldType);
+        }
+      }
+      if (longs + ints + shorts + bytes + references == 0) {
+        continue;
+      }
+      // a class's fields start on a reference boundary after those of its superclass
+      offset = alignUp(offset, referenceSize);
+      if (longs > 0 && offset % 8 != 0) {
+        // fill the gap before the first long with smaller fields
+        long gapEnd = alignUp(offset, 8);
+        while (ints > 0 && offset + 4 <= gapEnd) {
+          ints--;
+          offset += 4;
+        }
+        while (shorts > 0 && offset + 2 <= gapEnd) {
+          shorts--;
+          offset += 2;
+        }
+        while (bytes > 0 && offset + 1 <= gapEnd) {
+          bytes--;
+          offset += 1;
+        }
+        while (references > 0 && offset + referenceSize <= gapEnd) {
+          references--;
+          offset += referenceSize;
+        }
+        offset = gapEnd;
+      }
+      offset += longs * 8L + ints * 4L + shorts * 2L + bytes;
+      if (references > 0) {
+        offset = alignUp(offset, referenceSize) + (long) references * referenceSize;
+      }
+    }
+    return offset;
+  }
+
+  private int fieldSize(Class<?> type) {
+    return type.isPrimitive() ? PRIMITIVE_SIZES.get(type) : referenceSize;
+  }
+
+  private static long alignUp(long value, int alignment) {
+    return (value + alignment - 1) / alignment * alignment;
+  }
+
+  @Override public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("referenceSize", referenceSize)
+        .add("objectHeaderSize", objectHeaderSize)
+        .add("arrayHeaderSize", arrayHeaderSize)
+        .add("objectAlignment", objectAlignment)
+        .toString();
+  }
+
+  /** Holds the layout of the running VM, which is only determined when it is first needed. */
+  private static final class CurrentVm {
+    static final ObjectLayout LAYOUT = detect();
+
+    private static ObjectLayout detect() {
+      if ("32".equals(System.getProperty("sun.arch.data.model"))) {
+        return hotspot32();
+      }
+      try {
+        return HotSpotFlags.layout();
+      } catch (LinkageError e) {
+        // not a HotSpot VM, e.g. Android, which lacks java.lang.management and com.sun.management
+        // altogether, so assume the default layout of a 64-bit HotSpot VM
+        return hotspot64(true, true, 8);
+      }
+    }
+  }
+
+  /**
+   * Reads the layout from the flags of a HotSpot VM. This is the only class that refers to the
+   * HotSpot and management APIs, so that VMs without them fail to load it rather than
+   * {@link ObjectLayout} itself.
+   */
+  private static final class HotSpotFlags {
+    static ObjectLayout layout() {
+      HotSpotDiagnosticMXBean bean;
+      try {
+        bean = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+      } catch (IllegalArgumentException e) {
+        bean = null;
+      }
+      boolean compressedOops = booleanOption(bean, "UseCompressedOops", true);
+      // before Java 8, class pointers were compressed along with references
+      boolean compressedClassPointers =
+          booleanOption(bean, "UseCompressedClassPointers", compressedOops);
+      int objectAlignment = intOption(bean, "ObjectAlignmentInBytes", 8);
+      return hotspot64(compressedOops, compressedClassPointers, objectAlignment);
+    }
+
+    private static boolean booleanOption(
+        HotSpotDiagnosticMXBean bean, String name, boolean defaultValue) {
+      String value = option(bean, name);
+      return (value == null) ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    private static int intOption(HotSpotDiagnosticMXBean bean, String name, int defaultValue) {
+      String value = option(bean, name);
+      return (value == null) ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static String option(HotSpotDiagnosticMXBean bean, String name) {
+      if (bean == null) {
+        return null;
+      }
+      try {
+        return bean.getVMOption(name).getValue();
+      } catch (IllegalArgumentException e) {
+        // this VM doesn't have the flag
+        return null;
+      }
+    }
+  }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.model;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A histogram of latencies in nanoseconds, with log-linear buckets: values below
+ * {@value #SUB_BUCKET_COUNT} have a bucket each, and every power of two above that is split into
+ * {@value #SUB_BUCKET_COUNT} buckets of equal width. Percentiles are therefore accurate to within
+ * 1/{@value #SUB_BUCKET_COUNT} of the value, and the minimum and maximum are exact.
+ *
+ * <p>Only non-empty buckets are stored, so the histogram of a few million invocations that take
+ * similar times is small. Latencies are recorded with a {@link Recorder}.
+ */
+public final class LatencyHistogram implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+  private int[] buckets;
+  private long[] counts;
+  private long totalCount;
+  private long min;
+  private long max;
+
+  private LatencyHistogram() {
+    this.buckets = new int[0];
+    this.counts = new long[0];
+  }
+
+  private LatencyHistogram(int[] buckets, long[] counts, long totalCount, long min, long max) {
+    this.buckets = buckets;
+    this.counts = counts;
+    this.totalCount = totalCount;
+    this.min = min;
+    this.max = max;
+  }
+
+  /** Returns the number of recorded latencies. */
+  public long totalCount() {
+    return totalCount;
+  }
+
+  /** Returns the smallest recorded latency, or 0 if there are none. */
+  public long min() {
+    return min;
+  }
+
+  /** Returns the largest recorded latency, or 0 if there are none. */
+  public long max() {
+    return max;
+  }
+
+  /**
+   * Returns the latency that {@code percentile} percent of the recorded latencies don't exceed,
+   * rounded up to the end of its bucket, or 0 if there are none.
+   */
+  public long percentile(double percentile) {
+    checkArgument(percentile >= 0 && percentile <= 100, "percentile out of range: %s", percentile);
+    if (totalCount == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+    long seen = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.max(min, Math.min(max, highestValueInBucket(buckets[i])));
+      }
+    }
+    return max;
+  }
+
+  /** Returns a histogram of the latencies recorded in all of the given histograms. */
+  public static LatencyHistogram merge(Iterable<LatencyHistogram> histograms) {
+    Recorder recorder = new Recorder();
+    for (LatencyHistogram histogram : histograms) {
+      recorder.add(histogram);
+    }
+    return recorder.toHistogram();
+  }
+
+  /**
+   * Writes this histogram in a compact form that {@link #readFrom} reads back, for sending
+   * histograms from workers without Java serialization.
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeInt(buckets.length);
+    for (int i = 0; i < buckets.length; i++) {
+      out.writeShort(buckets[i]);
+      out.writeLong(counts[i]);
+    }
+    out.writeLong(totalCount);
+    out.writeLong(min);
+    out.writeLong(max);
+  }
+
+  /** Reads a histogram written by {@link #writeTo}. */
+  public static LatencyHistogram readFrom(DataInput in) throws IOException {
+    int length = in.readInt();
+    if (length < 0 || length > BUCKET_COUNT) {
+      throw new IOException("Invalid number of histogram buckets: " + length);
+    }
+    int[] buckets = new int[length];
+    long[] counts = new long[length];
+    for (int i = 0; i < length; i++) {
+      buckets[i] = in.readUnsignedShort();
+      if (buckets[i] >= BUCKET_COUNT) {
+        throw new IOException("Invalid histogram bucket: " + buckets[i]);
+      }
+      counts[i] = in.readLong();
+    }
+    long totalCount = in.readLong();
+    long min = in.readLong();
+    long max = in.readLong();
+    return new LatencyHistogram(buckets, counts, totalCount, min, max);
+  }
+
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  static long highestValueInBucket(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = index / SUB_BUCKET_COUNT - 1;
+    long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+  @Override public boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    } else if (obj instanceof LatencyHistogram) {
+      LatencyHistogram that = (LatencyHistogram) obj;
+      return Arrays.equals(this.buckets, that.buckets)
+          && Arrays.equals(this.counts, that.counts)
+          && this.totalCount == that.totalCount
+          && this.min == that.min
+          && this.max == that.max;
+    } else {
+      return false;
+    }
+  }
+
+  @Override public int hashCode() {
+    return Objects.hashCode(
+        Arrays.hashCode(buckets), Arrays.hashCode(counts), totalCount, min, max);
+  }
+
+  @Override public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("totalCount", totalCount)
+        .add("min", min)
+        .add("max", max)
+        .add("buckets", buckets.length)
+        .toString();
+  }
+
+  /**
+   * Records latencies into a fixed array of counts, so that recording never allocates. A recorder
+   * can be {@linkplain #reset reset} and reused.
+   */
+  public static final class Recorder {
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    /** Records a latency in nanoseconds. Negative latencies are recorded as 0. */
+    public void record(long nanos) {
+      long value = Math.max(0, nanos);
+      counts[bucketIndex(value)]++;
+      totalCount++;
+      if (value < min) {
+        min = value;
+      }
+      if (value > max) {
+        max = value;
+      }
+    }
+
+    /** Adds all of the latencies in the given histogram. */
+    public void add(LatencyHistogram histogram) {
+      if (histogram.totalCount == 0) {
+        return;
+      }
+      for (int i = 0; i < histogram.buckets.length; i++) {
+        counts[histogram.buckets[i]] += histogram.counts[i];
+      }
+      totalCount += histogram.totalCount;
+      min = Math.min(min, histogram.min);
+      max = Math.max(max, histogram.max);
+    }
+
+    public long totalCount() {
+      return totalCount;
+    }
+
+    public void reset() {
+      Arrays.fill(counts, 0);
+      totalCount = 0;
+      min = Long.MAX_VALUE;
+      max = Long.MIN_VALUE;
+    }
+
+    /** Returns a histogram of the latencies recorded so far. */
+    public LatencyHistogram toHistogram() {
+      if (totalCount == 0) {
+        return new LatencyHistogram();
+      }
+      int nonEmpty = 0;
+      for (long count : counts) {
+        if (count != 0) {
+          nonEmpty++;
+        }
+      }
+      int[] buckets = new int[nonEmpty];
+      long[] bucketCounts = new long[nonEmpty];
+      int next = 0;
+      for (int i = 0; i < counts.length; i++) {
+        if (counts[i] != 0) {
+          buckets[next] = i;
+          bucketCounts[next] = counts[i];
+          next++;
+        }
+      }
+      return new LatencyHistogram(buckets, bucketCounts, totalCount, min, max);
+    }
+  }
+}
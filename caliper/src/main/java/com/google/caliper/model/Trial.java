@@ -16,11 +16,13 @@
 
 package com.google.caliper.model;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Objects;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -43,6 +45,9 @@ public final class Trial { // used to be Result
   private InstrumentSpec instrumentSpec;
   private Scenario scenario;
   private List<Measurement> measurements;
+  private Double precision;
+  private LatencyHistogram latencyHistogram;
+  private String cpuSet;
 
   private Trial() {
     this.id = Defaults.UUID;
@@ -58,6 +63,9 @@ public final class Trial { // used to be Result
     this.instrumentSpec = builder.instrumentSpec;
     this.scenario = builder.scenario;
     this.measurements = Lists.newArrayList(builder.measurements);
+    this.precision = builder.precision;
+    this.latencyHistogram = builder.latencyHistogram;
+    this.cpuSet = builder.cpuSet;
   }
 
   public UUID id() {
@@ -80,6 +88,31 @@ public final class Trial { // used to be Result
     return ImmutableList.copyOf(measurements);
   }
 
+  /**
+   * Returns the precision that the measurements achieved: the half-width of the 95% confidence
+   * interval for the mean of the weighted measurements, as a fraction of their median. Absent for
+   * instruments that don't compute it.
+   */
+  public Optional<Double> precision() {
+    return Optional.fromNullable(precision);
+  }
+
+  /**
+   * Returns the latencies of the individual invocations of the benchmark method across all
+   * measurements, for instruments that record them.
+   */
+  public Optional<LatencyHistogram> latencyHistogram() {
+    return Optional.fromNullable(latencyHistogram);
+  }
+
+  /**
+   * Returns the CPUs that the trial ran on, in the "cpulist" format of Linux (e.g. {@code 4-7}),
+   * for trials that ran in parallel with others on CPUs of their own.
+   */
+  public Optional<String> cpuSet() {
+    return Optional.fromNullable(cpuSet);
+  }
+
   @Override public boolean equals(Object obj) {
     if (obj == this) {
       return true;
@@ -89,14 +122,18 @@ public final class Trial { // used to be Result
           && this.run.equals(that.run)
           && this.instrumentSpec.equals(that.instrumentSpec)
           && this.scenario.equals(that.scenario)
-          && this.measurements.equals(that.measurements);
+          && this.measurements.equals(that.measurements)
+          && Objects.equal(this.precision, that.precision)
+          && Objects.equal(this.latencyHistogram, that.latencyHistogram)
+          && Objects.equal(this.cpuSet, that.cpuSet);
     } else {
       return false;
     }
   }
 
   @Override public int hashCode() {
-    return Objects.hashCode(id, run, instrumentSpec, scenario, measurements);
+    return Objects.hashCode(
+        id, run, instrumentSpec, scenario, measurements, precision, latencyHistogram, cpuSet);
   }
 
   @Override public String toString() {
@@ -106,6 +143,9 @@ public final class Trial { // used to be Result
         .add("instrumentSpec", instrumentSpec)
         .add("scenario", scenario)
         .add("measurements", measurements)
+        .add("precision", precision)
+        .add("latencyHistogram", latencyHistogram)
+        .add("cpuSet", cpuSet)
         .toString();
   }
 
@@ -115,6 +155,9 @@ public final class Trial { // used to be Result
     private InstrumentSpec instrumentSpec;
     private Scenario scenario;
     private final List<Measurement> measurements = Lists.newArrayList();
+    private Double precision;
+    private LatencyHistogram latencyHistogram;
+    private String cpuSet;
 
     public Builder(UUID id) {
       this.id = checkNotNull(id);
@@ -161,6 +204,22 @@ public final class Trial { // used to be Result
       return this;
     }
 
+    public Builder precision(double precision) {
+      checkArgument(precision >= 0, "precision must not be negative: %s", precision);
+      this.precision = precision;
+      return this;
+    }
+
+    public Builder latencyHistogram(LatencyHistogram latencyHistogram) {
+      this.latencyHistogram = checkNotNull(latencyHistogram);
+      return this;
+    }
+
+    public Builder cpuSet(String cpuSet) {
+      this.cpuSet = checkNotNull(cpuSet);
+      return this;
+    }
+
     public Trial build() {
       checkState(run != null);
       checkState(instrumentSpec != null);
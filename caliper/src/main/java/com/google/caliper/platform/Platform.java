@@ -50,6 +50,13 @@ public abstract class Platform {
    */
   public abstract ImmutableSet<String> commonInstrumentVmArgs();
 
+  /**
+   * The type of this platform.
+   */
+  public Type type() {
+    return platformType;
+  }
+
   /**
    * The name of the platform type.
    */
@@ -59,8 +66,11 @@ public abstract class Platform {
 
   /**
    * Additional arguments that should be passed to a worker.
+   *
+   * @param vmHome the home directory of the virtual machine that will run the worker, so that
+   *     arguments can be chosen to suit its version.
    */
-  public abstract ImmutableSet<String> workerProcessArgs();
+  public abstract ImmutableSet<String> workerProcessArgs(File vmHome);
 
   /**
    * The class path that should be used to run a worker..
@@ -63,7 +63,7 @@ public final class DalvikPlatform extends Platform {
   }
 
   @Override
-  public ImmutableSet<String> workerProcessArgs() {
+  public ImmutableSet<String> workerProcessArgs(File vmHome) {
     return ImmutableSet.of();
   }
 
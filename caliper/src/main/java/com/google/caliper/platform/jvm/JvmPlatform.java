@@ -23,16 +23,22 @@ import com.google.caliper.platform.Platform;
 import com.google.caliper.platform.VirtualMachineException;
 import com.google.caliper.util.Util;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
 import java.lang.management.ManagementFactory;
 import java.util.Collection;
 import java.util.Map;
+import java.util.Properties;
 
 import javax.annotation.Nullable;
 
@@ -55,11 +61,22 @@ public final class JvmPlatform extends Platform {
       // generate classes or don't, but do it immediately
       "-Dsun.reflect.inflationThreshold=0");
 
-  private static final ImmutableSet<String> WORKER_PROCESS_ARGS = ImmutableSet.of(
+  /** Worker args for VMs before JDK 9, which log GC and compilation with their own flags. */
+  private static final ImmutableSet<String> LEGACY_WORKER_PROCESS_ARGS = ImmutableSet.of(
       "-XX:+PrintFlagsFinal",
       "-XX:+PrintCompilation",
       "-XX:+PrintGC");
 
+  /**
+   * Worker args for JDK 9 and later, where {@code -XX:+PrintGC} is deprecated in favor of unified
+   * logging. The decorations are the ones that {@code LogMessageParser} understands.
+   */
+  private static final ImmutableSet<String> UNIFIED_LOGGING_WORKER_PROCESS_ARGS = ImmutableSet.of(
+      "-XX:+PrintFlagsFinal",
+      "-Xlog:gc,jit+compilation=debug:stdout:uptime,level,tags");
+
+  /** The major version of the first JDK with unified logging (JEP 158). */
+  private static final int UNIFIED_LOGGING_VERSION = 9;
 
   private static final Predicate<String> PROPERTIES_TO_RETAIN = new Predicate<String>() {
     @Override public boolean apply(String input) {
@@ -101,8 +118,68 @@ public final class JvmPlatform extends Platform {
   }
 
   @Override
-  public ImmutableSet<String> workerProcessArgs() {
-    return WORKER_PROCESS_ARGS;
+  public ImmutableSet<String> workerProcessArgs(File vmHome) {
+    return (majorVersion(vmHome) >= UNIFIED_LOGGING_VERSION)
+        ? UNIFIED_LOGGING_WORKER_PROCESS_ARGS
+        : LEGACY_WORKER_PROCESS_ARGS;
+  }
+
+  /**
+   * Returns the major version of the JDK installed at {@code javaHome}, from the {@code release}
+   * file that JDKs ship with, or 0 if it can't be determined.
+   */
+  private static int majorVersion(File javaHome) {
+    // a JDK 8 java.home is the jre directory inside the JDK
+    for (File home : new File[] {javaHome, javaHome.getParentFile()}) {
+      if (home == null) {
+        continue;
+      }
+      File release = new File(home, "release");
+      if (release.isFile()) {
+        try {
+          Properties properties = new Properties();
+          Reader reader = Files.newReader(release, Charsets.UTF_8);
+          try {
+            properties.load(reader);
+          } finally {
+            reader.close();
+          }
+          String version = properties.getProperty("JAVA_VERSION");
+          if (version != null) {
+            return majorVersion(CharMatcher.is('"').trimFrom(version));
+          }
+        } catch (IOException e) {
+          // fall through to the checks below
+        }
+      }
+    }
+    if (javaHome.getAbsoluteFile().equals(
+        new File(System.getProperty("java.home")).getAbsoluteFile())) {
+      return majorVersion(System.getProperty("java.specification.version"));
+    }
+    return 0;
+  }
+
+  /**
+   * Returns the major version in a Java version string, for both the old scheme ({@code 1.8.0_292}
+   * is 8) and the one from JEP 223 ({@code 11.0.2} is 11, {@code 17-ea} is 17), or 0 if there
+   * isn't one.
+   */
+  @VisibleForTesting
+  static int majorVersion(String version) {
+    int start = version.startsWith("1.") ? 2 : 0;
+    int end = start;
+    while (end < version.length() && Character.isDigit(version.charAt(end))) {
+      end++;
+    }
+    if (end == start) {
+      return 0;
+    }
+    try {
+      return Integer.parseInt(version.substring(start, end));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
   }
 
   @Override
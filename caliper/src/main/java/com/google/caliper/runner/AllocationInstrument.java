@@ -16,6 +16,7 @@
 
 package com.google.caliper.runner;
 
+import static com.google.caliper.util.Reflection.withBlackhole;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Throwables.propagateIfInstanceOf;
@@ -98,7 +99,7 @@ public final class AllocationInstrument extends Instrument {
       // execute the benchmark method, but don't try to take any measurements, because this JVM
       // may not have the allocation instrumenter agent.
       try {
-        benchmarkMethod.invoke(benchmark, 1);
+        benchmarkMethod.invoke(benchmark, withBlackhole(benchmarkMethod, 1));
       } catch (IllegalAccessException impossible) {
         throw new AssertionError(impossible);
       } catch (InvocationTargetException e) {
@@ -139,7 +140,7 @@ public final class AllocationInstrument extends Instrument {
       // execute the benchmark method, but don't try to take any measurements, because this JVM
       // may not have the allocation instrumenter agent.
       try {
-        benchmarkMethod.invoke(benchmark);
+        benchmarkMethod.invoke(benchmark, withBlackhole(benchmarkMethod));
       } catch (IllegalAccessException impossible) {
         throw new AssertionError(impossible);
       } catch (InvocationTargetException e) {
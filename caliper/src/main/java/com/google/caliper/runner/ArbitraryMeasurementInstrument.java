@@ -23,6 +23,7 @@ import com.google.caliper.api.SkipThisScenarioException;
 import com.google.caliper.bridge.AbstractLogMessageVisitor;
 import com.google.caliper.bridge.StopMeasurementLogMessage;
 import com.google.caliper.model.ArbitraryMeasurement;
+import com.google.caliper.model.LatencyHistogram;
 import com.google.caliper.model.Measurement;
 import com.google.caliper.platform.Platform;
 import com.google.caliper.platform.SupportedPlatform;
@@ -134,11 +135,26 @@ public final class ArbitraryMeasurementInstrument extends Instrument {
       return true;
     }
 
+    @Override
+    public int measurementBudget() {
+      return 1;
+    }
+
     @Override
     public ImmutableList<Measurement> getMeasurements() {
       return ImmutableList.copyOf(measurement.asSet());
     }
 
+    @Override
+    public Optional<Double> getPrecision() {
+      return Optional.absent();
+    }
+
+    @Override
+    public Optional<LatencyHistogram> getLatencyHistogram() {
+      return Optional.absent();
+    }
+
     @Override
     public void visit(StopMeasurementLogMessage logMessage) {
       this.measurement = Optional.of(Iterables.getOnlyElement(logMessage.measurements()));
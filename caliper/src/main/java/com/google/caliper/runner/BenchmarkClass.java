@@ -149,7 +149,7 @@ final class BenchmarkClass {
   private void callSetUp(Object benchmark) throws UserCodeException {
     for (Method method : beforeExperimentMethods()) {
       try {
-        method.invoke(benchmark);
+        method.invoke(benchmark, Reflection.withBlackhole(method));
       } catch (IllegalAccessException e) {
         throw new AssertionError(e);
       } catch (InvocationTargetException e) {
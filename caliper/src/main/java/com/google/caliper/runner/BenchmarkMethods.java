@@ -16,9 +16,15 @@
 
 package com.google.caliper.runner;
 
+import static com.google.caliper.util.Reflection.getAnnotatedMethods;
+import static com.google.caliper.util.Reflection.getParameterTypesWithoutBlackhole;
 import static com.google.common.base.Preconditions.checkArgument;
 
 import com.google.caliper.Benchmark;
+import com.google.caliper.api.AfterRep;
+import com.google.caliper.api.BeforeRep;
+import com.google.caliper.api.Blackhole; // for javadoc
+import com.google.caliper.api.Macrobenchmark; // for javadoc
 import com.google.caliper.util.Util;
 
 import java.lang.reflect.Method;
@@ -37,12 +43,28 @@ final class BenchmarkMethods {
   enum Type {
     MACRO,
     MICRO,
-    PICO;
+    PICO,
+    /**
+     * A {@link Benchmark} method that takes no reps parameter, but is run in a reps loop owned by a
+     * harness class that the worker generates for it.
+     */
+    HARNESSED;
 
     static Type of(Method benchmarkMethod) {
-      Class<?>[] parameterTypes = benchmarkMethod.getParameterTypes();
+      return of(benchmarkMethod, false);
+    }
+
+    /**
+     * Returns the type of the given benchmark method. A trailing {@link Blackhole} parameter does
+     * not affect the type.
+     *
+     * @param generateHarness whether single invocation {@link Benchmark} methods should be run in a
+     *     generated harness rather than timed individually as macrobenchmarks
+     */
+    static Type of(Method benchmarkMethod, boolean generateHarness) {
+      Class<?>[] parameterTypes = getParameterTypesWithoutBlackhole(benchmarkMethod);
       if (Arrays.equals(parameterTypes, MACROBENCHMARK_PARAMS)) {
-        return MACRO;
+        return generateHarness && isHarnessable(benchmarkMethod) ? HARNESSED : MACRO;
       } else if (Arrays.equals(parameterTypes, MICROBENCHMARK_PARAMS)) {
         return MICRO;
       } else if (Arrays.equals(parameterTypes, PICOBENCHMARK_PARAMS)) {
@@ -53,6 +75,18 @@ final class BenchmarkMethods {
     }
   }
 
+  /**
+   * Returns true if the given single invocation method can be run in a generated harness. Methods
+   * that are explicitly {@link Macrobenchmark macrobenchmarks} or whose class has {@link BeforeRep}
+   * or {@link AfterRep} methods rely on being timed one invocation at a time.
+   */
+  private static boolean isHarnessable(Method benchmarkMethod) {
+    Class<?> benchmarkClass = benchmarkMethod.getDeclaringClass();
+    return benchmarkMethod.isAnnotationPresent(Benchmark.class)
+        && getAnnotatedMethods(benchmarkClass, BeforeRep.class).isEmpty()
+        && getAnnotatedMethods(benchmarkClass, AfterRep.class).isEmpty();
+  }
+
   /**
    * Several instruments look for benchmark methods like {@code timeBlah(int reps)}; this is the
    * centralized code that identifies such methods.
@@ -65,13 +99,14 @@ final class BenchmarkMethods {
 
   /**
    * For instruments that use {@link #isTimeMethod} to identify their methods, this method checks
-   * the {@link Method} appropriately.
+   * the {@link Method} appropriately. Like {@link Type#of}, it ignores a trailing {@link Blackhole}
+   * parameter.
    */
   static Method checkTimeMethod(Method timeMethod) throws InvalidBenchmarkException {
     checkArgument(isTimeMethod(timeMethod));
-    Class<?>[] parameterTypes = timeMethod.getParameterTypes();
-    if (!Arrays.equals(parameterTypes, new Class<?>[] {int.class})
-        && !Arrays.equals(parameterTypes, new Class<?>[] {long.class})) {
+    Class<?>[] parameterTypes = getParameterTypesWithoutBlackhole(timeMethod);
+    if (!Arrays.equals(parameterTypes, MICROBENCHMARK_PARAMS)
+        && !Arrays.equals(parameterTypes, PICOBENCHMARK_PARAMS)) {
       throw new InvalidBenchmarkException(
           "Microbenchmark methods must accept a single int parameter: " + timeMethod.getName());
     }
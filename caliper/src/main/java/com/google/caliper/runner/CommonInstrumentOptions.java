@@ -16,6 +16,14 @@
 
 package com.google.caliper.runner;
 
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.caliper.config.InvalidConfigurationException;
+import com.google.caliper.util.ShortDuration;
+import com.google.common.primitives.Ints;
+
+import java.util.Map;
+
 /**
  * Instrument option identifiers shared between instruments.
  */
@@ -26,4 +34,43 @@ final class CommonInstrumentOptions {
   static final String GC_BEFORE_EACH_OPTION = "gcBeforeEach";
   static final String WARMUP_OPTION = "warmup";
   static final String MAX_WARMUP_WALL_TIME_OPTION = "maxWarmupWallTime";
+
+  /**
+   * Checks that the option {@code name}, if it is set, is an integer no less than {@code min}.
+   *
+   * @throws InvalidConfigurationException if it isn't
+   */
+  static void checkIntOption(Map<String, String> options, String name, int min) {
+    String value = options.get(name);
+    if (value == null) {
+      return;
+    }
+    Integer intValue = Ints.tryParse(value);
+    if (intValue == null || intValue < min) {
+      throw new InvalidConfigurationException(String.format(
+          "The %s option must be an integer of at least %d: %s", name, min, value));
+    }
+  }
+
+  /**
+   * Checks that the option {@code name}, if it is set, is a duration that isn't negative.
+   *
+   * @throws InvalidConfigurationException if it isn't
+   */
+  static void checkDurationOption(Map<String, String> options, String name) {
+    String value = options.get(name);
+    if (value == null) {
+      return;
+    }
+    boolean valid;
+    try {
+      valid = ShortDuration.valueOf(value).to(NANOSECONDS) >= 0;
+    } catch (IllegalArgumentException e) {
+      valid = false;
+    }
+    if (!valid) {
+      throw new InvalidConfigurationException(String.format(
+          "The %s option must be a duration such as 100ms: %s", name, value));
+    }
+  }
 }
@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.caliper.runner;
+
+import static com.google.caliper.runner.CommonInstrumentOptions.GC_BEFORE_EACH_OPTION;
+import static com.google.caliper.runner.CommonInstrumentOptions.MAX_WARMUP_WALL_TIME_OPTION;
+import static com.google.caliper.runner.CommonInstrumentOptions.MEASUREMENTS_OPTION;
+import static com.google.caliper.runner.CommonInstrumentOptions.WARMUP_OPTION;
+import static com.google.caliper.runner.CommonInstrumentOptions.checkIntOption;
+import static com.google.caliper.util.Reflection.getParameterTypesWithoutBlackhole;
+import static com.google.caliper.util.Reflection.withBlackhole;
+import static com.google.caliper.util.Util.isStatic;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Throwables.propagateIfInstanceOf;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.caliper.Benchmark;
+import com.google.caliper.api.SkipThisScenarioException;
+import com.google.caliper.bridge.AbstractLogMessageVisitor;
+import com.google.caliper.bridge.GcLogMessage;
+import com.google.caliper.bridge.HotspotLogMessage;
+import com.google.caliper.bridge.StartMeasurementLogMessage;
+import com.google.caliper.bridge.StopMeasurementLogMessage;
+import com.google.caliper.bridge.VmActivity;
+import com.google.caliper.model.LatencyHistogram;
+import com.google.caliper.model.Measurement;
+import com.google.caliper.platform.Platform;
+import com.google.caliper.platform.SupportedPlatform;
+import com.google.caliper.util.ShortDuration;
+import com.google.caliper.worker.ConcurrentWorker;
+import com.google.caliper.worker.Worker;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * The instrument responsible for measuring {@link Benchmark} methods that run on several threads
+ * at once.
+ *
+ * <p>Benchmark methods take an int or long reps parameter, optionally followed by a per-thread
+ * state object whose class has a no-argument constructor. The number of threads is the value of
+ * the benchmark's {@code threads} parameter if it has one, and the {@code threads} option
+ * otherwise. The runner resolves the option to a number of threads and passes that to the worker,
+ * so that both agree on it even if they see different numbers of processors, such as once the
+ * runner has been pinned to a core of its own. Each measurement consists of one {@code runtime} measurement per thread and one
+ * {@code throughput} measurement for all threads together.
+ */
+@SupportedPlatform(Platform.Type.JVM)
+class ConcurrentInstrument extends Instrument {
+  private static final String TIMING_INTERVAL_OPTION = "timingInterval";
+  private static final String THREADS_OPTION = ConcurrentWorker.THREADS_OPTION;
+  private static final int DRY_RUN_REPS = 1;
+
+  private final int availableProcessors;
+
+  ConcurrentInstrument() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  @VisibleForTesting ConcurrentInstrument(int availableProcessors) {
+    this.availableProcessors = availableProcessors;
+  }
+
+  @Override
+  public boolean isBenchmarkMethod(Method method) {
+    return method.isAnnotationPresent(Benchmark.class);
+  }
+
+  @Override
+  protected ImmutableSet<String> instrumentOptions() {
+    return ImmutableSet.of(
+        THREADS_OPTION, WARMUP_OPTION, MAX_WARMUP_WALL_TIME_OPTION, TIMING_INTERVAL_OPTION,
+        MEASUREMENTS_OPTION, GC_BEFORE_EACH_OPTION);
+  }
+
+  @Override void checkOptions() {
+    checkIntOption(options, THREADS_OPTION, 0);
+    checkIntOption(options, MEASUREMENTS_OPTION, 1);
+  }
+
+  /**
+   * Returns the number of threads for benchmarks without a {@code threads} parameter: the value of
+   * the {@code threads} option, or one per processor that was available when this instrument was
+   * created if that is zero.
+   */
+  @VisibleForTesting int threadCount() {
+    String threads = options.get(THREADS_OPTION);
+    int threadCount = (threads == null) ? 0 : Integer.parseInt(threads);
+    return (threadCount > 0) ? threadCount : availableProcessors;
+  }
+
+  @Override
+  public Instrumentation createInstrumentation(Method benchmarkMethod)
+      throws InvalidBenchmarkException {
+    checkNotNull(benchmarkMethod);
+    checkArgument(isBenchmarkMethod(benchmarkMethod));
+    if (isStatic(benchmarkMethod)) {
+      throw new InvalidBenchmarkException("Benchmark methods must not be static: %s",
+          benchmarkMethod.getName());
+    }
+    Class<?>[] parameterTypes = getParameterTypesWithoutBlackhole(benchmarkMethod);
+    if (parameterTypes.length == 0 || parameterTypes.length > 2
+        || (parameterTypes[0] != int.class && parameterTypes[0] != long.class)) {
+      throw new InvalidBenchmarkException("Concurrent benchmark methods must accept an int or "
+          + "long parameter, optionally followed by a per-thread state parameter: %s",
+          benchmarkMethod.getName());
+    }
+    if (parameterTypes.length == 2) {
+      Class<?> stateType = parameterTypes[1];
+      if (stateType.isPrimitive() || stateType.isInterface() || stateType.isArray()) {
+        throw new InvalidBenchmarkException(
+            "Per-thread state parameters must be of a concrete class: %s", stateType);
+      }
+      try {
+        stateType.getDeclaredConstructor();
+      } catch (NoSuchMethodException e) {
+        throw new InvalidBenchmarkException(
+            "Per-thread state class %s must have a no-argument constructor", stateType);
+      }
+    }
+    return new ConcurrentInstrumentation(benchmarkMethod);
+  }
+
+  @Override public TrialSchedulingPolicy schedulingPolicy() {
+    // These trials use several cores by design, so running anything alongside them would only
+    // distort their results.
+    return TrialSchedulingPolicy.SERIAL;
+  }
+
+  private final class ConcurrentInstrumentation extends Instrumentation {
+    ConcurrentInstrumentation(Method benchmarkMethod) {
+      super(benchmarkMethod);
+    }
+
+    @Override public void dryRun(Object benchmark) throws UserCodeException {
+      Class<?> stateType = ConcurrentWorker.threadStateType(benchmarkMethod);
+      try {
+        if (stateType == null) {
+          benchmarkMethod.invoke(benchmark, withBlackhole(benchmarkMethod, DRY_RUN_REPS));
+        } else {
+          Object state = ConcurrentWorker.createThreadState(stateType);
+          try {
+            benchmarkMethod.invoke(benchmark, withBlackhole(benchmarkMethod, DRY_RUN_REPS, state));
+          } finally {
+            ConcurrentWorker.tearDownThreadState(state);
+          }
+        }
+      } catch (IllegalAccessException impossible) {
+        throw new AssertionError(impossible);
+      } catch (InvocationTargetException e) {
+        Throwable userException = e.getCause();
+        propagateIfInstanceOf(userException, SkipThisScenarioException.class);
+        throw new UserCodeException(userException);
+      } catch (Exception e) {
+        // thrown by the state class's constructor or its @BeforeExperiment/@AfterExperiment methods
+        propagateIfInstanceOf(e, SkipThisScenarioException.class);
+        throw new UserCodeException(e);
+      }
+    }
+
+    @Override public ImmutableMap<String, String> workerOptions() {
+      return ImmutableMap.of(
+          TIMING_INTERVAL_OPTION + "Nanos", String.valueOf(
+              ShortDuration.valueOf(options.get(TIMING_INTERVAL_OPTION)).to(NANOSECONDS)),
+          GC_BEFORE_EACH_OPTION, options.get(GC_BEFORE_EACH_OPTION),
+          THREADS_OPTION, String.valueOf(threadCount()));
+    }
+
+    @Override public Class<? extends Worker> workerClass() {
+      return ConcurrentWorker.class;
+    }
+
+    @Override MeasurementCollectingVisitor getMeasurementCollectingVisitor() {
+      return getMeasurementCollectingVisitor(ImmutableMap.<String, String>of());
+    }
+
+    @Override MeasurementCollectingVisitor getMeasurementCollectingVisitor(Experiment experiment) {
+      return getMeasurementCollectingVisitor(experiment.userParameters());
+    }
+
+    private MeasurementCollectingVisitor getMeasurementCollectingVisitor(
+        ImmutableMap<String, String> userParameters) {
+      return new ConcurrentMeasurementCollector(
+          ConcurrentWorker.threadCount(userParameters, workerOptions()),
+          Integer.parseInt(options.get(MEASUREMENTS_OPTION)),
+          ShortDuration.valueOf(options.get(WARMUP_OPTION)),
+          ShortDuration.valueOf(options.get(MAX_WARMUP_WALL_TIME_OPTION)));
+    }
+  }
+
+  /**
+   * Collects the measurements of a concurrent trial, checking that every thread reported a
+   * {@code runtime} measurement for each round.
+   */
+  static final class ConcurrentMeasurementCollector extends AbstractLogMessageVisitor
+      implements MeasurementCollectingVisitor {
+    private final int threads;
+    private final int requiredRounds;
+    private final ShortDuration warmup;
+    private final ShortDuration maxWarmupWallTime;
+    private final List<Measurement> measurements = Lists.newArrayList();
+    private final List<String> messages = Lists.newArrayList();
+    private final Stopwatch timeSinceStartOfTrial = Stopwatch.createUnstarted();
+    private ShortDuration elapsedWarmup = ShortDuration.zero();
+    private int rounds = 0;
+    private boolean warmupComplete = false;
+    private boolean measuring = false;
+    private boolean invalidateMeasurements = false;
+    private boolean notifiedAboutGc = false;
+    private boolean notifiedAboutJit = false;
+    /** Whether the worker reports the GC and compilation that overlapped each round. */
+    private boolean vmActivityReported = false;
+
+    ConcurrentMeasurementCollector(int threads, int requiredRounds, ShortDuration warmup,
+        ShortDuration maxWarmupWallTime) {
+      checkArgument(threads > 0);
+      checkArgument(requiredRounds > 0);
+      this.threads = threads;
+      this.requiredRounds = requiredRounds;
+      this.warmup = warmup;
+      this.maxWarmupWallTime = maxWarmupWallTime;
+    }
+
+    @Override public void visit(GcLogMessage logMessage) {
+      if (measuring && warmupComplete && !vmActivityReported) {
+        gcWhileMeasuring();
+      }
+    }
+
+    @Override public void visit(HotspotLogMessage logMessage) {
+      if (measuring && warmupComplete && !vmActivityReported) {
+        hotspotWhileMeasuring();
+      }
+    }
+
+    private void gcWhileMeasuring() {
+      invalidateMeasurements = true;
+      if (!notifiedAboutGc) {
+        notifiedAboutGc = true;
+        messages.add("ERROR: GC occurred during timing. Measurements were discarded.");
+      }
+    }
+
+    private void hotspotWhileMeasuring() {
+      invalidateMeasurements = true;
+      if (!notifiedAboutJit) {
+        notifiedAboutJit = true;
+        messages.add(
+            "ERROR: Hotspot compilation occurred during timing: warmup is likely insufficent. "
+                + "Measurements were discarded.");
+      }
+    }
+
+    @Override public void visit(StartMeasurementLogMessage logMessage) {
+      checkState(!measuring);
+      measuring = true;
+      if (!timeSinceStartOfTrial.isRunning()) {
+        timeSinceStartOfTrial.start();
+      }
+    }
+
+    @Override public void visit(StopMeasurementLogMessage logMessage) {
+      checkState(measuring);
+      ImmutableList<Measurement> newMeasurements = logMessage.measurements();
+      long slowestThreadNanos = 0;
+      int runtimeMeasurements = 0;
+      for (Measurement measurement : newMeasurements) {
+        if ("runtime".equals(measurement.description())) {
+          runtimeMeasurements++;
+          slowestThreadNanos =
+              Math.max(slowestThreadNanos, (long) measurement.value().magnitude());
+        }
+      }
+      if (runtimeMeasurements != threads) {
+        throw new TrialFailureException(String.format(
+            "Expected a runtime measurement from each of %d threads, but got %d.",
+            threads, runtimeMeasurements));
+      }
+      Optional<VmActivity> vmActivity = logMessage.vmActivity();
+      if (vmActivity.isPresent()) {
+        vmActivityReported = true;
+        if (warmupComplete && vmActivity.get().gcOccurred()) {
+          gcWhileMeasuring();
+        }
+        if (warmupComplete && vmActivity.get().compilationOccurred()) {
+          hotspotWhileMeasuring();
+        }
+      }
+      if (!warmupComplete) {
+        elapsedWarmup = elapsedWarmup.plus(ShortDuration.of(slowestThreadNanos, NANOSECONDS));
+      } else if (invalidateMeasurements) {
+        invalidateMeasurements = false;
+      } else {
+        measurements.addAll(newMeasurements);
+        rounds++;
+      }
+      measuring = false;
+    }
+
+    @Override public boolean isWarmupComplete() {
+      if (!warmupComplete) {
+        warmupComplete = elapsedWarmup.compareTo(warmup) >= 0
+            || timeSinceStartOfTrial.elapsed(MILLISECONDS) > maxWarmupWallTime.to(MILLISECONDS);
+        if (warmupComplete && elapsedWarmup.compareTo(warmup) < 0) {
+          messages.add(String.format(
+              "WARNING: Warmup was interrupted because it took longer than %s of wall-clock time. "
+                  + "%s was spent in the benchmark method for warmup "
+                  + "(normal warmup duration should be %s).",
+              maxWarmupWallTime, elapsedWarmup, warmup));
+        }
+      }
+      return warmupComplete;
+    }
+
+    @Override public int measurementBudget() {
+      return 1;
+    }
+
+    @Override public boolean isDoneCollecting() {
+      return rounds >= requiredRounds;
+    }
+
+    @Override public ImmutableList<Measurement> getMeasurements() {
+      return ImmutableList.copyOf(measurements);
+    }
+
+    @Override public Optional<Double> getPrecision() {
+      return Optional.absent();
+    }
+
+    @Override public Optional<LatencyHistogram> getLatencyHistogram() {
+      return Optional.absent();
+    }
+
+    @Override public ImmutableList<String> getMessages() {
+      return ImmutableList.copyOf(messages);
+    }
+  }
+}
@@ -16,12 +16,17 @@
 
 package com.google.caliper.runner;
 
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
 import com.google.caliper.model.BenchmarkSpec;
 import com.google.caliper.model.InstrumentSpec;
+import com.google.caliper.model.LatencyHistogram;
 import com.google.caliper.model.Measurement;
 import com.google.caliper.model.Scenario;
 import com.google.caliper.model.Trial;
 import com.google.caliper.model.VmSpec;
+import com.google.caliper.util.ShortDuration;
 import com.google.caliper.util.Stdout;
 import com.google.common.base.Function;
 import com.google.common.base.Stopwatch;
@@ -64,6 +69,40 @@ final class ConsoleOutput implements Closeable {
     this.stopwatch = stopwatch;
   }
 
+  /**
+   * Prints how long the run is expected to take in all, and how long its longest trial is expected
+   * to take, along with the time limit for each trial.
+   */
+  void printEstimate(long remainingNanos, long longestTrialNanos, ShortDuration timeLimit) {
+    stdout.printf("Estimated run time: %s (longest trial: %s, time limit per trial: %s)%n",
+        roundToSeconds(remainingNanos), roundToSeconds(longestTrialNanos),
+        ShortDuration.zero().equals(timeLimit) ? "none" : timeLimit);
+    stdout.flush();
+  }
+
+  /**
+   * Prints a warning that the trials of an experiment are expected to take longer than the time
+   * limit allows, which makes them fail.
+   */
+  void printOverTimeLimit(Experiment experiment, long estimateNanos, ShortDuration timeLimit) {
+    stdout.printf("WARNING: Trials of experiment %s are expected to take %s, which exceeds the "
+        + "time limit of %s. The limit may be adjusted using the --time-limit flag.%n",
+        experiment, roundToSeconds(estimateNanos), timeLimit);
+    stdout.flush();
+  }
+
+  /** Prints how many trials have completed and how much longer the rest are expected to take. */
+  void printProgress(long remainingNanos) {
+    stdout.printf("  (%d of %d trials complete, about %s remaining, %s elapsed)%n",
+        trialsCompleted, numberOfTrials, roundToSeconds(remainingNanos),
+        roundToSeconds(stopwatch.elapsed(NANOSECONDS)));
+    stdout.flush();
+  }
+
+  private static ShortDuration roundToSeconds(long nanos) {
+    return ShortDuration.of(NANOSECONDS.toSeconds(nanos), SECONDS);
+  }
+
   /**
    * Prints a short message when we observe a trial failure.
    */  
@@ -113,7 +152,7 @@ final class ConsoleOutput implements Closeable {
       double[] weightedValues = new double[measurements.size()];
       int i = 0;
       for (Measurement measurement : measurements) {
-        weightedValues[i] = measurement.value().magnitude() / measurement.weight();
+        weightedValues[i] = valuePerWeight(measurement);
         i++;
       }
       Percentile percentile = new Percentile();
@@ -127,6 +166,21 @@ final class ConsoleOutput implements Closeable {
           percentile.evaluate(50), descriptiveStatistics.getMean(),
           percentile.evaluate(75), descriptiveStatistics.getMax());
     }
+    if (trial.precision().isPresent()) {
+      // the precision is that of the runtime measurements, not of any rates reported alongside
+      stdout.printf("    95%% confidence interval: mean +/- %.2f%% of the median (%d measurements)%n",
+          trial.precision().get() * 100, measurementsIndex.get("runtime").size());
+    }
+    if (trial.latencyHistogram().isPresent()) {
+      LatencyHistogram histogram = trial.latencyHistogram().get();
+      stdout.printf(
+          "    latency(ns): p50=%d, p90=%d, p99=%d, p99.9=%d, max=%d (%d invocations)%n",
+          histogram.percentile(50), histogram.percentile(90), histogram.percentile(99),
+          histogram.percentile(99.9), histogram.max(), histogram.totalCount());
+    }
+    if (trial.cpuSet().isPresent()) {
+      stdout.printf("    CPUs: %s%n", trial.cpuSet().get());
+    }
     
     instrumentSpecs.add(trial.instrumentSpec());
     Scenario scenario = trial.scenario();
@@ -135,6 +189,16 @@ final class ConsoleOutput implements Closeable {
     numMeasurements += trial.measurements().size();
   }
 
+  /**
+   * Returns the value of a measurement per unit of its weight, e.g. the time per rep. Rates such as
+   * ops/s are already normalized, and their weight only records how many operations they cover.
+   */
+  static double valuePerWeight(Measurement measurement) {
+    return measurement.value().unit().endsWith("/s")
+        ? measurement.value().magnitude()
+        : measurement.value().magnitude() / measurement.weight();
+  }
+
   @Override public void close() {
     if (trialsCompleted == numberOfTrials) {  // if we finished all the trials
       stdout.printf("Collected %d measurements from:%n", numMeasurements);
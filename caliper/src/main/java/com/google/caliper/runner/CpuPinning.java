@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.runner;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.caliper.config.CaliperConfig;
+import com.google.caliper.config.InvalidConfigurationException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Queues;
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Runs {@linkplain TrialSchedulingPolicy#PINNED pinned} trials in parallel, each on CPUs of its
+ * own, as chosen by the {@code runner.cpuPinning} option.
+ *
+ * <p>The host's CPUs are {@linkplain CpuTopology#partition split} into disjoint sets, and a trial
+ * {@linkplain #acquire takes} a set for as long as its worker runs. The runner itself is pinned to
+ * a core that no set includes, and since a worker would otherwise inherit that, every worker is
+ * started under {@code taskset}: a pinned one with its set, and any other with all of the CPUs.
+ */
+@Singleton
+final class CpuPinning {
+  private static final Logger logger = Logger.getLogger(CpuPinning.class.getName());
+  private static final String CPU_PINNING_OPTION = "runner.cpuPinning";
+  private static final String CORES_PER_TRIAL_OPTION = "runner.cpuPinning.coresPerTrial";
+
+  /** The values of the {@code runner.cpuPinning} option. */
+  enum Mode {
+    /** Pinned trials run serially, like any other. */
+    OFF,
+    /** Pinned trials run in parallel, each on a set of CPUs of its own. */
+    ON,
+    /**
+     * Pinned trials run in parallel as for {@link #ON}, and again serially, so that the results of
+     * the two can be {@linkplain PinningValidation compared}.
+     */
+    VALIDATE;
+
+    String optionValue() {
+      return name().toLowerCase(Locale.ROOT);
+    }
+  }
+
+  private final Mode mode;
+  @Nullable private final CpuTopology topology;
+  private final BlockingQueue<CpuSet> freeSets;
+  private final int parallelism;
+
+  @Inject CpuPinning(CaliperConfig config) {
+    this(mode(config.properties().get(CPU_PINNING_OPTION)), config);
+  }
+
+  private CpuPinning(Mode mode, CaliperConfig config) {
+    this(mode, (mode == Mode.OFF) ? null : CpuTopology.forThisProcess(), coresPerTrial(config));
+  }
+
+  /** Pins trials to sets of {@code coresPerTrial} cores of {@code topology}, unless it is off. */
+  @VisibleForTesting CpuPinning(Mode mode, @Nullable CpuTopology topology, int coresPerTrial) {
+    ImmutableList<CpuSet> sets = ImmutableList.of();
+    if (mode != Mode.OFF) {
+      sets = topology.partition(coresPerTrial);
+      logger.fine(String.format("CPU topology: %s, runner: %s, trial CPU sets: %s",
+          topology, topology.runnerCpus(), sets));
+      if (sets.size() < 2) {
+        logger.warning(String.format("Only %d set(s) of %d cores can be made from the cores %s, "
+            + "so trials will run serially (%s=%s)", sets.size(), coresPerTrial, topology,
+            CPU_PINNING_OPTION, mode.optionValue()));
+        mode = Mode.OFF;
+        topology = null;
+        sets = ImmutableList.of();
+      }
+    }
+    this.mode = mode;
+    this.topology = topology;
+    this.freeSets = Queues.newArrayBlockingQueue(Math.max(1, sets.size()));
+    this.freeSets.addAll(sets);
+    this.parallelism = sets.size();
+  }
+
+  private static int coresPerTrial(CaliperConfig config) {
+    String option = config.properties().get(CORES_PER_TRIAL_OPTION);
+    return (option == null) ? 2 : Integer.parseInt(option);
+  }
+
+  private static Mode mode(@Nullable String option) {
+    if (option == null) {
+      return Mode.OFF;
+    }
+    try {
+      return Mode.valueOf(option.toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new InvalidConfigurationException(String.format(
+          "%s must be one of off, on or validate: %s", CPU_PINNING_OPTION, option));
+    }
+  }
+
+  /** Returns whether pinned trials run in parallel. */
+  boolean isEnabled() {
+    return mode != Mode.OFF;
+  }
+
+  /** Returns whether pinned trials also run serially, to validate the parallel results. */
+  boolean isValidating() {
+    return mode == Mode.VALIDATE;
+  }
+
+  /** The number of pinned trials that can run at once, which is the number of sets of CPUs. */
+  int parallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Pins the runner, and the threads that it has started so far, to its reserved core. Threads
+   * that are started later, and worker processes, inherit that.
+   */
+  void pinRunner() {
+    checkState(isEnabled());
+    String name = ManagementFactory.getRuntimeMXBean().getName();
+    String pid = name.substring(0, name.indexOf('@'));
+    ImmutableList<String> command =
+        ImmutableList.of("taskset", "-a", "-p", "-c", topology.runnerCpus().toString(), pid);
+    try {
+      Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+      byte[] output = ByteStreams.toByteArray(process.getInputStream());
+      if (process.waitFor() != 0) {
+        throw new InvalidConfigurationException(String.format(
+            "Could not pin the runner to CPUs %s (%s=%s): %s", topology.runnerCpus(),
+            CPU_PINNING_OPTION, mode.optionValue(), new String(output).trim()));
+      }
+    } catch (IOException e) {
+      throw new InvalidConfigurationException(String.format(
+          "Could not run taskset, which %s=%s needs", CPU_PINNING_OPTION,
+          mode.optionValue()), e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** Takes a set of CPUs for a pinned trial, waiting for one to be released if necessary. */
+  CpuSet acquire() throws InterruptedException {
+    checkState(isEnabled());
+    return freeSets.take();
+  }
+
+  /** Returns a set of CPUs that was {@linkplain #acquire acquired}. */
+  void release(CpuSet cpus) {
+    freeSets.add(cpus);
+  }
+
+  /**
+   * Returns the command line that runs {@code command} on {@code cpus}, or on all of the CPUs if
+   * {@code cpus} is {@code null}.
+   */
+  ImmutableList<String> command(@Nullable CpuSet cpus, ImmutableList<String> command) {
+    if (!isEnabled()) {
+      return command;
+    }
+    CpuSet cpuList = (cpus == null) ? topology.allCpus() : cpus;
+    return ImmutableList.<String>builder()
+        .add("taskset", "-c", cpuList.toString())
+        .addAll(command)
+        .build();
+  }
+}
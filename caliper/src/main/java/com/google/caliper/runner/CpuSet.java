@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.runner;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Sets;
+
+import java.util.Iterator;
+
+/**
+ * A set of CPUs, as numbered by the operating system. Its {@linkplain #toString string form} is the
+ * "cpulist" format of Linux that {@code taskset -c} and the files in {@code /sys} use, such as
+ * {@code 0-3,8-11}.
+ */
+final class CpuSet {
+  private final ImmutableSortedSet<Integer> cpus;
+
+  private CpuSet(ImmutableSortedSet<Integer> cpus) {
+    this.cpus = cpus;
+  }
+
+  static CpuSet of(Iterable<Integer> cpus) {
+    return new CpuSet(ImmutableSortedSet.copyOf(cpus));
+  }
+
+  /** Parses a set in the cpulist format. Whitespace is ignored, and an empty list is empty. */
+  static CpuSet parse(String cpuList) {
+    ImmutableSortedSet.Builder<Integer> cpus = ImmutableSortedSet.naturalOrder();
+    for (String range : Splitter.on(',').omitEmptyStrings().split(cpuList.replaceAll("\\s", ""))) {
+      int dash = range.indexOf('-');
+      try {
+        if (dash < 0) {
+          cpus.add(Integer.parseInt(range));
+        } else {
+          int first = Integer.parseInt(range.substring(0, dash));
+          int last = Integer.parseInt(range.substring(dash + 1));
+          checkArgument(first <= last, "Invalid CPU range: %s", range);
+          for (int cpu = first; cpu <= last; cpu++) {
+            cpus.add(cpu);
+          }
+        }
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid CPU list: " + cpuList, e);
+      }
+    }
+    return new CpuSet(cpus.build());
+  }
+
+  ImmutableSortedSet<Integer> cpus() {
+    return cpus;
+  }
+
+  int size() {
+    return cpus.size();
+  }
+
+  boolean isEmpty() {
+    return cpus.isEmpty();
+  }
+
+  CpuSet intersection(CpuSet that) {
+    return new CpuSet(ImmutableSortedSet.copyOf(Sets.intersection(this.cpus, that.cpus)));
+  }
+
+  @Override public boolean equals(Object obj) {
+    return obj instanceof CpuSet && ((CpuSet) obj).cpus.equals(cpus);
+  }
+
+  @Override public int hashCode() {
+    return cpus.hashCode();
+  }
+
+  @Override public String toString() {
+    StringBuilder builder = new StringBuilder();
+    Iterator<Integer> iterator = cpus.iterator();
+    while (iterator.hasNext()) {
+      int first = iterator.next();
+      int last = first;
+      while (iterator.hasNext()) {
+        int next = iterator.next();
+        if (next != last + 1) {
+          append(builder, first, last);
+          first = next;
+        }
+        last = next;
+      }
+      append(builder, first, last);
+    }
+    return builder.toString();
+  }
+
+  private static void append(StringBuilder builder, int first, int last) {
+    if (builder.length() > 0) {
+      builder.append(',');
+    }
+    builder.append(first);
+    if (last != first) {
+      builder.append('-').append(last);
+    }
+  }
+}
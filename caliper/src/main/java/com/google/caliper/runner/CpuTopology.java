@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.runner;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ContiguousSet;
+import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Range;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+/**
+ * The CPUs that this process may run on, grouped into physical cores and the cores into NUMA nodes,
+ * as Linux describes them under {@code /sys/devices/system}. Hosts that don't describe them look
+ * like a single node of cores that have one CPU each.
+ */
+final class CpuTopology {
+  private static final File SYSTEM_DEVICES = new File("/sys/devices/system");
+  private static final File PROCESS_STATUS = new File("/proc/self/status");
+  private static final Pattern NODE_DIRECTORY = Pattern.compile("node(\\d+)");
+  private static final String CPUS_ALLOWED = "Cpus_allowed_list:";
+
+  /** The cores of each node, in the order of their first CPU. */
+  private final ImmutableList<ImmutableList<CpuSet>> nodes;
+
+  private CpuTopology(ImmutableList<ImmutableList<CpuSet>> nodes) {
+    this.nodes = nodes;
+  }
+
+  /** Returns the topology of the CPUs that this process may run on. */
+  static CpuTopology forThisProcess() {
+    return read(SYSTEM_DEVICES, allowedCpus());
+  }
+
+  /**
+   * Returns the topology of the {@code allowed} CPUs, as described by the {@code node} and
+   * {@code cpu} directories in {@code systemDevices}.
+   */
+  static CpuTopology read(File systemDevices, CpuSet allowed) {
+    // nodes are numbered, but not necessarily from 0 or without gaps
+    SortedMap<Integer, CpuSet> nodeCpus = Maps.newTreeMap();
+    File[] nodeDirectories = new File(systemDevices, "node").listFiles();
+    if (nodeDirectories != null) {
+      for (File nodeDirectory : nodeDirectories) {
+        Matcher matcher = NODE_DIRECTORY.matcher(nodeDirectory.getName());
+        String cpuList = readFirstLine(new File(nodeDirectory, "cpulist"));
+        if (matcher.matches() && cpuList != null) {
+          nodeCpus.put(Integer.parseInt(matcher.group(1)), CpuSet.parse(cpuList));
+        }
+      }
+    }
+    Set<Integer> unassigned = Sets.newTreeSet(allowed.cpus());
+    ImmutableList.Builder<ImmutableList<CpuSet>> nodes = ImmutableList.builder();
+    for (CpuSet cpus : nodeCpus.values()) {
+      List<CpuSet> cores = cores(systemDevices, cpus.intersection(allowed), unassigned);
+      if (!cores.isEmpty()) {
+        nodes.add(ImmutableList.copyOf(cores));
+      }
+    }
+    // CPUs that no node claims, or all of them if there are no nodes, make up one more node
+    List<CpuSet> cores = cores(systemDevices, CpuSet.of(unassigned), unassigned);
+    if (!cores.isEmpty()) {
+      nodes.add(ImmutableList.copyOf(cores));
+    }
+    return new CpuTopology(nodes.build());
+  }
+
+  /**
+   * Groups {@code cpus} into the cores whose threads they are, removing them from
+   * {@code unassigned}.
+   */
+  private static List<CpuSet> cores(File systemDevices, CpuSet cpus, Set<Integer> unassigned) {
+    List<CpuSet> cores = Lists.newArrayList();
+    for (int cpu : cpus.cpus()) {
+      if (!unassigned.contains(cpu)) {
+        continue;
+      }
+      String siblings = readFirstLine(
+          new File(systemDevices, "cpu/cpu" + cpu + "/topology/thread_siblings_list"));
+      // a sibling on another node, if that can even happen, stays there
+      CpuSet core = (siblings == null) ? null : CpuSet.parse(siblings).intersection(cpus);
+      if (core == null || !core.cpus().contains(cpu)) {
+        core = CpuSet.of(ImmutableList.of(cpu));
+      }
+      cores.add(core);
+      unassigned.removeAll(core.cpus());
+    }
+    return cores;
+  }
+
+  /**
+   * Returns the CPUs that this process may run on, which on Linux may be fewer than the host has,
+   * for example under {@code taskset}.
+   */
+  private static CpuSet allowedCpus() {
+    try {
+      for (String line : Files.readLines(PROCESS_STATUS, Charsets.UTF_8)) {
+        if (line.startsWith(CPUS_ALLOWED)) {
+          return CpuSet.parse(line.substring(CPUS_ALLOWED.length()));
+        }
+      }
+    } catch (IOException e) {
+      // not Linux
+    }
+    return CpuSet.of(ContiguousSet.create(
+        Range.closedOpen(0, Runtime.getRuntime().availableProcessors()),
+        DiscreteDomain.integers()));
+  }
+
+  @Nullable private static String readFirstLine(File file) {
+    try {
+      return file.isFile() ? Files.readFirstLine(file, Charsets.UTF_8) : null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /** All of the CPUs. */
+  CpuSet allCpus() {
+    List<Integer> cpus = Lists.newArrayList();
+    for (List<CpuSet> cores : nodes) {
+      for (CpuSet core : cores) {
+        cpus.addAll(core.cpus());
+      }
+    }
+    return CpuSet.of(cpus);
+  }
+
+  /**
+   * The CPUs of the core that is reserved for the runner, which is the first one. Interrupts tend
+   * to be handled there, which makes it the worst core to measure on anyway.
+   */
+  CpuSet runnerCpus() {
+    return nodes.isEmpty() ? CpuSet.of(ImmutableList.<Integer>of()) : nodes.get(0).get(0);
+  }
+
+  /**
+   * Splits the CPUs, but for the {@linkplain #runnerCpus runner's}, into disjoint sets of
+   * {@code coresPerSet} whole cores that are all on one node, so that trials that run on different
+   * sets share neither a core nor the memory of a node. The cores of a node that don't make up a
+   * whole set are left idle, so that every set is the same size.
+   */
+  ImmutableList<CpuSet> partition(int coresPerSet) {
+    checkArgument(coresPerSet > 0, "coresPerSet must be positive: %s", coresPerSet);
+    CpuSet runnerCpus = runnerCpus();
+    ImmutableList.Builder<CpuSet> sets = ImmutableList.builder();
+    for (List<CpuSet> cores : nodes) {
+      List<CpuSet> available = Lists.newArrayList(cores);
+      available.remove(runnerCpus);
+      for (List<CpuSet> setCores : Lists.partition(available, coresPerSet)) {
+        if (setCores.size() == coresPerSet) {
+          List<Integer> cpus = Lists.newArrayList();
+          for (CpuSet core : setCores) {
+            cpus.addAll(core.cpus());
+          }
+          sets.add(CpuSet.of(cpus));
+        }
+      }
+    }
+    return sets.build();
+  }
+
+  /** Lists the cores of each node, such as {@code [[0,4, 1,5], [2,6, 3,7]]}. */
+  @Override public String toString() {
+    return nodes.toString();
+  }
+}
@@ -14,11 +14,14 @@
 
 package com.google.caliper.runner;
 
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.logging.Level.WARNING;
 
 import com.google.caliper.api.ResultProcessor;
 import com.google.caliper.api.SkipThisScenarioException;
 import com.google.caliper.options.CaliperOptions;
+import com.google.caliper.util.ShortDuration;
 import com.google.caliper.util.Stdout;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
@@ -29,6 +32,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Queues;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -40,12 +44,17 @@ import com.google.common.util.concurrent.Uninterruptibles;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Provider;
 
@@ -57,6 +66,9 @@ public final class ExperimentingCaliperRun implements CaliperRun {
 
   private static final Logger logger = Logger.getLogger(ExperimentingCaliperRun.class.getName());
 
+  /** How often to print how much longer the run is expected to take, while trials run. */
+  private static final long PROGRESS_INTERVAL_SECONDS = 30;
+
   private static final AsyncFunction<Throwable, Object> FALLBACK_TO_NULL =
       new AsyncFunction<Throwable, Object>() {
         final ListenableFuture<Object> nullFuture = Futures.immediateFuture(null);
@@ -75,6 +87,8 @@ public final class ExperimentingCaliperRun implements CaliperRun {
   private final ImmutableSet<ResultProcessor> resultProcessors;
   private final ExperimentSelector selector;
   private final Provider<ListeningExecutorService> executorProvider;
+  private final CpuPinning cpuPinning;
+  private final TrialCostModel costModel;
 
   @Inject @VisibleForTesting
   public ExperimentingCaliperRun(
@@ -85,7 +99,9 @@ public final class ExperimentingCaliperRun implements CaliperRun {
       ImmutableSet<Instrument> instruments,
       ImmutableSet<ResultProcessor> resultProcessors,
       ExperimentSelector selector,
-      Provider<ListeningExecutorService> executorProvider) {
+      Provider<ListeningExecutorService> executorProvider,
+      CpuPinning cpuPinning,
+      TrialCostModel costModel) {
     this.mainComponent = mainComponent;
     this.options = options;
     this.stdout = stdout;
@@ -94,6 +110,8 @@ public final class ExperimentingCaliperRun implements CaliperRun {
     this.resultProcessors = resultProcessors;
     this.selector = selector;
     this.executorProvider = executorProvider;
+    this.cpuPinning = cpuPinning;
+    this.costModel = costModel;
   }
 
   @Override
@@ -150,25 +168,44 @@ public final class ExperimentingCaliperRun implements CaliperRun {
 
     stdout.flush();
 
-    int totalTrials = experimentsToRun.size() * options.trialsPerScenario();
     Stopwatch stopwatch = Stopwatch.createStarted();
-    List<ScheduledTrial> trials = createScheduledTrials(experimentsToRun, totalTrials);
+    PinningValidation validation = cpuPinning.isValidating() ? new PinningValidation() : null;
+    List<ScheduledTrial> trials = createScheduledTrials(experimentsToRun, validation);
+    // the serial twins of validated trials only report to the validation
+    int totalTrials = options.trialsPerScenario() * experimentsToRun.size();
 
+    if (cpuPinning.isEnabled()) {
+      // before the executors start any threads, so that they inherit the runner's core
+      cpuPinning.pinRunner();
+    }
     final ListeningExecutorService executor = executorProvider.get();
-    List<ListenableFuture<TrialResult>> pendingTrials = scheduleTrials(trials, executor);
+    final ListeningExecutorService pinnedExecutor = cpuPinning.isEnabled()
+        ? MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(cpuPinning.parallelism()))
+        : executor;
+    int pinnedParallelism = Math.max(cpuPinning.parallelism(), 1);
     ConsoleOutput output = new ConsoleOutput(stdout, totalTrials, stopwatch);
+    printEstimates(output, trials, pinnedParallelism);
+    List<ListenableFuture<TrialResult>> pendingTrials =
+        scheduleTrials(trials, costModel, executor, pinnedExecutor);
     try {
       // Process results as they complete.
       for (ListenableFuture<TrialResult> trialFuture : inCompletionOrder(pendingTrials)) {
         try {
-          TrialResult result = trialFuture.get();
-          output.processTrial(result);
-          for (ResultProcessor resultProcessor : resultProcessors) {
-            resultProcessor.processTrial(result.getTrial());
+          TrialResult result = awaitTrial(trialFuture, output, trials, pinnedParallelism);
+          if (result == null) {
+            // a validation twin, which has already reported to the validation
+            continue;
+          }
+          if (validation != null && result.getExperiment().instrumentation().instrument()
+              .schedulingPolicy() == TrialSchedulingPolicy.PINNED) {
+            validation.processTrial(result);
           }
+          reportTrial(result, output, resultProcessors);
+          output.printProgress(costModel.remainingNanos(trials, pinnedParallelism));
         } catch (ExecutionException e) {
           if (e.getCause() instanceof TrialFailureException) {
             output.processFailedTrial((TrialFailureException) e.getCause());
+            output.printProgress(costModel.remainingNanos(trials, pinnedParallelism));
           } else {
             for (ListenableFuture<?> toCancel : pendingTrials) {
               toCancel.cancel(true);
@@ -186,7 +223,12 @@ public final class ExperimentingCaliperRun implements CaliperRun {
       }
     } finally {
       executor.shutdown();
+      pinnedExecutor.shutdown();
       output.close();
+      costModel.save();
+    }
+    if (validation != null) {
+      validation.print(stdout);
     }
 
     for (ResultProcessor resultProcessor : resultProcessors) {
@@ -198,19 +240,74 @@ public final class ExperimentingCaliperRun implements CaliperRun {
     }
   }
 
+  /** Reports the result of a trial to the console and to each of the result processors. */
+  @VisibleForTesting static void reportTrial(TrialResult result, ConsoleOutput output,
+      Iterable<ResultProcessor> resultProcessors) {
+    output.processTrial(result);
+    for (ResultProcessor resultProcessor : resultProcessors) {
+      resultProcessor.processTrial(result.getTrial());
+    }
+  }
+
+  /**
+   * Prints how long the run is expected to take, and warns about the trials that are expected to
+   * take longer than the time limit allows.
+   */
+  private void printEstimates(ConsoleOutput output, List<ScheduledTrial> trials,
+      int pinnedParallelism) {
+    long longestNanos = 0;
+    Set<Experiment> overLimit = Sets.newLinkedHashSet();
+    for (ScheduledTrial trial : trials) {
+      long estimateNanos = costModel.estimateNanos(trial.experiment());
+      longestNanos = Math.max(longestNanos, estimateNanos);
+      if (!ShortDuration.zero().equals(options.timeLimit())
+          && estimateNanos > options.timeLimit().to(NANOSECONDS)
+          && overLimit.add(trial.experiment())) {
+        output.printOverTimeLimit(trial.experiment(), estimateNanos, options.timeLimit());
+      }
+    }
+    output.printEstimate(
+        costModel.remainingNanos(trials, pinnedParallelism), longestNanos, options.timeLimit());
+  }
+
+  /**
+   * Waits for a trial to finish, printing how much longer the run is expected to take every
+   * {@link #PROGRESS_INTERVAL_SECONDS} in the meantime. Returns {@code null} for a
+   * {@linkplain #validationTwin validation twin}.
+   */
+  @Nullable private TrialResult awaitTrial(ListenableFuture<TrialResult> trialFuture, ConsoleOutput output,
+      List<ScheduledTrial> trials, int pinnedParallelism)
+      throws ExecutionException, InterruptedException {
+    while (true) {
+      try {
+        return trialFuture.get(PROGRESS_INTERVAL_SECONDS, SECONDS);
+      } catch (TimeoutException e) {
+        output.printProgress(costModel.remainingNanos(trials, pinnedParallelism));
+      }
+    }
+  }
+
   /**
    * Schedule all the trials.
    *
    * <p>This method arranges all the {@link ScheduledTrial trials} to run according to their
    * scheduling criteria.  The executor instance is responsible for enforcing max parallelism.
+   * {@linkplain TrialSchedulingPolicy#PINNED Pinned} trials run once the parallel ones have
+   * finished, on {@code pinnedExecutor}, which runs as many at once as there are sets of CPUs, and
+   * the serial trials once the pinned ones have finished. Parallel and pinned trials are submitted
+   * {@linkplain TrialCostModel#longestFirst longest first}, which is the order they start in.
    */
-  private List<ListenableFuture<TrialResult>> scheduleTrials(List<ScheduledTrial> trials,
-      final ListeningExecutorService executor) {
+  @VisibleForTesting static List<ListenableFuture<TrialResult>> scheduleTrials(
+      List<ScheduledTrial> trials, TrialCostModel costModel,
+      final ListeningExecutorService executor, final ListeningExecutorService pinnedExecutor) {
     List<ListenableFuture<TrialResult>> pendingTrials = Lists.newArrayList();
+    List<ScheduledTrial> pinnedTrials = Lists.newArrayList();
     List<ScheduledTrial> serialTrials = Lists.newArrayList();
-    for (final ScheduledTrial scheduledTrial : trials) {
+    for (final ScheduledTrial scheduledTrial : costModel.longestFirst(trials)) {
       if (scheduledTrial.policy() == TrialSchedulingPolicy.PARALLEL) {
         pendingTrials.add(executor.submit(scheduledTrial.trialTask()));
+      } else if (scheduledTrial.policy() == TrialSchedulingPolicy.PINNED) {
+        pinnedTrials.add(scheduledTrial);
       } else {
         serialTrials.add(scheduledTrial);
       }
@@ -218,6 +315,21 @@ public final class ExperimentingCaliperRun implements CaliperRun {
     // A future representing the completion of all prior tasks. Futures.successfulAsList allows us
     // to ignore failure.
     ListenableFuture<?> previous = Futures.successfulAsList(pendingTrials);
+    if (!pinnedTrials.isEmpty()) {
+      List<ListenableFuture<TrialResult>> pendingPinnedTrials = Lists.newArrayList();
+      for (final ScheduledTrial scheduledTrial : pinnedTrials) {
+        pendingPinnedTrials.add(Futures.transformAsync(
+            previous,
+            new AsyncFunction<Object, TrialResult>() {
+              @Override public ListenableFuture<TrialResult> apply(Object ignored) {
+                return pinnedExecutor.submit(scheduledTrial.trialTask());
+              }
+            },
+            MoreExecutors.directExecutor()));
+      }
+      pendingTrials.addAll(pendingPinnedTrials);
+      previous = Futures.successfulAsList(pendingPinnedTrials);
+    }
     for (final ScheduledTrial scheduledTrial : serialTrials) {
       // each of these trials can only start after all prior trials have finished, so we use
       // Futures.transform to force the sequencing.
@@ -236,27 +348,60 @@ public final class ExperimentingCaliperRun implements CaliperRun {
     return pendingTrials;
   }
 
-  /** Returns all the ScheduledTrials for this run. */
+  /**
+   * Returns all the ScheduledTrials for this run. Pinned trials run serially unless
+   * {@link CpuPinning} is enabled, and when it is validating, each of them has a serial twin that
+   * only reports to {@code validation}.
+   */
   private List<ScheduledTrial> createScheduledTrials(ImmutableSet<Experiment> experimentsToRun,
-      int totalTrials) {
-    List<ScheduledTrial> trials = Lists.newArrayListWithCapacity(totalTrials);
+      @Nullable PinningValidation validation) {
+    List<ScheduledTrial> trials = Lists.newArrayList();
     /** This is 1-indexed because it's only used for display to users.  E.g. "Trial 1 of 27" */
     int trialNumber = 1;
     for (int i = 0; i < options.trialsPerScenario(); i++) {
       for (Experiment experiment : experimentsToRun) {
-        try {
-          TrialScopeComponent trialScopeComponent = mainComponent.newTrialComponent(
-              new TrialModule(UUID.randomUUID(), trialNumber, experiment));
-
-          trials.add(trialScopeComponent.getScheduledTrial());
-        } finally {
-          trialNumber++;
+        TrialSchedulingPolicy policy = experiment.instrumentation().instrument().schedulingPolicy();
+        if (policy == TrialSchedulingPolicy.PINNED && !cpuPinning.isEnabled()) {
+          policy = TrialSchedulingPolicy.SERIAL;
+        }
+        trials.add(createScheduledTrial(experiment, trialNumber++, policy));
+        if (policy == TrialSchedulingPolicy.PINNED && cpuPinning.isValidating()) {
+          trials.add(validationTwin(
+              createScheduledTrial(experiment, trialNumber++, TrialSchedulingPolicy.SERIAL),
+              validation));
         }
       }
     }
     return trials;
   }
 
+  /**
+   * Returns a trial that runs {@code twin} for {@code validation} alone: its result is recorded by
+   * the validation rather than returned, so that it is neither printed nor passed to the result
+   * processors, and its failure is only logged. Its task returns {@code null}.
+   */
+  @VisibleForTesting static ScheduledTrial validationTwin(final ScheduledTrial twin,
+      final PinningValidation validation) {
+    return new ScheduledTrial(twin.experiment(), new Callable<TrialResult>() {
+      @Override public TrialResult call() throws Exception {
+        try {
+          validation.processTrial(twin.trialTask().call());
+        } catch (TrialFailureException e) {
+          logger.log(WARNING,
+              "The serial trial to validate pinning failed for " + twin.experiment(), e);
+        }
+        return null;
+      }
+    }, twin.policy(), twin.progress());
+  }
+
+  private ScheduledTrial createScheduledTrial(Experiment experiment, int trialNumber,
+      TrialSchedulingPolicy policy) {
+    TrialScopeComponent trialScopeComponent = mainComponent.newTrialComponent(
+        new TrialModule(UUID.randomUUID(), trialNumber, experiment, policy));
+    return trialScopeComponent.getScheduledTrial();
+  }
+
   /**
    * Attempts to run each given scenario once, in the current VM. Returns a set of all of the
    * scenarios that didn't throw a {@link SkipThisScenarioException}.
@@ -58,7 +58,12 @@ import javax.inject.Singleton;
  */
 @Module
 final class ExperimentingRunnerModule {
-  private static final String RUNNER_MAX_PARALLELISM_OPTION = "runner.maxParallelism";
+  static final String RUNNER_MAX_PARALLELISM_OPTION = "runner.maxParallelism";
+
+  @Provides(type = Type.SET)
+  static Service provideSelectorService(SelectorService impl) {
+    return impl;
+  }
 
   @Provides(type = Type.SET)
   static Service provideServerSocketService(ServerSocketService impl) {
@@ -70,26 +75,31 @@ final class ExperimentingRunnerModule {
     return impl;
   }
 
-  @Provides
-  static TrialOutputFactory provideTrialOutputFactory(TrialOutputFactoryService impl) {
+  @Provides(type = Type.SET)
+  static Service provideWorkerPool(WorkerPool impl) {
     return impl;
   }
 
   @Provides
-  static ExperimentSelector provideExperimentSelector(FullCartesianExperimentSelector impl) {
+  @Singleton
+  static ShutdownHookRegistrar provideShutdownHookRegistrar() {
+    return new RuntimeShutdownHookRegistrar();
+  }
+
+  @Provides
+  static TrialOutputFactory provideTrialOutputFactory(TrialOutputFactoryService impl) {
     return impl;
   }
 
   @Provides
-  static ListeningExecutorService provideExecutorService(CaliperConfig config) {
-    int poolSize = Integer.parseInt(config.properties().get(RUNNER_MAX_PARALLELISM_OPTION));
-    return MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(poolSize));
+  static ExperimentSelector provideExperimentSelector(FullCartesianExperimentSelector impl) {
+    return impl;
   }
 
-  @LocalPort
   @Provides
-  static int providePortNumber(ServerSocketService serverSocketService) {
-    return serverSocketService.getPort();
+  static ListeningExecutorService provideExecutorService(HostResources hostResources) {
+    return MoreExecutors.listeningDecorator(
+        Executors.newFixedThreadPool(hostResources.parallelism()));
   }
 
   /**
@@ -169,11 +179,35 @@ final class ExperimentingRunnerModule {
     return new AllocationInstrument();
   }
 
+  @Provides(type = Type.MAP)
+  @InstrumentClassKey(ThreadAllocationInstrument.class)
+  static Instrument provideThreadAllocationInstrument() {
+    return new ThreadAllocationInstrument();
+  }
+
+  @Provides(type = Type.MAP)
+  @InstrumentClassKey(FootprintInstrument.class)
+  static Instrument provideFootprintInstrument() {
+    return new FootprintInstrument();
+  }
+
+  @Provides(type = Type.MAP)
+  @InstrumentClassKey(ConcurrentInstrument.class)
+  static Instrument provideConcurrentInstrument() {
+    return new ConcurrentInstrument();
+  }
+
+  @Provides(type = Type.MAP)
+  @InstrumentClassKey(ThroughputInstrument.class)
+  static Instrument provideThroughputInstrument() {
+    return new ThroughputInstrument();
+  }
+
   @Provides(type = Type.MAP)
   @InstrumentClassKey(RuntimeInstrument.class)
   static Instrument provideRuntimeInstrument(
-      @NanoTimeGranularity ShortDuration nanoTimeGranularity) {
-    return new RuntimeInstrument(nanoTimeGranularity);
+      @NanoTimeGranularity ShortDuration nanoTimeGranularity, Platform platform) {
+    return new RuntimeInstrument(nanoTimeGranularity, platform);
   }
 
   @Provides
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.caliper.runner;
+
+import static com.google.caliper.runner.CommonInstrumentOptions.MEASUREMENTS_OPTION;
+import static com.google.caliper.runner.CommonInstrumentOptions.checkIntOption;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Throwables.propagateIfInstanceOf;
+
+import com.google.caliper.api.Footprint;
+import com.google.caliper.api.SkipThisScenarioException;
+import com.google.caliper.bridge.AbstractLogMessageVisitor;
+import com.google.caliper.bridge.StopMeasurementLogMessage;
+import com.google.caliper.model.LatencyHistogram;
+import com.google.caliper.model.Measurement;
+import com.google.caliper.platform.Platform;
+import com.google.caliper.platform.SupportedPlatform;
+import com.google.caliper.util.Util;
+import com.google.caliper.worker.FootprintWorker;
+import com.google.caliper.worker.Worker;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Instrument that measures the memory footprint of the object graph returned by a
+ * {@link Footprint} method: the number of objects, references and primitive values that are
+ * reachable from it, and an estimate of their size in bytes, broken down by class and by field
+ * path. Instances of the types listed in {@link Footprint#exclude()} are not counted or explored.
+ */
+@SupportedPlatform(Platform.Type.JVM)
+class FootprintInstrument extends Instrument {
+  private static final String BREAKDOWN_OPTION = "breakdown";
+
+  @Override public boolean isBenchmarkMethod(Method method) {
+    return method.isAnnotationPresent(Footprint.class);
+  }
+
+  @Override
+  protected ImmutableSet<String> instrumentOptions() {
+    return ImmutableSet.of(MEASUREMENTS_OPTION, BREAKDOWN_OPTION);
+  }
+
+  @Override void checkOptions() {
+    checkIntOption(options, MEASUREMENTS_OPTION, 1);
+    checkIntOption(options, BREAKDOWN_OPTION, 0);
+  }
+
+  @Override
+  public Instrumentation createInstrumentation(Method benchmarkMethod)
+      throws InvalidBenchmarkException {
+    checkNotNull(benchmarkMethod);
+    checkArgument(isBenchmarkMethod(benchmarkMethod));
+    if (benchmarkMethod.getParameterTypes().length != 0) {
+      throw new InvalidBenchmarkException(
+          "Footprint methods should take no parameters: %s", benchmarkMethod.getName());
+    }
+    if (benchmarkMethod.getReturnType().isPrimitive()) {
+      throw new InvalidBenchmarkException(
+          "Footprint methods must return an object: %s", benchmarkMethod.getName());
+    }
+    if (Util.isStatic(benchmarkMethod)) {
+      throw new InvalidBenchmarkException(
+          "Footprint methods must not be static: %s", benchmarkMethod.getName());
+    }
+    return new FootprintInstrumentation(benchmarkMethod);
+  }
+
+  @Override public TrialSchedulingPolicy schedulingPolicy() {
+    // The footprint of an object graph doesn't depend on what else the machine is doing.
+    return TrialSchedulingPolicy.PARALLEL;
+  }
+
+  private final class FootprintInstrumentation extends Instrumentation {
+    FootprintInstrumentation(Method benchmarkMethod) {
+      super(benchmarkMethod);
+    }
+
+    @Override public void dryRun(Object benchmark) throws InvalidBenchmarkException {
+      Object root;
+      try {
+        root = benchmarkMethod.invoke(benchmark);
+      } catch (IllegalAccessException impossible) {
+        throw new AssertionError(impossible);
+      } catch (InvocationTargetException e) {
+        Throwable userException = e.getCause();
+        propagateIfInstanceOf(userException, SkipThisScenarioException.class);
+        throw new UserCodeException(userException);
+      }
+      if (root == null) {
+        throw new InvalidBenchmarkException(
+            "Footprint methods must not return null: %s", benchmarkMethod.getName());
+      }
+    }
+
+    @Override public ImmutableMap<String, String> workerOptions() {
+      return ImmutableMap.of(BREAKDOWN_OPTION, options.get(BREAKDOWN_OPTION));
+    }
+
+    @Override public Class<? extends Worker> workerClass() {
+      return FootprintWorker.class;
+    }
+
+    @Override MeasurementCollectingVisitor getMeasurementCollectingVisitor() {
+      return new FootprintMeasurementCollector(
+          Integer.parseInt(options.get(MEASUREMENTS_OPTION)));
+    }
+  }
+
+  /**
+   * Collects one measurement of each description per object graph, and warns if the graphs that
+   * the footprint method builds aren't all the same size.
+   */
+  static final class FootprintMeasurementCollector extends AbstractLogMessageVisitor
+      implements MeasurementCollectingVisitor {
+    private final int requiredGraphs;
+    private final List<Measurement> measurements = Lists.newArrayList();
+    private final Map<String, Double> firstMagnitudes = Maps.newHashMap();
+    private final List<String> messages = Lists.newArrayList();
+    private int measuredGraphs = 0;
+
+    FootprintMeasurementCollector(int requiredGraphs) {
+      checkArgument(requiredGraphs > 0);
+      this.requiredGraphs = requiredGraphs;
+    }
+
+    @Override public void visit(StopMeasurementLogMessage logMessage) {
+      for (Measurement measurement : logMessage.measurements()) {
+        Double first = firstMagnitudes.get(measurement.description());
+        if (first == null) {
+          firstMagnitudes.put(measurement.description(), measurement.value().magnitude());
+        } else if (first != measurement.value().magnitude() && messages.isEmpty()) {
+          messages.add("WARNING: The footprint method returned object graphs of different sizes. "
+              + "Consider building the same graph on every call.");
+        }
+        measurements.add(measurement);
+      }
+      measuredGraphs++;
+    }
+
+    @Override public boolean isDoneCollecting() {
+      return measuredGraphs >= requiredGraphs;
+    }
+
+    @Override public boolean isWarmupComplete() {
+      return true;
+    }
+
+    @Override public int measurementBudget() {
+      return requiredGraphs;
+    }
+
+    @Override public ImmutableList<Measurement> getMeasurements() {
+      return ImmutableList.copyOf(measurements);
+    }
+
+    @Override public Optional<Double> getPrecision() {
+      return Optional.absent();
+    }
+
+    @Override public Optional<LatencyHistogram> getLatencyHistogram() {
+      return Optional.absent();
+    }
+
+    @Override public ImmutableList<String> getMessages() {
+      return ImmutableList.copyOf(messages);
+    }
+  }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.runner;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.caliper.config.CaliperConfig;
+import com.google.caliper.config.InvalidConfigurationException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.common.primitives.Longs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * The CPUs and memory that trials may use, which decide how many trials run in parallel.
+ *
+ * <p>The CPUs are the ones that this process may use, unless a cgroup CPU quota allows fewer, and
+ * the memory is what {@code /proc/meminfo} reports as available, unless the cgroup memory limit
+ * leaves less. With {@code runner.maxParallelism=auto}, as many trials run in parallel as there are
+ * CPUs but one, which is left to the runner and the operating system. Independently of that, a
+ * worker is only started once the memory it may use, which is its maximum heap and an allowance
+ * for the rest of the VM, can be {@linkplain #reserve reserved}.
+ */
+@Singleton
+final class HostResources {
+  private static final Logger logger = Logger.getLogger(HostResources.class.getName());
+
+  private static final String MAX_PARALLELISM_OPTION =
+      ExperimentingRunnerModule.RUNNER_MAX_PARALLELISM_OPTION;
+  private static final String AUTO = "auto";
+
+  private static final File PROC_MEMINFO = new File("/proc/meminfo");
+  private static final File CGROUP_ROOT = new File("/sys/fs/cgroup");
+
+  private static final long MB = 1024 * 1024;
+
+  /** Memory that is left to the runner, the operating system and everything else on the host. */
+  private static final long HEADROOM_BYTES = 512 * MB;
+
+  /** The memory that a worker VM uses besides its heap: code, metaspace, thread stacks, etc. */
+  private static final long NON_HEAP_BYTES = 256 * MB;
+
+  private final int cpus;
+  /** The memory of the host or cgroup, of which a VM's default maximum heap is a quarter. */
+  private final long totalMemoryBytes;
+  /** The memory that workers may reserve between them. */
+  private final long memoryBudgetBytes;
+  private final int parallelism;
+
+  @GuardedBy("this") private long reservedBytes;
+
+  @Inject HostResources(CaliperConfig config) {
+    this(config, PROC_MEMINFO, CGROUP_ROOT, Runtime.getRuntime().availableProcessors());
+  }
+
+  @VisibleForTesting HostResources(
+      CaliperConfig config, File memInfo, File cgroupRoot, int availableProcessors) {
+    this.cpus = Math.max(Math.min(availableProcessors, cgroupCpus(cgroupRoot)), 1);
+
+    Long memTotal = memInfoBytes(memInfo, "MemTotal");
+    Long memAvailable = memInfoBytes(memInfo, "MemAvailable");
+    Long cgroupLimit = firstLong(
+        new File(cgroupRoot, "memory.max"), new File(cgroupRoot, "memory/memory.limit_in_bytes"));
+    Long cgroupUsage = firstLong(new File(cgroupRoot, "memory.current"),
+        new File(cgroupRoot, "memory/memory.usage_in_bytes"));
+    long total = Long.MAX_VALUE;
+    long available = Long.MAX_VALUE;
+    if (memTotal != null) {
+      total = memTotal;
+      available = (memAvailable == null) ? memTotal : memAvailable;
+    }
+    // cgroup v1 reports an unlimited limit as a huge number, which the minimum takes care of
+    if (cgroupLimit != null) {
+      total = Math.min(total, cgroupLimit);
+      available = Math.min(available, cgroupLimit - (cgroupUsage == null ? 0 : cgroupUsage));
+    }
+    this.totalMemoryBytes = total;
+    this.memoryBudgetBytes = (available == Long.MAX_VALUE)
+        ? Long.MAX_VALUE
+        : Math.max(available - HEADROOM_BYTES, NON_HEAP_BYTES);
+
+    String maxParallelism = config.properties().get(MAX_PARALLELISM_OPTION);
+    if (maxParallelism == null || maxParallelism.equals(AUTO)) {
+      this.parallelism = Math.max(cpus - 1, 1);
+    } else {
+      try {
+        this.parallelism = Integer.parseInt(maxParallelism);
+      } catch (NumberFormatException e) {
+        throw new InvalidConfigurationException(String.format(
+            "%s must be a number or %s: %s", MAX_PARALLELISM_OPTION, AUTO, maxParallelism), e);
+      }
+      if (parallelism < 1) {
+        throw new InvalidConfigurationException(String.format(
+            "%s must be positive: %s", MAX_PARALLELISM_OPTION, maxParallelism));
+      }
+    }
+    logger.fine(String.format("CPUs: %d, memory for workers: %s, parallel trials: %d",
+        cpus, memoryBudgetBytes == Long.MAX_VALUE ? "unknown" : memoryBudgetBytes / MB + "MB",
+        parallelism));
+  }
+
+  /** The number of CPUs that this process may use. */
+  int cpus() {
+    return cpus;
+  }
+
+  /** The number of trials that run in parallel, at most, subject to there being memory for them. */
+  int parallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Returns the memory that a worker started by {@code command} reserves: its maximum heap, as
+   * set by the last {@code -Xmx} or {@code -XX:MaxHeapSize}, or else the VM's default of a quarter
+   * of the memory, and {@link #NON_HEAP_BYTES} for the rest of the VM. A worker that needs more
+   * than there is reserves all of it, so that it can at least run on its own.
+   */
+  long workerBytes(List<String> command) {
+    Long maxHeap = null;
+    long initialHeap = 0;
+    for (String arg : command) {
+      if (arg.startsWith("-Xmx")) {
+        maxHeap = parseSize(arg.substring("-Xmx".length()));
+      } else if (arg.startsWith("-XX:MaxHeapSize=")) {
+        maxHeap = parseSize(arg.substring("-XX:MaxHeapSize=".length()));
+      } else if (arg.startsWith("-Xms")) {
+        initialHeap = parseSize(arg.substring("-Xms".length()));
+      }
+    }
+    long heap = (maxHeap == null)
+        ? (totalMemoryBytes == Long.MAX_VALUE ? 0 : totalMemoryBytes / 4)
+        : maxHeap;
+    return Math.min(Math.max(heap, initialHeap) + NON_HEAP_BYTES, memoryBudgetBytes);
+  }
+
+  /** Parses a VM memory size such as {@code 3g}, {@code 512m} or {@code 1048576}. */
+  @VisibleForTesting static long parseSize(String size) {
+    checkArgument(!size.isEmpty(), "Invalid memory size: %s", size);
+    long multiplier;
+    switch (Character.toLowerCase(size.charAt(size.length() - 1))) {
+      case 'k':
+        multiplier = 1024;
+        break;
+      case 'm':
+        multiplier = MB;
+        break;
+      case 'g':
+        multiplier = 1024 * MB;
+        break;
+      case 't':
+        multiplier = 1024 * 1024 * MB;
+        break;
+      default:
+        multiplier = 1;
+    }
+    String digits = (multiplier == 1) ? size : size.substring(0, size.length() - 1);
+    Long value = Longs.tryParse(digits);
+    checkArgument(value != null && value >= 0, "Invalid memory size: %s", size);
+    return value * multiplier;
+  }
+
+  /**
+   * Reserves {@code bytes} of memory for a worker, if that much is free. Reservations are
+   * {@linkplain #release released} when the worker exits.
+   */
+  synchronized boolean tryReserve(long bytes) {
+    if (memoryBudgetBytes - reservedBytes < bytes) {
+      return false;
+    }
+    reservedBytes += bytes;
+    return true;
+  }
+
+  /** Reserves {@code bytes} of memory for a worker, waiting for other workers to exit if needed. */
+  synchronized void reserve(long bytes) throws InterruptedException {
+    while (!tryReserve(bytes)) {
+      wait();
+    }
+  }
+
+  synchronized void release(long bytes) {
+    reservedBytes -= bytes;
+    notifyAll();
+  }
+
+  private static int cgroupCpus(File cgroupRoot) {
+    // cgroup v2: "<quota> <period>", or "max <period>" for no quota
+    String cpuMax = readFirstLine(new File(cgroupRoot, "cpu.max"));
+    Long quota = null;
+    Long period = null;
+    if (cpuMax != null) {
+      List<String> fields = Splitter.on(' ').omitEmptyStrings().splitToList(cpuMax);
+      if (fields.size() == 2) {
+        quota = Longs.tryParse(fields.get(0));
+        period = Longs.tryParse(fields.get(1));
+      }
+    } else {
+      // cgroup v1, where a quota of -1 means none
+      for (String controller : ImmutableList.of("cpu", "cpu,cpuacct")) {
+        File directory = new File(cgroupRoot, controller);
+        Long v1Quota = readLong(new File(directory, "cpu.cfs_quota_us"));
+        if (v1Quota != null) {
+          quota = v1Quota;
+          period = readLong(new File(directory, "cpu.cfs_period_us"));
+          break;
+        }
+      }
+    }
+    if (quota == null || period == null || quota <= 0 || period <= 0) {
+      return Integer.MAX_VALUE;
+    }
+    return (int) Math.max((quota + period - 1) / period, 1);
+  }
+
+  /** Returns the value of a field of {@code /proc/meminfo}, in bytes. */
+  @Nullable private static Long memInfoBytes(File memInfo, String field) {
+    if (!memInfo.isFile()) {
+      return null;
+    }
+    try {
+      for (String line : Files.readLines(memInfo, Charsets.UTF_8)) {
+        // e.g. "MemTotal:       16314592 kB"
+        if (line.startsWith(field + ":")) {
+          List<String> fields = Splitter.on(' ').omitEmptyStrings()
+              .splitToList(line.substring(field.length() + 1).trim());
+          Long value = fields.isEmpty() ? null : Longs.tryParse(fields.get(0));
+          if (value == null) {
+            return null;
+          }
+          boolean kilobytes =
+              fields.size() > 1 && fields.get(1).toLowerCase(Locale.ROOT).equals("kb");
+          return kilobytes ? value * 1024 : value;
+        }
+      }
+    } catch (IOException e) {
+      logger.fine("Could not read " + memInfo + ": " + e);
+    }
+    return null;
+  }
+
+  @Nullable private static Long firstLong(File... files) {
+    for (File file : files) {
+      Long value = readLong(file);
+      if (value != null) {
+        return value;
+      }
+    }
+    return null;
+  }
+
+  /** Returns the number in {@code file}, or {@code null} if it holds none, such as "max". */
+  @Nullable private static Long readLong(File file) {
+    String line = readFirstLine(file);
+    return (line == null) ? null : Longs.tryParse(line.trim());
+  }
+
+  @Nullable private static String readFirstLine(File file) {
+    try {
+      return file.isFile() ? Files.readFirstLine(file, Charsets.UTF_8) : null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+}
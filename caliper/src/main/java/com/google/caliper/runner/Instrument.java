@@ -22,12 +22,15 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import com.google.caliper.bridge.AbstractLogMessageVisitor;
 import com.google.caliper.bridge.LogMessageVisitor;
 import com.google.caliper.bridge.StopMeasurementLogMessage;
+import com.google.caliper.config.InvalidConfigurationException;
 import com.google.caliper.config.VmConfig;
 import com.google.caliper.model.InstrumentSpec;
+import com.google.caliper.model.LatencyHistogram;
 import com.google.caliper.model.Measurement;
 import com.google.caliper.worker.Worker;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Objects;
+import com.google.common.base.Optional;
 import com.google.common.base.Predicates;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
@@ -47,8 +50,17 @@ public abstract class Instrument {
   @Inject void setOptions(@InstrumentOptions ImmutableMap<String, String> options) {
     this.options = ImmutableMap.copyOf(
         Maps.filterKeys(options, Predicates.in(instrumentOptions())));
+    checkOptions();
   }
 
+  /**
+   * Checks the values of the options as soon as they are set, so that a bad value fails the run
+   * before any trial starts rather than each trial in turn. Does nothing by default.
+   *
+   * @throws InvalidConfigurationException if an option has an invalid value
+   */
+  void checkOptions() {}
+
   @Inject void setInstrumentName(@InstrumentName String name) {
     this.name = name;
   }
@@ -128,6 +140,15 @@ public abstract class Instrument {
     }
 
     abstract MeasurementCollectingVisitor getMeasurementCollectingVisitor();
+
+    /**
+     * Returns the visitor that collects the measurements of a trial of the given experiment. This
+     * is {@link #getMeasurementCollectingVisitor()} unless what the visitor expects depends on the
+     * experiment's parameters.
+     */
+    MeasurementCollectingVisitor getMeasurementCollectingVisitor(Experiment experiment) {
+      return getMeasurementCollectingVisitor();
+    }
   }
 
   public final ImmutableMap<String, String> options() {
@@ -162,7 +183,27 @@ public abstract class Instrument {
   interface MeasurementCollectingVisitor extends LogMessageVisitor {
     boolean isDoneCollecting();
     boolean isWarmupComplete();
+    /**
+     * Returns the number of measurements that the worker should take and report, once it has been
+     * told to continue, before it waits for the runner again. This is called after
+     * {@link #isWarmupComplete}, whose result is sent to the worker along with it.
+     *
+     * <p>A budget of 1 makes the worker wait for an ack after every measurement. Larger budgets
+     * save a round trip per measurement, but the visitor only gets to change the warmup state or
+     * stop the worker at the end of each budget.
+     */
+    int measurementBudget();
     ImmutableList<Measurement> getMeasurements();
+    /**
+     * Returns the precision that the measurements collected so far achieve, as described by
+     * {@link com.google.caliper.model.Trial#precision}, if this visitor computes it.
+     */
+    Optional<Double> getPrecision();
+    /**
+     * Returns the latencies of the individual invocations behind the measurements collected so
+     * far, if the worker recorded them.
+     */
+    Optional<LatencyHistogram> getLatencyHistogram();
     /**
      * Returns all the messages created while collecting measurments.
      * 
@@ -220,10 +261,22 @@ public abstract class Instrument {
       return true;
     }
 
+    @Override public int measurementBudget() {
+      return 1;
+    }
+
     @Override public ImmutableList<Measurement> getMeasurements() {
       return ImmutableList.copyOf(measurementsByDescription.values());
     }
 
+    @Override public Optional<Double> getPrecision() {
+      return Optional.absent();
+    }
+
+    @Override public Optional<LatencyHistogram> getLatencyHistogram() {
+      return Optional.absent();
+    }
+
     @Override public ImmutableList<String> getMessages() {
       return ImmutableList.of();
     }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.runner;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.MoreObjects;
+
+import org.apache.commons.math.MathException;
+import org.apache.commons.math.distribution.TDistributionImpl;
+import org.apache.commons.math.stat.descriptive.DescriptiveStatistics;
+
+/**
+ * Decides how many measurements a trial needs: either a fixed number, or as many as it takes for
+ * their {@linkplain #precision precision} to reach a target, within bounds.
+ */
+final class MeasurementTarget {
+  private static final double CONFIDENCE_LEVEL = 0.95;
+
+  /** Returns a target of exactly {@code measurements} measurements. */
+  static MeasurementTarget fixed(int measurements) {
+    return new MeasurementTarget(measurements, measurements, 0);
+  }
+
+  /**
+   * Returns a target of as many measurements as it takes to reach {@code targetPrecision}, but at
+   * least {@code minMeasurements} and at most {@code maxMeasurements}.
+   */
+  static MeasurementTarget precision(
+      double targetPrecision, int minMeasurements, int maxMeasurements) {
+    checkArgument(targetPrecision > 0, "targetPrecision must be positive: %s", targetPrecision);
+    return new MeasurementTarget(minMeasurements, maxMeasurements, targetPrecision);
+  }
+
+  private final int minMeasurements;
+  private final int maxMeasurements;
+  private final double targetPrecision;
+
+  private MeasurementTarget(int minMeasurements, int maxMeasurements, double targetPrecision) {
+    checkArgument(minMeasurements > 0, "minMeasurements must be positive: %s", minMeasurements);
+    checkArgument(maxMeasurements >= minMeasurements,
+        "maxMeasurements (%s) must not be less than minMeasurements (%s)",
+        maxMeasurements, minMeasurements);
+    this.minMeasurements = minMeasurements;
+    this.maxMeasurements = maxMeasurements;
+    this.targetPrecision = targetPrecision;
+  }
+
+  /**
+   * Returns true if {@code count} measurements that achieved the given precision are enough.
+   * {@code precision} may be {@code NaN} if it is not known yet.
+   */
+  boolean isSatisfied(int count, double precision) {
+    return count >= maxMeasurements || (count >= minMeasurements && precision <= targetPrecision);
+  }
+
+  /**
+   * Returns an estimate of how many more measurements are needed after {@code count} measurements
+   * that achieved the given precision.
+   */
+  int measurementsStillNeeded(int count, double precision) {
+    if (count < minMeasurements) {
+      return minMeasurements - count;
+    } else if (isSatisfied(count, precision)) {
+      return 0;
+    } else if (Double.isNaN(precision)) {
+      return 1;
+    }
+    // The half-width of the confidence interval shrinks with the square root of the count
+    double estimate = Math.ceil(count * Math.pow(precision / targetPrecision, 2));
+    return (int) Math.max(1, Math.min(estimate - count, maxMeasurements - count));
+  }
+
+  /**
+   * Returns the half-width of the 95% confidence interval for the mean of {@code values}, as a
+   * fraction of their median. This is {@code NaN} for fewer than two values.
+   */
+  static double precision(double[] values) {
+    int n = values.length;
+    if (n < 2) {
+      return Double.NaN;
+    }
+    DescriptiveStatistics statistics = new DescriptiveStatistics(values);
+    double halfWidth =
+        tQuantile(n - 1, (1 + CONFIDENCE_LEVEL) / 2) * statistics.getStandardDeviation()
+            / Math.sqrt(n);
+    return halfWidth / Math.abs(statistics.getPercentile(50));
+  }
+
+  private static double tQuantile(int degreesOfFreedom, double p) {
+    try {
+      return new TDistributionImpl(degreesOfFreedom).inverseCumulativeProbability(p);
+    } catch (MathException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  @Override public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("minMeasurements", minMeasurements)
+        .add("maxMeasurements", maxMeasurements)
+        .add("targetPrecision", targetPrecision)
+        .toString();
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.runner;
+
+import com.google.caliper.model.Measurement;
+import com.google.caliper.model.Trial;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Doubles;
+
+import org.apache.commons.math.stat.descriptive.rank.Percentile;
+
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Compares the results of the trials that ran pinned and in parallel with those of the same
+ * experiments run serially, for {@code runner.cpuPinning=validate}. A large difference means that
+ * the parallel trials disturbed each other despite running on CPUs of their own, for example
+ * through a shared cache, memory bandwidth or thermal limits.
+ *
+ * <p>The serial twins report here as they finish, on the threads that run them, while the pinned
+ * trials are reported by the runner.
+ */
+final class PinningValidation {
+  /** The values per weight of each measurement, by experiment and measurement description. */
+  private final Map<String, ListMultimap<String, Double>> pinned = Maps.newTreeMap();
+  private final Map<String, ListMultimap<String, Double>> serial = Maps.newTreeMap();
+
+  /** Records the measurements of a trial that either ran pinned or is the serial twin of one. */
+  synchronized void processTrial(TrialResult result) {
+    Trial trial = result.getTrial();
+    Map<String, ListMultimap<String, Double>> values =
+        trial.cpuSet().isPresent() ? pinned : serial;
+    String experiment = result.getExperiment().toString();
+    ListMultimap<String, Double> experimentValues = values.get(experiment);
+    if (experimentValues == null) {
+      experimentValues = ArrayListMultimap.create();
+      values.put(experiment, experimentValues);
+    }
+    for (Measurement measurement : trial.measurements()) {
+      experimentValues.put(measurement.description(), ConsoleOutput.valuePerWeight(measurement));
+    }
+  }
+
+  /**
+   * Prints the difference between the medians of the pinned and the serial measurements of each
+   * experiment that has both, and the largest and the mean of the absolute differences.
+   */
+  synchronized void print(PrintWriter stdout) {
+    List<Double> differences = Lists.newArrayList();
+    stdout.println("Pinned-parallel vs. serial trials:");
+    for (Entry<String, ListMultimap<String, Double>> entry : pinned.entrySet()) {
+      ListMultimap<String, Double> serialValues = serial.get(entry.getKey());
+      if (serialValues == null) {
+        continue;
+      }
+      stdout.printf("  %s%n", entry.getKey());
+      for (String description : entry.getValue().keySet()) {
+        if (!serialValues.containsKey(description)) {
+          continue;
+        }
+        double pinnedMedian = median(entry.getValue().get(description));
+        double serialMedian = median(serialValues.get(description));
+        double difference = (pinnedMedian - serialMedian) / serialMedian;
+        differences.add(Math.abs(difference));
+        stdout.printf("    %s: pinned median=%.2f, serial median=%.2f (%+.2f%%)%n",
+            description, pinnedMedian, serialMedian, difference * 100);
+      }
+    }
+    if (differences.isEmpty()) {
+      stdout.println("  No experiment completed both pinned and serially.");
+    } else {
+      double sum = 0;
+      for (double difference : differences) {
+        sum += difference;
+      }
+      stdout.printf("  Largest difference: %.2f%%, mean absolute difference: %.2f%%%n",
+          Collections.max(differences) * 100, sum / differences.size() * 100);
+    }
+    stdout.flush();
+  }
+
+  private static double median(List<Double> values) {
+    return new Percentile().evaluate(Doubles.toArray(values), 50);
+  }
+}
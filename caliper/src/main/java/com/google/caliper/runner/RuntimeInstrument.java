@@ -18,7 +18,10 @@ import static com.google.caliper.runner.CommonInstrumentOptions.GC_BEFORE_EACH_O
 import static com.google.caliper.runner.CommonInstrumentOptions.MAX_WARMUP_WALL_TIME_OPTION;
 import static com.google.caliper.runner.CommonInstrumentOptions.MEASUREMENTS_OPTION;
 import static com.google.caliper.runner.CommonInstrumentOptions.WARMUP_OPTION;
+import static com.google.caliper.runner.CommonInstrumentOptions.checkDurationOption;
+import static com.google.caliper.runner.CommonInstrumentOptions.checkIntOption;
 import static com.google.caliper.util.Reflection.getAnnotatedMethods;
+import static com.google.caliper.util.Reflection.withBlackhole;
 import static com.google.caliper.util.Util.isStatic;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -37,6 +40,9 @@ import com.google.caliper.bridge.GcLogMessage;
 import com.google.caliper.bridge.HotspotLogMessage;
 import com.google.caliper.bridge.StartMeasurementLogMessage;
 import com.google.caliper.bridge.StopMeasurementLogMessage;
+import com.google.caliper.bridge.VmActivity;
+import com.google.caliper.config.InvalidConfigurationException;
+import com.google.caliper.model.LatencyHistogram;
 import com.google.caliper.model.Measurement;
 import com.google.caliper.platform.Platform;
 import com.google.caliper.platform.SupportedPlatform;
@@ -44,11 +50,14 @@ import com.google.caliper.util.ShortDuration;
 import com.google.caliper.worker.MacrobenchmarkWorker;
 import com.google.caliper.worker.RuntimeWorker;
 import com.google.caliper.worker.Worker;
+import com.google.common.base.Ascii;
+import com.google.common.base.Optional;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.primitives.Doubles;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -65,16 +74,28 @@ import javax.inject.Inject;
 @SupportedPlatform({Platform.Type.JVM, Platform.Type.DALVIK})
 class RuntimeInstrument extends Instrument {
   private static final String SUGGEST_GRANULARITY_OPTION = "suggestGranularity";
+  private static final String GENERATE_HARNESS_OPTION = "generateHarness";
   private static final String TIMING_INTERVAL_OPTION = "timingInterval";
+  private static final String MEASUREMENT_BATCH_WINDOW_OPTION = "measurementBatchWindow";
+  private static final String WARMUP_POLICY_OPTION = "warmupPolicy";
+  static final String TARGET_PRECISION_OPTION = "targetPrecision";
+  static final String MIN_MEASUREMENTS_OPTION = "minMeasurements";
+  static final String MAX_MEASUREMENTS_OPTION = "maxMeasurements";
+  private static final String LATENCY_HISTOGRAM_OPTION = "latencyHistogram";
+  private static final String TARGET_RATE_OPTION = MacrobenchmarkWorker.TARGET_RATE_OPTION;
+  private static final int DEFAULT_MIN_MEASUREMENTS = 5;
+  private static final int DEFAULT_MAX_MEASUREMENTS = 100;
   private static final int DRY_RUN_REPS = 1;
 
   private static final Logger logger = Logger.getLogger(RuntimeInstrument.class.getName());
 
   private final ShortDuration nanoTimeGranularity;
+  private final Platform platform;
 
   @Inject
-  RuntimeInstrument(@NanoTimeGranularity ShortDuration nanoTimeGranularity) {
+  RuntimeInstrument(@NanoTimeGranularity ShortDuration nanoTimeGranularity, Platform platform) {
     this.nanoTimeGranularity = nanoTimeGranularity;
+    this.platform = platform;
   }
 
   @Override
@@ -88,7 +109,49 @@ class RuntimeInstrument extends Instrument {
   protected ImmutableSet<String> instrumentOptions() {
     return ImmutableSet.of(
         WARMUP_OPTION, MAX_WARMUP_WALL_TIME_OPTION, TIMING_INTERVAL_OPTION, MEASUREMENTS_OPTION,
-        GC_BEFORE_EACH_OPTION, SUGGEST_GRANULARITY_OPTION);
+        GC_BEFORE_EACH_OPTION, SUGGEST_GRANULARITY_OPTION, GENERATE_HARNESS_OPTION,
+        MEASUREMENT_BATCH_WINDOW_OPTION, WARMUP_POLICY_OPTION, TARGET_PRECISION_OPTION,
+        MIN_MEASUREMENTS_OPTION, MAX_MEASUREMENTS_OPTION, LATENCY_HISTOGRAM_OPTION,
+        TARGET_RATE_OPTION);
+  }
+
+  @Override void checkOptions() {
+    String warmupPolicy = options.get(WARMUP_POLICY_OPTION);
+    if (warmupPolicy != null) {
+      try {
+        WarmupPolicy.valueOf(Ascii.toUpperCase(warmupPolicy));
+      } catch (IllegalArgumentException e) {
+        throw new InvalidConfigurationException(String.format(
+            "The %s option must be fixed or adaptive: %s", WARMUP_POLICY_OPTION, warmupPolicy));
+      }
+    }
+    if (Boolean.parseBoolean(options.get(GENERATE_HARNESS_OPTION))
+        && platform.type() != Platform.Type.JVM) {
+      // the harness is generated as JVM bytecode, which Dalvik can't load
+      throw new InvalidConfigurationException(String.format(
+          "The %s option is not supported on %s", GENERATE_HARNESS_OPTION, platform.name()));
+    }
+    checkDurationOption(options, MEASUREMENT_BATCH_WINDOW_OPTION);
+    checkIntOption(options, MEASUREMENTS_OPTION, 1);
+    checkIntOption(options, MIN_MEASUREMENTS_OPTION, 1);
+    checkIntOption(options, MAX_MEASUREMENTS_OPTION, 1);
+    String targetPrecision = options.get(TARGET_PRECISION_OPTION);
+    if (targetPrecision != null) {
+      Double precision = Doubles.tryParse(targetPrecision);
+      // 0 turns the target off
+      if (precision == null || !(precision >= 0) || precision.isInfinite()) {
+        throw new InvalidConfigurationException(String.format(
+            "The %s option must be a positive number, or 0 for a fixed number of measurements: %s",
+            TARGET_PRECISION_OPTION, targetPrecision));
+      }
+    }
+    int minMeasurements = getIntOption(MIN_MEASUREMENTS_OPTION, DEFAULT_MIN_MEASUREMENTS);
+    int maxMeasurements = getIntOption(MAX_MEASUREMENTS_OPTION, DEFAULT_MAX_MEASUREMENTS);
+    if (minMeasurements > maxMeasurements) {
+      throw new InvalidConfigurationException(String.format(
+          "The %s option (%d) must not be greater than the %s option (%d)",
+          MIN_MEASUREMENTS_OPTION, minMeasurements, MAX_MEASUREMENTS_OPTION, maxMeasurements));
+    }
   }
 
   @Override
@@ -101,13 +164,16 @@ class RuntimeInstrument extends Instrument {
           benchmarkMethod.getName());
     }
     try {
-      switch (BenchmarkMethods.Type.of(benchmarkMethod)) {
+      boolean generateHarness = Boolean.parseBoolean(options.get(GENERATE_HARNESS_OPTION));
+      switch (BenchmarkMethods.Type.of(benchmarkMethod, generateHarness)) {
         case MACRO:
           return new MacrobenchmarkInstrumentation(benchmarkMethod);
         case MICRO:
           return new MicrobenchmarkInstrumentation(benchmarkMethod);
         case PICO:
           return new PicobenchmarkInstrumentation(benchmarkMethod);
+        case HARNESSED:
+          return new HarnessedBenchmarkInstrumentation(benchmarkMethod);
         default:
           throw new AssertionError("unknown type");
       }
@@ -133,7 +199,7 @@ class RuntimeInstrument extends Instrument {
           beforeRepMethod.invoke(benchmark);
         }
         try {
-          benchmarkMethod.invoke(benchmark);
+          benchmarkMethod.invoke(benchmark, withBlackhole(benchmarkMethod));
         } finally {
           for (Method afterRepMethod : afterRepMethods) {
             afterRepMethod.invoke(benchmark);
@@ -156,19 +222,20 @@ class RuntimeInstrument extends Instrument {
     @Override
     MeasurementCollectingVisitor getMeasurementCollectingVisitor() {
       return new SingleInvocationMeasurementCollector(
-          Integer.parseInt(options.get(MEASUREMENTS_OPTION)),
+          getMeasurementTarget(),
           ShortDuration.valueOf(options.get(WARMUP_OPTION)),
           ShortDuration.valueOf(options.get(MAX_WARMUP_WALL_TIME_OPTION)),
+          getWarmupPolicy(),
+          getMeasurementBatchWindow(),
           nanoTimeGranularity);
     }
   }
 
   @Override public TrialSchedulingPolicy schedulingPolicy() {
-    // Runtime measurements are currently believed to be too sensitive to system performance to
-    // allow parallel runners.
-    // TODO(lukes): investigate this, on a multicore system it seems like we should be able to
-    // allow some parallelism without corrupting results.
-    return TrialSchedulingPolicy.SERIAL;
+    // Runtime measurements are too sensitive to system performance to share CPUs with other
+    // trials, but on a multicore system they can run in parallel on CPUs of their own, which
+    // runner.cpuPinning=validate checks against running them serially.
+    return TrialSchedulingPolicy.PINNED;
   }
 
   private abstract class RuntimeInstrumentation extends Instrumentation {
@@ -178,7 +245,7 @@ class RuntimeInstrument extends Instrument {
 
     @Override public void dryRun(Object benchmark) throws UserCodeException {
       try {
-        benchmarkMethod.invoke(benchmark, DRY_RUN_REPS);
+        benchmarkMethod.invoke(benchmark, withBlackhole(benchmarkMethod, DRY_RUN_REPS));
       } catch (IllegalAccessException impossible) {
         throw new AssertionError(impossible);
       } catch (InvocationTargetException e) {
@@ -201,9 +268,11 @@ class RuntimeInstrument extends Instrument {
 
     @Override MeasurementCollectingVisitor getMeasurementCollectingVisitor() {
       return new RepBasedMeasurementCollector(
-          getMeasurementsPerTrial(),
+          getMeasurementTarget(),
           ShortDuration.valueOf(options.get(WARMUP_OPTION)),
           ShortDuration.valueOf(options.get(MAX_WARMUP_WALL_TIME_OPTION)),
+          getWarmupPolicy(),
+          getMeasurementBatchWindow(),
           Boolean.parseBoolean(options.get(SUGGEST_GRANULARITY_OPTION)),
           nanoTimeGranularity);
     }
@@ -219,14 +288,50 @@ class RuntimeInstrument extends Instrument {
     }
   }
 
-  private int getMeasurementsPerTrial() {
+  private MeasurementTarget getMeasurementTarget() {
+    @Nullable
+    String targetPrecisionString = options.get(TARGET_PRECISION_OPTION);
+    double targetPrecision =
+        (targetPrecisionString == null) ? 0 : Double.parseDouble(targetPrecisionString);
+    if (targetPrecision > 0) {
+      return MeasurementTarget.precision(targetPrecision,
+          getIntOption(MIN_MEASUREMENTS_OPTION, DEFAULT_MIN_MEASUREMENTS),
+          getIntOption(MAX_MEASUREMENTS_OPTION, DEFAULT_MAX_MEASUREMENTS));
+    }
+    return MeasurementTarget.fixed(getIntOption(MEASUREMENTS_OPTION, 1));
+  }
+
+  private int getIntOption(String optionName, int defaultValue) {
     @Nullable
-    String measurementsString = options.get(MEASUREMENTS_OPTION);
-    int measurementsPerTrial =
-        (measurementsString == null) ? 1 : Integer.parseInt(measurementsString);
-    // TODO(gak): fail faster
-    checkState(measurementsPerTrial > 0);
-    return measurementsPerTrial;
+    String valueString = options.get(optionName);
+    return (valueString == null) ? defaultValue : Integer.parseInt(valueString);
+  }
+
+  /** How the runtime instrument decides that a trial has warmed up. */
+  enum WarmupPolicy {
+    /** Warm up for the configured {@code warmup} duration of measured time. */
+    FIXED,
+    /**
+     * Warm up until the measured times show no more drift and compilation has settled down, but
+     * for no longer than the configured {@code warmup} duration of measured time.
+     */
+    ADAPTIVE;
+  }
+
+  private WarmupPolicy getWarmupPolicy() {
+    @Nullable
+    String warmupPolicyString = options.get(WARMUP_POLICY_OPTION);
+    return (warmupPolicyString == null)
+        ? WarmupPolicy.FIXED
+        : WarmupPolicy.valueOf(Ascii.toUpperCase(warmupPolicyString));
+  }
+
+  private ShortDuration getMeasurementBatchWindow() {
+    @Nullable
+    String batchWindowString = options.get(MEASUREMENT_BATCH_WINDOW_OPTION);
+    return (batchWindowString == null)
+        ? ShortDuration.zero()
+        : ShortDuration.valueOf(batchWindowString);
   }
 
   private class PicobenchmarkInstrumentation extends RuntimeInstrumentation {
@@ -239,58 +344,153 @@ class RuntimeInstrument extends Instrument {
     }
   }
 
+  private class HarnessedBenchmarkInstrumentation extends RuntimeInstrumentation {
+    HarnessedBenchmarkInstrumentation(Method benchmarkMethod) {
+      super(benchmarkMethod);
+    }
+
+    @Override public void dryRun(Object benchmark) throws UserCodeException {
+      try {
+        benchmarkMethod.invoke(benchmark, withBlackhole(benchmarkMethod));
+      } catch (IllegalAccessException impossible) {
+        throw new AssertionError(impossible);
+      } catch (InvocationTargetException e) {
+        Throwable userException = e.getCause();
+        propagateIfInstanceOf(userException, SkipThisScenarioException.class);
+        throw new UserCodeException(userException);
+      }
+    }
+
+    @Override public Class<? extends Worker> workerClass() {
+      return RuntimeWorker.Harnessed.class;
+    }
+  }
+
   private abstract static class RuntimeMeasurementCollector extends AbstractLogMessageVisitor
       implements MeasurementCollectingVisitor {
-    final int targetMeasurements;
+    final MeasurementTarget measurementTarget;
     final ShortDuration warmup;
     final ShortDuration maxWarmupWallTime;
+    final WarmupPolicy warmupPolicy;
+    final ShortDuration measurementBatchWindow;
     final List<Measurement> measurements = Lists.newArrayList();
+    /** The precision of {@link #measurements}, updated whenever they change. */
+    double precision = Double.NaN;
     ShortDuration elapsedWarmup = ShortDuration.zero();
+    int warmupMeasurements = 0;
+    final SteadyStateDetector steadyStateDetector = new SteadyStateDetector();
+    /** Whether the worker has been told that warmup is complete. */
+    boolean warmupComplete = false;
+    boolean steadyStateDetected = false;
     boolean measuring = false;
     boolean invalidateMeasurements = false;
+    /** The measured duration of the most recent measurement, used to size measurement budgets. */
+    long lastMeasurementNanos = 0;
+    /** The number of measurements that were kept from the most recent stop message. */
+    int lastKeptMeasurements = 0;
+    /** The latencies recorded with the measurements that were kept. */
+    final List<LatencyHistogram> latencyHistograms = Lists.newArrayList();
+    /** Whether the most recent stop message that was kept came with a latency histogram. */
+    boolean lastKeptLatencyHistogram = false;
     boolean notifiedAboutGc = false;
     boolean notifiedAboutJit = false;
     boolean notifiedAboutMeasuringJit = false;
+    /**
+     * Whether the worker reports the GC and compilation that overlapped each measurement, in which
+     * case the VM's output is only used for what happens between measurements.
+     */
+    boolean vmActivityReported = false;
     Stopwatch timeSinceStartOfTrial = Stopwatch.createUnstarted();
     final List<String> messages = Lists.newArrayList();
     final ShortDuration nanoTimeGranularity;
 
     RuntimeMeasurementCollector(
-        int targetMeasurements,
+        MeasurementTarget measurementTarget,
         ShortDuration warmup,
         ShortDuration maxWarmupWallTime,
+        WarmupPolicy warmupPolicy,
+        ShortDuration measurementBatchWindow,
         ShortDuration nanoTimeGranularity) {
-      this.targetMeasurements = targetMeasurements;
+      this.measurementTarget = measurementTarget;
       this.warmup = warmup;
       this.maxWarmupWallTime = maxWarmupWallTime;
+      this.warmupPolicy = warmupPolicy;
+      this.measurementBatchWindow = measurementBatchWindow;
       this.nanoTimeGranularity = nanoTimeGranularity;
     }
 
+    boolean isBatching() {
+      return measurementBatchWindow.to(NANOSECONDS) > 0;
+    }
+
     @Override
     public void visit(GcLogMessage logMessage) {
-      if (measuring && isWarmupComplete() && !notifiedAboutGc) {
+      if (vmActivityReported) {
+        // the worker counts the collections during each measurement, and one between measurements
+        // doesn't affect them
+        return;
+      }
+      if (warmupComplete && isBatching()) {
+        eventWhileBatching();
+      }
+      if (measuring && warmupComplete) {
         gcWhileMeasuring();
-        notifiedAboutGc = true;
       }
     }
 
+    /** Called for each measurement after warmup that overlapped a GC. */
     abstract void gcWhileMeasuring();
 
+    /**
+     * Called for GC and JIT events that occur after warmup while the worker is reporting
+     * measurements in batches. The worker doesn't wait between measurements, and events reach us
+     * from its output streams rather than from the socket, so an event that occurred during one
+     * measurement may arrive after that measurement has been reported, or even after the next one
+     * has started.
+     */
+    abstract void eventWhileBatching();
+
+    /** Discards the measurements kept from the most recent stop message. */
+    void retractLastMeasurements() {
+      for (; lastKeptMeasurements > 0; lastKeptMeasurements--) {
+        measurements.remove(measurements.size() - 1);
+      }
+      if (lastKeptLatencyHistogram) {
+        latencyHistograms.remove(latencyHistograms.size() - 1);
+        lastKeptLatencyHistogram = false;
+      }
+      updatePrecision();
+    }
+
     @Override
     public void visit(HotspotLogMessage logMessage) {
-      if (isWarmupComplete()) {
-        if (measuring && notifiedAboutMeasuringJit) {
+      if (!warmupComplete) {
+        // The timings so far may predate the compiled code, so keep warming up
+        steadyStateDetector.compilationObserved();
+      } else if (vmActivityReported) {
+        // compilation during a measurement is also reported with the measurement itself, but only
+        // in whole milliseconds, so a shorter one may only show up here
+        if (measuring) {
           hotspotWhileMeasuring();
-          notifiedAboutMeasuringJit = true;
-        } else if (notifiedAboutJit) {
+        } else {
+          hotspotWhileNotMeasuring();
+        }
+      } else {
+        if (isBatching()) {
+          eventWhileBatching();
+        }
+        if (measuring) {
+          hotspotWhileMeasuring();
+        } else {
           hotspotWhileNotMeasuring();
-          notifiedAboutJit = true;
         }
       }
     }
 
+    /** Called for each measurement after warmup that overlapped compilation. */
     abstract void hotspotWhileMeasuring();
 
+    /** Called for each compilation after warmup that occurred between measurements. */
     abstract void hotspotWhileNotMeasuring();
 
     @Override
@@ -306,16 +506,44 @@ class RuntimeInstrument extends Instrument {
     public void visit(StopMeasurementLogMessage logMessage) {
       checkState(measuring);
       ImmutableList<Measurement> newMeasurements = logMessage.measurements();
-      if (!isWarmupComplete()) {
+      Optional<VmActivity> vmActivity = logMessage.vmActivity();
+      if (vmActivity.isPresent()) {
+        vmActivityReported = true;
+        if (warmupComplete) {
+          if (vmActivity.get().gcOccurred()) {
+            gcWhileMeasuring();
+          }
+          if (vmActivity.get().compilationOccurred()) {
+            hotspotWhileMeasuring();
+          }
+        }
+      }
+      for (Measurement measurement : newMeasurements) {
+        if ("ns".equals(measurement.value().unit())) {
+          lastMeasurementNanos = (long) measurement.value().magnitude();
+        }
+      }
+      lastKeptMeasurements = 0;
+      lastKeptLatencyHistogram = false;
+      if (!warmupComplete) {
         for (Measurement measurement : newMeasurements) {
           // TODO(gak): eventually we will need to resolve different units
-          checkArgument("ns".equals(measurement.value().unit()));
+          if (!"ns".equals(measurement.value().unit())) {
+            // e.g. the throughput achieved by a macrobenchmark with a target rate
+            continue;
+          }
           elapsedWarmup = elapsedWarmup.plus(
               ShortDuration.of(BigDecimal.valueOf(measurement.value().magnitude()), NANOSECONDS));
+          steadyStateDetector.addValue(measurement.value().magnitude() / measurement.weight());
           validateMeasurement(measurement);
         }
+        if (vmActivity.isPresent() && vmActivity.get().compilationOccurred()) {
+          // this measurement, too, may have timed code that was being replaced
+          steadyStateDetector.compilationObserved();
+        }
+        warmupMeasurements++;
       } else {
-        if (!measuredWarmupDurationReached()) {
+        if (!steadyStateDetected && !measuredWarmupDurationReached()) {
           messages.add(String.format(
               "WARNING: Warmup was interrupted because it took longer than %s of wall-clock time. "
                   + "%s was spent in the benchmark method for warmup "
@@ -327,6 +555,12 @@ class RuntimeInstrument extends Instrument {
           logger.fine(String.format("Discarding %s as they were marked invalid.", newMeasurements));
         } else {
           this.measurements.addAll(newMeasurements);
+          lastKeptMeasurements = newMeasurements.size();
+          if (logMessage.latencyHistogram().isPresent()) {
+            latencyHistograms.add(logMessage.latencyHistogram().get());
+            lastKeptLatencyHistogram = true;
+          }
+          updatePrecision();
         }
       }
       invalidateMeasurements = false;
@@ -340,6 +574,30 @@ class RuntimeInstrument extends Instrument {
       return ImmutableList.copyOf(measurements);
     }
 
+    private void updatePrecision() {
+      List<Double> weightedValues = Lists.newArrayList();
+      for (Measurement measurement : measurements) {
+        if ("ns".equals(measurement.value().unit())) {
+          weightedValues.add(measurement.value().magnitude() / measurement.weight());
+        }
+      }
+      precision = MeasurementTarget.precision(Doubles.toArray(weightedValues));
+    }
+
+    @Override
+    public Optional<Double> getPrecision() {
+      return (Double.isNaN(precision) || Double.isInfinite(precision))
+          ? Optional.<Double>absent()
+          : Optional.of(precision);
+    }
+
+    @Override
+    public Optional<LatencyHistogram> getLatencyHistogram() {
+      return latencyHistograms.isEmpty()
+          ? Optional.<LatencyHistogram>absent()
+          : Optional.of(LatencyHistogram.merge(latencyHistograms));
+    }
+
     boolean measuredWarmupDurationReached() {
       return elapsedWarmup.compareTo(warmup) >= 0;
     }
@@ -351,13 +609,67 @@ class RuntimeInstrument extends Instrument {
       // @AfterRep, warmup can take very long.
       //
       // To prevent this, we enforce a cap on the wall-clock time here.
-      return measuredWarmupDurationReached()
-          || timeSinceStartOfTrial.elapsed(MILLISECONDS) > maxWarmupWallTime.to(MILLISECONDS);
+      //
+      // Once reported, warmup stays complete: measurements are only treated as real once the
+      // worker has been told that it is no longer warming up.
+      if (!warmupComplete) {
+        if (warmupPolicy == WarmupPolicy.ADAPTIVE && steadyStateDetector.isSteady()) {
+          steadyStateDetected = true;
+          warmupComplete = true;
+          messages.add(String.format(
+              "INFO: Steady state was detected after %s of measured warmup (%d measurements).",
+              elapsedWarmup, warmupMeasurements));
+        } else {
+          warmupComplete = measuredWarmupDurationReached()
+              || timeSinceStartOfTrial.elapsed(MILLISECONDS) > maxWarmupWallTime.to(MILLISECONDS);
+          if (warmupComplete && warmupPolicy == WarmupPolicy.ADAPTIVE) {
+            messages.add(String.format(
+                "WARNING: No steady state was detected within %s of measured warmup "
+                    + "(%d measurements). Results may still be drifting.",
+                elapsedWarmup, warmupMeasurements));
+          }
+        }
+      }
+      return warmupComplete;
+    }
+
+    @Override
+    public int measurementBudget() {
+      if (!isBatching() || lastMeasurementNanos <= 0) {
+        return 1;
+      }
+      // Fill the batch window, assuming that measurements take about as long as the last one, but
+      // stop at the end of warmup and at the last measurement that we need, since the worker only
+      // learns about those at the end of its budget.
+      long budget = measurementBatchWindow.to(NANOSECONDS) / lastMeasurementNanos;
+      if (warmupComplete) {
+        budget = Math.min(budget,
+            measurementTarget.measurementsStillNeeded(timedMeasurementCount(), precision));
+      } else {
+        long remainingWarmupNanos = warmup.to(NANOSECONDS) - elapsedWarmup.to(NANOSECONDS);
+        budget = Math.min(budget, remainingWarmupNanos / lastMeasurementNanos);
+        if (warmupPolicy == WarmupPolicy.ADAPTIVE) {
+          // the series may become steady as soon as the detector's window is full
+          budget = Math.min(budget, steadyStateDetector.valuesUntilWindowIsFull());
+        }
+      }
+      return (int) Math.max(1, Math.min(budget, Integer.MAX_VALUE));
     }
 
     @Override
     public boolean isDoneCollecting() {
-      return measurements.size() >= targetMeasurements;
+      return measurementTarget.isSatisfied(timedMeasurementCount(), precision);
+    }
+
+    /** Returns the number of measurements kept that are times, as opposed to e.g. throughputs. */
+    private int timedMeasurementCount() {
+      int count = 0;
+      for (Measurement measurement : measurements) {
+        if ("ns".equals(measurement.value().unit())) {
+          count++;
+        }
+      }
+      return count;
     }
 
     @Override
@@ -370,35 +682,61 @@ class RuntimeInstrument extends Instrument {
     final boolean suggestGranularity;
     boolean notifiedAboutGranularity = false;
 
+    boolean notifiedAboutBatchEvents = false;
+
     RepBasedMeasurementCollector(
-        int measurementsPerTrial,
+        MeasurementTarget measurementTarget,
         ShortDuration warmup,
         ShortDuration maxWarmupWallTime,
+        WarmupPolicy warmupPolicy,
+        ShortDuration measurementBatchWindow,
         boolean suggestGranularity,
         ShortDuration nanoTimeGranularity) {
-      super(measurementsPerTrial, warmup, maxWarmupWallTime, nanoTimeGranularity);
+      super(measurementTarget, warmup, maxWarmupWallTime, warmupPolicy, measurementBatchWindow,
+          nanoTimeGranularity);
       this.suggestGranularity = suggestGranularity;
     }
 
+    @Override
+    void eventWhileBatching() {
+      // We can't tell which measurement the event overlapped, so discard both candidates.
+      invalidateMeasurements |= measuring;
+      retractLastMeasurements();
+      if (!notifiedAboutBatchEvents) {
+        notifiedAboutBatchEvents = true;
+        messages.add("ERROR: GC or Hotspot compilation occurred while measurements were being "
+            + "reported in batches. Measurements that may have overlapped it were discarded.");
+      }
+    }
+
     @Override
     void gcWhileMeasuring() {
       invalidateMeasurements = true;
-      messages.add("ERROR: GC occurred during timing. Measurements were discarded.");
+      if (!notifiedAboutGc) {
+        notifiedAboutGc = true;
+        messages.add("ERROR: GC occurred during timing. Measurements were discarded.");
+      }
     }
 
     @Override
     void hotspotWhileMeasuring() {
       invalidateMeasurements = true;
-      messages.add(
-          "ERROR: Hotspot compilation occurred during timing: warmup is likely insufficent. "
-              + "Measurements were discarded.");
+      if (!notifiedAboutMeasuringJit) {
+        notifiedAboutMeasuringJit = true;
+        messages.add(
+            "ERROR: Hotspot compilation occurred during timing: warmup is likely insufficent. "
+                + "Measurements were discarded.");
+      }
     }
 
     @Override
     void hotspotWhileNotMeasuring() {
-      messages.add(
-          "WARNING: Hotspot compilation occurred after warmup, but outside of timing. "
+      if (!notifiedAboutJit) {
+        notifiedAboutJit = true;
+        messages.add(
+            "WARNING: Hotspot compilation occurred after warmup, but outside of timing. "
                 + "Results may be affected. Run with --verbose to see which method was compiled.");
+      }
     }
 
     @Override
@@ -422,33 +760,50 @@ class RuntimeInstrument extends Instrument {
       extends RuntimeMeasurementCollector {
 
     SingleInvocationMeasurementCollector(
-        int measurementsPerTrial,
+        MeasurementTarget measurementTarget,
         ShortDuration warmup,
         ShortDuration maxWarmupWallTime,
+        WarmupPolicy warmupPolicy,
+        ShortDuration measurementBatchWindow,
         ShortDuration nanoTimeGranularity) {
-      super(measurementsPerTrial, warmup, maxWarmupWallTime, nanoTimeGranularity);
+      super(measurementTarget, warmup, maxWarmupWallTime, warmupPolicy, measurementBatchWindow,
+          nanoTimeGranularity);
+    }
+
+    @Override
+    void eventWhileBatching() {
+      // Single invocation measurements are never discarded; the usual warnings cover this case.
     }
 
     @Override
     void gcWhileMeasuring() {
-      messages.add("WARNING: GC occurred during timing. "
-          + "Depending on the scope of the benchmark, this might significantly impact results. "
-          + "Consider running with a larger heap size.");
+      if (!notifiedAboutGc) {
+        notifiedAboutGc = true;
+        messages.add("WARNING: GC occurred during timing. "
+            + "Depending on the scope of the benchmark, this might significantly impact results. "
+            + "Consider running with a larger heap size.");
+      }
     }
 
     @Override
     void hotspotWhileMeasuring() {
-      messages.add("WARNING: Hotspot compilation occurred during timing. "
-          + "Depending on the scope of the benchmark, this might significantly impact results. "
-          + "Consider running with a longer warmup.");
+      if (!notifiedAboutMeasuringJit) {
+        notifiedAboutMeasuringJit = true;
+        messages.add("WARNING: Hotspot compilation occurred during timing. "
+            + "Depending on the scope of the benchmark, this might significantly impact results. "
+            + "Consider running with a longer warmup.");
+      }
     }
 
     @Override
     void hotspotWhileNotMeasuring() {
-      messages.add(
-          "WARNING: Hotspot compilation occurred after warmup, but outside of timing. "
-              + "Depending on the scope of the benchmark, this might significantly impact results. "
-              + "Consider running with a longer warmup.");
+      if (!notifiedAboutJit) {
+        notifiedAboutJit = true;
+        messages.add(
+            "WARNING: Hotspot compilation occurred after warmup, but outside of timing. "
+                + "Depending on the scope of the benchmark, this might significantly impact "
+                + "results. Consider running with a longer warmup.");
+      }
     }
 
     @Override
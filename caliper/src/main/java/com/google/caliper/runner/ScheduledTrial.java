@@ -14,24 +14,33 @@
 
 package com.google.caliper.runner;
 
+import com.google.common.annotations.VisibleForTesting;
+
 import java.util.concurrent.Callable;
 
 import javax.inject.Inject;
 
 /**
  * A ScheduledTrial is a simple pair of a {@link TrialRunLoop} and a 
- * {@link TrialSchedulingPolicy}.
+ * {@link TrialSchedulingPolicy}, along with the {@link TrialProgress} of the run loop.
  */
 @TrialScoped final class ScheduledTrial {
-  private final TrialRunLoop runLoop;
+  private final Callable<TrialResult> trialTask;
   private final Experiment experiment;
   private final TrialSchedulingPolicy policy;
+  private final TrialProgress progress;
 
   @Inject ScheduledTrial(Experiment experiment, TrialRunLoop runLoop, 
-      TrialSchedulingPolicy policy) {
-    this.runLoop = runLoop;
+      TrialSchedulingPolicy policy, TrialProgress progress) {
+    this(experiment, (Callable<TrialResult>) runLoop, policy, progress);
+  }
+
+  @VisibleForTesting ScheduledTrial(Experiment experiment, Callable<TrialResult> trialTask,
+      TrialSchedulingPolicy policy, TrialProgress progress) {
+    this.trialTask = trialTask;
     this.experiment = experiment;
     this.policy = policy;
+    this.progress = progress;
   }
   
   TrialSchedulingPolicy policy() {
@@ -42,7 +51,11 @@ import javax.inject.Inject;
     return experiment;
   }
   
+  TrialProgress progress() {
+    return progress;
+  }
+
   Callable<TrialResult> trialTask() {
-    return runLoop;
+    return trialTask;
   }
 }
@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.runner;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.AbstractExecutionThreadService;
+import com.google.common.util.concurrent.Service;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * A {@link Service} that does all of the runner's reading from workers on one thread, however many
+ * trials are running: the server sockets that workers connect to, the sockets that they send
+ * messages over and the pipes of their stdout and stderr.
+ *
+ * <p>Each of these is a {@link Handler}. Those with a {@linkplain Handler#channel channel} are
+ * read when a {@link Selector} finds the channel to be ready. The pipes of a {@link Process} can't
+ * be selected, so those without a channel are instead polled: every
+ * {@link #MIN_POLL_INTERVAL_MILLIS} while they have something to read, and less and less often,
+ * down to every {@link #MAX_POLL_INTERVAL_MILLIS}, while they are {@linkplain Handler#wasIdle
+ * idle}.
+ *
+ * <p>Handlers are only ever called on the thread of this service, which is also an
+ * {@link Executor} for work that needs to happen there. So they must never block. The few reads
+ * that can only be done by blocking are {@linkplain #readBlocking handed} to threads that are
+ * started as they are needed.
+ */
+@Singleton
+final class SelectorService extends AbstractExecutionThreadService implements Executor {
+  /** How often to poll a handler that has no channel while it has something to read. */
+  static final long MIN_POLL_INTERVAL_MILLIS = 5;
+
+  /** How often to poll a handler that has no channel once it has been idle for a while. */
+  static final long MAX_POLL_INTERVAL_MILLIS = 50;
+
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+  // the rest is only touched by the thread of the service
+  private final PriorityQueue<ScheduledTask> scheduledTasks = new PriorityQueue<ScheduledTask>();
+  private final List<Handler> polledHandlers = Lists.newArrayList();
+  private long scheduledTaskCount;
+  private final ExecutorService blockingReads = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder()
+          .setNameFormat("caliper-blocking-read-%d")
+          .setDaemon(true)
+          .build());
+  private volatile Selector selector;
+  private volatile Thread thread;
+  private volatile boolean stopRequested;
+
+  @Inject SelectorService() {}
+
+  /**
+   * Something that the service reads from. Its methods are all called on the thread of the
+   * service.
+   */
+  abstract static class Handler {
+    @Nullable private SelectionKey key;
+    private boolean registered;
+    private boolean paused;
+    private long pollIntervalNanos;
+    private long nextPollNanos;
+
+    /**
+     * The channel to wait for, which is put into non-blocking mode, or {@code null} if this is to
+     * be polled instead. A server channel is waited for to accept, and any other to read.
+     */
+    @Nullable abstract SelectableChannel channel();
+
+    /**
+     * Reads whatever can be read without blocking. Returns false once there will never be more, in
+     * which case the handler is unregistered.
+     */
+    abstract boolean read() throws Exception;
+
+    /**
+     * Called before the service waits for the channel, and returns false if there is no need,
+     * because there is already something to read.
+     */
+    boolean prepareToWait() {
+      return true;
+    }
+
+    /**
+     * For a handler that has no channel, returns whether the last {@link #read} found nothing to
+     * read, in which case it is polled less often until it does.
+     */
+    boolean wasIdle() {
+      return false;
+    }
+
+    /** Called if {@link #read} threw, after the handler has been unregistered. */
+    abstract void failed(Exception e);
+  }
+
+  /** Starts reading for {@code handler}, which is read once straight away. */
+  void register(final Handler handler) {
+    execute(new Runnable() {
+      @Override public void run() {
+        checkState(!handler.registered, "%s has already been registered", handler);
+        handler.registered = true;
+        SelectableChannel channel = handler.channel();
+        if (channel == null) {
+          polledHandlers.add(handler);
+          handler.pollIntervalNanos = TimeUnit.MILLISECONDS.toNanos(MIN_POLL_INTERVAL_MILLIS);
+          handler.nextPollNanos = System.nanoTime() + handler.pollIntervalNanos;
+        } else {
+          try {
+            channel.configureBlocking(false);
+            handler.key = register(channel, handler);
+          } catch (IOException e) {
+            unregister(handler);
+            handler.failed(e);
+            return;
+          }
+        }
+        // there may be something buffered that no selector would tell us about
+        read(handler);
+      }
+    });
+  }
+
+  private SelectionKey register(SelectableChannel channel, Handler handler) throws IOException {
+    int ops = channel.validOps() & (SelectionKey.OP_ACCEPT | SelectionKey.OP_READ);
+    try {
+      return channel.register(selector, ops, handler);
+    } catch (CancelledKeyException e) {
+      // the channel's last handler has only just been unregistered, so flush its key first
+      selector.selectNow();
+      return channel.register(selector, ops, handler);
+    }
+  }
+
+  /**
+   * Stops reading for {@code handler} until it is {@linkplain #resume resumed}. This may only be
+   * called on the thread of the service, normally by the handler itself.
+   */
+  void pause(Handler handler) {
+    checkState(Thread.currentThread() == thread, "Handlers may only be paused by the service");
+    if (handler.registered && !handler.paused) {
+      handler.paused = true;
+      if (handler.key != null) {
+        handler.key.interestOps(0);
+      }
+    }
+  }
+
+  /** Starts reading for a {@linkplain #pause paused} handler again. */
+  void resume(final Handler handler) {
+    execute(new Runnable() {
+      @Override public void run() {
+        if (handler.registered && handler.paused) {
+          handler.paused = false;
+          if (handler.key != null) {
+            handler.key.interestOps(handler.key.channel().validOps()
+                & (SelectionKey.OP_ACCEPT | SelectionKey.OP_READ));
+          }
+          read(handler);
+        }
+      }
+    });
+  }
+
+  /**
+   * Polls {@code handler}, which has no channel, as soon as possible, and then as often as if it
+   * had just found something to read.
+   */
+  void wake(final Handler handler) {
+    execute(new Runnable() {
+      @Override public void run() {
+        handler.pollIntervalNanos = TimeUnit.MILLISECONDS.toNanos(MIN_POLL_INTERVAL_MILLIS);
+        handler.nextPollNanos = System.nanoTime();
+      }
+    });
+  }
+
+  /**
+   * Runs {@code read}, which blocks, on a thread of its own. It must {@linkplain #execute hand}
+   * what it reads back to the thread of the service.
+   */
+  void readBlocking(Runnable read) {
+    blockingReads.execute(read);
+  }
+
+  /** Runs {@code task} on the thread of the service. */
+  @Override public void execute(Runnable task) {
+    tasks.add(task);
+    Selector selector = this.selector;
+    if (selector != null) {
+      selector.wakeup();
+    }
+  }
+
+  /** Runs {@code task} on the thread of the service once {@code delay} has passed. */
+  void schedule(final Runnable task, long delay, TimeUnit unit) {
+    final long dueNanos = System.nanoTime() + unit.toNanos(delay);
+    execute(new Runnable() {
+      @Override public void run() {
+        scheduledTasks.add(new ScheduledTask(dueNanos, scheduledTaskCount++, task));
+      }
+    });
+  }
+
+  @Override protected String serviceName() {
+    return "caliper-selector";
+  }
+
+  @Override protected void startUp() throws IOException {
+    selector = Selector.open();
+  }
+
+  @Override protected void run() throws IOException {
+    thread = Thread.currentThread();
+    while (isRunning()) {
+      runTasks();
+      long timeoutMillis = prepareToWait();
+      if (timeoutMillis < 0) {
+        selector.selectNow();
+      } else {
+        selector.select(timeoutMillis);
+      }
+      Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+      while (selectedKeys.hasNext()) {
+        SelectionKey key = selectedKeys.next();
+        selectedKeys.remove();
+        if (key.isValid()) {
+          read((Handler) key.attachment());
+        }
+      }
+      long now = System.nanoTime();
+      for (Handler handler : Lists.newArrayList(polledHandlers)) {
+        if (now - handler.nextPollNanos >= 0) {
+          poll(handler);
+        }
+      }
+      runScheduledTasks();
+    }
+  }
+
+  private void poll(Handler handler) {
+    read(handler);
+    long minNanos = TimeUnit.MILLISECONDS.toNanos(MIN_POLL_INTERVAL_MILLIS);
+    long maxNanos = TimeUnit.MILLISECONDS.toNanos(MAX_POLL_INTERVAL_MILLIS);
+    handler.pollIntervalNanos =
+        handler.wasIdle() ? Math.min(2 * handler.pollIntervalNanos, maxNanos) : minNanos;
+    handler.nextPollNanos = System.nanoTime() + handler.pollIntervalNanos;
+  }
+
+  private void runTasks() {
+    Runnable task;
+    while ((task = tasks.poll()) != null) {
+      task.run();
+    }
+  }
+
+  private void runScheduledTasks() {
+    long now = System.nanoTime();
+    while (!scheduledTasks.isEmpty() && now - scheduledTasks.peek().dueNanos >= 0) {
+      scheduledTasks.poll().task.run();
+    }
+  }
+
+  /**
+   * Returns how long to wait for a channel: -1 not to wait at all, or 0 to wait until one is ready.
+   */
+  private long prepareToWait() {
+    if (!tasks.isEmpty()) {
+      return -1;
+    }
+    for (SelectionKey key : selector.keys()) {
+      Handler handler = (Handler) key.attachment();
+      if (key.isValid() && !handler.paused && !handler.prepareToWait()) {
+        return -1;
+      }
+    }
+    long waitNanos = Long.MAX_VALUE;
+    for (Handler handler : polledHandlers) {
+      waitNanos = Math.min(waitNanos, handler.nextPollNanos - System.nanoTime());
+    }
+    if (!scheduledTasks.isEmpty()) {
+      waitNanos = Math.min(waitNanos, scheduledTasks.peek().dueNanos - System.nanoTime());
+    }
+    if (waitNanos == Long.MAX_VALUE) {
+      return 0;
+    }
+    // round up, since a timeout of 0 would mean forever
+    return (waitNanos <= 0) ? -1 : TimeUnit.NANOSECONDS.toMillis(waitNanos) + 1;
+  }
+
+  private void read(Handler handler) {
+    if (!handler.registered || handler.paused) {
+      return;
+    }
+    boolean more;
+    try {
+      more = handler.read();
+    } catch (Exception e) {
+      unregister(handler);
+      handler.failed(e);
+      return;
+    }
+    if (!more) {
+      unregister(handler);
+    }
+  }
+
+  private void unregister(Handler handler) {
+    handler.registered = false;
+    if (handler.key != null) {
+      handler.key.cancel();
+      handler.key = null;
+    } else {
+      polledHandlers.remove(handler);
+    }
+  }
+
+  @Override protected void triggerShutdown() {
+    stopRequested = true;
+    Selector selector = this.selector;
+    if (selector != null) {
+      selector.wakeup();
+    }
+  }
+
+  @Override protected void shutDown() throws IOException {
+    if (!stopRequested) {
+      // we failed, and nothing will read for the handlers that are left, so fail them too rather
+      // than have them wait for the time limit of their trials
+      List<Handler> abandoned = Lists.newArrayList(polledHandlers);
+      for (SelectionKey key : selector.keys()) {
+        if (key.isValid()) {
+          abandoned.add((Handler) key.attachment());
+        }
+      }
+      for (Handler handler : abandoned) {
+        unregister(handler);
+        handler.failed(new IOException("The selector has failed"));
+      }
+    }
+    selector.close();
+    // threads that are blocked reading stay so until their streams are closed
+    blockingReads.shutdown();
+  }
+
+  private static final class ScheduledTask implements Comparable<ScheduledTask> {
+    final long dueNanos;
+    final long sequence;
+    final Runnable task;
+
+    ScheduledTask(long dueNanos, long sequence, Runnable task) {
+      this.dueNanos = dueNanos;
+      this.sequence = sequence;
+      this.task = task;
+    }
+
+    @Override public int compareTo(ScheduledTask that) {
+      long difference = this.dueNanos - that.dueNanos;
+      if (difference != 0) {
+        return (difference < 0) ? -1 : 1;
+      }
+      return (this.sequence < that.sequence) ? -1 : ((this.sequence == that.sequence) ? 0 : 1);
+    }
+  }
+}
@@ -17,46 +17,58 @@ package com.google.caliper.runner;
 import static com.google.common.base.Preconditions.checkState;
 
 import com.google.caliper.bridge.OpenedSocket;
+import com.google.caliper.bridge.SharedMemoryRing;
 import com.google.caliper.bridge.StartupAnnounceMessage;
+import com.google.caliper.bridge.Transport;
+import com.google.caliper.bridge.UnixDomainSockets;
+import com.google.caliper.config.CaliperConfig;
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
-import com.google.common.util.concurrent.AbstractExecutionThreadService;
+import com.google.common.util.concurrent.AbstractService;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.Service;
 import com.google.common.util.concurrent.SettableFuture;
 
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 /**
- * A {@link Service} that manages a {@link ServerSocket}.
+ * A {@link Service} that manages a {@link ServerSocketChannel}.
  *
  * <p> This service provides two pieces of functionality:
  * <ol>
- *   <li>It adapts {@link ServerSocket#accept()} to a {@link ListenableFuture} of an opened socket.
+ *   <li>It adapts {@link ServerSocketChannel#accept()} to a {@link ListenableFuture} of an opened
+ *       socket.
  *   <li>It demultiplexes incoming connections based on a {@link StartupAnnounceMessage} that is
  *       sent over the socket.
  * </ol>
  *
  * <p>The {@linkplain State states} of this service are as follows:
  * <ul>
- *   <li>{@linkplain State#NEW NEW} : Idle state, the {@link ServerSocket} is not open yet.
- *   <li>{@linkplain State#STARTING STARTING} : {@link ServerSocket} is opened
+ *   <li>{@linkplain State#NEW NEW} : Idle state, the {@link ServerSocketChannel} is not open yet.
+ *   <li>{@linkplain State#STARTING STARTING} : {@link ServerSocketChannel} is opened
  *   <li>{@linkplain State#RUNNING RUNNING} : We are continuously accepting and parsing connections
  *       from the socket.
  *   <li>{@linkplain State#STOPPING STOPPING} : The server socket is closing and all pending
@@ -65,29 +77,25 @@ import javax.inject.Singleton;
  *   <li>{@linkplain State#FAILED FAILED} : The service will transition to failed if it encounters
  *       any errors while accepting connections or reading from connections.
  * </ul>
- * 
- * <p>Note to future self.  There have been a few attempts to make it so that it is no longer 
- * necessary to dedicate a thread to this service (basically turn it into an AbstractIdleService).
- * The general idea has been to make callers to getConnection invoke accept, here is why it didn't
- * work.
- * <ul>
- *     <li>If you make getConnection a blocking method that calls accept until it finds the 
- *         connection with its id, then there is no way to deal with connections that never arrive.
- *         For example, if the worker crashes before connecting then the thread calling accept will
- *         block forever waiting for it.  The only way to unblock a thread stuck on accept() is to
- *         close the socket (this holds for ServerSocketChannels and normal ServerSockets), but we
- *         cannot do that in this case because the socket is a shared resource.
- *     <li>If you make getConnection a non-blocking, polling based method then you expose yourself
- *         to potential deadlocks (due to missed signals) depending on what thread you poll from.
- *         If the polling thread is any of the threads that are involved with processing messages
- *         from the worker I believe there to be a deadlock risk.  Basically, if the worker sends
- *         messages over its output streams and then calls Socket.connect, and no printing to stdout
- *         or stderr occurs while connecting. Then if the runner polls, but misses the connection
- *         and then tries to read again, it will deadlock.
- * </ul>
+ *
+ * <p>The service has no thread of its own: connections are accepted, and their announcements
+ * read, by the {@link SelectorService} as they become ready. Earlier versions dedicated a thread
+ * to a blocking accept(), because making callers of {@link #getConnection} accept connections
+ * themselves either blocked forever on workers that never connected or risked missed signals when
+ * polling. Waiting for readiness on the shared selector has neither problem, and it means that
+ * the connection is already in the selector's hands when a trial starts reading from it.
+ *
+ * <p>Unless the {@code runner.transport} option is {@code tcp}, the service also listens on a Unix
+ * domain socket, when the VM supports them. Workers are told about both and connect to the Unix
+ * domain socket if their own VM supports it. A worker that announces a {@link SharedMemoryRing}
+ * has its messages read from the ring rather than from the socket.
  */
 @Singleton
-final class ServerSocketService extends AbstractExecutionThreadService {
+final class ServerSocketService extends AbstractService {
+  private static final Logger logger = Logger.getLogger(ServerSocketService.class.getName());
+  private static final String TRANSPORT_OPTION = "runner.transport";
+  private static final String SHARED_MEMORY_ARG = Transport.SHARED_MEMORY.optionValue();
+
   private enum Source { REQUEST, ACCEPT}
   
   private final Lock lock = new ReentrantLock();
@@ -112,18 +120,53 @@ final class ServerSocketService extends AbstractExecutionThreadService {
         }
       });
   
-  private ServerSocket serverSocket;
+  private final Transport transport;
+  private final SelectorService selectorService;
+  private volatile ServerSocketChannel serverChannel;
+  @Nullable private volatile ServerSocketChannel unixServerChannel;
+  @Nullable private volatile File unixSocketFile;
+
+  @Inject ServerSocketService(CaliperConfig config, SelectorService selectorService) {
+    this(transport(config), selectorService);
+  }
 
-  @Inject ServerSocketService() {}
+  ServerSocketService(Transport transport, SelectorService selectorService) {
+    this.transport = transport;
+    this.selectorService = selectorService;
+  }
+
+  private static Transport transport(CaliperConfig config) {
+    String transport = config.properties().get(TRANSPORT_OPTION);
+    return (transport == null) ? Transport.TCP : Transport.forOptionValue(transport);
+  }
 
   int getPort() {
     awaitRunning();
-    checkState(serverSocket != null, "Socket has not been opened yet");
-    return serverSocket.getLocalPort();
+    checkState(serverChannel != null, "Socket has not been opened yet");
+    return serverChannel.socket().getLocalPort();
+  }
+
+  /**
+   * Returns the arguments that tell a worker how to connect to this service: the port, then the
+   * path of the Unix domain socket and whether to use a {@link SharedMemoryRing}, if applicable.
+   * See {@link com.google.caliper.worker.WorkerMain}.
+   */
+  ImmutableList<String> workerArgs() {
+    ImmutableList.Builder<String> args = ImmutableList.builder();
+    args.add(Integer.toString(getPort()));
+    if (unixSocketFile != null) {
+      args.add(UnixDomainSockets.ADDRESS_PREFIX + unixSocketFile.getPath());
+    }
+    if (transport == Transport.SHARED_MEMORY && SharedMemoryRing.isSupported()) {
+      args.add(SHARED_MEMORY_ARG);
+    }
+    return args.build();
   }
 
   /**
-   * Returns a {@link ListenableFuture} for an open connection corresponding to the given id.
+   * Returns a {@link ListenableFuture} for an open connection corresponding to the given id, which
+   * is the id that the worker was launched with and announces itself with. The future is completed
+   * on the thread of the {@link SelectorService}, so listeners must not block.
    *
    * <p>N.B. calling this method 'consumes' the connection and as such calling it twice with the
    * same id will not work, the second future returned will never complete.  Similarly calling it
@@ -134,25 +177,115 @@ final class ServerSocketService extends AbstractExecutionThreadService {
     return getConnectionImpl(id, Source.REQUEST);
   }
 
-  @Override protected void startUp() throws Exception {
-    serverSocket = new ServerSocket(0 /* bind to any available port */);
+  @Override protected void doStart() {
+    try {
+      // the selector is started by the same ServiceManager as we are, and until it is running
+      // the handlers just wait to be registered
+      serverChannel = ServerSocketChannel.open();
+      serverChannel.bind(new InetSocketAddress(0) /* bind to any available port */);
+      if (transport != Transport.TCP) {
+        if (UnixDomainSockets.isSupported()) {
+          unixSocketFile = File.createTempFile("caliper-", ".sock");
+          unixSocketFile.delete();
+          unixServerChannel = UnixDomainSockets.bind(unixSocketFile);
+        } else {
+          logger.warning(String.format("Unix domain sockets are not supported by this VM, so "
+              + "workers will connect over TCP instead (%s=%s)",
+              TRANSPORT_OPTION, transport.optionValue()));
+        }
+      }
+      if (transport == Transport.SHARED_MEMORY && !SharedMemoryRing.isSupported()) {
+        logger.warning(String.format("Shared memory rings are not supported by this VM, so "
+            + "workers will send their messages over the socket instead (%s=%s)",
+            TRANSPORT_OPTION, transport.optionValue()));
+      }
+    } catch (Exception e) {
+      fail(e);
+      return;
+    }
+    notifyStarted();
+    // the handlers stop accepting once we aren't running, so only register them now
+    selectorService.register(new AcceptHandler(serverChannel));
+    if (unixServerChannel != null) {
+      selectorService.register(new AcceptHandler(unixServerChannel));
+    }
   }
 
-  @Override protected void run() throws Exception {
-    while (isRunning()) {
-      Socket socket;
-      try {
-        socket = serverSocket.accept();
-      } catch (SocketException e) {
-        // we were closed
-        return;
+  /** Accepts the connections to a server channel. */
+  private final class AcceptHandler extends SelectorService.Handler {
+    final ServerSocketChannel channel;
+
+    AcceptHandler(ServerSocketChannel channel) {
+      this.channel = channel;
+    }
+
+    @Override ServerSocketChannel channel() {
+      return channel;
+    }
+
+    @Override boolean read() throws IOException {
+      if (!isRunning()) {
+        return false;
+      }
+      SocketChannel socket;
+      while ((socket = channel.accept()) != null) {
+        selectorService.register(new AnnounceHandler(OpenedSocket.fromSocket(socket)));
+      }
+      return true;
+    }
+
+    @Override void failed(Exception e) {
+      if (isRunning()) {
+        fail(e);
       }
-      OpenedSocket openedSocket = OpenedSocket.fromSocket(socket);
+    }
+  }
+
+  /** Reads the announcement from a worker that has just connected and hands off its connection. */
+  private final class AnnounceHandler extends SelectorService.Handler {
+    final OpenedSocket openedSocket;
+
+    AnnounceHandler(OpenedSocket openedSocket) {
+      this.openedSocket = openedSocket;
+    }
+
+    @Override SelectableChannel channel() {
+      return openedSocket.reader().selectableChannel();
+    }
 
-      UUID id = ((StartupAnnounceMessage) openedSocket.reader().read()).trialId();
+    @Override boolean prepareToWait() {
+      return openedSocket.reader().prepareToWait();
+    }
+
+    @Override boolean read() throws IOException {
+      StartupAnnounceMessage announce = (StartupAnnounceMessage) openedSocket.reader().poll();
+      if (announce == null) {
+        if (openedSocket.reader().isAtEof()) {
+          throw new EOFException("The worker disconnected without announcing itself");
+        }
+        return true;
+      }
+      OpenedSocket announced = openedSocket;
+      if (announce.sharedMemoryRing().isPresent()) {
+        File ringFile = new File(announce.sharedMemoryRing().get());
+        SharedMemoryRing ring = SharedMemoryRing.open(ringFile);
+        // both ends have mapped it, so the file is no longer needed
+        ringFile.delete();
+        announced = announced.withSharedMemoryReader(ring);
+      }
       // N.B. you should not call set with the lock held, to prevent same thread executors from
       // running with the lock.
-      getConnectionImpl(id, Source.ACCEPT).set(openedSocket);
+      getConnectionImpl(announce.workerId(), Source.ACCEPT).set(announced);
+      // whoever gets the connection registers a handler of their own
+      return false;
+    }
+
+    @Override void failed(Exception e) {
+      closeQuietly(openedSocket.reader());
+      closeQuietly(openedSocket.writer());
+      if (isRunning()) {
+        fail(e);
+      }
     }
   }
 
@@ -191,16 +324,22 @@ final class ServerSocketService extends AbstractExecutionThreadService {
     }
   }
 
-  @Override protected void triggerShutdown() {
-    try {
-      serverSocket.close();
-    } catch (IOException e) {
-      // best effort...
-    }
+  @Override protected void doStop() {
+    closeChannels();
+    notifyStopped();
+  }
+
+  private void fail(Exception e) {
+    closeChannels();
+    notifyFailed(e);
   }
 
-  @Override protected void shutDown() throws Exception {
-    serverSocket.close();
+  private void closeChannels() {
+    closeQuietly(serverChannel);
+    if (unixServerChannel != null) {
+      closeQuietly(unixServerChannel);
+      unixSocketFile.delete();
+    }
     // Now we have either been asked to stop or have failed with some kind of exception, we want to
     // notify all pending requests, so if there are any references outside of this class they will
     // notice.
@@ -215,4 +354,15 @@ final class ServerSocketService extends AbstractExecutionThreadService {
       lock.unlock();
     }
   }
+
+  private static void closeQuietly(@Nullable Closeable closeable) {
+    if (closeable == null) {
+      return;
+    }
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      // best effort...
+    }
+  }
 }
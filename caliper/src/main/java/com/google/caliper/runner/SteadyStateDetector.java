@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.runner;
+
+import com.google.common.primitives.Doubles;
+
+import org.apache.commons.math.stat.descriptive.rank.Median;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Decides when a series of timings, such as the per-rep times of successive warmup measurements,
+ * has stopped drifting.
+ *
+ * <p>The series is considered steady once the most recent {@link #WINDOW_SIZE} values have all
+ * been observed since the last compilation, and either a Mann-Kendall test finds no monotonic trend
+ * among them at the 5% significance level, or the medians of the older and newer halves of the
+ * window differ by less than 1%. The latter keeps very quiet benchmarks from being held in warmup
+ * by a drift that is statistically significant but too small to matter.
+ */
+final class SteadyStateDetector {
+  /** The number of consecutive values that must show no drift. */
+  static final int WINDOW_SIZE = 10;
+
+  /** The two-sided critical value of the standard normal distribution at 5% significance. */
+  private static final double CRITICAL_Z = 1.96;
+
+  private static final double NEGLIGIBLE_DRIFT = 0.01;
+
+  private final Deque<Double> window = new ArrayDeque<Double>(WINDOW_SIZE + 1);
+
+  /** Adds the next value in the series. */
+  void addValue(double value) {
+    window.addLast(value);
+    if (window.size() > WINDOW_SIZE) {
+      window.removeFirst();
+    }
+  }
+
+  /**
+   * Discards the values observed so far, because the code being timed was (re)compiled while or
+   * after they were measured.
+   */
+  void compilationObserved() {
+    window.clear();
+  }
+
+  /** Returns the number of values that must still be added before the series can be steady. */
+  int valuesUntilWindowIsFull() {
+    return WINDOW_SIZE - window.size();
+  }
+
+  boolean isSteady() {
+    if (window.size() < WINDOW_SIZE) {
+      return false;
+    }
+    double[] values = Doubles.toArray(window);
+    return Math.abs(mannKendallZ(values)) < CRITICAL_Z || relativeDrift(values) < NEGLIGIBLE_DRIFT;
+  }
+
+  /**
+   * Returns the normalized Mann-Kendall statistic for the given series, which is approximately
+   * standard normal if the series has no monotonic trend.
+   */
+  private static double mannKendallZ(double[] values) {
+    int n = values.length;
+    long s = 0;
+    for (int i = 0; i < n - 1; i++) {
+      for (int j = i + 1; j < n; j++) {
+        s += Integer.signum(Double.compare(values[j], values[i]));
+      }
+    }
+    if (s == 0) {
+      return 0;
+    }
+    double variance = n * (n - 1) * (2.0 * n + 5) / 18;
+    // continuity correction
+    return (s - Long.signum(s)) / Math.sqrt(variance);
+  }
+
+  /** Returns the change between the medians of the older and newer halves of the series. */
+  private static double relativeDrift(double[] values) {
+    int half = values.length / 2;
+    Median median = new Median();
+    double older = median.evaluate(Arrays.copyOfRange(values, 0, half));
+    double newer = median.evaluate(Arrays.copyOfRange(values, values.length - half, values.length));
+    double overall = median.evaluate(values);
+    return overall == 0 ? 0 : Math.abs(newer - older) / overall;
+  }
+}
@@ -20,34 +20,36 @@ import static com.google.common.base.Preconditions.checkState;
 import com.google.caliper.bridge.LogMessage;
 import com.google.caliper.bridge.OpenedSocket;
 import com.google.caliper.bridge.StopMeasurementLogMessage;
+import com.google.caliper.bridge.WorkerSpec;
 import com.google.caliper.model.Measurement;
 import com.google.caliper.runner.StreamService.StreamItem.Kind;
 import com.google.caliper.util.Parser;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.MoreObjects.ToStringHelper;
 import com.google.common.collect.Queues;
 import com.google.common.io.Closeables;
-import com.google.common.io.LineReader;
 import com.google.common.util.concurrent.AbstractService;
-import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.Service; // for javadoc
 import com.google.common.util.concurrent.Service.State; // for javadoc
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.util.concurrent.Uninterruptibles;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.channels.SelectableChannel;
 import java.nio.charset.Charset;
 import java.text.ParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
@@ -58,6 +60,18 @@ import javax.inject.Inject;
  * A {@link Service} that establishes a connection over a socket to a process and then allows 
  * multiplexed access to the processes' line oriented output over the socket and the standard 
  * process streams (stdout and stderr) as well as allowing data to be written over the socket.
+ *
+ * <p>The streams are read by the {@link SelectorService}, which the streams of every other trial
+ * share, so the service has no threads of its own. At most {@link #QUEUE_CAPACITY} items wait to be
+ * {@linkplain #readItem read}; once there are that many the service stops reading from the worker
+ * until some have been.
+ *
+ * <p>A pipe can't be selected, and Java can't tell when one has reached EOF without blocking on
+ * it, so stdout and stderr are polled. While the worker's socket is open, the trial can't end
+ * before the socket does, so they are only read when there is something to read. Once the socket
+ * has closed, or if the worker hasn't connected after {@link #PROBE_AFTER_IDLE_MILLIS}, an idle
+ * pipe is probed with a blocking read of a byte on a thread of the {@link SelectorService}, which
+ * finds EOF even if the process is still running.
  * 
  * <p>The {@linkplain State states} of this service are as follows:
  * <ul>
@@ -65,8 +79,8 @@ import javax.inject.Inject;
  *   <li>{@linkplain State#STARTING STARTING} : Streams are being opened
  *   <li>{@linkplain State#RUNNING RUNNING} : At least one stream is still open or the writer has 
  *       not been closed yet.
- *   <li>{@linkplain State#STOPPING STOPPING} : All streams have closed but some threads may still 
- *       be running.
+ *   <li>{@linkplain State#STOPPING STOPPING} : All streams have closed but the process may not
+ *       have exited yet.
  *   <li>{@linkplain State#TERMINATED TERMINATED} : Idle state, all streams are closed
  *   <li>{@linkplain State#FAILED FAILED} : The service will transition to failed if it encounters
  *       any errors while reading from or writing to the streams, service failure will also cause 
@@ -79,19 +93,42 @@ import javax.inject.Inject;
   /** How long to wait for a process that should be exiting to actually exit. */
   private static final int SHUTDOWN_WAIT_MILLIS = 10;
 
+  /**
+   * How long a pipe must have been idle, while the worker has yet to connect, before it is probed
+   * for EOF. That is longer than workers take to connect normally, since the probe of a pipe that
+   * stays idle ties up a thread until the pipe has something to read.
+   */
+  private static final long PROBE_AFTER_IDLE_MILLIS = 1000;
+
+  /** The most items that can be waiting to be read. */
+  @VisibleForTesting static final int QUEUE_CAPACITY = 1024;
+
   private static final Logger logger = Logger.getLogger(StreamService.class.getName());
   private static final StreamItem TIMEOUT_ITEM = new StreamItem(Kind.TIMEOUT, null);
 
   /** The final item that will be sent down the stream. */
   static final StreamItem EOF_ITEM = new StreamItem(Kind.EOF, null);
 
-  private final ListeningExecutorService streamExecutor = MoreExecutors.listeningDecorator(
-      Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).build()));
-  private final BlockingQueue<StreamItem> outputQueue = Queues.newLinkedBlockingQueue();
+  private final BlockingQueue<StreamItem> outputQueue =
+      Queues.newArrayBlockingQueue(QUEUE_CAPACITY);
   private final WorkerProcess worker;
   private volatile Process process;
   private final Parser<LogMessage> logMessageParser;
   private final TrialOutputLogger trialOutput;
+  private final SelectorService selectorService;
+  private final List<SelectorService.Handler> handlers =
+      new CopyOnWriteArrayList<SelectorService.Handler>();
+
+  /**
+   * The items that didn't fit in the {@link #outputQueue}, which are only touched by the thread of
+   * the {@link SelectorService}. While there are any, the handlers are paused, so there are never
+   * more than a few.
+   */
+  private final Queue<StreamItem> overflow = Queues.newArrayDeque();
+  private volatile boolean paused;
+  private final AtomicBoolean drainScheduled = new AtomicBoolean();
+  /** Set once the service is done, after which nobody will read any more items. */
+  private volatile boolean discarding;
   
   /** 
    * This represents the number of open streams from the users perspective.  i.e. can you still
@@ -109,12 +146,19 @@ import javax.inject.Inject;
   private final AtomicInteger runningReadStreams = new AtomicInteger();
   private OpenedSocket.Writer socketWriter;
 
+  /** Whether the worker has connected its socket. */
+  private volatile boolean socketConnected;
+  /** Whether the worker's socket is connected and hasn't reached EOF yet. */
+  private volatile boolean socketOpen;
+
   @Inject StreamService(WorkerProcess worker,
       Parser<LogMessage> logMessageParser, 
-      TrialOutputLogger trialOutput) {
+      TrialOutputLogger trialOutput,
+      SelectorService selectorService) {
     this.worker = worker;
     this.logMessageParser = logMessageParser;
     this.trialOutput = trialOutput;
+    this.selectorService = selectorService;
   }
 
   @Override protected void doStart() {
@@ -125,7 +169,7 @@ import javax.inject.Inject;
       notifyFailed(e);
       return;
     }
-    // Failsafe kill the process and the executor service.
+    // Failsafe kill the process and stop reading from it.
     // If the process has already exited cleanly, this will be a no-op.
     addListener(new Listener() {
       @Override public void starting() {}
@@ -139,33 +183,26 @@ import javax.inject.Inject;
       }
 
       void cleanup() {
-        streamExecutor.shutdown();
         process.destroy();
-        try {
-          streamExecutor.awaitTermination(10, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-          Thread.currentThread().interrupt();
+        worker.workerExited();
+        // let the handlers read to EOF, so that they close their streams
+        discarding = true;
+        for (SelectorService.Handler handler : handlers) {
+          selectorService.resume(handler);
         }
-        streamExecutor.shutdownNow();
       }
     }, MoreExecutors.directExecutor());
     // You may be thinking as you read this "Yo dawg, what if IOExceptions rain from the sky?" 
     // If a stream we are reading from throws an IOException then we fail the entire Service. This
-    // will cause the worker to be killed (if its not dead already) and the various StreamReaders to
-    // be interrupted (eventually).
+    // will cause the worker to be killed (if its not dead already) and the rest of the streams to
+    // reach EOF (eventually).
 
     // use the default charset because worker streams will use the default for output
     Charset processCharset = Charset.defaultCharset();
     runningReadStreams.addAndGet(2);
     openStreams.addAndGet(1);
-    streamExecutor.submit(
-        threadRenaming("worker-stderr", 
-            new StreamReader("stderr", 
-                new InputStreamReader(process.getErrorStream(), processCharset))));
-    streamExecutor.submit(
-        threadRenaming("worker-stdout",
-            new StreamReader("stdout", 
-                new InputStreamReader(process.getInputStream(), processCharset))));
+    register(new PipeHandler("stderr", process.getErrorStream(), processCharset));
+    register(new PipeHandler("stdout", process.getInputStream(), processCharset));
     worker.socketFuture().addListener(
         new Runnable() {
           @Override public void run() {
@@ -174,18 +211,32 @@ import javax.inject.Inject;
                   Uninterruptibles.getUninterruptibly(worker.socketFuture());
               logger.fine("successfully opened the pipe from the worker");
               socketWriter = openedSocket.writer();
+              // The worker can't do anything until it knows which trial it is running
+              WorkerSpec workerSpec = worker.workerSpec();
+              if (workerSpec != null) {
+                socketWriter.write(workerSpec);
+                socketWriter.flush();
+              }
               runningReadStreams.addAndGet(1);
               openStreams.addAndGet(1);
-              streamExecutor.submit(threadRenaming("worker-socket",
-                  new SocketStreamReader(openedSocket.reader())));
+              socketConnected = true;
+              socketOpen = true;
+              register(new SocketHandler(openedSocket.reader()));
             } catch (ExecutionException e) {
               notifyFailed(e.getCause());
+            } catch (IOException e) {
+              notifyFailed(e);
             }
           }
         },
         MoreExecutors.directExecutor());
     notifyStarted();
   }
+
+  private void register(SelectorService.Handler handler) {
+    handlers.add(handler);
+    selectorService.register(handler);
+  }
   
   /**
    * Reads a {@link StreamItem} from one of the streams waiting for one to become available if 
@@ -194,12 +245,25 @@ import javax.inject.Inject;
   StreamItem readItem(long timeout, TimeUnit unit) throws InterruptedException {
     checkState(isRunning(), "Cannot read items from a %s StreamService", state());
     StreamItem line = outputQueue.poll(timeout, unit);
+    if (paused && drainScheduled.compareAndSet(false, true)) {
+      // there is room again
+      selectorService.execute(new Runnable() {
+        @Override public void run() {
+          drainOverflow();
+        }
+      });
+    }
     if (line == EOF_ITEM) {
       closeStream();
     }
     return (line == null) ? TIMEOUT_ITEM : line;
   }
   
+  /** Returns whether reading from the worker has stopped until some items have been read. */
+  @VisibleForTesting boolean isPaused() {
+    return paused;
+  }
+
   /**
    * Write a line of data to the worker process over the socket.
    *
@@ -242,37 +306,49 @@ import javax.inject.Inject;
       // warning and do nothing
       logger.warning("Attempting to stop the stream service with streams still open");
     }
-    final ListenableFuture<Integer> processFuture = streamExecutor.submit(new Callable<Integer>() {
-      @Override public Integer call() throws Exception {
-        return process.waitFor();
-      }
-    });
     // Experimentally, even with well behaved processes there is some time between when all streams
     // are closed as part of process shutdown and when the process has exited. So to not fail 
     // flakily when shutting down normally we need to do a timed wait
-    streamExecutor.submit(new Callable<Void>() {
-      @Override public Void call() throws Exception {
-        boolean threw = true;
-        try {
-          if (processFuture.get(SHUTDOWN_WAIT_MILLIS, TimeUnit.MILLISECONDS) == 0) {
-            notifyStopped();
-          } else {
-            notifyFailed(
-                new Exception("Process failed to stop cleanly. Exit code: " + process.waitFor()));
-          }
-          threw = false;
-        } finally {
-          processFuture.cancel(true);  // we don't need it anymore
-          if (threw) {
-            process.destroy();
-            notifyFailed(
-                new Exception("Process failed to stop cleanly and was forcibly killed. Exit code: " 
-                    + process.waitFor()));
-          }
+    selectorService.execute(new ExitWatcher());
+  }
+
+  /**
+   * Waits, on the thread of the {@link SelectorService}, for the process to exit, killing it if it
+   * takes longer than {@link #SHUTDOWN_WAIT_MILLIS}.
+   */
+  private final class ExitWatcher implements Runnable {
+    final long deadlineNanos =
+        System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_WAIT_MILLIS);
+    boolean destroyed;
+
+    @Override public void run() {
+      Integer exitCode = exitCode(process);
+      if (exitCode != null) {
+        if (destroyed) {
+          notifyFailed(new Exception(
+              "Process failed to stop cleanly and was forcibly killed. Exit code: " + exitCode));
+        } else if (exitCode == 0) {
+          notifyStopped();
+        } else {
+          notifyFailed(new Exception("Process failed to stop cleanly. Exit code: " + exitCode));
         }
-        return null;
+        return;
       }
-    });
+      if (!destroyed && System.nanoTime() - deadlineNanos >= 0) {
+        process.destroy();
+        destroyed = true;
+      }
+      selectorService.schedule(this, 1, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /** Returns the exit code of the process, or {@code null} if it hasn't exited yet. */
+  @Nullable private static Integer exitCode(Process process) {
+    try {
+      return process.exitValue();
+    } catch (IllegalThreadStateException e) {
+      return null;
+    }
   }
   
   private void closeStream() {
@@ -283,7 +359,37 @@ import javax.inject.Inject;
   
   private void closeReadStream() {
     if (runningReadStreams.decrementAndGet() == 0) {
-      outputQueue.add(EOF_ITEM);
+      emit(EOF_ITEM);
+    }
+  }
+
+  /**
+   * Puts an item on the queue, or if it is full, aside until there is room, pausing the handlers
+   * until then. This is only called on the thread of the {@link SelectorService}.
+   */
+  private void emit(StreamItem item) {
+    if (discarding || (!paused && outputQueue.offer(item))) {
+      return;
+    }
+    overflow.add(item);
+    if (!paused) {
+      paused = true;
+      for (SelectorService.Handler handler : handlers) {
+        selectorService.pause(handler);
+      }
+    }
+  }
+
+  private void drainOverflow() {
+    drainScheduled.set(false);
+    while (!overflow.isEmpty() && outputQueue.offer(overflow.peek())) {
+      overflow.remove();
+    }
+    if (overflow.isEmpty() && paused) {
+      paused = false;
+      for (SelectorService.Handler handler : handlers) {
+        selectorService.resume(handler);
+      }
     }
   }
 
@@ -330,101 +436,255 @@ import javax.inject.Inject;
       return helper.toString();
     }
   }
-  
-  /** Returns a callable that renames the the thread that the given callable runs in. */
-  private static <T> Callable<T> threadRenaming(final String name, final Callable<T> callable) {
-    checkNotNull(name);
-    checkNotNull(callable);
-    return new Callable<T>() {
-      @Override public T call() throws Exception {
-        Thread currentThread = Thread.currentThread();
-        String oldName = currentThread.getName();
-        currentThread.setName(name);
-        try {
-          return callable.call();
-        } finally {
-          currentThread.setName(oldName);
-        }
+
+  /** Reads from one of the streams, and when it is done, closes it. */
+  private abstract class StreamHandler extends SelectorService.Handler {
+    final Closeable stream;
+
+    StreamHandler(Closeable stream) {
+      this.stream = stream;
+    }
+
+    /** Called once the stream has reached EOF and all of its items have been emitted. */
+    final boolean finish() throws IOException {
+      closeReadStream();
+      stream.close();
+      return false;
+    }
+
+    @Override final void failed(Exception e) {
+      notifyFailed(e);
+      closeReadStream();
+      try {
+        Closeables.close(stream, true);
+      } catch (IOException impossible) {
+        throw new AssertionError(impossible);
       }
-    };
+    }
   }
 
   /**
-   * A background task that reads lines of text from a {@link Reader} and puts them onto a 
-   * {@link BlockingQueue}.
+   * Reads lines of text from one of the pipes of the process and puts them onto the queue. The
+   * lines are split on the bytes of the line terminators, which are the same in every charset that
+   * a VM uses by default.
    */
-  private final class StreamReader implements Callable<Void> {
-    final Reader reader;
+  private final class PipeHandler extends StreamHandler {
+    static final int PROBING = -2;
+    static final int NOT_PROBED = -3;
+
     final String streamName;
+    final InputStream input;
+    final Charset charset;
+    /** The bytes of lines that haven't been emitted yet, from 0 up to {@link #length}. */
+    byte[] bytes = new byte[8192];
+    int length;
+    /** Whether the last line ended with a CR, so that an LF that follows it is part of it. */
+    boolean skipLineFeed;
+    boolean eof;
+    boolean idle;
+    long lastReadNanos = System.nanoTime();
+    /**
+     * What the last {@linkplain #probe probe} read: a byte, or -1 at EOF. {@link #PROBING} while
+     * the probe is blocked, and {@link #NOT_PROBED} once what it read has been taken.
+     */
+    volatile int probed = NOT_PROBED;
+    @Nullable volatile IOException probeFailure;
 
-    StreamReader(String streamName, Reader reader) {
+    PipeHandler(String streamName, InputStream input, Charset charset) {
+      super(input);
       this.streamName = streamName;
-      this.reader = reader;
+      this.input = input;
+      this.charset = charset;
     }
-    
-    @Override public Void call() throws IOException, InterruptedException, ParseException {
-      LineReader lineReader = new LineReader(reader);
-      boolean threw = true;
-      try {
-        String line;
-        while ((line = lineReader.readLine()) != null) {
-          trialOutput.log(streamName, line);
-          LogMessage logMessage = logMessageParser.parse(line);
-          if (logMessage != null) {
-            outputQueue.put(new StreamItem(logMessage));
+
+    @Override @Nullable SelectableChannel channel() {
+      return null;
+    }
+
+    @Override boolean read() throws IOException, ParseException {
+      idle = true;
+      emitLines();
+      while (!paused && !eof) {
+        int probed = this.probed;
+        if (probed == PROBING) {
+          // the stream is in use until the probe returns
+          return true;
+        }
+        if (probed != NOT_PROBED) {
+          this.probed = NOT_PROBED;
+          if (probeFailure != null) {
+            throw probeFailure;
+          }
+          if (probed == -1) {
+            eof = true;
+          } else {
+            ensureRoom();
+            bytes[length++] = (byte) probed;
+            lastReadNanos = System.nanoTime();
+            idle = false;
+          }
+          emitLines();
+          continue;
+        }
+        int available = input.available();
+        // once the process has exited, reading doesn't block
+        if (available == 0 && exitCode(process) == null) {
+          if (shouldProbe()) {
+            probe();
           }
+          return true;
         }
-        threw = false;
-      } catch (Exception e) {
-        notifyFailed(e);
-      } finally {
-        closeReadStream();
-        Closeables.close(reader, threw);
+        ensureRoom();
+        int room = bytes.length - length;
+        int read = input.read(bytes, length, (available == 0) ? room : Math.min(available, room));
+        if (read == -1) {
+          eof = true;
+        } else {
+          length += read;
+          lastReadNanos = System.nanoTime();
+          idle = false;
+        }
+        emitLines();
+      }
+      if (paused) {
+        return true;
+      }
+      if (length > 0) {
+        // the last line has no terminator
+        emitLine(new String(bytes, 0, length, charset));
+        length = 0;
+      }
+      return finish();
+    }
+
+    @Override boolean wasIdle() {
+      return idle;
+    }
+
+    private void ensureRoom() {
+      if (length == bytes.length) {
+        bytes = Arrays.copyOf(bytes, 2 * bytes.length);
+      }
+    }
+
+    /** Returns whether to look for EOF on the pipe while it is idle. */
+    private boolean shouldProbe() {
+      if (socketConnected) {
+        return !socketOpen;
+      }
+      return System.nanoTime() - lastReadNanos
+          >= TimeUnit.MILLISECONDS.toNanos(PROBE_AFTER_IDLE_MILLIS);
+    }
+
+    /**
+     * Reads a byte by blocking, on another thread, and polls again once it has, so that EOF is
+     * found even if the process is still running.
+     */
+    private void probe() {
+      probed = PROBING;
+      selectorService.readBlocking(new Runnable() {
+        @Override public void run() {
+          int read;
+          try {
+            read = input.read();
+          } catch (IOException e) {
+            probeFailure = e;
+            read = -1;
+          }
+          probed = read;
+          selectorService.wake(PipeHandler.this);
+        }
+      });
+    }
+
+    private void emitLines() throws ParseException {
+      int start = 0;
+      for (int i = 0; i < length && !paused; i++) {
+        byte b = bytes[i];
+        if (skipLineFeed) {
+          skipLineFeed = false;
+          if (b == '\n') {
+            start = i + 1;
+            continue;
+          }
+        }
+        if (b == '\n' || b == '\r') {
+          emitLine(new String(bytes, start, i - start, charset));
+          start = i + 1;
+          skipLineFeed = b == '\r';
+        }
+      }
+      System.arraycopy(bytes, start, bytes, 0, length - start);
+      length -= start;
+    }
+
+    private void emitLine(String line) throws ParseException {
+      trialOutput.log(streamName, line);
+      LogMessage logMessage = logMessageParser.parse(line);
+      if (logMessage != null) {
+        emit(new StreamItem(logMessage));
       }
-      return null;
     }
   }
   
   /**
-   * A background task that reads lines of text from a {@link OpenedSocket.Reader} and puts them
-   * onto a {@link BlockingQueue}.
+   * Reads objects from a {@link OpenedSocket.Reader} and puts them onto the queue.
    */
-  private final class SocketStreamReader implements Callable<Void> {
+  private final class SocketHandler extends StreamHandler {
     final OpenedSocket.Reader reader;
 
-    SocketStreamReader(OpenedSocket.Reader reader) {
+    SocketHandler(OpenedSocket.Reader reader) {
+      super(reader);
       this.reader = reader;
     }
-    
-    @Override public Void call() throws IOException, InterruptedException, ParseException {
-      boolean threw = true;
-      try {
-        Object obj;
-        while ((obj = reader.read()) != null) {
-          if (obj instanceof String) {
-            log(obj.toString());
-            continue;
-          } 
-          LogMessage message = (LogMessage) obj;
-          if (message instanceof StopMeasurementLogMessage) {
-            // TODO(lukes): how useful are these messages?  They seem like leftover debugging info
-            for (Measurement measurement : ((StopMeasurementLogMessage) message).measurements()) {
-              log(String.format("I got a result! %s: %f%s%n",
-                  measurement.description(),
-                  measurement.value().magnitude() / measurement.weight(), 
-                  measurement.value().unit()));
-            }
+
+    @Override @Nullable SelectableChannel channel() {
+      return reader.selectableChannel();
+    }
+
+    @Override boolean prepareToWait() {
+      return reader.prepareToWait();
+    }
+
+    @Override boolean read() throws IOException {
+      Serializable obj;
+      while (!paused && (obj = poll()) != null) {
+        if (obj instanceof String) {
+          log(obj.toString());
+          continue;
+        } 
+        LogMessage message = (LogMessage) obj;
+        if (message instanceof StopMeasurementLogMessage) {
+          // TODO(lukes): how useful are these messages?  They seem like leftover debugging info
+          for (Measurement measurement : ((StopMeasurementLogMessage) message).measurements()) {
+            log(String.format("I got a result! %s: %f%s%n",
+                measurement.description(),
+                measurement.value().magnitude() / measurement.weight(), 
+                measurement.value().unit()));
           }
-          outputQueue.put(new StreamItem(message));
         }
-        threw = false;
-      } catch (Exception e) {
-        notifyFailed(e);
-      } finally {
-        closeReadStream();
-        Closeables.close(reader, threw);
+        emit(new StreamItem(message));
       }
-      return null;
+      if (!reader.isAtEof()) {
+        return true;
+      }
+      socketOpen = false;
+      // the pipes may be all that is left to reach EOF
+      for (SelectorService.Handler handler : handlers) {
+        if (handler instanceof PipeHandler) {
+          selectorService.wake(handler);
+        }
+      }
+      return finish();
+    }
+
+    @Nullable private Serializable poll() throws IOException {
+      if (reader.selectableChannel() == null && exitCode(process) != null) {
+        // a socket without a channel can only be polled, which can't see EOF, but once the
+        // process has exited reading won't block for long
+        return reader.read();
+      }
+      return reader.poll();
     }
 
     private void log(String text) {
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.caliper.runner;
+
+import static com.google.caliper.runner.CommonInstrumentOptions.WARMUP_OPTION;
+import static com.google.caliper.util.Reflection.withBlackhole;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Throwables.propagateIfInstanceOf;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.caliper.Benchmark;
+import com.google.caliper.api.SkipThisScenarioException;
+import com.google.caliper.platform.Platform;
+import com.google.caliper.platform.SupportedPlatform;
+import com.google.caliper.util.ShortDuration;
+import com.google.caliper.worker.ThreadAllocationWorker;
+import com.google.caliper.worker.Worker;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * {@link Instrument} that measures the bytes allocated per rep by a benchmark method once it has
+ * been compiled. Where the {@link AllocationInstrument} reports the worst case of an interpreted VM
+ * with an allocation agent, this instrument reads the allocation counter of the benchmark thread in
+ * an ordinary VM, so allocations that escape analysis eliminates are not counted. It can't tell how
+ * many objects were allocated.
+ *
+ * <p>The benchmark method must accept a single int or long argument 'reps', and the worker VM must
+ * support {@code com.sun.management.ThreadMXBean#getThreadAllocatedBytes}.
+ */
+@SupportedPlatform(Platform.Type.JVM)
+class ThreadAllocationInstrument extends Instrument {
+  @Override
+  public boolean isBenchmarkMethod(Method method) {
+    return method.isAnnotationPresent(Benchmark.class) || BenchmarkMethods.isTimeMethod(method);
+  }
+
+  @Override
+  protected ImmutableSet<String> instrumentOptions() {
+    return ImmutableSet.of(WARMUP_OPTION);
+  }
+
+  @Override
+  public Instrumentation createInstrumentation(Method benchmarkMethod)
+      throws InvalidBenchmarkException {
+    checkNotNull(benchmarkMethod);
+    checkArgument(isBenchmarkMethod(benchmarkMethod));
+    try {
+      switch (BenchmarkMethods.Type.of(benchmarkMethod)) {
+        case MICRO:
+        case PICO:
+          return new ThreadAllocationInstrumentation(benchmarkMethod);
+        default:
+          // the allocation counter is only read around a reps loop
+          break;
+      }
+    } catch (IllegalArgumentException e) {
+      // fall through to the error below
+    }
+    throw new InvalidBenchmarkException(
+        "Benchmark methods must accept a single int or long parameter: %s",
+        benchmarkMethod.getName());
+  }
+
+  @Override public TrialSchedulingPolicy schedulingPolicy() {
+    // Allocations are counted per thread, so other trials don't affect them.
+    return TrialSchedulingPolicy.PARALLEL;
+  }
+
+  private final class ThreadAllocationInstrumentation extends Instrumentation {
+    ThreadAllocationInstrumentation(Method benchmarkMethod) {
+      super(benchmarkMethod);
+    }
+
+    @Override
+    public void dryRun(Object benchmark) throws UserCodeException {
+      try {
+        benchmarkMethod.invoke(benchmark, withBlackhole(benchmarkMethod, 1));
+      } catch (IllegalAccessException impossible) {
+        throw new AssertionError(impossible);
+      } catch (InvocationTargetException e) {
+        Throwable userException = e.getCause();
+        propagateIfInstanceOf(userException, SkipThisScenarioException.class);
+        throw new UserCodeException(userException);
+      }
+    }
+
+    @Override public ImmutableMap<String, String> workerOptions() {
+      ShortDuration warmup = ShortDuration.valueOf(options.get(WARMUP_OPTION));
+      return ImmutableMap.of("warmupNanos", String.valueOf(warmup.to(NANOSECONDS)));
+    }
+
+    @Override
+    public Class<? extends Worker> workerClass() {
+      return ThreadAllocationWorker.class;
+    }
+
+    @Override
+    MeasurementCollectingVisitor getMeasurementCollectingVisitor() {
+      return new Instrument.DefaultMeasurementCollectingVisitor(ImmutableSet.of("bytes"));
+    }
+  }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.caliper.runner;
+
+import static com.google.caliper.runner.CommonInstrumentOptions.GC_BEFORE_EACH_OPTION;
+import static com.google.caliper.runner.CommonInstrumentOptions.MEASUREMENTS_OPTION;
+import static com.google.caliper.runner.CommonInstrumentOptions.WARMUP_OPTION;
+import static com.google.caliper.runner.CommonInstrumentOptions.checkIntOption;
+import static com.google.caliper.util.Reflection.getParameterTypesWithoutBlackhole;
+import static com.google.caliper.util.Reflection.withBlackhole;
+import static com.google.caliper.util.Util.isStatic;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Throwables.propagateIfInstanceOf;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.caliper.Benchmark;
+import com.google.caliper.api.SkipThisScenarioException;
+import com.google.caliper.bridge.AbstractLogMessageVisitor;
+import com.google.caliper.bridge.HotspotLogMessage;
+import com.google.caliper.bridge.StartMeasurementLogMessage;
+import com.google.caliper.bridge.StopMeasurementLogMessage;
+import com.google.caliper.bridge.VmActivity;
+import com.google.caliper.config.InvalidConfigurationException;
+import com.google.caliper.model.LatencyHistogram;
+import com.google.caliper.model.Measurement;
+import com.google.caliper.platform.Platform;
+import com.google.caliper.platform.SupportedPlatform;
+import com.google.caliper.util.ShortDuration;
+import com.google.caliper.worker.ConcurrentWorker;
+import com.google.caliper.worker.ThroughputWorker;
+import com.google.caliper.worker.Worker;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * The instrument responsible for measuring the throughput of {@link Benchmark} methods, in
+ * operations per second over a fixed window of wall-clock time.
+ *
+ * <p>Benchmark methods either take an int or long reps parameter, in which case each rep is an
+ * operation, or no parameter, in which case each invocation is. With more than one thread, the
+ * operations of all threads are added up. As for the {@link ConcurrentInstrument}, the runner
+ * resolves the number of threads and passes it to the worker.
+ */
+@SupportedPlatform(Platform.Type.JVM)
+class ThroughputInstrument extends Instrument {
+  private static final String WINDOW_OPTION = "window";
+  private static final String THREADS_OPTION = ConcurrentWorker.THREADS_OPTION;
+  private static final int DRY_RUN_REPS = 1;
+
+  private final int availableProcessors;
+
+  ThroughputInstrument() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  @VisibleForTesting ThroughputInstrument(int availableProcessors) {
+    this.availableProcessors = availableProcessors;
+  }
+
+  @Override
+  public boolean isBenchmarkMethod(Method method) {
+    return method.isAnnotationPresent(Benchmark.class);
+  }
+
+  @Override
+  protected ImmutableSet<String> instrumentOptions() {
+    return ImmutableSet.of(
+        WINDOW_OPTION, THREADS_OPTION, WARMUP_OPTION, MEASUREMENTS_OPTION, GC_BEFORE_EACH_OPTION);
+  }
+
+  @Override void checkOptions() {
+    checkIntOption(options, THREADS_OPTION, 0);
+    checkIntOption(options, MEASUREMENTS_OPTION, 1);
+    String window = options.get(WINDOW_OPTION);
+    if (window != null && ShortDuration.valueOf(window).to(NANOSECONDS) <= 0) {
+      throw new InvalidConfigurationException(
+          String.format("The %s option must be positive: %s", WINDOW_OPTION, window));
+    }
+  }
+
+  /**
+   * Returns the number of threads for benchmarks without a {@code threads} parameter: the value of
+   * the {@code threads} option, which defaults to one, or one per processor that was available when
+   * this instrument was created if it is zero.
+   */
+  @VisibleForTesting int threadCount() {
+    String threads = options.get(THREADS_OPTION);
+    int threadCount = (threads == null) ? 1 : Integer.parseInt(threads);
+    return (threadCount > 0) ? threadCount : availableProcessors;
+  }
+
+  @Override
+  public Instrumentation createInstrumentation(Method benchmarkMethod)
+      throws InvalidBenchmarkException {
+    checkNotNull(benchmarkMethod);
+    checkArgument(isBenchmarkMethod(benchmarkMethod));
+    if (isStatic(benchmarkMethod)) {
+      throw new InvalidBenchmarkException("Benchmark methods must not be static: %s",
+          benchmarkMethod.getName());
+    }
+    Class<?>[] parameterTypes = getParameterTypesWithoutBlackhole(benchmarkMethod);
+    if (parameterTypes.length > 1
+        || (parameterTypes.length == 1
+            && parameterTypes[0] != int.class && parameterTypes[0] != long.class)) {
+      throw new InvalidBenchmarkException("Benchmark methods must have no arguments or accept "
+          + "a single int or long parameter: %s", benchmarkMethod.getName());
+    }
+    return new ThroughputInstrumentation(benchmarkMethod);
+  }
+
+  @Override public TrialSchedulingPolicy schedulingPolicy() {
+    return TrialSchedulingPolicy.SERIAL;
+  }
+
+  private final class ThroughputInstrumentation extends Instrumentation {
+    ThroughputInstrumentation(Method benchmarkMethod) {
+      super(benchmarkMethod);
+    }
+
+    @Override public void dryRun(Object benchmark) throws UserCodeException {
+      try {
+        if (getParameterTypesWithoutBlackhole(benchmarkMethod).length == 0) {
+          benchmarkMethod.invoke(benchmark, withBlackhole(benchmarkMethod));
+        } else {
+          benchmarkMethod.invoke(benchmark, withBlackhole(benchmarkMethod, DRY_RUN_REPS));
+        }
+      } catch (IllegalAccessException impossible) {
+        throw new AssertionError(impossible);
+      } catch (InvocationTargetException e) {
+        Throwable userException = e.getCause();
+        propagateIfInstanceOf(userException, SkipThisScenarioException.class);
+        throw new UserCodeException(userException);
+      }
+    }
+
+    @Override public ImmutableMap<String, String> workerOptions() {
+      return ImmutableMap.of(
+          WINDOW_OPTION + "Nanos", String.valueOf(getWindow().to(NANOSECONDS)),
+          THREADS_OPTION, String.valueOf(threadCount()),
+          GC_BEFORE_EACH_OPTION, options.get(GC_BEFORE_EACH_OPTION));
+    }
+
+    @Override public Class<? extends Worker> workerClass() {
+      return ThroughputWorker.class;
+    }
+
+    @Override MeasurementCollectingVisitor getMeasurementCollectingVisitor() {
+      int measurements = Integer.parseInt(options.get(MEASUREMENTS_OPTION));
+      ShortDuration window = getWindow();
+      ShortDuration warmup = ShortDuration.valueOf(options.get(WARMUP_OPTION));
+      int warmupWindows = (int) ((warmup.to(NANOSECONDS) + window.to(NANOSECONDS) - 1)
+          / window.to(NANOSECONDS));
+      return new ThroughputMeasurementCollector(warmupWindows, measurements);
+    }
+  }
+
+  private ShortDuration getWindow() {
+    return ShortDuration.valueOf(options.get(WINDOW_OPTION));
+  }
+
+  /**
+   * Collects throughput measurements once the worker has run a number of windows for warmup.
+   */
+  static final class ThroughputMeasurementCollector extends AbstractLogMessageVisitor
+      implements MeasurementCollectingVisitor {
+    private final int warmupWindows;
+    private final int requiredMeasurements;
+    private final List<Measurement> measurements = Lists.newArrayList();
+    private final List<String> messages = Lists.newArrayList();
+    private int elapsedWarmupWindows = 0;
+    private boolean warmupComplete = false;
+    private boolean measuring = false;
+    private boolean notifiedAboutJit = false;
+    /** Whether the worker reports the compilation that overlapped each window. */
+    private boolean vmActivityReported = false;
+
+    ThroughputMeasurementCollector(int warmupWindows, int requiredMeasurements) {
+      checkArgument(requiredMeasurements > 0);
+      this.warmupWindows = warmupWindows;
+      this.requiredMeasurements = requiredMeasurements;
+    }
+
+    @Override public void visit(HotspotLogMessage logMessage) {
+      // compilation during a window is reported with the window itself
+      if (warmupComplete && (!measuring || !vmActivityReported)) {
+        hotspotAfterWarmup();
+      }
+    }
+
+    private void hotspotAfterWarmup() {
+      // GC is part of the cost of an operation here, but compilation after warmup is not
+      if (!notifiedAboutJit) {
+        notifiedAboutJit = true;
+        messages.add("WARNING: Hotspot compilation occurred after warmup. "
+            + "Consider running with a longer warmup.");
+      }
+    }
+
+    @Override public void visit(StartMeasurementLogMessage logMessage) {
+      checkState(!measuring);
+      measuring = true;
+    }
+
+    @Override public void visit(StopMeasurementLogMessage logMessage) {
+      checkState(measuring);
+      measuring = false;
+      Optional<VmActivity> vmActivity = logMessage.vmActivity();
+      if (vmActivity.isPresent()) {
+        vmActivityReported = true;
+        if (warmupComplete && vmActivity.get().compilationOccurred()) {
+          hotspotAfterWarmup();
+        }
+      }
+      if (warmupComplete) {
+        measurements.addAll(logMessage.measurements());
+      } else {
+        elapsedWarmupWindows++;
+      }
+    }
+
+    @Override public boolean isWarmupComplete() {
+      if (!warmupComplete) {
+        warmupComplete = elapsedWarmupWindows >= warmupWindows;
+      }
+      return warmupComplete;
+    }
+
+    @Override public int measurementBudget() {
+      return 1;
+    }
+
+    @Override public boolean isDoneCollecting() {
+      return measurements.size() >= requiredMeasurements;
+    }
+
+    @Override public ImmutableList<Measurement> getMeasurements() {
+      return ImmutableList.copyOf(measurements);
+    }
+
+    @Override public Optional<Double> getPrecision() {
+      double[] values = new double[measurements.size()];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = measurements.get(i).value().magnitude();
+      }
+      double precision = MeasurementTarget.precision(values);
+      return (Double.isNaN(precision) || Double.isInfinite(precision))
+          ? Optional.<Double>absent()
+          : Optional.of(precision);
+    }
+
+    @Override public Optional<LatencyHistogram> getLatencyHistogram() {
+      return Optional.absent();
+    }
+
+    @Override public ImmutableList<String> getMessages() {
+      return ImmutableList.copyOf(messages);
+    }
+  }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.runner;
+
+import static com.google.caliper.runner.CommonInstrumentOptions.MEASUREMENTS_OPTION;
+import static com.google.caliper.runner.CommonInstrumentOptions.WARMUP_OPTION;
+import static com.google.caliper.runner.RuntimeInstrument.MIN_MEASUREMENTS_OPTION;
+import static com.google.caliper.runner.RuntimeInstrument.TARGET_PRECISION_OPTION;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.caliper.options.CaliperDirectory;
+import com.google.caliper.util.ShortDuration;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.io.Files;
+import com.google.common.primitives.Longs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Estimates how long trials take, so that the longest can be started first and the user can be
+ * told when the run will finish.
+ *
+ * <p>A trial of an experiment is expected to take as long as the trials of it that have already
+ * finished in this run, or else as long as it took in the last run on this host, which is recorded
+ * in {@code ~/.caliper/trial-durations.properties}. Failing both, the estimate is worked out from
+ * the instrument's options: starting a worker, warming up and then taking each measurement.
+ */
+@Singleton
+final class TrialCostModel {
+  private static final Logger logger = Logger.getLogger(TrialCostModel.class.getName());
+
+  private static final String HISTORY_FILE_NAME = "trial-durations.properties";
+
+  /** The time to start a worker VM, load the benchmark and shut the worker down again. */
+  private static final long WORKER_OVERHEAD_NANOS = SECONDS.toNanos(2);
+
+  /** The time that a measurement takes when the instrument doesn't say. */
+  private static final long DEFAULT_MEASUREMENT_NANOS = SECONDS.toNanos(1);
+
+  /** The options that instruments use for the length of a measurement. */
+  private static final ImmutableList<String> MEASUREMENT_INTERVAL_OPTIONS =
+      ImmutableList.of("timingInterval", "window");
+
+  private final File historyFile;
+  private final int parallelism;
+
+  /** The durations of the trials of each experiment in earlier runs, by {@link #key}. */
+  @GuardedBy("this") private final Map<String, Long> history = Maps.newHashMap();
+
+  /** The durations of the trials of each experiment that have finished in this run. */
+  @GuardedBy("this") private final Map<String, List<Long>> observed = Maps.newHashMap();
+
+  @Inject TrialCostModel(HostResources hostResources, @CaliperDirectory File caliperDirectory) {
+    this(new File(caliperDirectory, HISTORY_FILE_NAME), hostResources.parallelism());
+  }
+
+  @VisibleForTesting TrialCostModel(File historyFile, int parallelism) {
+    this.historyFile = historyFile;
+    this.parallelism = parallelism;
+    if (historyFile.isFile()) {
+      Properties properties = new Properties();
+      try {
+        Reader reader = Files.newReader(historyFile, Charsets.UTF_8);
+        try {
+          properties.load(reader);
+        } finally {
+          reader.close();
+        }
+      } catch (IOException e) {
+        logger.log(Level.FINE, "Could not read the trial durations of earlier runs", e);
+      }
+      for (String key : properties.stringPropertyNames()) {
+        Long nanos = Longs.tryParse(properties.getProperty(key));
+        if (nanos != null && nanos > 0) {
+          history.put(key, nanos);
+        }
+      }
+    }
+  }
+
+  /** Identifies an experiment across runs. */
+  private static String key(Experiment experiment) {
+    return experiment.instrumentation().benchmarkMethod().getDeclaringClass().getName()
+        + " " + experiment;
+  }
+
+  /** Returns how long a trial of {@code experiment} is expected to take from start to finish. */
+  synchronized long estimateNanos(Experiment experiment) {
+    String key = key(experiment);
+    List<Long> durations = observed.get(key);
+    if (durations != null) {
+      long sum = 0;
+      for (long duration : durations) {
+        sum += duration;
+      }
+      return sum / durations.size();
+    }
+    Long previous = history.get(key);
+    if (previous != null) {
+      return previous;
+    }
+    ImmutableMap<String, String> options = experiment.instrumentation().instrument().options();
+    long warmupNanos = durationOptionNanos(options.get(WARMUP_OPTION), 0);
+    long measurementNanos = DEFAULT_MEASUREMENT_NANOS;
+    for (String option : MEASUREMENT_INTERVAL_OPTIONS) {
+      measurementNanos = durationOptionNanos(options.get(option), measurementNanos);
+    }
+    return WORKER_OVERHEAD_NANOS + warmupNanos
+        + expectedMeasurements(experiment) * measurementNanos;
+  }
+
+  /**
+   * Returns how many measurements a trial of {@code experiment} is expected to collect, or the
+   * fewest that it may, if it collects measurements until they are precise enough.
+   */
+  int expectedMeasurements(Experiment experiment) {
+    ImmutableMap<String, String> options = experiment.instrumentation().instrument().options();
+    String targetPrecision = options.get(TARGET_PRECISION_OPTION);
+    String measurements = (targetPrecision != null && Double.parseDouble(targetPrecision) > 0)
+        ? options.get(MIN_MEASUREMENTS_OPTION)
+        : options.get(MEASUREMENTS_OPTION);
+    return (measurements == null) ? 1 : Math.max(Integer.parseInt(measurements), 1);
+  }
+
+  private static long durationOptionNanos(@Nullable String option, long defaultNanos) {
+    return (option == null) ? defaultNanos : ShortDuration.valueOf(option).to(NANOSECONDS);
+  }
+
+  /** Records how long a trial of {@code experiment} took, to estimate the ones still to come. */
+  synchronized void record(Experiment experiment, long nanos) {
+    String key = key(experiment);
+    List<Long> durations = observed.get(key);
+    if (durations == null) {
+      durations = Lists.newArrayList();
+      observed.put(key, durations);
+    }
+    durations.add(nanos);
+  }
+
+  /** Returns how much longer {@code trial} will take, given how far it has got. */
+  long remainingNanos(ScheduledTrial trial) {
+    return trial.progress().remainingNanos(
+        estimateNanos(trial.experiment()), expectedMeasurements(trial.experiment()));
+  }
+
+  /**
+   * Returns {@code trials} in the order to start them in: longest first, which keeps the
+   * parallel trials that are left at the end, when some of the slots are already idle, short.
+   */
+  ImmutableList<ScheduledTrial> longestFirst(List<ScheduledTrial> trials) {
+    final Map<ScheduledTrial, Long> estimates = Maps.newIdentityHashMap();
+    for (ScheduledTrial trial : trials) {
+      estimates.put(trial, estimateNanos(trial.experiment()));
+    }
+    return new Ordering<ScheduledTrial>() {
+      @Override public int compare(ScheduledTrial left, ScheduledTrial right) {
+        return Longs.compare(estimates.get(right), estimates.get(left));
+      }
+    }.immutableSortedCopy(trials);
+  }
+
+  /**
+   * Returns how much longer it will take to finish {@code trials}, which are scheduled as by
+   * {@link ExperimentingCaliperRun}: the parallel ones {@link #longestFirst} on as many slots as
+   * {@link HostResources#parallelism} allows, then the pinned ones on {@code pinnedParallelism}
+   * slots, and then the serial ones one at a time.
+   */
+  long remainingNanos(List<ScheduledTrial> trials, int pinnedParallelism) {
+    List<Long> parallelRunning = Lists.newArrayList();
+    List<Long> parallelPending = Lists.newArrayList();
+    List<Long> pinnedRunning = Lists.newArrayList();
+    List<Long> pinnedPending = Lists.newArrayList();
+    long serial = 0;
+    for (ScheduledTrial trial : trials) {
+      if (trial.progress().isFinished()) {
+        continue;
+      }
+      long remaining = remainingNanos(trial);
+      boolean started = trial.progress().isStarted();
+      switch (trial.policy()) {
+        case PARALLEL:
+          (started ? parallelRunning : parallelPending).add(remaining);
+          break;
+        case PINNED:
+          (started ? pinnedRunning : pinnedPending).add(remaining);
+          break;
+        case SERIAL:
+          serial += remaining;
+          break;
+        default:
+          throw new AssertionError(trial.policy());
+      }
+    }
+    return makespanNanos(parallelRunning, parallelPending, parallelism)
+        + makespanNanos(pinnedRunning, pinnedPending, pinnedParallelism)
+        + serial;
+  }
+
+  /**
+   * Returns how long it takes to finish trials on {@code slots} slots: the {@code running} ones,
+   * which have a slot each already, and then the {@code pending} ones longest first, each as soon
+   * as a slot is free.
+   */
+  @VisibleForTesting static long makespanNanos(List<Long> running, List<Long> pending, int slots) {
+    PriorityQueue<Long> slotEnds = new PriorityQueue<Long>(running);
+    while (slotEnds.size() < Math.max(slots, 1)) {
+      slotEnds.add(0L);
+    }
+    long makespan = 0;
+    for (long end : slotEnds) {
+      makespan = Math.max(makespan, end);
+    }
+    List<Long> longestFirst = Lists.newArrayList(pending);
+    Collections.sort(longestFirst, Collections.reverseOrder());
+    for (long duration : longestFirst) {
+      long end = slotEnds.remove() + duration;
+      slotEnds.add(end);
+      makespan = Math.max(makespan, end);
+    }
+    return makespan;
+  }
+
+  /**
+   * Records the mean duration of the trials of each experiment in this run, so that the next run
+   * can estimate them from the start.
+   */
+  synchronized void save() {
+    Map<String, Long> durations = Maps.newTreeMap();
+    durations.putAll(history);
+    for (Map.Entry<String, List<Long>> entry : observed.entrySet()) {
+      long sum = 0;
+      for (long duration : entry.getValue()) {
+        sum += duration;
+      }
+      durations.put(entry.getKey(), sum / entry.getValue().size());
+    }
+    Properties properties = new Properties();
+    for (Map.Entry<String, Long> entry : durations.entrySet()) {
+      properties.setProperty(entry.getKey(), Long.toString(entry.getValue()));
+    }
+    try {
+      Files.createParentDirs(historyFile);
+      Writer writer = Files.newWriter(historyFile, Charsets.UTF_8);
+      try {
+        properties.store(writer, "The duration of a trial of each experiment, in nanoseconds");
+      } finally {
+        writer.close();
+      }
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Could not save the trial durations to " + historyFile, e);
+    }
+  }
+}
@@ -19,15 +19,15 @@ package com.google.caliper.runner;
 import static com.google.common.base.Preconditions.checkState;
 
 import com.google.caliper.bridge.LogMessage;
-import com.google.caliper.bridge.OpenedSocket;
 import com.google.caliper.model.BenchmarkSpec;
 import com.google.caliper.model.Host;
+import com.google.caliper.model.LatencyHistogram;
 import com.google.caliper.model.Run;
 import com.google.caliper.model.Scenario;
 import com.google.caliper.model.Trial;
 import com.google.caliper.runner.Instrument.MeasurementCollectingVisitor;
 import com.google.caliper.util.Parser;
-import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.base.Optional;
 import dagger.Module;
 import dagger.Provides;
 
@@ -42,11 +42,14 @@ final class TrialModule {
   private final UUID trialId;
   private final int trialNumber;
   private final Experiment experiment;
+  private final TrialSchedulingPolicy schedulingPolicy;
 
-  TrialModule(UUID trialId, int trialNumber, Experiment experiment) {
+  TrialModule(UUID trialId, int trialNumber, Experiment experiment,
+      TrialSchedulingPolicy schedulingPolicy) {
     this.trialId = trialId;
     this.trialNumber = trialNumber;
     this.experiment = experiment;
+    this.schedulingPolicy = schedulingPolicy;
   }
 
   @TrialScoped
@@ -79,23 +82,19 @@ final class TrialModule {
         .build();
   }
 
-  @Provides
-  @TrialScoped
-  static ListenableFuture<OpenedSocket> provideTrialSocket(
-      @TrialId UUID trialId,
-      ServerSocketService serverSocketService) {
-    return serverSocketService.getConnection(trialId);
-  }
-
   @Provides
   static MeasurementCollectingVisitor provideMeasurementCollectingVisitor(Experiment experiment) {
-    return experiment.instrumentation().getMeasurementCollectingVisitor();
+    return experiment.instrumentation().getMeasurementCollectingVisitor(experiment);
   }
 
+  /**
+   * The policy of the instrument, except where the run overrides it, such as to run a
+   * {@linkplain TrialSchedulingPolicy#PINNED pinned} trial serially.
+   */
   @Provides
   @TrialScoped
-  static TrialSchedulingPolicy provideTrialSchedulingPolicy(Experiment experiment) {
-    return experiment.instrumentation().instrument().schedulingPolicy();
+  TrialSchedulingPolicy provideTrialSchedulingPolicy() {
+    return schedulingPolicy;
   }
 
   @Provides
@@ -103,15 +102,9 @@ final class TrialModule {
   static StreamService provideStreamService(
       WorkerProcess worker,
       Parser<LogMessage> logMessageParser,
-      TrialOutputLogger trialOutput) {
-    return new StreamService(worker, logMessageParser, trialOutput);
-  }
-
-  // TODO(user): make this a singleton in a higher level module.
-  @Provides
-  @TrialScoped
-  static ShutdownHookRegistrar provideShutdownHook() {
-    return new RuntimeShutdownHookRegistrar();
+      TrialOutputLogger trialOutput,
+      SelectorService selectorService) {
+    return new StreamService(worker, logMessageParser, trialOutput, selectorService);
   }
 
   @Provides static TrialResultFactory provideTrialFactory(
@@ -119,24 +112,38 @@ final class TrialModule {
       final Run run,
       final Host host,
       final Experiment experiment,
-      final BenchmarkSpec benchmarkSpec) {
+      final BenchmarkSpec benchmarkSpec,
+      final WorkerProcess worker) {
     return new TrialResultFactory() {
       @Override public TrialResult newTrialResult(
           VmDataCollectingVisitor dataCollectingVisitor,
           MeasurementCollectingVisitor measurementCollectingVisitor) {
         checkState(measurementCollectingVisitor.isDoneCollecting());
+        Trial.Builder trialBuilder = new Trial.Builder(trialId)
+            .run(run)
+            .instrumentSpec(experiment.instrumentation().instrument().getSpec())
+            .scenario(new Scenario.Builder()
+                .host(host)
+                .vmSpec(dataCollectingVisitor.vmSpec())
+                .benchmarkSpec(benchmarkSpec))
+            .addAllMeasurements(measurementCollectingVisitor.getMeasurements());
+        Optional<Double> precision = measurementCollectingVisitor.getPrecision();
+        if (precision.isPresent()) {
+          trialBuilder.precision(precision.get());
+        }
+        Optional<LatencyHistogram> latencyHistogram =
+            measurementCollectingVisitor.getLatencyHistogram();
+        if (latencyHistogram.isPresent()) {
+          trialBuilder.latencyHistogram(latencyHistogram.get());
+        }
+        Optional<CpuSet> cpuSet = worker.cpuSet();
+        if (cpuSet.isPresent()) {
+          trialBuilder.cpuSet(cpuSet.get().toString());
+        }
         // TODO(lukes): should the trial messages be part of the Trial datastructure?  It seems like
         // the web UI could make use of them.
         return new TrialResult(
-            new Trial.Builder(trialId)
-                .run(run)
-                .instrumentSpec(experiment.instrumentation().instrument().getSpec())
-                .scenario(new Scenario.Builder()
-                    .host(host)
-                    .vmSpec(dataCollectingVisitor.vmSpec())
-                    .benchmarkSpec(benchmarkSpec))
-                .addAllMeasurements(measurementCollectingVisitor.getMeasurements())
-                .build(),
+            trialBuilder.build(),
             experiment,
             measurementCollectingVisitor.getMessages());
       }
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.runner;
+
+import com.google.common.base.Ticker;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.inject.Inject;
+
+/**
+ * How far a trial has got, as observed by its {@link TrialRunLoop}, so that the
+ * {@link TrialCostModel} can tell how much longer it will take while it runs, and how long it took
+ * once it has finished.
+ */
+@TrialScoped final class TrialProgress {
+  private final Ticker ticker;
+
+  @GuardedBy("this") private long startNanos;
+  @GuardedBy("this") private long warmupCompleteNanos;
+  @GuardedBy("this") private long finishNanos;
+  @GuardedBy("this") private boolean started;
+  @GuardedBy("this") private boolean warmupComplete;
+  @GuardedBy("this") private boolean finished;
+  @GuardedBy("this") private int measurements;
+
+  @Inject TrialProgress() {
+    this(Ticker.systemTicker());
+  }
+
+  TrialProgress(Ticker ticker) {
+    this.ticker = ticker;
+  }
+
+  synchronized void started() {
+    startNanos = ticker.read();
+    started = true;
+  }
+
+  /**
+   * Records that the worker has reported another measurement. This is counted once per report, as
+   * the instruments' measurement counts are, even if the report holds several values, such as one
+   * for each of the threads of a concurrent benchmark.
+   */
+  synchronized void measured(boolean warmupComplete) {
+    if (warmupComplete && !this.warmupComplete) {
+      this.warmupComplete = true;
+      this.warmupCompleteNanos = ticker.read();
+      // measurements before this point were warmup, so the rate is measured from here on
+      this.measurements = 0;
+    } else if (this.warmupComplete) {
+      this.measurements++;
+    }
+  }
+
+  /** Records that the trial has finished, unless it already has. */
+  synchronized void finished() {
+    if (!finished) {
+      finishNanos = ticker.read();
+      finished = true;
+    }
+  }
+
+  synchronized boolean isStarted() {
+    return started;
+  }
+
+  synchronized boolean isFinished() {
+    return finished;
+  }
+
+  /** Returns how long the trial ran for, or has been running for if it hasn't finished. */
+  synchronized long elapsedNanos() {
+    if (!started) {
+      return 0;
+    }
+    return (finished ? finishNanos : ticker.read()) - startNanos;
+  }
+
+  /**
+   * Returns how much longer the trial will run for, given that it was expected to take
+   * {@code estimateNanos} in all and to collect {@code expectedMeasurements}. Once measurements
+   * are coming in, the rate at which they do is a better guide than the estimate.
+   */
+  synchronized long remainingNanos(long estimateNanos, int expectedMeasurements) {
+    if (finished) {
+      return 0;
+    }
+    if (!started) {
+      return estimateNanos;
+    }
+    long now = ticker.read();
+    if (warmupComplete && measurements > 0 && expectedMeasurements > 0) {
+      long nanosPerMeasurement = (now - warmupCompleteNanos) / measurements;
+      return Math.max(expectedMeasurements - measurements, 0) * nanosPerMeasurement;
+    }
+    // overrunning the estimate says little about how much longer it will take, so guess at a
+    // further quarter of the time so far rather than claiming that it is about to finish
+    return Math.max(estimateNanos - (now - startNanos), (now - startNanos) / 4);
+  }
+}
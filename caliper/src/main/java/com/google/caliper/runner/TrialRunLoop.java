@@ -60,6 +60,9 @@ import javax.inject.Inject;
   private final Stopwatch trialStopwatch = Stopwatch.createUnstarted();
   private final MeasurementCollectingVisitor measurementCollectingVisitor;
   private final TrialOutputLogger trialOutput;
+  private final TrialProgress progress;
+  private final TrialCostModel costModel;
+  private final Experiment experiment;
 
   @Inject TrialRunLoop(
       MeasurementCollectingVisitor measurementCollectingVisitor,
@@ -67,19 +70,26 @@ import javax.inject.Inject;
       TrialResultFactory trialFactory,
       TrialOutputLogger trialOutput,
       StreamService streamService,
-      VmDataCollectingVisitor dataCollectingVisitor) {
+      VmDataCollectingVisitor dataCollectingVisitor,
+      TrialProgress progress,
+      TrialCostModel costModel,
+      Experiment experiment) {
     this.options = options;
     this.trialFactory = trialFactory;
     this.streamService = streamService;
     this.measurementCollectingVisitor = measurementCollectingVisitor; 
     this.trialOutput = trialOutput;
     this.dataCollectingVisitor = dataCollectingVisitor;
+    this.progress = progress;
+    this.costModel = costModel;
+    this.experiment = experiment;
   }
 
   @Override public TrialResult call() throws TrialFailureException, IOException {
     if (streamService.state() != State.NEW) {
       throw new IllegalStateException("You can only invoke the run loop once");
     }
+    progress.started();
     trialOutput.open();
     trialOutput.printHeader();
     streamService.startAsync().awaitRunning();
@@ -87,6 +97,8 @@ import javax.inject.Inject;
       long timeLimitNanos = getTrialTimeLimitTrialNanos();
       boolean doneCollecting = false;
       boolean done = false;
+      // The number of measurements that the worker will report before it waits to hear from us.
+      int measurementsUntilReply = 1;
       while (!done) {
         StreamItem item;
         try {
@@ -113,6 +125,9 @@ import javax.inject.Inject;
             LogMessage logMessage = item.content();
             logMessage.accept(measurementCollectingVisitor);
             logMessage.accept(dataCollectingVisitor);
+            if (logMessage instanceof StopMeasurementLogMessage) {
+              progress.measured(measurementCollectingVisitor.isWarmupComplete());
+            }
             if (!doneCollecting && measurementCollectingVisitor.isDoneCollecting()) {
               doneCollecting = true;
               // We have received all the measurements we need and are about to tell the worker to
@@ -124,19 +139,27 @@ import javax.inject.Inject;
               // cleanupTimeNanos?
               timeLimitNanos = trialStopwatch.elapsed(NANOSECONDS) + cleanupTimeNanos;
             }
-            // If it is a stop measurement message we need to tell the worker to either stop or keep
-            // going with a WorkerContinueMessage.  This needs to be done after the 
-            // measurementCollecting visitor sees the message so that isDoneCollection will be up to
-            // date.
-            if (logMessage instanceof StopMeasurementLogMessage) {
+            // If it is a stop measurement message that ends the worker's current budget of
+            // measurements we need to tell the worker to either stop or keep going with a
+            // WorkerContinueMessage.  This needs to be done after the measurementCollecting visitor
+            // sees the message so that isDoneCollection will be up to date.  Once we have told the
+            // worker to stop, the writer is closed and any measurements still in flight are just
+            // collected.
+            if (logMessage instanceof StopMeasurementLogMessage
+                && measurementsUntilReply > 0
+                && (--measurementsUntilReply == 0 || doneCollecting)) {
               // TODO(lukes): this is a blocking write, perhaps we should perform it in a non 
               // blocking manner to keep this thread only blocking in one place.  This would 
               // complicate error handling, but may increase performance since it would free this
               // thread up to handle other messages
+              boolean warmupComplete = measurementCollectingVisitor.isWarmupComplete();
+              measurementsUntilReply =
+                  doneCollecting ? 0 : measurementCollectingVisitor.measurementBudget();
               streamService.sendMessage(
                   new ShouldContinueMessage(
                       !doneCollecting,
-                      measurementCollectingVisitor.isWarmupComplete()));
+                      warmupComplete,
+                      Math.max(measurementsUntilReply, 1)));
               if (doneCollecting) {
                 streamService.closeWriter();
               }
@@ -171,7 +194,11 @@ import javax.inject.Inject;
             throw new AssertionError("Impossible item: " + item);
         }
       }
-      return trialFactory.newTrialResult(dataCollectingVisitor, measurementCollectingVisitor);
+      TrialResult result =
+          trialFactory.newTrialResult(dataCollectingVisitor, measurementCollectingVisitor);
+      progress.finished();
+      costModel.record(experiment, progress.elapsedNanos());
+      return result;
     } catch (Throwable e) {
       Throwables.propagateIfInstanceOf(e, TrialFailureException.class);
       // This is some failure that is not a TrialFailureException, let the exception propagate but
@@ -183,6 +210,7 @@ import javax.inject.Inject;
               trialOutput.trialOutputFile()));
       throw Throwables.propagate(e);
     } finally {
+      progress.finished();
       trialStopwatch.reset();
       streamService.stopAsync();
       trialOutput.close();
@@ -17,10 +17,15 @@ package com.google.caliper.runner;
 /**
  * The scheduling policy for a particular trial.
  *
- * <p>TODO(lukes): Currently this is extremely simple.  Trials can be scheduled in parallel with
- * other trials or not.  In the future, this should use some kind of cost modeling.
+ * <p>Trials can be scheduled in parallel with other trials or not. Within each policy, the
+ * {@link TrialCostModel} decides the order that trials start in.
  */
 enum TrialSchedulingPolicy {
   PARALLEL,
+  /**
+   * The trial may run in parallel with other pinned trials, but only on CPUs of its own, when
+   * {@link CpuPinning} is enabled. Otherwise it runs serially.
+   */
+  PINNED,
   SERIAL;
 }
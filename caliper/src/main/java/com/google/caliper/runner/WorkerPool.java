@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.caliper.runner;
+
+import com.google.caliper.bridge.OpenedSocket;
+import com.google.caliper.config.CaliperConfig;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * A service that starts worker JVMs ahead of the trials that will use them.
+ *
+ * <p>Workers are launched with only their {@linkplain LaunchedWorker#id() id} and the address of
+ * the {@link ServerSocketService} on the command line; they connect back, announce themselves and then
+ * block until a trial sends them a {@link com.google.caliper.bridge.WorkerSpec}. This means that a
+ * worker can be started, and can get through JVM startup, before we know which trial it will run.
+ *
+ * <p>Each {@link WorkerProcess} registers the command line it needs when it is created, which
+ * happens in scheduling order. When a trial finishes, the pool starts a worker for the next
+ * registered command line that doesn't already have an idle worker waiting, so that its startup
+ * overlaps with the teardown of the previous trial rather than with any measurement. Workers that
+ * are never claimed are destroyed when the service stops.
+ *
+ * <p>Each worker {@linkplain HostResources#reserve reserves} the memory that it may use before
+ * it is started, and {@linkplain #release releases} it once it has exited. A trial that claims a
+ * worker waits for the memory if necessary, while a worker is only started ahead of time if its
+ * memory is free already.
+ */
+@Singleton
+final class WorkerPool extends AbstractIdleService {
+  private static final Logger logger = Logger.getLogger(WorkerPool.class.getName());
+  private static final String PRESTART_WORKERS_OPTION = "runner.prestartWorkers";
+
+  private final ServerSocketService serverSocketService;
+  private final ShutdownHookRegistrar shutdownHookRegistrar;
+  private final HostResources hostResources;
+  private final boolean prestartWorkers;
+
+  /** The command lines of the workers that trials will claim, in the order they were scheduled. */
+  @GuardedBy("this")
+  private final List<ImmutableList<String>> upcoming = Lists.newLinkedList();
+
+  @GuardedBy("this")
+  private final ListMultimap<ImmutableList<String>, IdleWorker> idleWorkers =
+      ArrayListMultimap.create();
+
+  @Inject WorkerPool(ServerSocketService serverSocketService,
+      ShutdownHookRegistrar shutdownHookRegistrar,
+      HostResources hostResources,
+      CaliperConfig config) {
+    this.serverSocketService = serverSocketService;
+    this.shutdownHookRegistrar = shutdownHookRegistrar;
+    this.hostResources = hostResources;
+    String prestartWorkers = config.properties().get(PRESTART_WORKERS_OPTION);
+    this.prestartWorkers = prestartWorkers == null || Boolean.parseBoolean(prestartWorkers);
+  }
+
+  /** Records that a trial will later {@linkplain #claim claim} a worker with the given command. */
+  synchronized void expect(ImmutableList<String> command) {
+    upcoming.add(command);
+  }
+
+  /** Returns the commands of the workers that trials are expected to claim, in order. */
+  @VisibleForTesting synchronized ImmutableList<ImmutableList<String>> expectedCommands() {
+    return ImmutableList.copyOf(upcoming);
+  }
+
+  /**
+   * Returns a worker running the given command, which is either one that was started ahead of time
+   * or, if there is none, one that is started now, once there is memory for it. The worker must be
+   * {@linkplain #release released} once it has exited.
+   */
+  LaunchedWorker claim(ImmutableList<String> command) throws IOException {
+    IdleWorker idle;
+    synchronized (this) {
+      upcoming.remove(command);
+      List<IdleWorker> candidates = idleWorkers.get(command);
+      idle = candidates.isEmpty() ? null : candidates.remove(0);
+    }
+    if (idle != null) {
+      shutdownHookRegistrar.removeShutdownHook(idle.shutdownHook);
+      return idle.worker;
+    }
+    long bytes = hostResources.workerBytes(command);
+    if (!hostResources.tryReserve(bytes)) {
+      // workers that were started ahead of time for other trials mustn't keep this one waiting, or
+      // the trials that would claim them might never get to run
+      destroyIdleWorkers();
+      try {
+        hostResources.reserve(bytes);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for memory to run a worker in");
+      }
+    }
+    try {
+      return launch(command, bytes);
+    } catch (IOException e) {
+      hostResources.release(bytes);
+      throw e;
+    }
+  }
+
+  /** Returns the memory that a worker reserved, once it has exited. */
+  void release(LaunchedWorker worker) {
+    if (worker.released.compareAndSet(false, true)) {
+      hostResources.release(worker.reservedBytes);
+    }
+  }
+
+  /**
+   * Starts a worker for the next trial that is expected to claim one, unless one is already
+   * waiting. This should be called once a trial has finished measuring.
+   */
+  void prestartNextWorker() {
+    ImmutableList<String> command;
+    synchronized (this) {
+      if (!prestartWorkers || !isRunning() || upcoming.isEmpty()) {
+        return;
+      }
+      command = upcoming.get(0);
+      if (!idleWorkers.get(command).isEmpty()) {
+        return;
+      }
+    }
+    long bytes = hostResources.workerBytes(command);
+    if (!hostResources.tryReserve(bytes)) {
+      return;
+    }
+    LaunchedWorker worker;
+    try {
+      worker = launch(command, bytes);
+    } catch (IOException e) {
+      hostResources.release(bytes);
+      // the trial that claims this command will start its own worker and report the failure
+      logger.log(Level.WARNING, "Could not start a worker ahead of time", e);
+      return;
+    }
+    final Process process = worker.process();
+    IdleWorker idle = new IdleWorker(worker, new Thread("idle-worker-shutdown-hook-" + worker.id()) {
+      @Override public void run() {
+        process.destroy();
+      }
+    });
+    shutdownHookRegistrar.addShutdownHook(idle.shutdownHook);
+    synchronized (this) {
+      idleWorkers.put(command, idle);
+    }
+  }
+
+  private LaunchedWorker launch(ImmutableList<String> command, long reservedBytes)
+      throws IOException {
+    UUID id = UUID.randomUUID();
+    ListenableFuture<OpenedSocket> socket = serverSocketService.getConnection(id);
+    ProcessBuilder builder = new ProcessBuilder().redirectErrorStream(false);
+    List<String> args = builder.command();
+    args.addAll(command);
+    args.add(id.toString());
+    args.addAll(serverSocketService.workerArgs());
+    return new LaunchedWorker(id, builder.start(), socket, reservedBytes);
+  }
+
+  @Override protected void startUp() {}
+
+  @Override protected void shutDown() {
+    synchronized (this) {
+      upcoming.clear();
+    }
+    destroyIdleWorkers();
+  }
+
+  private void destroyIdleWorkers() {
+    List<IdleWorker> toDestroy;
+    synchronized (this) {
+      toDestroy = Lists.newArrayList(idleWorkers.values());
+      idleWorkers.clear();
+    }
+    for (IdleWorker idle : toDestroy) {
+      idle.worker.process().destroy();
+      shutdownHookRegistrar.removeShutdownHook(idle.shutdownHook);
+      release(idle.worker);
+    }
+  }
+
+  /** A worker process that has been started, but has not necessarily connected yet. */
+  static final class LaunchedWorker {
+    private final UUID id;
+    private final Process process;
+    private final ListenableFuture<OpenedSocket> socket;
+    private final long reservedBytes;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    LaunchedWorker(UUID id, Process process, ListenableFuture<OpenedSocket> socket,
+        long reservedBytes) {
+      this.id = id;
+      this.process = process;
+      this.socket = socket;
+      this.reservedBytes = reservedBytes;
+    }
+
+    /** The id that the worker announces itself with when it connects. */
+    UUID id() {
+      return id;
+    }
+
+    Process process() {
+      return process;
+    }
+
+    /** The connection from the worker, which completes once it has announced itself. */
+    ListenableFuture<OpenedSocket> socket() {
+      return socket;
+    }
+  }
+
+  private static final class IdleWorker {
+    final LaunchedWorker worker;
+    final Thread shutdownHook;
+
+    IdleWorker(LaunchedWorker worker, Thread shutdownHook) {
+      this.worker = worker;
+      this.shutdownHook = shutdownHook;
+    }
+  }
+}
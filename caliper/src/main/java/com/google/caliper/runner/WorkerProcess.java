@@ -16,14 +16,17 @@
 
 package com.google.caliper.runner;
 
-import com.google.caliper.bridge.CommandLineSerializer;
+import static com.google.common.base.Preconditions.checkState;
+
 import com.google.caliper.bridge.OpenedSocket;
 import com.google.caliper.bridge.WorkerSpec;
 import com.google.caliper.config.VmConfig;
 import com.google.caliper.model.BenchmarkSpec;
 import com.google.caliper.runner.Instrument.Instrumentation;
+import com.google.caliper.runner.WorkerPool.LaunchedWorker;
 import com.google.caliper.worker.WorkerMain;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -32,12 +35,14 @@ import com.google.common.util.concurrent.ListenableFuture;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import javax.inject.Inject;
 
@@ -49,8 +54,9 @@ import javax.inject.Inject;
  * about its behavior, including but not limited to:
  *
  * <ul>
- *   <li>The worker will connect back to us over a socket connection and send us UTF-8 json
- *       messages in a line oriented protocol.
+ *   <li>The worker will connect back to us over a socket connection, announce itself and then wait
+ *       for us to send it the {@link WorkerSpec} for its trial.
+ *   <li>The worker will then send us UTF-8 json messages in a line oriented protocol.
  *   <li>TODO(lukes,gak): This is probably as good a place as any to specify the entire protocol.
  * </ul>
  */
@@ -59,11 +65,26 @@ import javax.inject.Inject;
 
   @GuardedBy("this")
   private Process worker;
-  private final ProcessBuilder workerBuilder;
+  @GuardedBy("this")
+  private ListenableFuture<OpenedSocket> openedSocket;
   private final ShutdownHookRegistrar shutdownHookRegistrar;
-  private final ListenableFuture<OpenedSocket> openedSocket;
   private final UUID trialId;
 
+  // Exactly one of workerBuilder and workerPool is set
+  @Nullable private final ProcessBuilder workerBuilder;
+  @Nullable private final WorkerPool workerPool;
+  @Nullable private final ImmutableList<String> command;
+  @Nullable private final WorkerSpec workerSpec;
+  @Nullable private final CpuPinning cpuPinning;
+  /** Whether the worker runs on a set of CPUs of its own, which is only chosen once it starts. */
+  private final boolean pinned;
+  @GuardedBy("this")
+  @Nullable private CpuSet cpuSet;
+  @GuardedBy("this")
+  private boolean cpusReleased;
+  @GuardedBy("this")
+  @Nullable private LaunchedWorker launched;
+
   @VisibleForTesting WorkerProcess(ProcessBuilder workerBuilder,
       UUID trialId,
       ListenableFuture<OpenedSocket> openedSocket,
@@ -72,33 +93,133 @@ import javax.inject.Inject;
     this.workerBuilder = workerBuilder;
     this.openedSocket = openedSocket;
     this.shutdownHookRegistrar = shutdownHookRegistrar;
+    this.workerPool = null;
+    this.command = null;
+    this.workerSpec = null;
+    this.cpuPinning = null;
+    this.pinned = false;
   }
 
   @Inject WorkerProcess(@TrialId UUID trialId,
-      ListenableFuture<OpenedSocket> openedSocket,
       Experiment experiment,
       BenchmarkSpec benchmarkSpec,
-      @LocalPort int localPort,
       BenchmarkClass benchmarkClass,
-      ShutdownHookRegistrar shutdownHookRegistrar) {
+      WorkerPool workerPool,
+      ShutdownHookRegistrar shutdownHookRegistrar,
+      TrialSchedulingPolicy schedulingPolicy,
+      CpuPinning cpuPinning) {
+    this(trialId, buildWorkerSpec(trialId, experiment, benchmarkSpec),
+        buildCommand(experiment, benchmarkClass), workerPool, shutdownHookRegistrar,
+        schedulingPolicy, cpuPinning);
+  }
+
+  @VisibleForTesting WorkerProcess(UUID trialId,
+      @Nullable WorkerSpec workerSpec,
+      ImmutableList<String> command,
+      WorkerPool workerPool,
+      ShutdownHookRegistrar shutdownHookRegistrar,
+      TrialSchedulingPolicy schedulingPolicy,
+      CpuPinning cpuPinning) {
     this.trialId = trialId;
-    this.workerBuilder =
-        buildProcess(trialId, experiment, benchmarkSpec, localPort, benchmarkClass);
-    this.openedSocket = openedSocket;
+    this.workerBuilder = null;
+    this.workerPool = workerPool;
+    this.workerSpec = workerSpec;
     this.shutdownHookRegistrar = shutdownHookRegistrar;
+    this.cpuPinning = cpuPinning;
+    this.pinned = schedulingPolicy == TrialSchedulingPolicy.PINNED && cpuPinning.isEnabled();
+    if (pinned) {
+      // the CPUs are part of the command line, and it isn't known which the worker will get until
+      // it starts, so it can't be started ahead of time
+      this.command = command;
+    } else {
+      this.command = cpuPinning.command(null, command);
+      workerPool.expect(this.command);
+    }
   }
 
-  ListenableFuture<OpenedSocket> socketFuture() {
+  /** Returns the connection from the worker. This is only valid once the worker is started. */
+  synchronized ListenableFuture<OpenedSocket> socketFuture() {
+    checkState(openedSocket != null, "The worker for trial %s has not been started", trialId);
     return openedSocket;
   }
 
+  /**
+   * Returns the spec that must be sent to the worker as soon as it connects, or {@code null} if
+   * the worker doesn't expect one.
+   */
+  @Nullable WorkerSpec workerSpec() {
+    return workerSpec;
+  }
+
+  /**
+   * Called once the worker has exited, so that a worker for the next trial can be started while
+   * this one is being torn down.
+   */
+  void workerExited() {
+    releaseCpus();
+    releaseMemory();
+    if (workerPool != null) {
+      workerPool.prestartNextWorker();
+    }
+  }
+
+  /**
+   * Returns the CPUs that the worker was pinned to, if it runs on a set of CPUs of its own. This is
+   * only known once the worker has started.
+   */
+  synchronized Optional<CpuSet> cpuSet() {
+    return Optional.fromNullable(cpuSet);
+  }
+
+  /** Lets the next pinned trial use the CPUs, though they stay recorded for this one. */
+  private synchronized void releaseCpus() {
+    if (cpuSet != null && !cpusReleased) {
+      cpusReleased = true;
+      cpuPinning.release(cpuSet);
+    }
+  }
+
+  /** Lets the next worker use the memory that this one reserved. */
+  private synchronized void releaseMemory() {
+    if (launched != null) {
+      workerPool.release(launched);
+    }
+  }
+
+  private static CpuSet acquireCpus(CpuPinning cpuPinning) throws IOException {
+    try {
+      return cpuPinning.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for CPUs to run on");
+    }
+  }
+
   /**
    * Returns a {@link Process} representing this worker.  The process will be started if it hasn't
    * already.
    */
   synchronized Process startWorker() throws IOException {
     if (worker == null) {
-      final Process delegate = workerBuilder.start();
+      final Process delegate;
+      if (workerPool == null) {
+        delegate = workerBuilder.start();
+      } else {
+        ImmutableList<String> command = this.command;
+        if (pinned) {
+          cpuSet = acquireCpus(cpuPinning);
+          command = cpuPinning.command(cpuSet, command);
+        }
+        try {
+          launched = workerPool.claim(command);
+        } catch (IOException e) {
+          releaseCpus();
+          throw e;
+        }
+        logger.fine(String.format("Trial %s claimed worker %s", trialId, launched.id()));
+        delegate = launched.process();
+        openedSocket = launched.socket();
+      }
       final Thread shutdownHook = new Thread("worker-shutdown-hook-" + trialId) {
         @Override public void run() {
           delegate.destroy();
@@ -140,26 +261,15 @@ import javax.inject.Inject;
     return worker;
   }
   
-  @VisibleForTesting static ProcessBuilder buildProcess(
-      UUID trialId,
+  /**
+   * Returns the command line that starts a worker for the given experiment. The worker's id and
+   * the address to connect to are appended when the worker is launched.
+   */
+  @VisibleForTesting static ImmutableList<String> buildCommand(
       Experiment experiment,
-      BenchmarkSpec benchmarkSpec,
-      int localPort,
       BenchmarkClass benchmarkClass) {
-    // TODO(lukes): it would be nice to split this method into a few smaller more targeted methods
-    Instrumentation instrumentation = experiment.instrumentation();
-    Instrument instrument = instrumentation.instrument();
-    WorkerSpec request = new WorkerSpec(
-        trialId,
-        instrumentation.workerClass(),
-        instrumentation.workerOptions(),
-        benchmarkSpec,
-        ImmutableList.copyOf(instrumentation.benchmarkMethod.getParameterTypes()),
-        localPort);
-
-    ProcessBuilder processBuilder = new ProcessBuilder().redirectErrorStream(false);
-
-    List<String> args = processBuilder.command();
+    Instrument instrument = experiment.instrumentation().instrument();
+    List<String> args = Lists.newArrayList();
 
     VirtualMachine vm = experiment.vm();
     VmConfig vmConfig = vm.config;
@@ -174,12 +284,24 @@ import javax.inject.Inject;
     args.addAll(vmConfig.workerProcessArgs());
 
     args.add(WorkerMain.class.getName());
-    args.add(CommandLineSerializer.render(request));
 
     logger.finest(String.format("Full JVM (%s) args: %s", vm.name, args));
-    return processBuilder;
+    return ImmutableList.copyOf(args);
   }
-  
+
+  @VisibleForTesting static WorkerSpec buildWorkerSpec(
+      UUID trialId,
+      Experiment experiment,
+      BenchmarkSpec benchmarkSpec) {
+    Instrumentation instrumentation = experiment.instrumentation();
+    return new WorkerSpec(
+        trialId,
+        instrumentation.workerClass(),
+        instrumentation.workerOptions(),
+        benchmarkSpec,
+        ImmutableList.copyOf(instrumentation.benchmarkMethod.getParameterTypes()));
+  }
+
   @VisibleForTesting static List<String> getJvmArgs(
       VirtualMachine vm,
       BenchmarkClass benchmarkClass) {
@@ -16,10 +16,12 @@
 
 package com.google.caliper.util;
 
+import com.google.caliper.api.Blackhole;
 import com.google.common.collect.ImmutableSet;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.util.Arrays;
 
 /**
  * A utility class for common reflection operations in Caliper.
@@ -39,4 +41,35 @@ public final class Reflection {
     }
     return builder.build();
   }
+
+  /** Returns true if the last parameter of {@code method} is a {@link Blackhole}. */
+  public static boolean takesBlackhole(Method method) {
+    Class<?>[] parameterTypes = method.getParameterTypes();
+    return parameterTypes.length > 0
+        && parameterTypes[parameterTypes.length - 1] == Blackhole.class;
+  }
+
+  /**
+   * Returns the parameter types of {@code method}, without the trailing {@link Blackhole} if it
+   * {@linkplain #takesBlackhole takes one}.
+   */
+  public static Class<?>[] getParameterTypesWithoutBlackhole(Method method) {
+    Class<?>[] parameterTypes = method.getParameterTypes();
+    return takesBlackhole(method)
+        ? Arrays.copyOf(parameterTypes, parameterTypes.length - 1)
+        : parameterTypes;
+  }
+
+  /**
+   * Returns the arguments with which to reflectively invoke {@code method}: {@code args}, followed
+   * by a new {@link Blackhole} if the method {@linkplain #takesBlackhole takes one}.
+   */
+  public static Object[] withBlackhole(Method method, Object... args) {
+    if (!takesBlackhole(method)) {
+      return args;
+    }
+    Object[] result = Arrays.copyOf(args, args.length + 1);
+    result[args.length] = new Blackhole();
+    return result;
+  }
 }
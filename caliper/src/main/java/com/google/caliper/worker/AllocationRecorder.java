@@ -37,7 +37,7 @@ abstract class AllocationRecorder {
       doStartRecording();
       obj = new Object();
       AllocationStats stats = stopRecording(1);
-      if (stats.getAllocationCount() != 1 || stats.getAllocationSize() < 1) {
+      if ((countsObjects() && stats.getAllocationCount() != 1) || stats.getAllocationSize() < 1) {
         throw new IllegalStateException(
             String.format("The allocation recording infrastructure appears to be broken. "
                 + "Expected to find exactly one allocation of a java/lang/Object instead found %s",
@@ -48,6 +48,14 @@ abstract class AllocationRecorder {
     doStartRecording();
   }
   
+  /**
+   * Returns true if this recorder counts the objects that were allocated, and not just their total
+   * size.
+   */
+  boolean countsObjects() {
+    return true;
+  }
+
   /** Clears the prior state and starts a new recording. */
   protected abstract void doStartRecording();
   
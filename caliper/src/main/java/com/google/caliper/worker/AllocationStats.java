@@ -34,6 +34,7 @@ import java.util.Collection;
  * A set of statistics about the allocations performed by a benchmark method.
  */
 final class AllocationStats {
+  private final boolean objectsCounted;
   private final int allocationCount;
   private final long allocationSize;
   private final int reps;
@@ -45,7 +46,16 @@ final class AllocationStats {
    * number of {@code reps} passed to the benchmark method.
    */
   AllocationStats(int allocationCount, long allocationSize, int reps) {
-    this(allocationCount, allocationSize, reps, ImmutableMultiset.<Allocation>of());
+    this(true, allocationCount, allocationSize, reps, ImmutableMultiset.<Allocation>of());
+  }
+
+  /**
+   * Constructs a new {@link AllocationStats} with the given cumulative size of the allocations
+   * ({@code allocationSize}) and the number of {@code reps} passed to the benchmark method, for a
+   * recorder that doesn't know how many objects were allocated.
+   */
+  AllocationStats(long allocationSize, int reps) {
+    this(false, 0, allocationSize, reps, ImmutableMultiset.<Allocation>of());
   }
   
   /**
@@ -53,12 +63,13 @@ final class AllocationStats {
    * {@code reps} passed to the benchmark method.
    */
   AllocationStats(Collection<Allocation> allocations, int reps) {
-    this(allocations.size(), Allocation.getTotalSize(allocations), reps, 
+    this(true, allocations.size(), Allocation.getTotalSize(allocations), reps, 
         ImmutableMultiset.copyOf(allocations));
   }
 
-  private AllocationStats(int allocationCount, long allocationSize, int reps, 
-      Multiset<Allocation> allocations) {
+  private AllocationStats(boolean objectsCounted, int allocationCount, long allocationSize,
+      int reps, Multiset<Allocation> allocations) {
+    this.objectsCounted = objectsCounted;
     checkArgument(allocationCount >= 0, "allocationCount (%s) was negative", allocationCount);
     this.allocationCount = allocationCount;
     checkArgument(allocationSize >= 0, "allocationSize (%s) was negative", allocationSize);
@@ -95,7 +106,8 @@ final class AllocationStats {
       }
     }
     try {
-      return new AllocationStats(allocationCount - baseline.allocationCount,
+      return new AllocationStats(objectsCounted && baseline.objectsCounted,
+            allocationCount - baseline.allocationCount,
             allocationSize - baseline.allocationSize,
             reps - baseline.reps,
             Multisets.difference(allocations, baseline.allocations));
@@ -130,17 +142,21 @@ final class AllocationStats {
       double allocsPerRep = ((double) entry.getCount()) / reps;
       System.out.printf("Allocated %f allocs per rep of %s%n", allocsPerRep, entry.getElement());
     }
+    Measurement bytes = new Measurement.Builder()
+        .value(Value.create(allocationSize, "B"))
+        .weight(reps)
+        .description("bytes")
+        .build();
+    if (!objectsCounted) {
+      return ImmutableList.of(bytes);
+    }
     return ImmutableList.of(
         new Measurement.Builder()
             .value(Value.create(allocationCount, ""))
             .description("objects")
             .weight(reps)
             .build(),
-        new Measurement.Builder()
-            .value(Value.create(allocationSize, "B"))
-            .weight(reps)
-            .description("bytes")
-            .build());
+        bytes);
   }
 
   @Override
@@ -149,7 +165,8 @@ final class AllocationStats {
       return true;
     } else if (obj instanceof AllocationStats) {
       AllocationStats that = (AllocationStats) obj;
-      return allocationCount == that.allocationCount
+      return objectsCounted == that.objectsCounted
+          && allocationCount == that.allocationCount
           && allocationSize == that.allocationSize
           && reps == that.reps
           && Objects.equal(allocations, that.allocations);
@@ -160,7 +177,7 @@ final class AllocationStats {
 
   @Override
   public int hashCode() {
-    return Objects.hashCode(allocationCount, allocationSize, reps, allocations);
+    return Objects.hashCode(objectsCounted, allocationCount, allocationSize, reps, allocations);
   }
 
   @Override public String toString() {
@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.worker;
+
+import static com.google.caliper.util.Reflection.getAnnotatedMethods;
+import static com.google.caliper.util.Reflection.getParameterTypesWithoutBlackhole;
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.model.Measurement;
+import com.google.caliper.model.Value;
+import com.google.caliper.runner.InvalidBenchmarkException;
+import com.google.caliper.runner.Running.Benchmark;
+import com.google.caliper.runner.Running.BenchmarkMethod;
+import com.google.caliper.util.Util;
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+
+/**
+ * The {@link Worker} for the {@code ConcurrentInstrument}. It runs the benchmark method on several
+ * threads at once, all against the same benchmark instance.
+ *
+ * <p>Each measurement releases all threads at once from a barrier, has each of them run the same
+ * number of reps and waits for the last one to finish. It reports one {@code runtime} measurement
+ * per thread, for the time that thread took per rep, and one {@code throughput} measurement for the
+ * reps completed by all threads per second of wall-clock time.
+ *
+ * <p>The benchmark method may take a per-thread state object after its reps parameter. Each thread
+ * creates its own instance with the state class's no-argument constructor and runs its
+ * {@link BeforeExperiment} methods before its first measurement, and runs its
+ * {@link AfterExperiment} methods once measuring is over.
+ */
+public final class ConcurrentWorker extends Worker {
+  /** The name of both the worker option and the benchmark {@code @Param} for the thread count. */
+  public static final String THREADS_OPTION = "threads";
+
+  private static final int INITIAL_REPS = RuntimeWorker.INITIAL_REPS;
+
+  private final Random random;
+  private final Ticker ticker;
+  private final long timingIntervalNanos;
+  private final boolean gcBeforeEach;
+  private final boolean intReps;
+  @Nullable private final Class<?> threadStateType;
+  private final BenchmarkThread[] threads;
+  /** Both barriers are shared by the benchmark threads and the thread that calls measure(). */
+  private final CyclicBarrier startBarrier;
+  private final CyclicBarrier endBarrier;
+  private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+  // Written before startBarrier is tripped, so visible to the benchmark threads without volatile.
+  private long reps;
+  private boolean stopping;
+
+  private boolean started;
+  private long totalReps;
+  private long totalNanos;
+  private long nextReps;
+
+  @Inject ConcurrentWorker(@Benchmark Object benchmark,
+      @BenchmarkMethod Method method, Random random, Ticker ticker,
+      @WorkerOptions Map<String, String> workerOptions,
+      @Benchmark ImmutableSortedMap<String, String> userParameters) {
+    super(benchmark, method);
+    this.random = random;
+    this.ticker = ticker;
+    this.timingIntervalNanos = Long.parseLong(workerOptions.get("timingIntervalNanos"));
+    this.gcBeforeEach = Boolean.parseBoolean(workerOptions.get("gcBeforeEach"));
+    this.intReps = getParameterTypesWithoutBlackhole(method)[0] == int.class;
+    this.threadStateType = threadStateType(method);
+    int threadCount = threadCount(userParameters, workerOptions);
+    this.threads = new BenchmarkThread[threadCount];
+    this.startBarrier = new CyclicBarrier(threadCount + 1);
+    this.endBarrier = new CyclicBarrier(threadCount + 1);
+  }
+
+  /**
+   * Returns the number of threads to run: the value of the benchmark's {@code threads} parameter if
+   * it has one that is positive, otherwise the {@code threads} worker option, which the runner has
+   * already resolved to a number of threads. Neither depends on the processors available to the
+   * process that calls this, so the runner and the worker always agree on the result.
+   */
+  public static int threadCount(
+      Map<String, String> userParameters, Map<String, String> workerOptions) {
+    String parameter = userParameters.get(THREADS_OPTION);
+    int threadCount = (parameter == null) ? 0 : Integer.parseInt(parameter);
+    if (threadCount > 0) {
+      return threadCount;
+    }
+    String option = workerOptions.get(THREADS_OPTION);
+    checkArgument(option != null, "The %s worker option is not set", THREADS_OPTION);
+    threadCount = Integer.parseInt(option);
+    checkArgument(threadCount > 0, "The %s worker option must be positive: %s",
+        THREADS_OPTION, threadCount);
+    return threadCount;
+  }
+
+  /**
+   * Returns the type of the per-thread state that the given benchmark method takes after its reps
+   * parameter, or {@code null} if it doesn't take one.
+   */
+  @Nullable public static Class<?> threadStateType(Method benchmarkMethod) {
+    Class<?>[] parameterTypes = getParameterTypesWithoutBlackhole(benchmarkMethod);
+    return (parameterTypes.length == 2) ? parameterTypes[1] : null;
+  }
+
+  /**
+   * Creates an instance of a per-thread state class and runs its {@link BeforeExperiment} methods.
+   */
+  public static Object createThreadState(Class<?> threadStateType) throws Exception {
+    Constructor<?> constructor = threadStateType.getDeclaredConstructor();
+    constructor.setAccessible(true);
+    Object state;
+    try {
+      state = constructor.newInstance();
+    } catch (InvocationTargetException e) {
+      throw propagate(e.getCause());
+    }
+    invokeAll(getAnnotatedMethods(threadStateType, BeforeExperiment.class), state);
+    return state;
+  }
+
+  /** Runs the {@link AfterExperiment} methods of a per-thread state object. */
+  public static void tearDownThreadState(Object state) throws Exception {
+    invokeAll(getAnnotatedMethods(state.getClass(), AfterExperiment.class), state);
+  }
+
+  private static void invokeAll(Iterable<Method> methods, Object target) throws Exception {
+    for (Method method : methods) {
+      try {
+        method.invoke(target);
+      } catch (InvocationTargetException e) {
+        throw propagate(e.getCause());
+      }
+    }
+  }
+
+  private static Exception propagate(Throwable t) throws Exception {
+    Throwables.propagateIfPossible(t, Exception.class);
+    throw new RuntimeException(t);
+  }
+
+  @Override public void bootstrap() throws Exception {
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new BenchmarkThread(i);
+      threads[i].start();
+    }
+    started = true;
+    totalReps = INITIAL_REPS;
+    totalNanos = runThreads(INITIAL_REPS).perThreadNanos;
+  }
+
+  @Override public void preMeasure(boolean inWarmup) throws Exception {
+    nextReps = RuntimeWorker.calculateTargetReps(totalReps, totalNanos, timingIntervalNanos,
+        random.nextGaussian());
+    if (intReps && nextReps != (int) nextReps) {
+      throw new InvalidBenchmarkException("%s.%s takes an int for reps, "
+          + "but requires a greater number to fill the timing interval. "
+          + "If this is expected (the benchmarked code is very fast), use a long parameter.",
+          benchmark.getClass(), benchmarkMethod.getName());
+    }
+    if (gcBeforeEach && !inWarmup) {
+      Util.forceGc();
+    }
+  }
+
+  @Override public Iterable<Measurement> measure() throws Exception {
+    Round round = runThreads(nextReps);
+    ImmutableList.Builder<Measurement> measurements = ImmutableList.builder();
+    for (BenchmarkThread thread : threads) {
+      measurements.add(new Measurement.Builder()
+          .description("runtime")
+          .value(Value.create(thread.nanos, "ns"))
+          .weight(nextReps)
+          .build());
+    }
+    double opsPerSecond = (double) nextReps * threads.length * 1e9 / round.wallNanos;
+    measurements.add(new Measurement.Builder()
+        .description("throughput")
+        .value(Value.create(opsPerSecond, "ops/s"))
+        .weight(nextReps * threads.length)
+        .build());
+    totalReps += nextReps;
+    totalNanos += round.perThreadNanos;
+    return measurements.build();
+  }
+
+  /** Runs {@code reps} reps on every thread and waits for all of them to finish. */
+  private Round runThreads(long reps) throws Exception {
+    this.reps = reps;
+    startBarrier.await();
+    long before = ticker.read();
+    endBarrier.await();
+    long wallNanos = ticker.read() - before;
+    Throwable t = failure.get();
+    if (t != null) {
+      throw propagate(t);
+    }
+    long slowestThreadNanos = 0;
+    for (BenchmarkThread thread : threads) {
+      slowestThreadNanos = Math.max(slowestThreadNanos, thread.nanos);
+    }
+    return new Round(wallNanos, slowestThreadNanos);
+  }
+
+  @Override public void cleanUp() throws Exception {
+    if (!started) {
+      return;
+    }
+    stopping = true;
+    startBarrier.await();
+    for (BenchmarkThread thread : threads) {
+      thread.join();
+    }
+    Throwable t = failure.get();
+    if (t != null) {
+      throw propagate(t);
+    }
+  }
+
+  private static final class Round {
+    final long wallNanos;
+    /** The time taken by the slowest thread, used to pick the number of reps for the next round. */
+    final long perThreadNanos;
+
+    Round(long wallNanos, long perThreadNanos) {
+      this.wallNanos = wallNanos;
+      this.perThreadNanos = perThreadNanos;
+    }
+  }
+
+  /**
+   * A thread that runs the benchmark method each time the start barrier trips. Failures are
+   * recorded rather than breaking the barriers, so that the measuring thread always sees them.
+   */
+  private final class BenchmarkThread extends Thread {
+    long nanos;
+
+    BenchmarkThread(int index) {
+      super("caliper-benchmark-" + index);
+      setDaemon(true);
+    }
+
+    @Override public void run() {
+      Object state = null;
+      MethodInvoker invoker = null;
+      try {
+        state = (threadStateType == null) ? null : createThreadState(threadStateType);
+        invoker = MethodInvoker.create(benchmark, benchmarkMethod, state);
+      } catch (Throwable t) {
+        failure.compareAndSet(null, t);
+      }
+      try {
+        while (true) {
+          startBarrier.await();
+          if (stopping) {
+            break;
+          }
+          if (invoker != null && failure.get() == null) {
+            timeReps(invoker);
+          }
+          endBarrier.await();
+        }
+      } catch (Throwable t) {
+        failure.compareAndSet(null, t);
+      } finally {
+        if (state != null) {
+          try {
+            tearDownThreadState(state);
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          }
+        }
+      }
+    }
+
+    private void timeReps(MethodInvoker invoker) {
+      try {
+        long before = ticker.read();
+        if (intReps) {
+          invoker.invoke((int) reps);
+        } else {
+          invoker.invoke(reps);
+        }
+        nanos = ticker.read() - before;
+      } catch (Throwable t) {
+        failure.compareAndSet(null, t);
+      }
+    }
+  }
+}
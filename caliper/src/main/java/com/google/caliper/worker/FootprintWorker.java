@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.worker;
+
+import static com.google.common.base.MoreObjects.firstNonNull;
+
+import com.google.caliper.api.Footprint;
+import com.google.caliper.memory.ObjectGraphMeasurer;
+import com.google.caliper.memory.ObjectGraphMeasurer.PathFootprint;
+import com.google.caliper.memory.ObjectLayout;
+import com.google.caliper.model.Measurement;
+import com.google.caliper.model.Value;
+import com.google.caliper.runner.Running.Benchmark;
+import com.google.caliper.runner.Running.BenchmarkMethod;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+import com.google.common.primitives.Longs;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+/**
+ * The {@link Worker} for the {@code FootprintInstrument}. Each measurement calls the
+ * {@link Footprint} method to build a new object graph and measures everything reachable from the
+ * returned object, except instances of the types that the annotation excludes.
+ *
+ * <p>Besides the totals, each measurement reports the bytes and objects of the classes and of the
+ * field paths, such as {@code root.table[].next*.value}, that account for the most bytes, as many
+ * of each as the {@code breakdown} option says.
+ */
+public final class FootprintWorker extends Worker {
+  private final Predicate<Object> notExcluded;
+  private final int breakdown;
+
+  @Inject FootprintWorker(@Benchmark Object benchmark, @BenchmarkMethod Method method,
+      @WorkerOptions Map<String, String> workerOptions) {
+    super(benchmark, method);
+    this.breakdown = Integer.parseInt(workerOptions.get("breakdown"));
+    final ImmutableList<Class<?>> excludedTypes =
+        ImmutableList.copyOf(method.getAnnotation(Footprint.class).exclude());
+    this.notExcluded = new Predicate<Object>() {
+      @Override public boolean apply(Object object) {
+        for (Class<?> excludedType : excludedTypes) {
+          if (excludedType.isInstance(object)) {
+            return false;
+          }
+        }
+        return true;
+      }
+    };
+  }
+
+  @Override public Iterable<Measurement> measure() throws Exception {
+    Object root = benchmarkMethod.invoke(benchmark);
+    if (root == null) {
+      throw new NullPointerException(
+          "Footprint methods must not return null: " + benchmarkMethod.getName());
+    }
+    ObjectGraphMeasurer.Footprint footprint =
+        ObjectGraphMeasurer.measure(root, notExcluded, ObjectLayout.forCurrentVm(), breakdown);
+    ImmutableList.Builder<Measurement> measurements = ImmutableList.<Measurement>builder().add(
+        measurement("objects", footprint.getObjects(), ""),
+        measurement("references", footprint.getAllReferences(), ""),
+        measurement("primitives", footprint.getPrimitives().size(), ""),
+        measurement("bytes", footprint.getBytes(), "B"));
+    final Map<Class<?>, Long> bytesByClass = footprint.getBytesByClass();
+    Ordering<Class<?>> byBytes = new Ordering<Class<?>>() {
+      @Override public int compare(Class<?> left, Class<?> right) {
+        return Longs.compare(bytesByClass.get(left), bytesByClass.get(right));
+      }
+    };
+    for (Class<?> heavyClass : byBytes.greatestOf(bytesByClass.keySet(), breakdown)) {
+      // canonical names are easier to read for arrays, but local and anonymous classes lack them
+      String name = firstNonNull(heavyClass.getCanonicalName(), heavyClass.getName());
+      measurements.add(
+          measurement("bytes of " + name, bytesByClass.get(heavyClass), "B"),
+          measurement("objects of " + name, footprint.getObjectsByClass().count(heavyClass), ""));
+    }
+    for (PathFootprint path : footprint.getHeaviestPaths()) {
+      measurements.add(
+          measurement("bytes at " + path.getPath(), path.getBytes(), "B"),
+          measurement("objects at " + path.getPath(), path.getObjects(), ""));
+    }
+    return measurements.build();
+  }
+
+  private static Measurement measurement(String description, double magnitude, String unit) {
+    return new Measurement.Builder()
+        .description(description)
+        .value(Value.create(magnitude, unit))
+        .weight(1)
+        .build();
+  }
+}
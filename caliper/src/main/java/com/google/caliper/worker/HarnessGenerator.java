@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.worker;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static org.objectweb.asm.Opcodes.ACC_FINAL;
+import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ACC_SUPER;
+import static org.objectweb.asm.Opcodes.GETSTATIC;
+import static org.objectweb.asm.Opcodes.GOTO;
+import static org.objectweb.asm.Opcodes.I2L;
+import static org.objectweb.asm.Opcodes.IFLT;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.INVOKEVIRTUAL;
+import static org.objectweb.asm.Opcodes.LADD;
+import static org.objectweb.asm.Opcodes.LCMP;
+import static org.objectweb.asm.Opcodes.LCONST_0;
+import static org.objectweb.asm.Opcodes.LCONST_1;
+import static org.objectweb.asm.Opcodes.LLOAD;
+import static org.objectweb.asm.Opcodes.LSTORE;
+import static org.objectweb.asm.Opcodes.LXOR;
+import static org.objectweb.asm.Opcodes.PUTSTATIC;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.V1_7;
+
+import com.google.caliper.api.Blackhole;
+import com.google.caliper.util.Reflection;
+import com.google.caliper.util.Util;
+import com.google.common.collect.Maps;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates harness classes that run a single invocation benchmark method in a reps loop.
+ *
+ * <p>Each harness class has a single method, {@code public static void loop(long reps)}, that
+ * invokes the benchmark method {@code reps} times and consumes every value it returns. The
+ * benchmark method is called through a {@code static final} {@link MethodHandle} so that the JIT
+ * treats it as a constant and can inline the benchmark method into the loop, the same as it would
+ * for a direct call. Because the loop is owned by the harness, the benchmark method itself is
+ * always compiled as a normal method rather than with on-stack replacement.
+ *
+ * <p>Primitive return values are folded into a running value that is published to a static field
+ * once the loop completes. Object return values are published to a static field on every
+ * iteration, so they always escape.
+ *
+ * <p>If the benchmark method takes a {@link Blackhole}, a single instance is bound into the handle
+ * and passed to every invocation.
+ *
+ * <p>This only works on VMs that load JVM bytecode; it is not supported on Dalvik.
+ */
+public final class HarnessGenerator {
+  private HarnessGenerator() {}
+
+  private static final String LOOP_METHOD_NAME = "loop";
+  private static final String HANDLE_FIELD_NAME = "BENCHMARK";
+  private static final String SINK_FIELD_NAME = "sink";
+  private static final String METHOD_HANDLE_TYPE = Type.getInternalName(MethodHandle.class);
+  private static final String METHOD_HANDLE_DESCRIPTOR = Type.getDescriptor(MethodHandle.class);
+  private static final String TAKE_HANDLE_DESCRIPTOR =
+      Type.getMethodDescriptor(Type.getType(MethodHandle.class), Type.getType(String.class));
+
+  private static final AtomicInteger harnessCount = new AtomicInteger();
+
+  /**
+   * Handles for harness classes that have been defined, but not yet initialized. Keyed by the
+   * binary name of the harness class.
+   */
+  private static final ConcurrentMap<String, MethodHandle> pendingHandles =
+      Maps.newConcurrentMap();
+
+  /**
+   * Returns an invoker for the generated harness of the given benchmark method. The invoker takes
+   * the number of reps as a single {@code long} parameter.
+   */
+  static MethodInvoker generate(Object benchmark, Method benchmarkMethod) {
+    checkNotNull(benchmark);
+    checkArgument(Reflection.getParameterTypesWithoutBlackhole(benchmarkMethod).length == 0,
+        "%s must not take any parameters other than a Blackhole", benchmarkMethod);
+    checkArgument(!Util.isStatic(benchmarkMethod), "%s must not be static", benchmarkMethod);
+
+    MethodHandle handle;
+    try {
+      handle = MethodHandles.lookup().unreflect(benchmarkMethod).bindTo(benchmark);
+    } catch (IllegalAccessException e) {
+      throw new IllegalArgumentException(
+          String.format("%s is not accessible. Was setAccessible(true) called?", benchmarkMethod),
+          e);
+    }
+    if (Reflection.takesBlackhole(benchmarkMethod)) {
+      handle = MethodHandles.insertArguments(handle, 0, new Blackhole());
+    }
+    Class<?> returnType = benchmarkMethod.getReturnType();
+    // The harness doesn't reference the benchmark class, so object return types are erased.
+    Class<?> erasedReturnType = returnType.isPrimitive() ? returnType : Object.class;
+    handle = handle.asType(handle.type().changeReturnType(erasedReturnType));
+
+    String className = String.format("%s.Harness$%s$%s$%d",
+        HarnessGenerator.class.getPackage().getName(),
+        benchmarkMethod.getDeclaringClass().getSimpleName(),
+        benchmarkMethod.getName(),
+        harnessCount.incrementAndGet());
+    byte[] classBytes = generateClass(className.replace('.', '/'), erasedReturnType);
+
+    Class<?> harnessClass;
+    pendingHandles.put(className, handle);
+    try {
+      harnessClass = new HarnessClassLoader().define(className, classBytes);
+      // Initialize it now, while the handle is still available
+      Class.forName(className, true, harnessClass.getClassLoader());
+    } catch (ClassNotFoundException e) {
+      throw new AssertionError(e);
+    } finally {
+      pendingHandles.remove(className);
+    }
+
+    Method loopMethod;
+    try {
+      loopMethod = harnessClass.getMethod(LOOP_METHOD_NAME, long.class);
+    } catch (NoSuchMethodException e) {
+      throw new AssertionError(e);
+    }
+    return MethodInvoker.create(null, loopMethod);
+  }
+
+  /**
+   * Returns the benchmark method handle for the harness class with the given name. This is called
+   * from the static initializer of generated harness classes and is not intended for any other use.
+   */
+  public static MethodHandle takeBenchmarkHandle(String harnessClassName) {
+    MethodHandle handle = pendingHandles.remove(harnessClassName);
+    checkState(handle != null, "No benchmark method handle for %s", harnessClassName);
+    return handle;
+  }
+
+  private static byte[] generateClass(String internalName, Class<?> returnType) {
+    ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+    classWriter.visit(V1_7, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, internalName, null,
+        Type.getInternalName(Object.class), null);
+    classWriter.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, HANDLE_FIELD_NAME,
+        METHOD_HANDLE_DESCRIPTOR, null, null).visitEnd();
+    String sinkDescriptor = null;
+    if (returnType != void.class) {
+      sinkDescriptor = returnType.isPrimitive() ? "J" : Type.getDescriptor(Object.class);
+      classWriter.visitField(ACC_PRIVATE | ACC_STATIC, SINK_FIELD_NAME, sinkDescriptor, null, null)
+          .visitEnd();
+    }
+    generateStaticInitializer(classWriter, internalName);
+    generateLoop(classWriter, internalName, returnType, sinkDescriptor);
+    classWriter.visitEnd();
+    return classWriter.toByteArray();
+  }
+
+  private static void generateStaticInitializer(ClassWriter classWriter, String internalName) {
+    MethodVisitor mv = classWriter.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+    mv.visitCode();
+    mv.visitLdcInsn(internalName.replace('/', '.'));
+    mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(HarnessGenerator.class),
+        "takeBenchmarkHandle", TAKE_HANDLE_DESCRIPTOR, false);
+    mv.visitFieldInsn(PUTSTATIC, internalName, HANDLE_FIELD_NAME, METHOD_HANDLE_DESCRIPTOR);
+    mv.visitInsn(RETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+  }
+
+  /**
+   * Generates the equivalent of:
+   *
+   * <pre>{@code
+   * public static void loop(long reps) {
+   *   long accumulator = 0;
+   *   for (long i = 0; i < reps; i++) {
+   *     accumulator ^= (long) BENCHMARK.invokeExact();
+   *   }
+   *   sink = accumulator;
+   * }
+   * }</pre>
+   *
+   * <p>for primitive return types, with the accumulator replaced by a store to {@code sink} for
+   * object return types and dropped entirely for {@code void}.
+   */
+  private static void generateLoop(ClassWriter classWriter, String internalName,
+      Class<?> returnType, String sinkDescriptor) {
+    final int repsLocal = 0;
+    final int accumulatorLocal = 2;
+    final int indexLocal = 4;
+
+    MethodVisitor mv = classWriter.visitMethod(ACC_PUBLIC | ACC_STATIC, LOOP_METHOD_NAME, "(J)V",
+        null, null);
+    mv.visitCode();
+    mv.visitInsn(LCONST_0);
+    mv.visitVarInsn(LSTORE, accumulatorLocal);
+    mv.visitInsn(LCONST_0);
+    mv.visitVarInsn(LSTORE, indexLocal);
+    Label body = new Label();
+    Label condition = new Label();
+    mv.visitJumpInsn(GOTO, condition);
+
+    mv.visitLabel(body);
+    mv.visitFieldInsn(GETSTATIC, internalName, HANDLE_FIELD_NAME, METHOD_HANDLE_DESCRIPTOR);
+    mv.visitMethodInsn(INVOKEVIRTUAL, METHOD_HANDLE_TYPE, "invokeExact",
+        Type.getMethodDescriptor(Type.getType(returnType)), false);
+    if (returnType == void.class) {
+      // nothing to consume
+    } else if (!returnType.isPrimitive()) {
+      mv.visitFieldInsn(PUTSTATIC, internalName, SINK_FIELD_NAME, sinkDescriptor);
+    } else {
+      widenToLong(mv, returnType);
+      mv.visitVarInsn(LLOAD, accumulatorLocal);
+      mv.visitInsn(LXOR);
+      mv.visitVarInsn(LSTORE, accumulatorLocal);
+    }
+    mv.visitVarInsn(LLOAD, indexLocal);
+    mv.visitInsn(LCONST_1);
+    mv.visitInsn(LADD);
+    mv.visitVarInsn(LSTORE, indexLocal);
+
+    mv.visitLabel(condition);
+    mv.visitVarInsn(LLOAD, indexLocal);
+    mv.visitVarInsn(LLOAD, repsLocal);
+    mv.visitInsn(LCMP);
+    mv.visitJumpInsn(IFLT, body);
+
+    if (returnType != void.class && returnType.isPrimitive()) {
+      mv.visitVarInsn(LLOAD, accumulatorLocal);
+      mv.visitFieldInsn(PUTSTATIC, internalName, SINK_FIELD_NAME, sinkDescriptor);
+    }
+    mv.visitInsn(RETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+  }
+
+  /** Converts the primitive value on top of the stack to a {@code long}. */
+  private static void widenToLong(MethodVisitor mv, Class<?> primitiveType) {
+    if (primitiveType == long.class) {
+      return;
+    } else if (primitiveType == double.class) {
+      mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(Double.class), "doubleToRawLongBits",
+          "(D)J", false);
+    } else if (primitiveType == float.class) {
+      mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(Float.class), "floatToRawIntBits",
+          "(F)I", false);
+      mv.visitInsn(I2L);
+    } else {
+      // boolean, byte, char, short and int are all ints on the operand stack
+      mv.visitInsn(I2L);
+    }
+  }
+
+  /** Defines harness classes as children of the class loader that loaded caliper. */
+  private static final class HarnessClassLoader extends ClassLoader {
+    HarnessClassLoader() {
+      super(HarnessGenerator.class.getClassLoader());
+    }
+
+    Class<?> define(String name, byte[] classBytes) {
+      return defineClass(name, classBytes, 0, classBytes.length);
+    }
+  }
+}
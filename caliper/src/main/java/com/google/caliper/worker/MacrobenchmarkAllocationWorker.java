@@ -16,6 +16,8 @@
 
 package com.google.caliper.worker;
 
+import static com.google.caliper.util.Reflection.withBlackhole;
+
 import com.google.caliper.model.Measurement;
 import com.google.caliper.runner.Running.Benchmark;
 import com.google.caliper.runner.Running.BenchmarkMethod;
@@ -49,8 +51,10 @@ public final class MacrobenchmarkAllocationWorker extends Worker {
   }
 
   private AllocationStats measureAllocations(Object benchmark, Method method) throws Exception {
+    // create the arguments outside of the record block, so that the Blackhole isn't counted
+    Object[] args = withBlackhole(method);
     recorder.startRecording();
-    method.invoke(benchmark);
+    method.invoke(benchmark, args);
     return recorder.stopRecording(1);
   }
 }
@@ -21,43 +21,100 @@ import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 import com.google.caliper.api.AfterRep;
 import com.google.caliper.api.BeforeRep;
+import com.google.caliper.model.LatencyHistogram;
 import com.google.caliper.model.Measurement;
 import com.google.caliper.model.Value;
 import com.google.caliper.runner.Running.Benchmark;
 import com.google.caliper.runner.Running.BenchmarkMethod;
+import com.google.caliper.util.ShortDuration;
 import com.google.caliper.util.Util;
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
 
 import java.lang.reflect.Method;
 import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 /**
  * The {@link Worker} implementation for macrobenchmarks.
+ *
+ * <p>By default each measurement is a single invocation of the benchmark method. With the
+ * {@code latencyHistogram} option, each measurement invokes it until about {@code timingInterval}
+ * has been spent in it, runs the {@link BeforeRep} and {@link AfterRep} methods around every
+ * invocation, and records the time of each invocation in a {@link LatencyHistogram}.
+ *
+ * <p>With a {@code targetRate}, invocations are instead scheduled at that many per second for
+ * {@code timingInterval} of wall-clock time, regardless of how long earlier ones took. The latency
+ * of each invocation is measured from its scheduled start rather than its actual start, so an
+ * invocation that stalls also counts against the ones that had to wait for it. Each measurement
+ * then also reports the {@code throughput} that was actually achieved.
  */
 public class MacrobenchmarkWorker extends Worker {
+  /** The name of both the worker option and the benchmark {@code @Param} for the target rate. */
+  public static final String TARGET_RATE_OPTION = "targetRate";
+
+  /** Waits longer than this park the thread rather than spin. */
+  private static final long MAX_SPIN_NANOS = 100000;
+
+  private final Ticker ticker;
   private final Stopwatch stopwatch;
-  private final ImmutableSet<Method> beforeRepMethods;
-  private final ImmutableSet<Method> afterRepMethods;
+  private final MethodInvoker benchmarkInvoker;
+  private final ImmutableList<MethodInvoker> beforeRepInvokers;
+  private final ImmutableList<MethodInvoker> afterRepInvokers;
   private final boolean gcBeforeEach;
+  /** Records invocation times, or null if each measurement is a single invocation. */
+  @Nullable private final LatencyHistogram.Recorder latencyRecorder;
+  private final long timingIntervalNanos;
+  /** The interval between scheduled invocations, or 0 to invoke back to back. */
+  private final long intervalNanos;
 
   @Inject MacrobenchmarkWorker(@Benchmark Object benchmark, @BenchmarkMethod Method method,
-      Ticker ticker, @WorkerOptions Map<String, String> workerOptions) {
+      Ticker ticker, @WorkerOptions Map<String, String> workerOptions,
+      @Benchmark ImmutableSortedMap<String, String> userParameters) {
     super(benchmark, method);
+    this.ticker = ticker;
     this.stopwatch = Stopwatch.createUnstarted(ticker);
-    this.beforeRepMethods =
-        getAnnotatedMethods(benchmark.getClass(), BeforeRep.class);
-    this.afterRepMethods =
-        getAnnotatedMethods(benchmark.getClass(), AfterRep.class);
+    this.benchmarkInvoker = MethodInvoker.create(benchmark, method);
+    this.beforeRepInvokers =
+        createInvokers(benchmark, getAnnotatedMethods(benchmark.getClass(), BeforeRep.class));
+    this.afterRepInvokers =
+        createInvokers(benchmark, getAnnotatedMethods(benchmark.getClass(), AfterRep.class));
     this.gcBeforeEach = Boolean.parseBoolean(workerOptions.get("gcBeforeEach"));
+    double targetRate = targetRate(userParameters, workerOptions);
+    this.intervalNanos = (targetRate > 0) ? Math.max(1, Math.round(1e9 / targetRate)) : 0;
+    if (targetRate > 0 || Boolean.parseBoolean(workerOptions.get("latencyHistogram"))) {
+      this.latencyRecorder = new LatencyHistogram.Recorder();
+      this.timingIntervalNanos =
+          ShortDuration.valueOf(workerOptions.get("timingInterval")).to(NANOSECONDS);
+    } else {
+      this.latencyRecorder = null;
+      this.timingIntervalNanos = 0;
+    }
+  }
+
+  /**
+   * Returns the number of invocations per second to schedule: the value of the benchmark's
+   * {@code targetRate} parameter if it has one, otherwise the {@code targetRate} option. Zero or
+   * less means that invocations run back to back.
+   */
+  public static double targetRate(
+      Map<String, String> userParameters, Map<String, String> options) {
+    String targetRate = userParameters.get(TARGET_RATE_OPTION);
+    if (targetRate == null) {
+      targetRate = options.get(TARGET_RATE_OPTION);
+    }
+    return (targetRate == null) ? 0 : Double.parseDouble(targetRate);
   }
 
   @Override public void preMeasure(boolean inWarmup) throws Exception {
-    for (Method beforeRepMethod : beforeRepMethods) {
-      beforeRepMethod.invoke(benchmark);
+    for (MethodInvoker beforeRepInvoker : beforeRepInvokers) {
+      beforeRepInvoker.invoke();
     }
     if (gcBeforeEach && !inWarmup) {
       Util.forceGc();
@@ -65,8 +122,13 @@ public class MacrobenchmarkWorker extends Worker {
   }
 
   @Override public Iterable<Measurement> measure() throws Exception {
+    if (intervalNanos > 0) {
+      return measureAtFixedRate(latencyRecorder);
+    } else if (latencyRecorder != null) {
+      return measureLatencies(latencyRecorder);
+    }
     stopwatch.start();
-    benchmarkMethod.invoke(benchmark);
+    benchmarkInvoker.invoke();
     long nanos = stopwatch.stop().elapsed(NANOSECONDS);
     stopwatch.reset();
     return ImmutableSet.of(new Measurement.Builder()
@@ -76,9 +138,103 @@ public class MacrobenchmarkWorker extends Worker {
         .build());
   }
 
+  private Iterable<Measurement> measureLatencies(LatencyHistogram.Recorder recorder)
+      throws Exception {
+    recorder.reset();
+    long totalNanos = 0;
+    while (true) {
+      // the @BeforeRep methods of the first invocation were run by preMeasure
+      long before = ticker.read();
+      benchmarkInvoker.invoke();
+      long nanos = ticker.read() - before;
+      recorder.record(nanos);
+      totalNanos += nanos;
+      if (totalNanos >= timingIntervalNanos) {
+        // and the @AfterRep methods of the last one are run by postMeasure
+        break;
+      }
+      for (MethodInvoker afterRepInvoker : afterRepInvokers) {
+        afterRepInvoker.invoke();
+      }
+      for (MethodInvoker beforeRepInvoker : beforeRepInvokers) {
+        beforeRepInvoker.invoke();
+      }
+    }
+    return ImmutableSet.of(new Measurement.Builder()
+        .description("runtime")
+        .weight(recorder.totalCount())
+        .value(Value.create(totalNanos, "ns"))
+        .build());
+  }
+
+  private Iterable<Measurement> measureAtFixedRate(LatencyHistogram.Recorder recorder)
+      throws Exception {
+    recorder.reset();
+    long serviceNanos = 0;
+    long start = ticker.read();
+    long scheduled = start;
+    long end = start + timingIntervalNanos;
+    while (true) {
+      // the @BeforeRep methods of the first invocation were run by preMeasure
+      awaitNanoTime(scheduled);
+      long before = ticker.read();
+      benchmarkInvoker.invoke();
+      long after = ticker.read();
+      recorder.record(after - scheduled);
+      serviceNanos += after - before;
+      scheduled += intervalNanos;
+      if (scheduled >= end) {
+        // and the @AfterRep methods of the last one are run by postMeasure
+        break;
+      }
+      for (MethodInvoker afterRepInvoker : afterRepInvokers) {
+        afterRepInvoker.invoke();
+      }
+      for (MethodInvoker beforeRepInvoker : beforeRepInvokers) {
+        beforeRepInvoker.invoke();
+      }
+    }
+    long invocations = recorder.totalCount();
+    long wallNanos = Math.max(ticker.read() - start, 1);
+    return ImmutableList.of(
+        new Measurement.Builder()
+            .description("runtime")
+            .weight(invocations)
+            .value(Value.create(serviceNanos, "ns"))
+            .build(),
+        new Measurement.Builder()
+            .description("throughput")
+            .weight(invocations)
+            .value(Value.create(invocations * 1e9 / wallNanos, "ops/s"))
+            .build());
+  }
+
+  /** Waits until the ticker reaches {@code deadline}, which may already have passed. */
+  private void awaitNanoTime(long deadline) {
+    long remaining;
+    while ((remaining = deadline - ticker.read()) > 0) {
+      if (remaining > MAX_SPIN_NANOS) {
+        LockSupport.parkNanos(remaining - MAX_SPIN_NANOS);
+      }
+    }
+  }
+
+  @Override @Nullable public LatencyHistogram latencyHistogram() {
+    return (latencyRecorder == null) ? null : latencyRecorder.toHistogram();
+  }
+
   @Override public void postMeasure() throws Exception {
-    for (Method afterRepMethod : afterRepMethods) {
-      afterRepMethod.invoke(benchmark);
+    for (MethodInvoker afterRepInvoker : afterRepInvokers) {
+      afterRepInvoker.invoke();
+    }
+  }
+
+  private static ImmutableList<MethodInvoker> createInvokers(
+      Object benchmark, Iterable<Method> methods) {
+    ImmutableList.Builder<MethodInvoker> builder = ImmutableList.builder();
+    for (Method method : methods) {
+      builder.add(MethodInvoker.create(benchmark, method));
     }
+    return builder.build();
   }
 }
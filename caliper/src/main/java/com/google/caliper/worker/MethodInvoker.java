@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.worker;
+
+import static com.google.caliper.util.Reflection.takesBlackhole;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.caliper.api.Blackhole;
+import com.google.caliper.util.Util;
+import com.google.common.base.Throwables;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import javax.annotation.Nullable;
+
+/**
+ * Invokes a single method on a fixed instance of a benchmark class.
+ *
+ * <p>The method is bound once, when the invoker is created, so that calling it from inside a timed
+ * region does not box arguments, allocate varargs arrays or perform access checks the way that
+ * {@link Method#invoke} does. Exceptions thrown by the user's code are rethrown as is rather than
+ * wrapped in an {@link InvocationTargetException}.
+ *
+ * <p>Return values are discarded. If the method {@linkplain Blackhole takes a blackhole} as its last
+ * parameter, a new one is bound along with the receiver, so the invoker is called with the
+ * remaining parameters only. The same goes for a per-thread state object that follows the reps
+ * parameter, if one is {@linkplain #create(Object, Method, Object) given}.
+ */
+abstract class MethodInvoker {
+  private static final boolean METHOD_HANDLES_SUPPORTED = isMethodHandlesSupported();
+
+  /**
+   * Returns an invoker for {@code method} bound to {@code receiver}. {@code receiver} is ignored for
+   * static methods.
+   */
+  static MethodInvoker create(Object receiver, Method method) {
+    return create(receiver, method, null);
+  }
+
+  /**
+   * Returns an invoker for {@code method} bound to {@code receiver} and, if it isn't null, to
+   * {@code state} as the parameter that follows the reps parameter.
+   */
+  static MethodInvoker create(Object receiver, Method method, @Nullable Object state) {
+    checkNotNull(method);
+    // Dalvik (prior to API level 26) doesn't have java.lang.invoke, so fall back to reflection.
+    return METHOD_HANDLES_SUPPORTED
+        ? new MethodHandleInvoker(receiver, method, state)
+        : new ReflectiveInvoker(receiver, method, state);
+  }
+
+  /** Invokes a method that takes no parameters. */
+  abstract void invoke() throws Exception;
+
+  /** Invokes a method that takes a single {@code int} parameter. */
+  abstract void invoke(int arg) throws Exception;
+
+  /** Invokes a method that takes a single {@code long} parameter. */
+  abstract void invoke(long arg) throws Exception;
+
+  private static boolean isMethodHandlesSupported() {
+    try {
+      Class.forName("java.lang.invoke.MethodHandles");
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  private static Exception propagateUserException(Throwable t) throws Exception {
+    Throwables.propagateIfPossible(t, Exception.class);
+    throw new RuntimeException(t);
+  }
+
+  /**
+   * An invoker that converts the method to a {@link MethodHandle} bound to the receiver and adapted
+   * to return {@code void}, so that each call is an {@link MethodHandle#invokeExact exact}
+   * invocation with no conversions.
+   */
+  private static final class MethodHandleInvoker extends MethodInvoker {
+    private final MethodHandle handle;
+
+    MethodHandleInvoker(Object receiver, Method method, @Nullable Object state) {
+      MethodHandle unbound;
+      try {
+        unbound = MethodHandles.lookup().unreflect(method);
+      } catch (IllegalAccessException e) {
+        throw new IllegalArgumentException(
+            String.format("%s is not accessible. Was setAccessible(true) called?", method), e);
+      }
+      MethodHandle bound = Util.isStatic(method) ? unbound : unbound.bindTo(checkNotNull(receiver));
+      if (takesBlackhole(method)) {
+        bound = MethodHandles.insertArguments(
+            bound, bound.type().parameterCount() - 1, new Blackhole());
+      }
+      if (state != null) {
+        bound = MethodHandles.insertArguments(bound, 1, state);
+      }
+      this.handle = bound.asType(bound.type().changeReturnType(void.class));
+    }
+
+    @Override void invoke() throws Exception {
+      try {
+        handle.invokeExact();
+      } catch (Throwable t) {
+        throw propagateUserException(t);
+      }
+    }
+
+    @Override void invoke(int arg) throws Exception {
+      try {
+        handle.invokeExact(arg);
+      } catch (Throwable t) {
+        throw propagateUserException(t);
+      }
+    }
+
+    @Override void invoke(long arg) throws Exception {
+      try {
+        handle.invokeExact(arg);
+      } catch (Throwable t) {
+        throw propagateUserException(t);
+      }
+    }
+  }
+
+  /** An invoker that uses {@link Method#invoke} for VMs without {@code java.lang.invoke}. */
+  private static final class ReflectiveInvoker extends MethodInvoker {
+    private final Object receiver;
+    private final Method method;
+    @Nullable private final Object state;
+    @Nullable private final Blackhole blackhole;
+
+    ReflectiveInvoker(Object receiver, Method method, @Nullable Object state) {
+      this.receiver = receiver;
+      this.method = method;
+      this.state = state;
+      this.blackhole = takesBlackhole(method) ? new Blackhole() : null;
+    }
+
+    @Override void invoke() throws Exception {
+      try {
+        if (blackhole == null) {
+          method.invoke(receiver);
+        } else {
+          method.invoke(receiver, blackhole);
+        }
+      } catch (InvocationTargetException e) {
+        throw propagateUserException(e.getCause());
+      }
+    }
+
+    @Override void invoke(int arg) throws Exception {
+      invokeWithReps(arg);
+    }
+
+    @Override void invoke(long arg) throws Exception {
+      invokeWithReps(arg);
+    }
+
+    private void invokeWithReps(Object reps) throws Exception {
+      try {
+        if (state == null && blackhole == null) {
+          method.invoke(receiver, reps);
+        } else if (state == null) {
+          method.invoke(receiver, reps, blackhole);
+        } else if (blackhole == null) {
+          method.invoke(receiver, reps, state);
+        } else {
+          method.invoke(receiver, reps, state, blackhole);
+        }
+      } catch (InvocationTargetException e) {
+        throw propagateUserException(e.getCause());
+      }
+    }
+  }
+}
@@ -16,6 +16,8 @@
 
 package com.google.caliper.worker;
 
+import static com.google.caliper.util.Reflection.withBlackhole;
+
 import com.google.caliper.model.Measurement;
 import com.google.caliper.runner.Running.Benchmark;
 import com.google.caliper.runner.Running.BenchmarkMethod;
@@ -32,7 +34,7 @@ import javax.inject.Inject;
  * a few times, with varying numbers of reps, and computes the number of object allocations and the
  * total size of those allocations.
  */
-public final class MicrobenchmarkAllocationWorker extends Worker {
+public class MicrobenchmarkAllocationWorker extends Worker {
   // TODO(gak): make this or something like this an option
   private static final int WARMUP_REPS = 10;
   private static final int MAX_REPS = 100;
@@ -53,25 +55,36 @@ public final class MicrobenchmarkAllocationWorker extends Worker {
 
   private final Random random;
   private final AllocationRecorder recorder;
+  private final int maxReps;
 
   @Inject MicrobenchmarkAllocationWorker(@Benchmark Object benchmark,
       @BenchmarkMethod Method method, AllocationRecorder recorder, Random random) {
+    this(benchmark, method, recorder, random, MAX_REPS);
+  }
+
+  MicrobenchmarkAllocationWorker(Object benchmark, Method method, AllocationRecorder recorder,
+      Random random, int maxReps) {
     super(benchmark, method);
     this.random = random;
     this.recorder = recorder;
+    this.maxReps = maxReps;
   }
 
   @Override public void bootstrap() throws Exception {
     // do some initial measurements and throw away the results. this warms up the bootstrap method
     // itself and also the method invocation path for calling that method.
-
-    // warm up the loop in the benchmark method.
-    measureAllocations(benchmark, benchmarkMethod, WARMUP_REPS);
+    warmUp();
 
     // verify that the benchmark is deterministic in terms of the measured allocations.
     verifyBenchmarkIsDeterministic();
   }
 
+  /** Runs the benchmark method before the allocations are checked for determinism. */
+  void warmUp() throws Exception {
+    // warm up the loop in the benchmark method.
+    measureAllocations(WARMUP_REPS);
+  }
+
   /**
    * Verify the determinism of the benchmark method.
    *
@@ -91,7 +104,7 @@ public final class MicrobenchmarkAllocationWorker extends Worker {
     AllocationStats baseline = null;
     int matchingSequenceLength = 1;
     for (int i = 0; i < DETERMINISTIC_MEASUREMENT_COUNT; ++i) {
-      AllocationStats stats = measureAllocations(benchmark, benchmarkMethod, 0);
+      AllocationStats stats = measureAllocations(0);
       history.add(stats);
       if (stats.equals(baseline)) {
         // if consecutive measurements with the same allocation characteristics reaches the
@@ -125,20 +138,19 @@ public final class MicrobenchmarkAllocationWorker extends Worker {
   }
 
   @Override public Iterable<Measurement> measure() throws Exception {
-    AllocationStats baseline = measureAllocations(benchmark, benchmarkMethod, 0);
-    // [1, MAX_REPS]
-    int measurementReps = random.nextInt(MAX_REPS) + 1;
-    AllocationStats measurement = measureAllocations(benchmark, benchmarkMethod, measurementReps);
+    AllocationStats baseline = measureAllocations(0);
+    // [1, maxReps]
+    int measurementReps = random.nextInt(maxReps) + 1;
+    AllocationStats measurement = measureAllocations(measurementReps);
     return measurement.minus(baseline).toMeasurements();
   }
 
-  private AllocationStats measureAllocations(
-      Object benchmark, Method method, int reps) throws Exception {
-    // do the Integer boxing and the creation of the Object[] outside of the record block, so that
-    // our internal allocations aren't counted in the benchmark's allocations.
-    Object[] args = {reps};
+  final AllocationStats measureAllocations(int reps) throws Exception {
+    // do the Integer boxing and the creation of the Object[] (and Blackhole) outside of the record
+    // block, so that our internal allocations aren't counted in the benchmark's allocations.
+    Object[] args = withBlackhole(benchmarkMethod, reps);
     recorder.startRecording();
-    method.invoke(benchmark, args);
+    benchmarkMethod.invoke(benchmark, args);
     return recorder.stopRecording(reps);
   }
 }
@@ -44,6 +44,7 @@ public abstract class RuntimeWorker extends Worker {
   protected final Random random;
   protected final Ticker ticker;
   protected final Options options;
+  final MethodInvoker benchmarkInvoker;
   private long totalReps;
   private long totalNanos;
   private long nextReps;
@@ -52,6 +53,7 @@ public abstract class RuntimeWorker extends Worker {
       Method method, Random random, Ticker ticker,
       Map<String, String> workerOptions) {
     super(benchmark, method);
+    this.benchmarkInvoker = MethodInvoker.create(benchmark, method);
     this.random = random;
     // TODO(gak): investigate whether or not we can use Stopwatch
     this.ticker = ticker;
@@ -118,7 +120,7 @@ public abstract class RuntimeWorker extends Worker {
                     ShortDuration.of(options.timingIntervalNanos, NANOSECONDS));
       }
       long before = ticker.read();
-      benchmarkMethod.invoke(benchmark, intReps);
+      benchmarkInvoker.invoke(intReps);
       return ticker.read() - before;
     }
   }
@@ -135,7 +137,28 @@ public abstract class RuntimeWorker extends Worker {
     
     @Override long invokeTimeMethod(long reps) throws Exception {
       long before = ticker.read();
-      benchmarkMethod.invoke(benchmark, reps);
+      benchmarkInvoker.invoke(reps);
+      return ticker.read() - before;
+    }
+  }
+
+  /**
+   * A {@link Worker} for single invocation benchmarks that are run in a reps loop provided by a
+   * {@linkplain HarnessGenerator generated harness}.
+   */
+  public static final class Harnessed extends RuntimeWorker {
+    private final MethodInvoker harnessInvoker;
+
+    @Inject Harnessed(@Benchmark Object benchmark,
+        @BenchmarkMethod Method method, Random random, Ticker ticker,
+        @WorkerOptions Map<String, String> workerOptions) {
+      super(benchmark, method, random, ticker, workerOptions);
+      this.harnessInvoker = HarnessGenerator.generate(benchmark, method);
+    }
+
+    @Override long invokeTimeMethod(long reps) throws Exception {
+      long before = ticker.read();
+      harnessInvoker.invoke(reps);
       return ticker.read() - before;
     }
   }
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.caliper.worker;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.lang.management.ManagementFactory;
+
+import javax.inject.Inject;
+
+/**
+ * An {@link AllocationRecorder} that reads the number of bytes the current thread has allocated
+ * from {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}. It needs neither the
+ * allocation agent nor an interpreted VM, so it measures the allocations of JIT-compiled code, with
+ * escape analysis and intrinsics in effect. It can't count objects, and it only sees allocations
+ * made on the thread that started the recording.
+ *
+ * <p>Reading the counter may itself allocate a few bytes. Those are the same for every recording,
+ * so they cancel out when a baseline recording is subtracted.
+ */
+final class ThreadAllocatedBytesRecorder extends AllocationRecorder {
+  private final com.sun.management.ThreadMXBean threadMXBean;
+  private long threadId;
+  private long startBytes;
+  private boolean recording = false;
+
+  @Inject ThreadAllocatedBytesRecorder() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)
+        || !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+      throw new IllegalStateException(
+          "This VM does not support measuring the memory allocated by a thread");
+    }
+    this.threadMXBean = (com.sun.management.ThreadMXBean) bean;
+    threadMXBean.setThreadAllocatedMemoryEnabled(true);
+  }
+
+  @Override boolean countsObjects() {
+    return false;
+  }
+
+  @Override protected void doStartRecording() {
+    checkState(!recording, "startRecording called, but we were already recording.");
+    threadId = Thread.currentThread().getId();
+    recording = true;
+    startBytes = threadMXBean.getThreadAllocatedBytes(threadId);
+  }
+
+  @Override public AllocationStats stopRecording(int reps) {
+    long stopBytes = threadMXBean.getThreadAllocatedBytes(threadId);
+    checkState(recording, "stopRecording called, but we were not recording.");
+    checkState(threadId == Thread.currentThread().getId(),
+        "stopRecording called on a different thread than startRecording");
+    recording = false;
+    return new AllocationStats(stopBytes - startBytes, reps);
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.caliper.worker;
+
+import com.google.caliper.runner.Running.Benchmark;
+import com.google.caliper.runner.Running.BenchmarkMethod;
+import com.google.common.base.Ticker;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Random;
+
+import javax.inject.Inject;
+
+/**
+ * The {@link Worker} for the {@code ThreadAllocationInstrument}. Like the
+ * {@link MicrobenchmarkAllocationWorker}, it measures the bytes allocated by a baseline invocation
+ * and by an invocation with some reps and reports the difference, but it reads the allocations
+ * from the thread's allocation counter in a VM that compiles the benchmark. The reps loop is
+ * therefore run until it has been compiled before the allocations are checked for determinism, and
+ * with many more reps, so that what's measured is the allocation behavior of compiled code.
+ */
+public final class ThreadAllocationWorker extends MicrobenchmarkAllocationWorker {
+  private static final int MAX_REPS = 10000;
+
+  private final Ticker ticker;
+  private final long warmupNanos;
+
+  @Inject ThreadAllocationWorker(@Benchmark Object benchmark,
+      @BenchmarkMethod Method method, ThreadAllocatedBytesRecorder recorder, Random random,
+      Ticker ticker, @WorkerOptions Map<String, String> workerOptions) {
+    super(benchmark, method, recorder, random, MAX_REPS);
+    this.ticker = ticker;
+    this.warmupNanos = Long.parseLong(workerOptions.get("warmupNanos"));
+  }
+
+  @Override void warmUp() throws Exception {
+    // run the reps loop, with ever more reps, until the JIT has had the warmup time to compile it
+    // and the benchmark code that it calls.
+    long start = ticker.read();
+    int reps = 1;
+    do {
+      measureAllocations(reps);
+      reps = Math.min(reps * 2, MAX_REPS);
+    } while (ticker.read() - start < warmupNanos);
+  }
+}
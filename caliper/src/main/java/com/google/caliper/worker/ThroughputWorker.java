@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.worker;
+
+import static com.google.caliper.util.Reflection.getParameterTypesWithoutBlackhole;
+
+import com.google.caliper.model.Measurement;
+import com.google.caliper.model.Value;
+import com.google.caliper.runner.Running.Benchmark;
+import com.google.caliper.runner.Running.BenchmarkMethod;
+import com.google.caliper.util.Util;
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.inject.Inject;
+
+/**
+ * The {@link Worker} for the {@code ThroughputInstrument}. Each measurement calls the benchmark
+ * method over and over for a fixed window of wall-clock time, on one or more threads, and reports
+ * how many operations were completed per second.
+ *
+ * <p>Methods that take a reps parameter count each rep as an operation. They are called with a
+ * batch size that is calibrated once, so that checking the clock doesn't dominate fast benchmarks.
+ * Methods without a reps parameter count each invocation as an operation.
+ */
+public final class ThroughputWorker extends Worker {
+  /** Batches are grown until a single call takes at least 1/BATCHES_PER_WINDOW of the window. */
+  private static final int BATCHES_PER_WINDOW = 1000;
+
+  private final Ticker ticker;
+  private final long windowNanos;
+  private final boolean gcBeforeEach;
+  private final Class<?> repsType;
+  private final ImmutableList<MethodInvoker> invokers;
+  private ExecutorService executor;
+  private long batchSize = 1;
+
+  @Inject ThroughputWorker(@Benchmark Object benchmark,
+      @BenchmarkMethod Method method, Ticker ticker,
+      @WorkerOptions Map<String, String> workerOptions,
+      @Benchmark ImmutableSortedMap<String, String> userParameters) {
+    super(benchmark, method);
+    this.ticker = ticker;
+    this.windowNanos = Long.parseLong(workerOptions.get("windowNanos"));
+    this.gcBeforeEach = Boolean.parseBoolean(workerOptions.get("gcBeforeEach"));
+    Class<?>[] parameterTypes = getParameterTypesWithoutBlackhole(method);
+    this.repsType = (parameterTypes.length == 0) ? void.class : parameterTypes[0];
+    int threadCount = ConcurrentWorker.threadCount(userParameters, workerOptions);
+    ImmutableList.Builder<MethodInvoker> invokers = ImmutableList.builder();
+    for (int i = 0; i < threadCount; i++) {
+      // one invoker per thread, so that threads don't share a Blackhole
+      invokers.add(MethodInvoker.create(benchmark, method));
+    }
+    this.invokers = invokers.build();
+  }
+
+  @Override public void bootstrap() throws Exception {
+    executor = Executors.newFixedThreadPool(invokers.size(), new ThreadFactoryBuilder()
+        .setDaemon(true)
+        .setNameFormat("caliper-throughput-%d")
+        .build());
+    if (repsType != void.class) {
+      long maxBatchSize = (repsType == int.class) ? Integer.MAX_VALUE : Long.MAX_VALUE;
+      MethodInvoker invoker = invokers.get(0);
+      while (batchSize <= maxBatchSize / 2) {
+        long before = ticker.read();
+        invokeBatch(invoker);
+        if ((ticker.read() - before) * BATCHES_PER_WINDOW >= windowNanos) {
+          break;
+        }
+        batchSize *= 2;
+      }
+    }
+  }
+
+  @Override public void preMeasure(boolean inWarmup) throws Exception {
+    if (gcBeforeEach && !inWarmup) {
+      Util.forceGc();
+    }
+  }
+
+  @Override public Iterable<Measurement> measure() throws Exception {
+    final CountDownLatch start = new CountDownLatch(1);
+    ImmutableList.Builder<Future<Long>> futures = ImmutableList.builder();
+    for (final MethodInvoker invoker : invokers) {
+      futures.add(executor.submit(new Callable<Long>() {
+        @Override public Long call() throws Exception {
+          start.await();
+          return runWindow(invoker);
+        }
+      }));
+    }
+    List<Future<Long>> results = futures.build();
+    long before = ticker.read();
+    start.countDown();
+    long operations = 0;
+    for (Future<Long> result : results) {
+      try {
+        operations += result.get();
+      } catch (ExecutionException e) {
+        Throwables.propagateIfPossible(e.getCause(), Exception.class);
+        throw e;
+      }
+    }
+    long wallNanos = ticker.read() - before;
+    return ImmutableSet.of(new Measurement.Builder()
+        .description("throughput")
+        .value(Value.create(operations * 1e9 / wallNanos, "ops/s"))
+        .weight(operations)
+        .build());
+  }
+
+  /** Calls the benchmark method until the window has passed and returns the operations done. */
+  private long runWindow(MethodInvoker invoker) throws Exception {
+    long operations = 0;
+    long start = ticker.read();
+    do {
+      operations += invokeBatch(invoker);
+    } while (ticker.read() - start < windowNanos);
+    return operations;
+  }
+
+  private long invokeBatch(MethodInvoker invoker) throws Exception {
+    if (repsType == int.class) {
+      invoker.invoke((int) batchSize);
+      return batchSize;
+    } else if (repsType == long.class) {
+      invoker.invoke(batchSize);
+      return batchSize;
+    } else {
+      invoker.invoke();
+      return 1;
+    }
+  }
+
+  @Override public void cleanUp() throws Exception {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+}
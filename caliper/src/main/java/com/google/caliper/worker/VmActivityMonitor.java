@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.worker;
+
+import com.google.caliper.bridge.VmActivity;
+import com.google.common.collect.ImmutableList;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import javax.annotation.Nullable;
+
+/**
+ * Snapshots the collection counts and times of the VM's garbage collectors and its total
+ * compilation time around each measurement, and reports the difference as a {@link VmActivity}.
+ */
+final class VmActivityMonitor {
+  private final ImmutableList<GarbageCollectorMXBean> gcBeans;
+  private final CompilationMXBean compilationBean;
+  private long startGcCount;
+  private long startGcMillis;
+  private long startCompilationMillis;
+
+  private VmActivityMonitor(
+      ImmutableList<GarbageCollectorMXBean> gcBeans, CompilationMXBean compilationBean) {
+    this.gcBeans = gcBeans;
+    this.compilationBean = compilationBean;
+  }
+
+  /**
+   * Returns a monitor for this VM, or {@code null} if it doesn't report both garbage collection and
+   * compilation time (for example, on Android, which has no {@code java.lang.management}).
+   */
+  @Nullable static VmActivityMonitor create() {
+    try {
+      CompilationMXBean compilationBean = ManagementFactory.getCompilationMXBean();
+      if (compilationBean == null || !compilationBean.isCompilationTimeMonitoringSupported()) {
+        return null;
+      }
+      return new VmActivityMonitor(
+          ImmutableList.copyOf(ManagementFactory.getGarbageCollectorMXBeans()), compilationBean);
+    } catch (NoClassDefFoundError e) {
+      return null;
+    }
+  }
+
+  /** Starts a measurement. */
+  void start() {
+    startGcCount = gcCount();
+    startGcMillis = gcMillis();
+    startCompilationMillis = compilationBean.getTotalCompilationTime();
+  }
+
+  /** Ends a measurement, and returns what the VM did since it started. */
+  VmActivity stop() {
+    long compilationMillis = compilationBean.getTotalCompilationTime();
+    return new VmActivity(Math.max(0, gcCount() - startGcCount),
+        Math.max(0, gcMillis() - startGcMillis),
+        Math.max(0, compilationMillis - startCompilationMillis));
+  }
+
+  private long gcCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean bean : gcBeans) {
+      // -1 if the collector doesn't count its collections
+      count += Math.max(0, bean.getCollectionCount());
+    }
+    return count;
+  }
+
+  private long gcMillis() {
+    long millis = 0;
+    for (GarbageCollectorMXBean bean : gcBeans) {
+      millis += Math.max(0, bean.getCollectionTime());
+    }
+    return millis;
+  }
+}
@@ -15,6 +15,9 @@
  */
 package com.google.caliper.worker;
 
+import static com.google.caliper.util.Reflection.withBlackhole;
+
+import com.google.caliper.model.LatencyHistogram;
 import com.google.caliper.model.Measurement;
 import com.google.caliper.runner.Running.AfterExperimentMethods;
 import com.google.caliper.runner.Running.BeforeExperimentMethods;
@@ -22,6 +25,7 @@ import com.google.common.collect.ImmutableSet;
 
 import java.lang.reflect.Method;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 /**
@@ -47,7 +51,7 @@ public abstract class Worker {
   /** Initializes the benchmark object. */
   final void setUpBenchmark() throws Exception {
     for (Method method : beforeExperimentMethods) {
-      method.invoke(benchmark);
+      method.invoke(benchmark, withBlackhole(method));
     }
   }
 
@@ -68,10 +72,28 @@ public abstract class Worker {
   /** Template method for workers that produce multiple measurements. */
   public abstract Iterable<Measurement> measure() throws Exception;
 
+  /**
+   * Returns the latencies of the individual invocations made by the last call to
+   * {@link #measure()}, or {@code null} if this worker doesn't record them.
+   */
+  @Nullable public LatencyHistogram latencyHistogram() {
+    return null;
+  }
+
+  /**
+   * Called once after the last measurement, or after a failure, but before the benchmark object is
+   * torn down. Workers that start threads of their own should stop them here.
+   */
+  public void cleanUp() throws Exception {}
+
   /** Tears down the benchmark object. */
   final void tearDownBenchmark() throws Exception {
-    for (Method method : afterExperimentMethods) {
-      method.invoke(benchmark);
+    try {
+      cleanUp();
+    } finally {
+      for (Method method : afterExperimentMethods) {
+        method.invoke(benchmark);
+      }
     }
   }
 }
@@ -18,29 +18,54 @@ package com.google.caliper.worker;
 
 import com.google.caliper.bridge.FailureLogMessage;
 import com.google.caliper.bridge.OpenedSocket;
+import com.google.caliper.bridge.SharedMemoryRing;
 import com.google.caliper.bridge.ShouldContinueMessage;
 import com.google.caliper.bridge.StartMeasurementLogMessage;
 import com.google.caliper.bridge.StartupAnnounceMessage;
 import com.google.caliper.bridge.StopMeasurementLogMessage;
+import com.google.caliper.bridge.VmActivity;
 import com.google.caliper.bridge.VmPropertiesLogMessage;
+import com.google.caliper.bridge.WorkerSpec;
+import com.google.caliper.model.LatencyHistogram;
 import com.google.caliper.model.Measurement;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.UUID;
 
+import javax.annotation.Nullable;
+
 /** The worker's interface for communicating with the runner. */
 final class WorkerEventLog implements Closeable {
+  private final OpenedSocket.Writer socketWriter;
   private final OpenedSocket.Writer writer;
   private final OpenedSocket.Reader reader;
+  @Nullable private final SharedMemoryRing ring;
 
-  WorkerEventLog(OpenedSocket socket) {
-    this.writer = socket.writer();
+  /**
+   * @param ring the ring to send everything but the announcement through, or {@code null} to send
+   *     it all over the socket
+   */
+  WorkerEventLog(OpenedSocket socket, @Nullable SharedMemoryRing ring) {
+    this.socketWriter = socket.writer();
+    this.writer = (ring == null) ? socketWriter : socket.withSharedMemoryWriter(ring).writer();
     this.reader = socket.reader();
+    this.ring = ring;
   }
 
-  void notifyWorkerStarted(UUID trialId) throws IOException {
-    writer.write(new StartupAnnounceMessage(trialId));
+  /**
+   * Announce this worker to the runner and wait for it to send the spec of the trial to run.
+   * Returns {@code null} if the runner closed the connection instead.
+   */
+  WorkerSpec awaitWorkerSpec(UUID workerId) throws IOException {
+    // the runner can't read from the ring until it has been told about it
+    socketWriter.write(
+        new StartupAnnounceMessage(workerId, (ring == null) ? null : ring.file().getPath()));
+    socketWriter.flush();
+    return (WorkerSpec) reader.read();
+  }
+
+  void notifyWorkerStarted() throws IOException {
     writer.write(new VmPropertiesLogMessage());
     writer.flush();
   }
@@ -61,15 +86,20 @@ final class WorkerEventLog implements Closeable {
     writer.flush();
   }
 
+  /** Report the measurements without waiting for them to be ack'd by the runner. */
+  void notifyMeasurementEnding(Iterable<Measurement> measurements,
+      @Nullable LatencyHistogram latencyHistogram, @Nullable VmActivity vmActivity)
+      throws IOException {
+    writer.write(new StopMeasurementLogMessage(measurements, latencyHistogram, vmActivity));
+    writer.flush();
+  }
+
   /**
-   * Report the measurements and wait for it to be ack'd by the runner. Returns a message received
-   * from the runner, which lets us know whether to continue measuring and whether we're in the
-   * warmup or measurement phase.
+   * Wait for the runner to ack the measurements reported so far. Returns a message received from
+   * the runner, which lets us know whether to continue measuring, whether we're in the warmup or
+   * measurement phase and how many measurements to report before waiting again.
    */
-  ShouldContinueMessage notifyMeasurementEnding(Iterable<Measurement> measurements) throws
-      IOException {
-    writer.write(new StopMeasurementLogMessage(measurements));
-    writer.flush();
+  ShouldContinueMessage awaitShouldContinue() throws IOException {
     return (ShouldContinueMessage) reader.read();
   }
 
@@ -16,41 +16,56 @@
 
 package com.google.caliper.worker;
 
-import com.google.caliper.bridge.CommandLineSerializer;
 import com.google.caliper.bridge.OpenedSocket;
+import com.google.caliper.bridge.SharedMemoryRing;
 import com.google.caliper.bridge.ShouldContinueMessage;
+import com.google.caliper.bridge.Transport;
+import com.google.caliper.bridge.UnixDomainSockets;
+import com.google.caliper.bridge.VmActivity;
 import com.google.caliper.bridge.WorkerSpec;
+import com.google.caliper.model.Measurement;
 import com.google.caliper.runner.ExperimentModule;
 import com.google.common.net.InetAddresses;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
 
 /**
  * This class is invoked as a subprocess by the Caliper runner parent process; it re-stages
  * the benchmark and hands it off to the instrument's worker.
+ *
+ * <p>The command line only contains the id of the worker and the port of the runner, optionally
+ * followed by the path of a Unix domain socket to use instead ({@code unix:<path>}) and
+ * {@code shared-memory} to send messages through a {@link SharedMemoryRing}. The worker may be
+ * started before its trial, so the {@link WorkerSpec} is received over the socket.
  */
 public final class WorkerMain {
   private WorkerMain() {}
 
   public static void main(String[] args) throws Exception {
-    // TODO(lukes): instead of parsing the spec from the command line pass the port number on the
-    // command line and then receive the spec from the socket.  This way we can start JVMs prior
-    // to starting experiments and thus get better experiment latency.
-    WorkerSpec request = CommandLineSerializer.parse(args[0]);
-    // nonblocking connect so we can interleave the system call with injector creation.
-    SocketChannel channel = SocketChannel.open();
-    channel.configureBlocking(false);
-    channel.connect(new InetSocketAddress(InetAddresses.forString("127.0.0.1"), request.port));
+    UUID workerId = UUID.fromString(args[0]);
+    WorkerEventLog log = new WorkerEventLog(connect(args), createSharedMemoryRing(args));
 
+    WorkerSpec request = log.awaitWorkerSpec(workerId);
+    if (request == null) {
+      // the runner no longer needs us
+      log.close();
+      return;
+    }
     WorkerComponent workerComponent = DaggerWorkerComponent.builder()
         .experimentModule(ExperimentModule.forWorkerSpec(request))
         .workerModule(new WorkerModule(request))
         .build();
     Worker worker = workerComponent.getWorker();
-    WorkerEventLog log = new WorkerEventLog(OpenedSocket.fromSocket(channel));
+    VmActivityMonitor vmActivityMonitor = VmActivityMonitor.create();
 
-    log.notifyWorkerStarted(request.trialId);
+    log.notifyWorkerStarted();
     try {
       worker.setUpBenchmark();
       log.notifyBootstrapPhaseStarting();
@@ -58,13 +73,25 @@ public final class WorkerMain {
       log.notifyMeasurementPhaseStarting();
       boolean keepMeasuring = true;
       boolean isInWarmup = true;
+      // The number of measurements left to report before waiting for the runner. The runner always
+      // acks the first measurement, after which it may let us report several at a time.
+      int measurementBudget = 1;
       while (keepMeasuring) {
         worker.preMeasure(isInWarmup);
         log.notifyMeasurementStarting();
         try {
-          ShouldContinueMessage message = log.notifyMeasurementEnding(worker.measure());
-          keepMeasuring = message.shouldContinue();
-          isInWarmup = !message.isWarmupComplete();
+          if (vmActivityMonitor != null) {
+            vmActivityMonitor.start();
+          }
+          Iterable<Measurement> measurements = worker.measure();
+          VmActivity vmActivity = (vmActivityMonitor == null) ? null : vmActivityMonitor.stop();
+          log.notifyMeasurementEnding(measurements, worker.latencyHistogram(), vmActivity);
+          if (--measurementBudget == 0) {
+            ShouldContinueMessage message = log.awaitShouldContinue();
+            keepMeasuring = message.shouldContinue();
+            isInWarmup = !message.isWarmupComplete();
+            measurementBudget = message.measurementBudget();
+          }
         } finally {
           worker.postMeasure();
         }
@@ -77,4 +104,40 @@ public final class WorkerMain {
       log.close();
     }
   }
+
+  /**
+   * Connects to the runner over the Unix domain socket if there is one and this VM supports them,
+   * and otherwise over TCP.
+   */
+  private static OpenedSocket connect(String[] args) throws IOException {
+    for (int i = 2; i < args.length; i++) {
+      if (args[i].startsWith(UnixDomainSockets.ADDRESS_PREFIX)
+          && UnixDomainSockets.isSupported()) {
+        String path = args[i].substring(UnixDomainSockets.ADDRESS_PREFIX.length());
+        return OpenedSocket.fromSocket(UnixDomainSockets.connect(new File(path)));
+      }
+    }
+    int port = Integer.parseInt(args[1]);
+    SocketChannel channel = SocketChannel.open(
+        new InetSocketAddress(InetAddresses.forString("127.0.0.1"), port));
+    return OpenedSocket.fromSocket(channel);
+  }
+
+  /**
+   * Returns a ring to send messages through if the runner asked for one and this VM supports them,
+   * or {@code null} to send them over the socket.
+   */
+  @Nullable private static SharedMemoryRing createSharedMemoryRing(String[] args) {
+    if (!Arrays.asList(args).subList(2, args.length)
+            .contains(Transport.SHARED_MEMORY.optionValue())
+        || !SharedMemoryRing.isSupported()) {
+      return null;
+    }
+    try {
+      return SharedMemoryRing.create(SharedMemoryRing.DEFAULT_CAPACITY);
+    } catch (IOException e) {
+      // the socket still works
+      return null;
+    }
+  }
 }
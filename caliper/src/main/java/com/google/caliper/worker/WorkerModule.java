@@ -92,6 +92,18 @@ final class WorkerModule {
     return impl;
   }
 
+  @Provides(type = Type.MAP)
+  @WorkerClassKey(ThreadAllocationWorker.class)
+  static Worker provideThreadAllocationWorker(ThreadAllocationWorker impl) {
+    return impl;
+  }
+
+  @Provides(type = Type.MAP)
+  @WorkerClassKey(FootprintWorker.class)
+  static Worker provideFootprintWorker(FootprintWorker impl) {
+    return impl;
+  }
+
   @Provides(type = Type.MAP)
   @WorkerClassKey(MacrobenchmarkWorker.class)
   static Worker provideMacrobenchmarkWorker(MacrobenchmarkWorker impl) {
@@ -104,6 +116,18 @@ final class WorkerModule {
     return impl;
   }
 
+  @Provides(type = Type.MAP)
+  @WorkerClassKey(ConcurrentWorker.class)
+  static Worker provideConcurrentWorker(ConcurrentWorker impl) {
+    return impl;
+  }
+
+  @Provides(type = Type.MAP)
+  @WorkerClassKey(ThroughputWorker.class)
+  static Worker provideThroughputWorker(ThroughputWorker impl) {
+    return impl;
+  }
+
   @Provides(type = Type.MAP)
   @WorkerClassKey(RuntimeWorker.Micro.class)
   static Worker provideRuntimeWorkerMicro(RuntimeWorker.Micro impl) {
@@ -116,6 +140,12 @@ final class WorkerModule {
     return impl;
   }
 
+  @Provides(type = Type.MAP)
+  @WorkerClassKey(RuntimeWorker.Harnessed.class)
+  static Worker provideRuntimeWorkerHarnessed(RuntimeWorker.Harnessed impl) {
+    return impl;
+  }
+
   @Provides
   static Ticker provideTicker() {
     return Ticker.systemTicker();
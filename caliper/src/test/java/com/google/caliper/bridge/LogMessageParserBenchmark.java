@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.bridge;
+
+import static com.google.common.base.Charsets.UTF_8;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.io.Resources;
+
+import java.util.List;
+
+/**
+ * Measures the throughput of {@link LogMessageParser} over the worker logs that
+ * {@link LogMessageParserTest} uses, which were recorded from real VMs.
+ */
+public class LogMessageParserBenchmark {
+  @Param({
+      "jdk6-gc", "jdk7-gc", "jdk11-gc",
+      "jdk6-compilation", "jdk7-compilation", "jdk11-compilation",
+      "jdk6-flags", "jdk7-flags", "jdk11-flags"})
+  String log;
+
+  private final LogMessageParser parser = new LogMessageParser();
+  private String[] lines;
+
+  @BeforeExperiment void readLog() throws Exception {
+    List<String> lines = Resources.readLines(
+        Resources.getResource(LogMessageParserBenchmark.class, log + ".txt"), UTF_8);
+    this.lines = lines.toArray(new String[lines.size()]);
+  }
+
+  /** Each rep parses every line of the log once. */
+  @Benchmark int parse(int reps) {
+    int parsed = 0;
+    for (int i = 0; i < reps; i++) {
+      for (String line : lines) {
+        if (parser.parse(line) != null) {
+          parsed++;
+        }
+      }
+    }
+    return parsed;
+  }
+}
@@ -21,6 +21,7 @@ import static com.google.caliper.bridge.GcLogMessage.Type.INCREMENTAL;
 import static com.google.common.base.Charsets.UTF_8;
 import static java.util.concurrent.TimeUnit.MICROSECONDS;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import com.google.caliper.util.ShortDuration;
@@ -69,6 +70,19 @@ public class LogMessageParserTest {
     }
   }
 
+  @Test public void gcPattern_jdk11() throws Exception {
+    List<String> lines = Resources.readLines(
+        Resources.getResource(LogMessageParserTest.class, "jdk11-gc.txt"), UTF_8);
+    for (String line : lines) {
+      // the start of a concurrent cycle is logged without a duration
+      if (line.endsWith("ms")) {
+        assertTrue(line, parser.parse(line) instanceof GcLogMessage);
+      } else {
+        assertNull(line, parser.parse(line));
+      }
+    }
+  }
+
   @Test public void gcMessageData() {
     assertEquals(new GcLogMessage(INCREMENTAL, ShortDuration.of(1232, MICROSECONDS)),
         parser.parse("[GC 987K->384K(62848K), 0.0012320 secs]"));
@@ -82,6 +96,21 @@ public class LogMessageParserTest {
             "2013-02-11T20:15:26.708-0600: 0.099: [Full GC 576K->486K(62848K), 0.0044860 secs]"));
   }
 
+  @Test public void gcMessageData_unifiedLogging() {
+    assertEquals(new GcLogMessage(INCREMENTAL, ShortDuration.of(12362, MICROSECONDS)),
+        parser.parse("[0.178s][info ][gc             ] GC(0) Pause Young (Allocation Failure) "
+            + "7M->6M(31M) 12.362ms"));
+    assertEquals(new GcLogMessage(FULL, ShortDuration.of(8251, MICROSECONDS)),
+        parser.parse("[0.204s][info ][gc             ] GC(2) Pause Full (System.gc()) "
+            + "6M->1M(31M) 8.251ms"));
+    assertNull(parser.parse("[0.008s][info ][gc             ] Using Parallel"));
+  }
+
+  @Test public void gcMessageData_durationWithMultipleDigits() {
+    assertEquals(new GcLogMessage(INCREMENTAL, ShortDuration.of(12500000, MICROSECONDS)),
+        parser.parse("[GC 987K->384K(62848K), 12.5000000 secs]"));
+  }
+
   @Test public void jitPattern_jdk6() throws Exception {
     List<String> lines = Resources.readLines(
         Resources.getResource(LogMessageParserTest.class, "jdk6-compilation.txt"), UTF_8);
@@ -98,6 +127,14 @@ public class LogMessageParserTest {
     }
   }
 
+  @Test public void jitPattern_jdk11() throws Exception {
+    List<String> lines = Resources.readLines(
+        Resources.getResource(LogMessageParserTest.class, "jdk11-compilation.txt"), UTF_8);
+    for (String line : lines) {
+      assertTrue(line, parser.parse(line) instanceof HotspotLogMessage);
+    }
+  }
+
   @Test public void vmOptionPattern_jdk6() throws Exception {
     List<String> lines = Resources.readLines(
         Resources.getResource(LogMessageParserTest.class, "jdk6-flags.txt"), UTF_8);
@@ -113,4 +150,25 @@ public class LogMessageParserTest {
       assertTrue(parser.parse(line) instanceof VmOptionLogMessage);
     }
   }
+
+  @Test public void vmOptionPattern_jdk11() throws Exception {
+    List<String> lines = Resources.readLines(
+        Resources.getResource(LogMessageParserTest.class, "jdk11-flags.txt"), UTF_8);
+    for (String line : lines) {
+      assertTrue(line, parser.parse(line) instanceof VmOptionLogMessage);
+    }
+  }
+
+  @Test public void vmOptionData_jdk11() {
+    VmOptionLogMessage message = (VmOptionLogMessage) parser.parse(
+        "     bool AlignVector                              = true"
+        + "                                   {C2 product} {default}");
+    assertEquals("AlignVector", message.name());
+    assertEquals("true", message.value());
+    message = (VmOptionLogMessage) parser.parse(
+        "    ccstr AllocateHeapAt                           ="
+        + "                                           {product} {default}");
+    assertEquals("AllocateHeapAt", message.name());
+    assertEquals("", message.value());
+  }
 }
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.bridge;
+
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.caliper.model.LatencyHistogram;
+import com.google.caliper.model.Measurement;
+import com.google.caliper.model.Value;
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Measures the round trip of a measurement between a worker and the runner over a loopback socket:
+ * the worker sends a {@link StopMeasurementLogMessage} and the runner answers with a
+ * {@link ShouldContinueMessage}. The framed encoding of {@link OpenedSocket} is compared with the
+ * Java serialization that it replaced.
+ */
+public class OpenedSocketBenchmark {
+  enum Transport {
+    FRAMED {
+      @Override Channel open(Socket socket) throws IOException {
+        final OpenedSocket openedSocket = OpenedSocket.fromSocket(socket);
+        return new Channel() {
+          @Override void write(Serializable message) throws IOException {
+            openedSocket.writer().write(message);
+            openedSocket.writer().flush();
+          }
+
+          @Override Object read() throws IOException {
+            return openedSocket.reader().read();
+          }
+        };
+      }
+    },
+    SERIALIZATION {
+      @Override Channel open(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        final ObjectOutputStream output = new ObjectOutputStream(socket.getOutputStream());
+        final ObjectInputStream input = new ObjectInputStream(socket.getInputStream());
+        return new Channel() {
+          @Override void write(Serializable message) throws IOException {
+            output.writeObject(message);
+            output.flush();
+          }
+
+          @Override Object read() throws IOException {
+            try {
+              return input.readObject();
+            } catch (ClassNotFoundException e) {
+              throw new AssertionError(e);
+            }
+          }
+        };
+      }
+    };
+
+    abstract Channel open(Socket socket) throws IOException;
+  }
+
+  abstract static class Channel {
+    abstract void write(Serializable message) throws IOException;
+
+    abstract Object read() throws IOException;
+  }
+
+  @Param Transport transport;
+
+  @Param({"false", "true"}) boolean withHistogram;
+
+  private ServerSocket serverSocket;
+  private Socket workerSocket;
+  private Channel worker;
+  private Thread runner;
+  private LatencyHistogram.Recorder recorder;
+
+  @BeforeExperiment void openSockets() throws Exception {
+    serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    workerSocket = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+    final Socket runnerSocket = serverSocket.accept();
+    runner = new Thread() {
+      @Override public void run() {
+        try {
+          Channel channel = transport.open(runnerSocket);
+          ShouldContinueMessage shouldContinue = new ShouldContinueMessage(true, true);
+          while (channel.read() != null) {
+            channel.write(shouldContinue);
+          }
+        } catch (IOException e) {
+          // the worker end was closed
+        }
+      }
+    };
+    runner.setDaemon(true);
+    runner.start();
+    worker = transport.open(workerSocket);
+
+    recorder = new LatencyHistogram.Recorder();
+    for (long nanos = 100; nanos < 10000000; nanos += nanos / 10) {
+      recorder.record(nanos);
+    }
+  }
+
+  @AfterExperiment void closeSockets() throws Exception {
+    workerSocket.close();
+    serverSocket.close();
+    runner.join();
+  }
+
+  @Benchmark int roundTrip(int reps) throws IOException {
+    int dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      // new objects each time, as a worker sends, so that serialization can't send handles
+      worker.write(new StopMeasurementLogMessage(
+          ImmutableList.of(new Measurement.Builder()
+              .description("runtime")
+              .value(Value.create(123456789, "ns"))
+              .weight(1000)
+              .build()),
+          withHistogram ? recorder.toHistogram() : null,
+          new VmActivity(0, 0, 0)));
+      dummy += worker.read().hashCode();
+    }
+    return dummy;
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.bridge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.caliper.model.LatencyHistogram;
+import com.google.caliper.model.Measurement;
+import com.google.caliper.model.Value;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.UUID;
+
+/**
+ * Tests {@link OpenedSocket}.
+ */
+@RunWith(JUnit4.class)
+public class OpenedSocketTest {
+  private ServerSocket serverSocket;
+  private OpenedSocket client;
+  private OpenedSocket server;
+
+  @Before public void openSockets() throws IOException {
+    serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    client = OpenedSocket.fromSocket(
+        new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort()));
+    server = OpenedSocket.fromSocket(serverSocket.accept());
+  }
+
+  @After public void closeSockets() throws IOException {
+    client.writer().close();
+    client.reader().close();
+    server.writer().close();
+    server.reader().close();
+    serverSocket.close();
+  }
+
+  @Test public void roundTrip() throws IOException {
+    LatencyHistogram.Recorder recorder = new LatencyHistogram.Recorder();
+    for (long nanos = 1; nanos < 1000000000; nanos *= 3) {
+      recorder.record(nanos);
+    }
+    assertRoundTrip("a string");
+    assertRoundTrip(Strings.repeat("é", 100000));
+    assertRoundTrip(new StartMeasurementLogMessage());
+    assertRoundTrip(new StopMeasurementLogMessage(ImmutableList.of(
+        measurement("runtime", 1234.5, "ns", 1000), measurement("objects", 7, " objects", 1))));
+    assertRoundTrip(new StopMeasurementLogMessage(
+        ImmutableList.of(measurement("runtime", 1, "ns", 1)),
+        recorder.toHistogram(),
+        new VmActivity(1, 2, 3)));
+    assertRoundTrip(new StartupAnnounceMessage(UUID.randomUUID()));
+    assertRoundTrip(new FailureLogMessage(new RuntimeException("oops")));
+    assertRoundTrip(new VmPropertiesLogMessage(ImmutableMap.of("java.version", "1.8", "a", "")));
+    assertRoundTrip(new SerializableMessage(42));
+  }
+
+  @Test public void roundTrip_shouldContinue() throws IOException {
+    client.writer().write(new ShouldContinueMessage(true, false, 7));
+    client.writer().flush();
+    ShouldContinueMessage message = (ShouldContinueMessage) server.reader().read();
+    assertTrue(message.shouldContinue());
+    assertFalse(message.isWarmupComplete());
+    assertEquals(7, message.measurementBudget());
+  }
+
+  @Test public void manyMessages() throws IOException {
+    Thread writer = new Thread() {
+      @Override public void run() {
+        try {
+          for (int i = 0; i < 100000; i++) {
+            client.writer().write(new SerializableMessage(i));
+          }
+          client.writer().close();
+        } catch (IOException e) {
+          throw new AssertionError(e);
+        }
+      }
+    };
+    writer.start();
+    for (int i = 0; i < 100000; i++) {
+      assertEquals(new SerializableMessage(i), server.reader().read());
+    }
+    assertNull(server.reader().read());
+  }
+
+  @Test public void readAtEof() throws IOException {
+    client.writer().close();
+    assertNull(server.reader().read());
+  }
+
+  private void assertRoundTrip(Serializable message) throws IOException {
+    client.writer().write(message);
+    client.writer().flush();
+    assertEquals(message, server.reader().read());
+  }
+
+  private static Measurement measurement(
+      String description, double magnitude, String unit, double weight) {
+    return new Measurement.Builder()
+        .description(description)
+        .value(Value.create(magnitude, unit))
+        .weight(weight)
+        .build();
+  }
+
+  private static final class SerializableMessage implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final int value;
+
+    SerializableMessage(int value) {
+      this.value = value;
+    }
+
+    @Override public boolean equals(Object obj) {
+      return obj instanceof SerializableMessage && ((SerializableMessage) obj).value == value;
+    }
+
+    @Override public int hashCode() {
+      return value;
+    }
+  }
+}
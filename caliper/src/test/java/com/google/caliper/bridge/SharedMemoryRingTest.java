@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.bridge;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.io.ByteStreams;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+
+/**
+ * Tests {@link SharedMemoryRing}.
+ */
+@RunWith(JUnit4.class)
+public class SharedMemoryRingTest {
+  private SharedMemoryRing writerRing;
+  private SharedMemoryRing readerRing;
+  private ServerSocket serverSocket;
+  private Socket writerSocket;
+  private Socket readerSocket;
+
+  @Before public void setUp() throws IOException {
+    writerRing = SharedMemoryRing.create(16);
+    readerRing = SharedMemoryRing.open(writerRing.file());
+    serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    writerSocket = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+    readerSocket = serverSocket.accept();
+  }
+
+  @After public void tearDown() throws IOException {
+    writerSocket.close();
+    readerSocket.close();
+    serverSocket.close();
+    writerRing.file().delete();
+  }
+
+  @Test public void bytesLargerThanTheRing() throws Exception {
+    final byte[] bytes = new byte[100000];
+    new Random(0).nextBytes(bytes);
+    Thread writer = new Thread() {
+      @Override public void run() {
+        try {
+          OutputStream output = writerRing.outputStream(writerSocket.getOutputStream());
+          for (int offset = 0; offset < bytes.length; offset += 7) {
+            output.write(bytes, offset, Math.min(7, bytes.length - offset));
+            output.flush();
+          }
+          output.close();
+        } catch (IOException e) {
+          throw new AssertionError(e);
+        }
+      }
+    };
+    writer.start();
+    InputStream input = readerRing.inputStream(readerSocket.getInputStream());
+    assertArrayEquals(bytes, ByteStreams.toByteArray(input));
+    writer.join();
+  }
+
+  @Test public void readerWaitsForFlush() throws Exception {
+    final OutputStream output = writerRing.outputStream(writerSocket.getOutputStream());
+    Thread writer = new Thread() {
+      @Override public void run() {
+        try {
+          // long enough for the reader to stop spinning and wait for the doorbell
+          Thread.sleep(100);
+          output.write(42);
+          output.flush();
+        } catch (Exception e) {
+          throw new AssertionError(e);
+        }
+      }
+    };
+    writer.start();
+    InputStream input = readerRing.inputStream(readerSocket.getInputStream());
+    assertEquals(42, input.read());
+    writer.join();
+  }
+
+  @Test public void eofWhenTheWriterGoesAway() throws Exception {
+    OutputStream output = writerRing.outputStream(writerSocket.getOutputStream());
+    output.write(1);
+    output.flush();
+    // as if the worker died without closing the ring
+    writerSocket.close();
+    InputStream input = readerRing.inputStream(readerSocket.getInputStream());
+    assertEquals(1, input.read());
+    assertEquals(-1, input.read());
+  }
+}
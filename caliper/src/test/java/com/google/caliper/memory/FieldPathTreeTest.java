@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.lang.reflect.Field;
+
+/**
+ * Tests {@link FieldPathTree}.
+ */
+@RunWith(JUnit4.class)
+public class FieldPathTreeTest {
+  @SuppressWarnings("unused")
+  static class Entry {
+    Entry left;
+    Entry right;
+    Object[] values;
+  }
+
+  private static final Field LEFT = field("left");
+  private static final Field RIGHT = field("right");
+  private static final Field VALUES = field("values");
+
+  @Test public void paths() {
+    FieldPathTree tree = new FieldPathTree(100);
+    FieldPathTree.Node values = tree.field(tree.root(), VALUES);
+    FieldPathTree.Node elements = tree.arrayElement(values);
+    assertSame(elements, tree.arrayElement(values));
+    assertEquals("root", tree.root().toString());
+    assertEquals("root.values", values.toString());
+    assertEquals("root.values[]", elements.toString());
+  }
+
+  @Test public void foldsRepeatedFields() {
+    FieldPathTree tree = new FieldPathTree(100);
+    FieldPathTree.Node left = tree.field(tree.root(), LEFT);
+    FieldPathTree.Node leftRight = tree.field(left, RIGHT);
+    assertSame(left, tree.field(leftRight, LEFT));
+    assertSame(leftRight, tree.field(leftRight, RIGHT));
+    assertEquals("root.left*.right*", leftRight.toString());
+  }
+
+  @Test public void boundedNumberOfPaths() {
+    FieldPathTree tree = new FieldPathTree(2);
+    FieldPathTree.Node left = tree.field(tree.root(), LEFT);
+    assertSame(left, tree.field(left, RIGHT));
+    assertSame(tree.root(), tree.field(tree.root(), VALUES));
+  }
+
+  @Test public void heaviestPaths() {
+    FieldPathTree tree = new FieldPathTree(100);
+    tree.root().objects = 1;
+    tree.root().bytes = 16;
+    FieldPathTree.Node left = tree.field(tree.root(), LEFT);
+    left.objects = 2;
+    left.bytes = 64;
+    tree.field(tree.root(), RIGHT);
+    assertEquals(2, tree.heaviestPaths(10).size());
+    assertEquals("root.left", tree.heaviestPaths(1).get(0).getPath());
+    assertEquals(64, tree.heaviestPaths(1).get(0).getBytes());
+  }
+
+  private static Field field(String name) {
+    try {
+      return Entry.class.getDeclaredField(name);
+    } catch (NoSuchFieldException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
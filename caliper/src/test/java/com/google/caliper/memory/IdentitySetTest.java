@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests {@link IdentitySet}.
+ */
+@RunWith(JUnit4.class)
+public class IdentitySetTest {
+  @Test public void comparesByIdentity() {
+    IdentitySet set = new IdentitySet();
+    String a = new String("a");
+    String equalToA = new String("a");
+    assertTrue(set.add(a));
+    assertFalse(set.add(a));
+    assertTrue(set.add(equalToA));
+    assertEquals(2, set.size());
+  }
+
+  @Test public void growsPastItsInitialCapacity() {
+    IdentitySet set = new IdentitySet();
+    List<Object> objects = new ArrayList<Object>();
+    for (int i = 0; i < 100000; i++) {
+      Object object = new Object();
+      objects.add(object);
+      assertTrue(set.add(object));
+    }
+    for (Object object : objects) {
+      assertFalse(set.add(object));
+    }
+    assertEquals(objects.size(), set.size());
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.memory;
+
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.caliper.model.ArbitraryMeasurement;
+import com.google.common.base.Predicates;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how fast {@link ObjectGraphMeasurer} measures large object graphs, compared with a
+ * general {@link ObjectVisitor} that counts the same things through {@link ObjectExplorer}, the
+ * way the measurer used to, and with the measurer's parallel traversal. Run it with
+ * {@code -i runtime,threadAllocation,arbitrary} to see how long each traversal takes, how much
+ * memory it allocates and how far it grows the heap at its peak.
+ */
+public class ObjectGraphMeasurerBenchmark {
+  enum Shape {
+    LINKED_LIST {
+      @Override Object build(int nodes) {
+        LinkedList<Integer> list = new LinkedList<Integer>();
+        for (int i = 0; i < nodes; i++) {
+          list.add(i);
+        }
+        return list;
+      }
+    },
+    HASH_MAP {
+      @Override Object build(int nodes) {
+        Map<Integer, long[]> map = new HashMap<Integer, long[]>();
+        for (int i = 0; i < nodes; i++) {
+          map.put(i, new long[2]);
+        }
+        return map;
+      }
+    },
+    TREE_MAP {
+      @Override Object build(int nodes) {
+        Map<Integer, String> map = new TreeMap<Integer, String>();
+        for (int i = 0; i < nodes; i++) {
+          map.put(i, "");
+        }
+        return map;
+      }
+    };
+
+    abstract Object build(int nodes);
+  }
+
+  @Param({"LINKED_LIST", "HASH_MAP", "TREE_MAP"}) Shape shape;
+  @Param({"1000000"}) int nodes;
+
+  private Object graph;
+  private ForkJoinPool pool;
+
+  @BeforeExperiment void setUp() {
+    graph = shape.build(nodes);
+    pool = new ForkJoinPool();
+  }
+
+  @AfterExperiment void tearDown() {
+    pool.shutdown();
+  }
+
+  @Benchmark int measure(int reps) {
+    int dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      dummy += ObjectGraphMeasurer.measure(graph).getObjects();
+    }
+    return dummy;
+  }
+
+  @Benchmark int measureInParallel(int reps) {
+    int dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      dummy += ObjectGraphMeasurer.measureInParallel(graph, Predicates.alwaysTrue(), pool)
+          .getObjects();
+    }
+    return dummy;
+  }
+
+  @Benchmark int exploreWithChains(int reps) {
+    int dummy = 0;
+    for (int i = 0; i < reps; i++) {
+      dummy += exploreWithChains();
+    }
+    return dummy;
+  }
+
+  private int exploreWithChains() {
+    return ObjectExplorer.exploreObject(graph, new CountingVisitor(),
+        EnumSet.of(ObjectExplorer.Feature.VISIT_PRIMITIVES, ObjectExplorer.Feature.VISIT_NULL));
+  }
+
+  @ArbitraryMeasurement(units = "bytes", description = "peak heap growth")
+  public double measurePeakHeap() {
+    return peakHeapGrowth(new Runnable() {
+      @Override public void run() {
+        ObjectGraphMeasurer.measure(graph);
+      }
+    });
+  }
+
+  @ArbitraryMeasurement(units = "bytes", description = "peak heap growth")
+  public double measureInParallelPeakHeap() {
+    return peakHeapGrowth(new Runnable() {
+      @Override public void run() {
+        ObjectGraphMeasurer.measureInParallel(graph, Predicates.alwaysTrue(), pool);
+      }
+    });
+  }
+
+  @ArbitraryMeasurement(units = "bytes", description = "peak heap growth")
+  public double exploreWithChainsPeakHeap() {
+    return peakHeapGrowth(new Runnable() {
+      @Override public void run() {
+        exploreWithChains();
+      }
+    });
+  }
+
+  /**
+   * Returns how many bytes more than after a full GC the heap held at its peak while
+   * {@code traversal} ran: the sum of the peak usage of each heap pool, which includes the garbage
+   * that the traversal allocated until it was collected.
+   */
+  private static double peakHeapGrowth(Runnable traversal) {
+    List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+        heapPools.add(pool);
+      }
+    }
+    System.gc();
+    System.gc();
+    long baseline = 0;
+    for (MemoryPoolMXBean pool : heapPools) {
+      pool.resetPeakUsage();
+      baseline += pool.getUsage().getUsed();
+    }
+    traversal.run();
+    long peak = 0;
+    for (MemoryPoolMXBean pool : heapPools) {
+      peak += pool.getPeakUsage().getUsed();
+    }
+    return peak - baseline;
+  }
+
+  /** Counts objects, references and primitives from the chain of every value it is shown. */
+  private static final class CountingVisitor implements ObjectVisitor<Integer> {
+    private final Set<Object> seen =
+        Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    private int objects;
+    private int references;
+    private int primitives;
+
+    @Override public Traversal visit(Chain chain) {
+      if (chain.isPrimitive()) {
+        primitives++;
+        return Traversal.SKIP;
+      }
+      references++;
+      Object value = chain.getValue();
+      if (value == null || value instanceof Class<?>
+          || Enum.class.isAssignableFrom(chain.getValueType()) || !seen.add(value)) {
+        return Traversal.SKIP;
+      }
+      objects++;
+      return Traversal.EXPLORE;
+    }
+
+    @Override public Integer result() {
+      return objects + references + primitives;
+    }
+  }
+}
@@ -17,7 +17,13 @@
 package com.google.caliper.memory;
 
 import com.google.caliper.memory.ObjectGraphMeasurer.Footprint;
+import com.google.caliper.memory.ObjectGraphMeasurer.PathFootprint;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import junit.framework.TestCase;
 
@@ -25,6 +31,10 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * Tests for ObjectGraphMeasurer.
  */
@@ -119,5 +129,105 @@ public class ObjectGraphMeasurerTest extends TestCase {
     assertEquals(new ObjectGraphMeasurer.Footprint(2, 2, 3, NO_PRIMITIVES), footprint);
   }
 
+  @Test public void testInParallel_smallGraphs() {
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (Object root : ImmutableList.of(oneEnumField, oneClassField, oneObjectField, withCycle,
+          multiplePathsToObject, multiplePathsToClass, new WithStaticField(), oneNullOneNonNull)) {
+        assertMeasuredInParallel(root, pool);
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test public void testInParallel_largeGraphWithSharingAndCycles() {
+    Map<Integer, Object> map = Maps.newHashMap();
+    List<Object> shared = Lists.newArrayList();
+    for (int i = 0; i < 1000; i++) {
+      shared.add(new long[i % 10]);
+    }
+    for (int i = 0; i < 100000; i++) {
+      Object[] value = {shared.get(i % shared.size()), map, "value" + i};
+      map.put(i, value);
+    }
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      assertMeasuredInParallel(map, pool);
+      assertMeasuredInParallel(ImmutableList.of(map, shared, map), pool);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  static class Node {
+    Node next;
+    Object payload = new Object();
+  }
+
+  @Test public void testHeaviestPaths_foldsRecursiveFields() {
+    Node head = new Node();
+    Node node = head;
+    for (int i = 0; i < 1000; i++) {
+      node.next = new Node();
+      node = node.next;
+    }
+    ObjectLayout layout = ObjectLayout.hotspot64(true, true, 8);
+    Footprint footprint =
+        ObjectGraphMeasurer.measure(head, Predicates.alwaysTrue(), layout, 10);
+    Map<String, PathFootprint> paths = Maps.newHashMap();
+    for (PathFootprint path : footprint.getHeaviestPaths()) {
+      paths.put(path.getPath(), path);
+    }
+    assertEquals(ImmutableSet.of("root", "root.payload", "root.next*", "root.next*.payload"),
+        paths.keySet());
+    assertEquals(1000, paths.get("root.next*").getObjects());
+    assertEquals(1000 * layout.instanceSize(Node.class), paths.get("root.next*").getBytes());
+    assertEquals("root.next*", footprint.getHeaviestPaths().get(0).getPath());
+    assertEquals(1001, footprint.getObjectsByClass().count(Node.class));
+    assertEquals(1001, footprint.getObjectsByClass().count(Object.class));
+  }
+
+  @Test public void testHeaviestPaths_coverEveryObject() {
+    Map<Integer, String> map = Maps.newHashMap();
+    for (int i = 0; i < 1000; i++) {
+      map.put(i, "value" + i);
+    }
+    Footprint footprint = ObjectGraphMeasurer.measure(
+        map, Predicates.alwaysTrue(), ObjectLayout.forCurrentVm(), 100);
+    int objects = 0;
+    long bytes = 0;
+    for (PathFootprint path : footprint.getHeaviestPaths()) {
+      assertTrue(path.getPath().startsWith("root"));
+      objects += path.getObjects();
+      bytes += path.getBytes();
+    }
+    assertEquals(footprint.getObjects(), objects);
+    assertEquals(footprint.getBytes(), bytes);
+    assertEquals(footprint.getObjects(), footprint.getObjectsByClass().size());
+  }
+
+  @Test public void testHeaviestPaths_bounded() {
+    Map<Integer, String> map = Maps.newHashMap();
+    for (int i = 0; i < 1000; i++) {
+      map.put(i, "value" + i);
+    }
+    Footprint footprint = ObjectGraphMeasurer.measure(
+        map, Predicates.alwaysTrue(), ObjectLayout.forCurrentVm(), 2);
+    assertEquals(2, footprint.getHeaviestPaths().size());
+    assertTrue(footprint.getHeaviestPaths().get(0).getBytes()
+        >= footprint.getHeaviestPaths().get(1).getBytes());
+    assertTrue(ObjectGraphMeasurer.measure(map).getHeaviestPaths().isEmpty());
+  }
+
+  private static void assertMeasuredInParallel(Object root, ForkJoinPool pool) {
+    Footprint sequential = ObjectGraphMeasurer.measure(root, Predicates.alwaysTrue());
+    Footprint parallel =
+        ObjectGraphMeasurer.measureInParallel(root, Predicates.alwaysTrue(), pool);
+    assertEquals(sequential, parallel);
+    assertEquals(sequential.getBytes(), parallel.getBytes());
+    assertEquals(sequential.getBytesByClass(), parallel.getBytesByClass());
+  }
+
   private static final ImmutableMultiset<Class<?>> NO_PRIMITIVES = ImmutableMultiset.of();
 }
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+/**
+ * Tests {@link ObjectLayout}.
+ */
+@RunWith(JUnit4.class)
+public class ObjectLayoutTest {
+  private static final ObjectLayout COMPRESSED = ObjectLayout.hotspot64(true, true, 8);
+  private static final ObjectLayout UNCOMPRESSED = ObjectLayout.hotspot64(false, false, 8);
+
+  @SuppressWarnings("unused")
+  static class OneLong {
+    long value;
+  }
+
+  @SuppressWarnings("unused")
+  static class LongAndInt {
+    long value;
+    int count;
+  }
+
+  @SuppressWarnings("unused")
+  static class Mixed {
+    int count;
+    byte flag;
+    Object next;
+  }
+
+  @SuppressWarnings("unused")
+  static class Parent {
+    byte parentByte;
+  }
+
+  @SuppressWarnings("unused")
+  static class Child extends Parent {
+    static long ignored;
+    byte childByte;
+  }
+
+  @Test public void instances_compressed() {
+    assertEquals(16, COMPRESSED.sizeOf(new Object()));
+    assertEquals(24, COMPRESSED.sizeOf(new OneLong()));
+    // the int fills the gap between the header and the long
+    assertEquals(24, COMPRESSED.sizeOf(new LongAndInt()));
+    assertEquals(24, COMPRESSED.sizeOf(new Mixed()));
+    // the child's fields start on a reference boundary after the parent's
+    assertEquals(24, COMPRESSED.sizeOf(new Child()));
+  }
+
+  @Test public void instances_uncompressed() {
+    assertEquals(16, UNCOMPRESSED.sizeOf(new Object()));
+    assertEquals(24, UNCOMPRESSED.sizeOf(new OneLong()));
+    assertEquals(32, UNCOMPRESSED.sizeOf(new LongAndInt()));
+    assertEquals(32, UNCOMPRESSED.sizeOf(new Mixed()));
+    assertEquals(32, UNCOMPRESSED.sizeOf(new Child()));
+  }
+
+  @Test public void instances_32bit() {
+    ObjectLayout layout = ObjectLayout.hotspot32();
+    assertEquals(8, layout.sizeOf(new Object()));
+    assertEquals(16, layout.sizeOf(new OneLong()));
+    assertEquals(24, layout.sizeOf(new Mixed()));
+  }
+
+  @Test public void arrays() {
+    assertEquals(16, COMPRESSED.sizeOf(new byte[0]));
+    assertEquals(32, COMPRESSED.sizeOf(new int[3]));
+    assertEquals(24, COMPRESSED.sizeOf(new long[1]));
+    assertEquals(24, COMPRESSED.sizeOf(new Object[2]));
+    assertEquals(40, UNCOMPRESSED.sizeOf(new Object[2]));
+    assertEquals(24, ObjectLayout.hotspot32().sizeOf(new long[1]));
+  }
+
+  @Test public void objectAlignment() {
+    ObjectLayout layout = ObjectLayout.hotspot64(true, true, 16);
+    assertEquals(16, layout.sizeOf(new Object()));
+    assertEquals(32, layout.sizeOf(new OneLong()));
+  }
+
+  @Test public void currentVm() {
+    ObjectLayout layout = ObjectLayout.forCurrentVm();
+    long objectSize = layout.sizeOf(new Object());
+    assertTrue(objectSize >= 8);
+    assertEquals(0, objectSize % layout.objectAlignment());
+  }
+
+  @Test public void mismatches() {
+    // the sizes that a 64-bit VM with compressed oops and class pointers reports
+    Instrumentation instrumentation = fakeInstrumentation(ImmutableMap.<Class<?>, Long>of(
+        Object.class, 16L, LongAndInt.class, 24L, Object[].class, 24L));
+    ImmutableList<?> objects = ImmutableList.of(new Object(), new LongAndInt(), new Object[2]);
+    assertEquals(ImmutableList.of(), COMPRESSED.mismatches(instrumentation, objects));
+    assertEquals(
+        ImmutableList.of(
+            LongAndInt.class.getName() + ": 32 bytes, but the VM says 24",
+            "[Ljava.lang.Object;: 40 bytes, but the VM says 24"),
+        UNCOMPRESSED.mismatches(instrumentation, objects));
+  }
+
+  @Test public void measurerReportsBytesByClass() {
+    Object[] root = new Object[] {new Object()};
+    ObjectGraphMeasurer.Footprint footprint =
+        ObjectGraphMeasurer.measure(root, Predicates.alwaysTrue(), COMPRESSED);
+    assertEquals(ImmutableMap.of(Object[].class, 24L, Object.class, 16L),
+        footprint.getBytesByClass());
+    assertEquals(40, footprint.getBytes());
+  }
+
+  /** Returns an {@link Instrumentation} that only reports the given sizes of objects by class. */
+  private static Instrumentation fakeInstrumentation(final Map<Class<?>, Long> sizes) {
+    return (Instrumentation) Proxy.newProxyInstance(
+        Instrumentation.class.getClassLoader(),
+        new Class<?>[] {Instrumentation.class},
+        new InvocationHandler() {
+          @Override public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("getObjectSize")) {
+              return sizes.get(args[0].getClass());
+            }
+            throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+}
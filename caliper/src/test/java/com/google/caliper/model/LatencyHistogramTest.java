@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Tests {@link LatencyHistogram}.
+ */
+@RunWith(JUnit4.class)
+public class LatencyHistogramTest {
+  @Test public void bucketsCoverAllValues() {
+    long previousHighest = -1;
+    for (int index = 0; index < LatencyHistogram.bucketIndex(Long.MAX_VALUE) + 1; index++) {
+      long highest = LatencyHistogram.highestValueInBucket(index);
+      assertEquals(index, LatencyHistogram.bucketIndex(previousHighest + 1));
+      assertEquals(index, LatencyHistogram.bucketIndex(highest));
+      previousHighest = highest;
+    }
+    assertEquals(Long.MAX_VALUE, previousHighest);
+  }
+
+  @Test public void percentiles() {
+    LatencyHistogram.Recorder recorder = new LatencyHistogram.Recorder();
+    for (long i = 1; i <= 10000; i++) {
+      recorder.record(i * 1000);
+    }
+    LatencyHistogram histogram = recorder.toHistogram();
+    assertEquals(10000, histogram.totalCount());
+    assertEquals(1000, histogram.min());
+    assertEquals(10000000, histogram.max());
+    assertWithinBucket(5000000, histogram.percentile(50));
+    assertWithinBucket(9900000, histogram.percentile(99));
+    assertWithinBucket(9990000, histogram.percentile(99.9));
+    assertEquals(10000000, histogram.percentile(100));
+  }
+
+  @Test public void empty() {
+    LatencyHistogram histogram = new LatencyHistogram.Recorder().toHistogram();
+    assertEquals(0, histogram.totalCount());
+    assertEquals(0, histogram.percentile(99));
+  }
+
+  @Test public void merge() {
+    LatencyHistogram.Recorder first = new LatencyHistogram.Recorder();
+    first.record(10);
+    first.record(20);
+    LatencyHistogram.Recorder second = new LatencyHistogram.Recorder();
+    second.record(5);
+    second.record(1000000);
+    LatencyHistogram.Recorder both = new LatencyHistogram.Recorder();
+    both.record(10);
+    both.record(20);
+    both.record(5);
+    both.record(1000000);
+    assertEquals(both.toHistogram(),
+        LatencyHistogram.merge(ImmutableList.of(first.toHistogram(), second.toHistogram())));
+  }
+
+  @Test public void serializable() throws Exception {
+    LatencyHistogram.Recorder recorder = new LatencyHistogram.Recorder();
+    recorder.record(123);
+    recorder.record(456789);
+    LatencyHistogram histogram = recorder.toHistogram();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(histogram);
+    out.close();
+    Object copy = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    assertEquals(histogram, copy);
+  }
+
+  private static void assertWithinBucket(long expected, long actual) {
+    assertTrue(actual + " should be at least " + expected, actual >= expected);
+    assertTrue(actual + " is too far above " + expected, actual <= expected + expected / 128);
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.platform.jvm;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+
+/**
+ * Tests {@link JvmPlatform}.
+ */
+@RunWith(JUnit4.class)
+public class JvmPlatformTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private final JvmPlatform platform = new JvmPlatform();
+
+  @Test public void majorVersion() {
+    assertEquals(6, JvmPlatform.majorVersion("1.6.0_65"));
+    assertEquals(8, JvmPlatform.majorVersion("1.8.0_292"));
+    assertEquals(9, JvmPlatform.majorVersion("9"));
+    assertEquals(11, JvmPlatform.majorVersion("11.0.2"));
+    assertEquals(17, JvmPlatform.majorVersion("17-ea"));
+    assertEquals(0, JvmPlatform.majorVersion("unknown"));
+  }
+
+  @Test public void workerProcessArgs_legacy() throws Exception {
+    File home = folder.newFolder();
+    Files.write("JAVA_VERSION=\"1.8.0_292\"\n", new File(home, "release"), UTF_8);
+    ImmutableSet<String> args = platform.workerProcessArgs(home);
+    assertTrue(args.contains("-XX:+PrintGC"));
+    assertTrue(args.contains("-XX:+PrintCompilation"));
+  }
+
+  @Test public void workerProcessArgs_jreInsideJdk() throws Exception {
+    File home = folder.newFolder();
+    Files.write("JAVA_VERSION=\"11.0.2\"\n", new File(home, "release"), UTF_8);
+    File jre = new File(home, "jre");
+    assertTrue(jre.mkdir());
+    assertFalse(platform.workerProcessArgs(jre).contains("-XX:+PrintGC"));
+  }
+
+  @Test public void workerProcessArgs_unifiedLogging() throws Exception {
+    File home = folder.newFolder();
+    Files.write("JAVA_VERSION=\"11.0.2\"\n", new File(home, "release"), UTF_8);
+    ImmutableSet<String> args = platform.workerProcessArgs(home);
+    assertTrue(args.contains("-XX:+PrintFlagsFinal"));
+    assertFalse(args.contains("-XX:+PrintGC"));
+    assertFalse(args.contains("-XX:+PrintCompilation"));
+  }
+
+  @Test public void workerProcessArgs_unknownVersion() {
+    assertTrue(platform.workerProcessArgs(new File("foo")).contains("-XX:+PrintGC"));
+  }
+}
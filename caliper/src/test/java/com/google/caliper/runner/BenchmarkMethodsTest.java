@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.caliper.api.Blackhole;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.lang.reflect.Method;
+
+/**
+ * Tests {@link BenchmarkMethods}.
+ */
+@RunWith(JUnit4.class)
+public class BenchmarkMethodsTest {
+  @Test public void checkTimeMethod() throws Exception {
+    for (Method method : new Method[] {
+        TimeMethods.class.getMethod("timeInt", int.class),
+        TimeMethods.class.getMethod("timeLong", long.class),
+        TimeMethods.class.getMethod("timeWithBlackhole", int.class, Blackhole.class)}) {
+      assertEquals(method, BenchmarkMethods.checkTimeMethod(method));
+    }
+  }
+
+  @Test public void checkTimeMethod_invalidParameters() throws Exception {
+    for (Method method : new Method[] {
+        TimeMethods.class.getMethod("timeNoReps"),
+        TimeMethods.class.getMethod("timeOnlyBlackhole", Blackhole.class),
+        TimeMethods.class.getMethod("timeBlackholeNotLast", Blackhole.class, int.class)}) {
+      try {
+        BenchmarkMethods.checkTimeMethod(method);
+        fail(method.getName());
+      } catch (InvalidBenchmarkException expected) {}
+    }
+  }
+
+  public static class TimeMethods {
+    public void timeInt(int reps) {}
+    public void timeLong(long reps) {}
+    public void timeWithBlackhole(int reps, Blackhole bh) {}
+    public void timeNoReps() {}
+    public void timeOnlyBlackhole(Blackhole bh) {}
+    public void timeBlackholeNotLast(Blackhole bh, int reps) {}
+  }
+}
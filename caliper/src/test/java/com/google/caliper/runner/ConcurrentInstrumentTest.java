@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.runner;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.api.Blackhole;
+import com.google.caliper.bridge.StartMeasurementLogMessage;
+import com.google.caliper.bridge.StopMeasurementLogMessage;
+import com.google.caliper.config.InvalidConfigurationException;
+import com.google.caliper.model.Measurement;
+import com.google.caliper.model.Value;
+import com.google.caliper.runner.ConcurrentInstrument.ConcurrentMeasurementCollector;
+import com.google.caliper.runner.Instrument.Instrumentation;
+import com.google.caliper.util.ShortDuration;
+import com.google.caliper.worker.ConcurrentWorker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.lang.reflect.Method;
+
+/**
+ * Tests {@link ConcurrentInstrument}.
+ */
+@RunWith(JUnit4.class)
+public class ConcurrentInstrumentTest {
+  private ConcurrentInstrument instrument;
+
+  @Before public void createInstrument() {
+    this.instrument = new ConcurrentInstrument();
+    instrument.setOptions(ImmutableMap.of("threads", "2"));
+  }
+
+  @Test public void createInstrumentation() throws Exception {
+    Method benchmarkMethod = ConcurrentBenchmark.class.getDeclaredMethod("reps", long.class);
+    Instrumentation instrumentation = instrument.createInstrumentation(benchmarkMethod);
+    assertEquals(benchmarkMethod, instrumentation.benchmarkMethod());
+    assertEquals(ConcurrentWorker.class, instrumentation.workerClass());
+  }
+
+  @Test public void createInstrumentation_withStateAndBlackhole() throws Exception {
+    Method benchmarkMethod = ConcurrentBenchmark.class.getDeclaredMethod(
+        "withState", int.class, ThreadState.class, Blackhole.class);
+    instrument.createInstrumentation(benchmarkMethod).dryRun(new ConcurrentBenchmark());
+    assertEquals(ThreadState.class, ConcurrentWorker.threadStateType(benchmarkMethod));
+  }
+
+  @Test public void createInstrumentation_noReps() throws Exception {
+    assertInvalid(ConcurrentBenchmark.class.getDeclaredMethod("noReps"));
+  }
+
+  @Test public void createInstrumentation_primitiveState() throws Exception {
+    assertInvalid(
+        ConcurrentBenchmark.class.getDeclaredMethod("primitiveState", long.class, int.class));
+  }
+
+  @Test public void createInstrumentation_stateWithoutDefaultConstructor() throws Exception {
+    assertInvalid(ConcurrentBenchmark.class.getDeclaredMethod(
+        "stateWithoutDefaultConstructor", long.class, Integer.class));
+  }
+
+  @Test public void threadCount() {
+    ConcurrentInstrument instrument = new ConcurrentInstrument(6);
+    instrument.setOptions(ImmutableMap.of("threads", "0", "timingInterval", "500ms",
+        "gcBeforeEach", "false"));
+    assertEquals(6, instrument.threadCount());
+    instrument.setOptions(ImmutableMap.of("threads", "2", "timingInterval", "500ms",
+        "gcBeforeEach", "false"));
+    assertEquals(2, instrument.threadCount());
+  }
+
+  @Test public void workerOptions_resolveThreadCount() throws Exception {
+    ConcurrentInstrument instrument = new ConcurrentInstrument(6);
+    instrument.setOptions(ImmutableMap.of("threads", "0", "timingInterval", "500ms",
+        "gcBeforeEach", "false"));
+    ImmutableMap<String, String> workerOptions = instrument.createInstrumentation(
+        ConcurrentBenchmark.class.getDeclaredMethod("reps", long.class)).workerOptions();
+    assertEquals("6", workerOptions.get("threads"));
+    assertEquals(6,
+        ConcurrentWorker.threadCount(ImmutableMap.<String, String>of(), workerOptions));
+    assertEquals(8, ConcurrentWorker.threadCount(ImmutableMap.of("threads", "8"), workerOptions));
+  }
+
+  @Test public void setOptions_invalid() {
+    try {
+      instrument.setOptions(ImmutableMap.of("threads", "-1"));
+      fail();
+    } catch (InvalidConfigurationException expected) {}
+    try {
+      instrument.setOptions(ImmutableMap.of("measurements", "0"));
+      fail();
+    } catch (InvalidConfigurationException expected) {}
+  }
+
+  @Test public void visitor_collectsRoundsAfterWarmup() {
+    ConcurrentMeasurementCollector visitor = new ConcurrentMeasurementCollector(
+        2, 3, ShortDuration.of(1, SECONDS), ShortDuration.of(10, MINUTES));
+    assertFalse(visitor.isWarmupComplete());
+    reportRound(visitor, 2, SECONDS.toNanos(1));
+    assertTrue(visitor.isWarmupComplete());
+    for (int i = 0; i < 2; i++) {
+      reportRound(visitor, 2, 1000);
+      assertFalse(visitor.isDoneCollecting());
+    }
+    reportRound(visitor, 2, 1000);
+    assertTrue(visitor.isDoneCollecting());
+    // two runtime measurements and one throughput measurement per round
+    assertEquals(9, visitor.getMeasurements().size());
+  }
+
+  @Test public void visitor_missingThread() {
+    ConcurrentMeasurementCollector visitor = new ConcurrentMeasurementCollector(
+        4, 3, ShortDuration.of(1, SECONDS), ShortDuration.of(10, MINUTES));
+    try {
+      reportRound(visitor, 3, 1000);
+      fail();
+    } catch (TrialFailureException expected) {}
+  }
+
+  private void assertInvalid(Method benchmarkMethod) {
+    try {
+      instrument.createInstrumentation(benchmarkMethod);
+      fail();
+    } catch (InvalidBenchmarkException expected) {}
+  }
+
+  private static void reportRound(
+      ConcurrentMeasurementCollector visitor, int threads, long nanos) {
+    ImmutableList.Builder<Measurement> measurements = ImmutableList.builder();
+    for (int i = 0; i < threads; i++) {
+      measurements.add(new Measurement.Builder()
+          .value(Value.create(nanos, "ns"))
+          .weight(1000)
+          .description("runtime")
+          .build());
+    }
+    measurements.add(new Measurement.Builder()
+        .value(Value.create(1000.0 * threads * 1e9 / nanos, "ops/s"))
+        .weight(1)
+        .description("throughput")
+        .build());
+    visitor.visit(new StartMeasurementLogMessage());
+    visitor.visit(new StopMeasurementLogMessage(measurements.build()));
+  }
+
+  static final class ThreadState {
+    boolean setUp;
+
+    @BeforeExperiment void setUp() {
+      setUp = true;
+    }
+  }
+
+  @SuppressWarnings("unused")
+  static final class ConcurrentBenchmark {
+    @Benchmark void reps(long reps) {}
+    @Benchmark void withState(int reps, ThreadState state, Blackhole blackhole) {
+      if (!state.setUp) {
+        throw new AssertionError();
+      }
+    }
+    @Benchmark void noReps() {}
+    @Benchmark void primitiveState(long reps, int state) {}
+    @Benchmark void stateWithoutDefaultConstructor(long reps, Integer state) {}
+  }
+}
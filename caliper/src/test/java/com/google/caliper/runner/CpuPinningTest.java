@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.caliper.config.CaliperConfig;
+import com.google.caliper.config.InvalidConfigurationException;
+import com.google.caliper.runner.CpuPinning.Mode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+
+/**
+ * Tests {@link CpuPinning}.
+ */
+@RunWith(JUnit4.class)
+public class CpuPinningTest {
+  private static final ImmutableList<String> COMMAND = ImmutableList.of("java", "Main");
+
+  private File systemDevices;
+  /** Five CPUs without topology, so the runner gets cpu 0 and trials get 1-2 and 3-4. */
+  private CpuTopology topology;
+
+  @Before public void createTopology() {
+    systemDevices = Files.createTempDir();
+    topology = CpuTopology.read(systemDevices, CpuSet.parse("0-4"));
+  }
+
+  @After public void deleteSystemDevices() {
+    systemDevices.delete();
+  }
+
+  @Test public void off() {
+    CpuPinning pinning = new CpuPinning(new CaliperConfig(ImmutableMap.<String, String>of()));
+    assertFalse(pinning.isEnabled());
+    assertFalse(pinning.isValidating());
+    assertEquals(0, pinning.parallelism());
+    assertEquals(COMMAND, pinning.command(null, COMMAND));
+  }
+
+  @Test(expected = InvalidConfigurationException.class)
+  public void invalidMode() {
+    new CpuPinning(new CaliperConfig(ImmutableMap.of("runner.cpuPinning", "sometimes")));
+  }
+
+  @Test public void validate() {
+    CpuPinning pinning = new CpuPinning(Mode.VALIDATE, topology, 2);
+    assertTrue(pinning.isEnabled());
+    assertTrue(pinning.isValidating());
+    assertEquals(2, pinning.parallelism());
+  }
+
+  @Test public void tooFewSets() {
+    // only one set of 4 cores fits beside the runner's
+    CpuPinning pinning = new CpuPinning(Mode.ON, topology, 4);
+    assertFalse(pinning.isEnabled());
+    assertEquals(0, pinning.parallelism());
+    assertEquals(COMMAND, pinning.command(null, COMMAND));
+  }
+
+  @Test public void acquireAndRelease() throws Exception {
+    CpuPinning pinning = new CpuPinning(Mode.ON, topology, 2);
+    assertEquals(2, pinning.parallelism());
+    CpuSet first = pinning.acquire();
+    CpuSet second = pinning.acquire();
+    assertEquals(CpuSet.parse("1-2"), first);
+    assertEquals(CpuSet.parse("3-4"), second);
+    pinning.release(first);
+    assertEquals(first, pinning.acquire());
+  }
+
+  @Test public void command() {
+    CpuPinning pinning = new CpuPinning(Mode.ON, topology, 2);
+    assertEquals(ImmutableList.of("taskset", "-c", "3-4", "java", "Main"),
+        pinning.command(CpuSet.parse("3-4"), COMMAND));
+    // trials that aren't pinned may use all of the CPUs, rather than the runner's that they inherit
+    assertEquals(ImmutableList.of("taskset", "-c", "0-4", "java", "Main"),
+        pinning.command(null, COMMAND));
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Tests {@link CpuSet} and {@link CpuTopology}.
+ */
+@RunWith(JUnit4.class)
+public class CpuTopologyTest {
+  private File systemDevices;
+
+  @Before public void createSystemDevices() {
+    systemDevices = Files.createTempDir();
+  }
+
+  @After public void deleteSystemDevices() {
+    delete(systemDevices);
+  }
+
+  @Test public void cpuListRoundTrips() {
+    CpuSet cpus = CpuSet.parse(" 0-3,8, 10-11\n");
+    assertEquals(ImmutableList.of(0, 1, 2, 3, 8, 10, 11), cpus.cpus().asList());
+    assertEquals("0-3,8,10-11", cpus.toString());
+    assertEquals(cpus, CpuSet.parse(cpus.toString()));
+    assertTrue(CpuSet.parse("").isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidCpuList() {
+    CpuSet.parse("0-x");
+  }
+
+  @Test public void noTopology() {
+    CpuTopology topology = CpuTopology.read(systemDevices, CpuSet.parse("0-4"));
+    assertEquals(CpuSet.parse("0"), topology.runnerCpus());
+    assertEquals(CpuSet.parse("0-4"), topology.allCpus());
+    assertEquals(ImmutableList.of(CpuSet.parse("1-2"), CpuSet.parse("3-4")),
+        topology.partition(2));
+  }
+
+  @Test public void setsAreWholeCoresOnOneNode() throws IOException {
+    // two nodes of four cores, each with two threads: cpu N and N + 8 are siblings
+    writeNode(0, "0-3,8-11");
+    writeNode(1, "4-7,12-15");
+    for (int cpu = 0; cpu < 8; cpu++) {
+      writeSiblings(cpu, cpu + "," + (cpu + 8));
+      writeSiblings(cpu + 8, cpu + "," + (cpu + 8));
+    }
+    CpuTopology topology = CpuTopology.read(systemDevices, CpuSet.parse("0-15"));
+    assertEquals(CpuSet.parse("0,8"), topology.runnerCpus());
+    assertEquals(CpuSet.parse("0-15"), topology.allCpus());
+    // node 0 has three cores besides the runner's, so the last one is left idle
+    assertEquals(
+        ImmutableList.of(
+            CpuSet.parse("1-2,9-10"), CpuSet.parse("4-5,12-13"), CpuSet.parse("6-7,14-15")),
+        topology.partition(2));
+    assertEquals(ImmutableList.of(CpuSet.parse("4-7,12-15")), topology.partition(4));
+  }
+
+  @Test public void onlyAllowedCpus() throws IOException {
+    writeNode(0, "0-7");
+    for (int cpu = 0; cpu < 8; cpu++) {
+      writeSiblings(cpu, (cpu & ~1) + "-" + (cpu | 1));
+    }
+    CpuTopology topology = CpuTopology.read(systemDevices, CpuSet.parse("2-7"));
+    assertEquals(CpuSet.parse("2-3"), topology.runnerCpus());
+    assertEquals(ImmutableList.of(CpuSet.parse("4-5"), CpuSet.parse("6-7")),
+        topology.partition(1));
+  }
+
+  private void writeNode(int node, String cpuList) throws IOException {
+    write(new File(systemDevices, "node/node" + node + "/cpulist"), cpuList);
+  }
+
+  private void writeSiblings(int cpu, String cpuList) throws IOException {
+    write(new File(systemDevices, "cpu/cpu" + cpu + "/topology/thread_siblings_list"), cpuList);
+  }
+
+  private static void write(File file, String content) throws IOException {
+    Files.createParentDirs(file);
+    Files.write(content + "\n", file, Charsets.UTF_8);
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}
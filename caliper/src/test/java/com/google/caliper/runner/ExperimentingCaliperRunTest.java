@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.runner;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.caliper.Benchmark;
+import com.google.caliper.api.ResultProcessor;
+import com.google.caliper.config.VmConfig;
+import com.google.caliper.model.BenchmarkSpec;
+import com.google.caliper.model.Host;
+import com.google.caliper.model.Measurement;
+import com.google.caliper.model.Run;
+import com.google.caliper.model.Scenario;
+import com.google.caliper.model.Trial;
+import com.google.caliper.model.Value;
+import com.google.caliper.model.VmSpec;
+import com.google.caliper.platform.jvm.JvmPlatform;
+import com.google.caliper.util.ShortDuration;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.joda.time.Instant;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+import javax.annotation.Nullable;
+
+/**
+ * Tests how {@link ExperimentingCaliperRun} schedules trials.
+ */
+@RunWith(JUnit4.class)
+public class ExperimentingCaliperRunTest {
+  private final List<String> started = new CopyOnWriteArrayList<String>();
+  private File caliperDirectory;
+  private TrialCostModel costModel;
+  private RuntimeInstrument instrument;
+  private ListeningExecutorService executor;
+  private ListeningExecutorService pinnedExecutor;
+
+  @Before public void setUp() {
+    caliperDirectory = Files.createTempDir();
+    costModel = new TrialCostModel(new File(caliperDirectory, "trial-durations.properties"), 1);
+    instrument = new RuntimeInstrument(ShortDuration.of(100, NANOSECONDS), new JvmPlatform());
+    instrument.setOptions(ImmutableMap.<String, String>of());
+    executor = singleThreadExecutor("parallel");
+    pinnedExecutor = singleThreadExecutor("pinned");
+  }
+
+  @After public void tearDown() {
+    executor.shutdownNow();
+    pinnedExecutor.shutdownNow();
+    caliperDirectory.delete();
+  }
+
+  @Test public void scheduleTrials_parallelThenPinnedThenSerial() throws Exception {
+    List<ScheduledTrial> trials = Lists.newArrayList(
+        trial("serialShort", 1, TrialSchedulingPolicy.SERIAL),
+        trial("pinnedShort", 2, TrialSchedulingPolicy.PINNED),
+        trial("parallelShort", 1, TrialSchedulingPolicy.PARALLEL),
+        trial("serialLong", 4, TrialSchedulingPolicy.SERIAL),
+        trial("pinnedLong", 5, TrialSchedulingPolicy.PINNED),
+        trial("parallelLong", 3, TrialSchedulingPolicy.PARALLEL));
+    Futures.allAsList(
+        ExperimentingCaliperRun.scheduleTrials(trials, costModel, executor, pinnedExecutor))
+        .get(10, SECONDS);
+    // each policy's trials start longest first, and the pinned ones on the pinned executor
+    assertEquals(
+        ImmutableList.of(
+            "parallelLong on parallel",
+            "parallelShort on parallel",
+            "pinnedLong on pinned",
+            "pinnedShort on pinned",
+            "serialLong on parallel",
+            "serialShort on parallel"),
+        started);
+  }
+
+  @Test public void scheduleTrials_failuresDontStopLaterTrials() throws Exception {
+    List<ScheduledTrial> trials = Lists.newArrayList(
+        failingTrial("parallel", TrialSchedulingPolicy.PARALLEL),
+        failingTrial("pinned", TrialSchedulingPolicy.PINNED),
+        trial("serial", 1, TrialSchedulingPolicy.SERIAL));
+    Futures.successfulAsList(
+        ExperimentingCaliperRun.scheduleTrials(trials, costModel, executor, pinnedExecutor))
+        .get(10, SECONDS);
+    assertEquals(
+        ImmutableList.of("parallel on parallel", "pinned on pinned", "serial on parallel"),
+        started);
+  }
+
+  @Test public void validatingRun_reportsOneTrialPerScenario() throws Exception {
+    PinningValidation validation = new PinningValidation();
+    Experiment validated = experiment("validated");
+    Experiment twinFails = experiment("twinFails");
+    List<ScheduledTrial> trials = Lists.newArrayList(
+        resultTrial(validated, "1-2", 110, TrialSchedulingPolicy.PINNED),
+        ExperimentingCaliperRun.validationTwin(
+            resultTrial(validated, null, 100, TrialSchedulingPolicy.SERIAL), validation),
+        resultTrial(twinFails, "3-4", 100, TrialSchedulingPolicy.PINNED),
+        ExperimentingCaliperRun.validationTwin(
+            failingTrial("twin", TrialSchedulingPolicy.SERIAL), validation));
+    final List<Trial> processed = Lists.newArrayList();
+    ResultProcessor resultProcessor = new ResultProcessor() {
+      @Override public void processTrial(Trial trial) {
+        processed.add(trial);
+      }
+
+      @Override public void close() {}
+    };
+    StringWriter console = new StringWriter();
+    ConsoleOutput output =
+        new ConsoleOutput(new PrintWriter(console), 2, Stopwatch.createStarted());
+    for (TrialResult result : Futures.allAsList(
+        ExperimentingCaliperRun.scheduleTrials(trials, costModel, executor, pinnedExecutor))
+        .get(10, SECONDS)) {
+      if (result != null) {
+        validation.processTrial(result);
+        ExperimentingCaliperRun.reportTrial(
+            result, output, ImmutableList.of(resultProcessor));
+      }
+    }
+
+    // only the pinned trials are reported, but the validation compares them with their twins
+    assertEquals(2, processed.size());
+    for (Trial trial : processed) {
+      assertTrue(trial.cpuSet().isPresent());
+    }
+    assertTrue(console.toString(), console.toString().contains("Trial Report (2 of 2)"));
+    StringWriter validationOutput = new StringWriter();
+    validation.print(new PrintWriter(validationOutput));
+    assertTrue(validationOutput.toString(), validationOutput.toString().contains(
+        "runtime: pinned median=110.00, serial median=100.00 (+10.00%)"));
+    assertFalse(validationOutput.toString(), validationOutput.toString().contains("twinFails"));
+  }
+
+  private ScheduledTrial trial(final String name, long seconds, TrialSchedulingPolicy policy)
+      throws Exception {
+    Experiment experiment = experiment(name);
+    costModel.record(experiment, SECONDS.toNanos(seconds));
+    return new ScheduledTrial(experiment, new Callable<TrialResult>() {
+      @Override public TrialResult call() {
+        started.add(name + " on " + threadName());
+        return null;
+      }
+    }, policy, new TrialProgress());
+  }
+
+  private ScheduledTrial failingTrial(final String name, TrialSchedulingPolicy policy)
+      throws Exception {
+    return new ScheduledTrial(experiment(name), new Callable<TrialResult>() {
+      @Override public TrialResult call() {
+        started.add(name + " on " + threadName());
+        throw new TrialFailureException(name);
+      }
+    }, policy, new TrialProgress());
+  }
+
+  /**
+   * Returns a trial whose result is a runtime of {@code nanosPerRep}, measured on {@code cpuSet}
+   * or serially if it is {@code null}.
+   */
+  private ScheduledTrial resultTrial(final Experiment experiment, @Nullable final String cpuSet,
+      final double nanosPerRep, TrialSchedulingPolicy policy) {
+    return new ScheduledTrial(experiment, new Callable<TrialResult>() {
+      @Override public TrialResult call() {
+        Trial.Builder trial = new Trial.Builder(UUID.randomUUID())
+            .run(new Run.Builder(UUID.randomUUID()).label("test").startTime(Instant.now()))
+            .instrumentSpec(instrument.getSpec())
+            .scenario(new Scenario.Builder()
+                .host(new Host.Builder())
+                .vmSpec(new VmSpec.Builder())
+                .benchmarkSpec(new BenchmarkSpec.Builder()
+                    .className(TestBenchmark.class.getName())
+                    .methodName("time")))
+            .addMeasurement(new Measurement.Builder()
+                .value(Value.create(nanosPerRep * 1000, "ns"))
+                .weight(1000)
+                .description("runtime"));
+        if (cpuSet != null) {
+          trial.cpuSet(cpuSet);
+        }
+        return new TrialResult(trial.build(), experiment, ImmutableList.<String>of());
+      }
+    }, policy, new TrialProgress());
+  }
+
+  private Experiment experiment(String name) throws Exception {
+    return new Experiment(
+        instrument.createInstrumentation(TestBenchmark.class.getDeclaredMethod("time", int.class)),
+        ImmutableMap.of("name", name),
+        new VirtualMachine("foo-jvm", new VmConfig(
+            new File("foo"), ImmutableList.<String>of(), new File("java"), new JvmPlatform())));
+  }
+
+  private static String threadName() {
+    String name = Thread.currentThread().getName();
+    return name.substring(0, name.indexOf('-'));
+  }
+
+  private static ListeningExecutorService singleThreadExecutor(String name) {
+    return MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setNameFormat(name + "-%d").build()));
+  }
+
+  static final class TestBenchmark {
+    @Benchmark void time(int reps) {}
+  }
+}
@@ -17,6 +17,8 @@ package com.google.caliper.runner;
 import com.google.caliper.bridge.LogMessage;
 import com.google.caliper.bridge.LogMessageVisitor;
 import com.google.caliper.bridge.OpenedSocket;
+import com.google.caliper.bridge.StartupAnnounceMessage;
+import com.google.caliper.bridge.WorkerSpec;
 import com.google.caliper.config.CaliperConfig;
 import com.google.caliper.config.InvalidConfigurationException;
 import com.google.caliper.platform.Platform;
@@ -31,6 +33,7 @@ import java.net.InetAddress;
 import java.net.Socket;
 import java.util.Collections;
 import java.util.List;
+import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 
 import javax.annotation.concurrent.GuardedBy;
@@ -192,4 +195,24 @@ final class FakeWorkers {
       }
     }
   }
+
+  /**
+   * Behaves like {@link com.google.caliper.worker.WorkerMain} up to the point where it receives its
+   * spec: it connects to the port given as the last argument, announces itself with the id given
+   * as the second to last argument and then echoes the trial id of the spec it is sent.
+   */
+  static final class AnnouncingClient {
+    public static void main(String[] args) throws Exception {
+      UUID workerId = UUID.fromString(args[args.length - 2]);
+      int port = Integer.parseInt(args[args.length - 1]);
+      OpenedSocket openedSocket = OpenedSocket.fromSocket(
+          new Socket(InetAddress.getLocalHost(), port));
+      OpenedSocket.Writer writer = openedSocket.writer();
+      writer.write(new StartupAnnounceMessage(workerId));
+      writer.flush();
+      WorkerSpec spec = (WorkerSpec) openedSocket.reader().read();
+      writer.write(new DummyLogMessage(spec.trialId.toString()));
+      writer.close();
+    }
+  }
 }
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.caliper.api.Footprint;
+import com.google.caliper.bridge.StopMeasurementLogMessage;
+import com.google.caliper.config.InvalidConfigurationException;
+import com.google.caliper.model.Measurement;
+import com.google.caliper.model.Value;
+import com.google.caliper.runner.FootprintInstrument.FootprintMeasurementCollector;
+import com.google.caliper.runner.Instrument.Instrumentation;
+import com.google.caliper.worker.FootprintWorker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests {@link FootprintInstrument}.
+ */
+@RunWith(JUnit4.class)
+public class FootprintInstrumentTest {
+  private final FootprintInstrument instrument = new FootprintInstrument();
+
+  @Test public void isBenchmarkMethod() throws Exception {
+    assertTrue(instrument.isBenchmarkMethod(
+        FootprintBenchmark.class.getDeclaredMethod("list")));
+    assertFalse(instrument.isBenchmarkMethod(
+        FootprintBenchmark.class.getDeclaredMethod("notAFootprint")));
+  }
+
+  @Test public void createInstrumentation() throws Exception {
+    Method benchmarkMethod = FootprintBenchmark.class.getDeclaredMethod("list");
+    Instrumentation instrumentation = instrument.createInstrumentation(benchmarkMethod);
+    assertEquals(benchmarkMethod, instrumentation.benchmarkMethod());
+    assertEquals(FootprintWorker.class, instrumentation.workerClass());
+  }
+
+  @Test public void createInstrumentation_invalidMethods() throws Exception {
+    assertInvalid(FootprintBenchmark.class.getDeclaredMethod("withParameter", int.class));
+    assertInvalid(FootprintBenchmark.class.getDeclaredMethod("primitive"));
+    assertInvalid(FootprintBenchmark.class.getDeclaredMethod("staticList"));
+  }
+
+  @Test public void dryRun_null() throws Exception {
+    Method benchmarkMethod = FootprintBenchmark.class.getDeclaredMethod("nothing");
+    try {
+      instrument.createInstrumentation(benchmarkMethod).dryRun(new FootprintBenchmark());
+      fail();
+    } catch (InvalidBenchmarkException expected) {}
+  }
+
+  @Test public void setOptions_invalidMeasurements() {
+    try {
+      instrument.setOptions(ImmutableMap.of("measurements", "0"));
+      fail();
+    } catch (InvalidConfigurationException expected) {}
+  }
+
+  @Test public void setOptions_invalidBreakdown() {
+    try {
+      instrument.setOptions(ImmutableMap.of("measurements", "1", "breakdown", "-1"));
+      fail();
+    } catch (InvalidConfigurationException expected) {}
+  }
+
+  @Test public void visitor_collectsEveryGraph() {
+    FootprintMeasurementCollector visitor = new FootprintMeasurementCollector(2);
+    report(visitor, 10);
+    assertFalse(visitor.isDoneCollecting());
+    report(visitor, 10);
+    assertTrue(visitor.isDoneCollecting());
+    assertEquals(8, visitor.getMeasurements().size());
+    assertTrue(visitor.getMessages().isEmpty());
+  }
+
+  @Test public void visitor_warnsAboutVaryingGraphs() {
+    FootprintMeasurementCollector visitor = new FootprintMeasurementCollector(3);
+    report(visitor, 10);
+    report(visitor, 11);
+    report(visitor, 12);
+    assertEquals(1, visitor.getMessages().size());
+  }
+
+  private static void report(FootprintMeasurementCollector visitor, int objects) {
+    ImmutableList.Builder<Measurement> measurements = ImmutableList.builder();
+    for (String description : ImmutableList.of("objects", "references", "primitives", "bytes")) {
+      measurements.add(new Measurement.Builder()
+          .value(Value.create(objects, description.equals("bytes") ? "B" : ""))
+          .weight(1)
+          .description(description)
+          .build());
+    }
+    visitor.visit(new StopMeasurementLogMessage(measurements.build()));
+  }
+
+  private void assertInvalid(Method benchmarkMethod) {
+    try {
+      instrument.createInstrumentation(benchmarkMethod);
+      fail();
+    } catch (InvalidBenchmarkException expected) {}
+  }
+
+  @SuppressWarnings("unused")
+  static final class FootprintBenchmark {
+    @Footprint List<String> list() {
+      return new ArrayList<String>();
+    }
+    @Footprint Object nothing() {
+      return null;
+    }
+    @Footprint List<String> withParameter(int size) {
+      return new ArrayList<String>(size);
+    }
+    @Footprint int primitive() {
+      return 0;
+    }
+    @Footprint static List<String> staticList() {
+      return new ArrayList<String>();
+    }
+    List<String> notAFootprint() {
+      return new ArrayList<String>();
+    }
+  }
+}
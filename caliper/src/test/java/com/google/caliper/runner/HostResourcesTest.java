@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.caliper.config.CaliperConfig;
+import com.google.caliper.config.InvalidConfigurationException;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Tests {@link HostResources}.
+ */
+@RunWith(JUnit4.class)
+public class HostResourcesTest {
+  private static final long MB = 1024 * 1024;
+  private static final CaliperConfig AUTO =
+      new CaliperConfig(ImmutableMap.of("runner.maxParallelism", "auto"));
+
+  private File systemFiles;
+  private File memInfo;
+  private File cgroupRoot;
+
+  @Before public void createSystemFiles() throws IOException {
+    systemFiles = Files.createTempDir();
+    memInfo = new File(systemFiles, "meminfo");
+    cgroupRoot = new File(systemFiles, "cgroup");
+    // 8GB in all, of which 4GB is available
+    write(memInfo, "MemTotal:        8388608 kB\nMemFree:  1024 kB\nMemAvailable:    4194304 kB\n");
+  }
+
+  @After public void deleteSystemFiles() {
+    delete(systemFiles);
+  }
+
+  @Test public void parseSize() {
+    assertEquals(3L * 1024 * MB, HostResources.parseSize("3g"));
+    assertEquals(512 * MB, HostResources.parseSize("512M"));
+    assertEquals(64 * 1024, HostResources.parseSize("64k"));
+    assertEquals(1000, HostResources.parseSize("1000"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void parseSize_invalid() {
+    HostResources.parseSize("lots");
+  }
+
+  @Test public void parallelism() {
+    assertEquals(7, new HostResources(AUTO, memInfo, cgroupRoot, 8).parallelism());
+    assertEquals(1, new HostResources(AUTO, memInfo, cgroupRoot, 1).parallelism());
+    CaliperConfig three = new CaliperConfig(ImmutableMap.of("runner.maxParallelism", "3"));
+    assertEquals(3, new HostResources(three, memInfo, cgroupRoot, 8).parallelism());
+  }
+
+  @Test(expected = InvalidConfigurationException.class)
+  public void parallelism_invalid() {
+    new HostResources(new CaliperConfig(ImmutableMap.of("runner.maxParallelism", "0")),
+        memInfo, cgroupRoot, 8);
+  }
+
+  @Test public void cgroupV2CpuQuota() throws IOException {
+    write(new File(cgroupRoot, "cpu.max"), "250000 100000\n");
+    assertEquals(3, new HostResources(AUTO, memInfo, cgroupRoot, 8).cpus());
+    write(new File(cgroupRoot, "cpu.max"), "max 100000\n");
+    assertEquals(8, new HostResources(AUTO, memInfo, cgroupRoot, 8).cpus());
+  }
+
+  @Test public void cgroupV1CpuQuota() throws IOException {
+    write(new File(cgroupRoot, "cpu,cpuacct/cpu.cfs_quota_us"), "200000\n");
+    write(new File(cgroupRoot, "cpu,cpuacct/cpu.cfs_period_us"), "100000\n");
+    assertEquals(2, new HostResources(AUTO, memInfo, cgroupRoot, 8).cpus());
+    write(new File(cgroupRoot, "cpu,cpuacct/cpu.cfs_quota_us"), "-1\n");
+    assertEquals(8, new HostResources(AUTO, memInfo, cgroupRoot, 8).cpus());
+  }
+
+  @Test public void workerBytes() {
+    HostResources resources = new HostResources(AUTO, memInfo, cgroupRoot, 8);
+    // a quarter of the 8GB by default
+    assertEquals(2304 * MB, resources.workerBytes(ImmutableList.of("java", "Main")));
+    assertEquals(1280 * MB, resources.workerBytes(ImmutableList.of("java", "-Xmx2g", "-Xmx1g")));
+    assertEquals(768 * MB, resources.workerBytes(ImmutableList.of("-XX:MaxHeapSize=512m")));
+    assertEquals(1280 * MB, resources.workerBytes(ImmutableList.of("-Xms1g", "-Xmx256m")));
+    // no more than the 3.5GB that there is
+    assertEquals(3584 * MB, resources.workerBytes(ImmutableList.of("-Xms4g", "-Xmx4g")));
+  }
+
+  @Test public void reserve() throws Exception {
+    HostResources resources = new HostResources(AUTO, memInfo, cgroupRoot, 8);
+    // 4GB available, less 512MB of headroom
+    assertTrue(resources.tryReserve(2048 * MB));
+    assertFalse(resources.tryReserve(2048 * MB));
+    assertTrue(resources.tryReserve(1536 * MB));
+    resources.release(2048 * MB);
+    resources.reserve(2048 * MB);
+    assertFalse(resources.tryReserve(1));
+  }
+
+  @Test public void cgroupMemoryLimit() throws IOException {
+    write(new File(cgroupRoot, "memory.max"), Long.toString(3072 * MB));
+    write(new File(cgroupRoot, "memory.current"), Long.toString(1024 * MB));
+    HostResources resources = new HostResources(AUTO, memInfo, cgroupRoot, 8);
+    // a quarter of the 3GB limit by default
+    assertEquals(1024 * MB, resources.workerBytes(ImmutableList.of("java", "Main")));
+    // 2GB left in the cgroup, less 512MB of headroom
+    assertTrue(resources.tryReserve(1536 * MB));
+    assertFalse(resources.tryReserve(1));
+  }
+
+  @Test public void unknownMemory() {
+    HostResources resources =
+        new HostResources(AUTO, new File(systemFiles, "missing"), cgroupRoot, 8);
+    assertEquals(256 * MB, resources.workerBytes(ImmutableList.of("java", "Main")));
+    assertTrue(resources.tryReserve(Long.MAX_VALUE / 2));
+  }
+
+  private static void write(File file, String content) throws IOException {
+    Files.createParentDirs(file);
+    Files.write(content, file, Charsets.UTF_8);
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests {@link MeasurementTarget}.
+ */
+@RunWith(JUnit4.class)
+public class MeasurementTargetTest {
+  @Test public void precision() {
+    // mean 3, standard deviation 1.581, t(0.975, 4) = 2.776
+    assertEquals(0.6544, MeasurementTarget.precision(new double[] {1, 2, 3, 4, 5}), 0.0001);
+  }
+
+  @Test public void precision_identicalValues() {
+    assertEquals(0.0, MeasurementTarget.precision(new double[] {7, 7, 7}), 0.0);
+  }
+
+  @Test public void precision_tooFewValues() {
+    assertTrue(Double.isNaN(MeasurementTarget.precision(new double[] {7})));
+  }
+
+  @Test public void fixed() {
+    MeasurementTarget target = MeasurementTarget.fixed(9);
+    assertFalse(target.isSatisfied(8, 0.0));
+    assertTrue(target.isSatisfied(9, Double.NaN));
+    assertEquals(6, target.measurementsStillNeeded(3, 0.1));
+    assertEquals(0, target.measurementsStillNeeded(9, 0.1));
+  }
+
+  @Test public void precisionTarget() {
+    MeasurementTarget target = MeasurementTarget.precision(0.01, 5, 100);
+    assertFalse(target.isSatisfied(4, 0.0));
+    assertFalse(target.isSatisfied(5, Double.NaN));
+    assertFalse(target.isSatisfied(5, 0.02));
+    assertTrue(target.isSatisfied(5, 0.01));
+    assertTrue(target.isSatisfied(100, 0.5));
+  }
+
+  @Test public void precisionTarget_measurementsStillNeeded() {
+    MeasurementTarget target = MeasurementTarget.precision(0.01, 5, 100);
+    assertEquals(3, target.measurementsStillNeeded(2, 0.5));
+    // twice the target precision needs four times the measurements
+    assertEquals(30, target.measurementsStillNeeded(10, 0.02));
+    assertEquals(10, target.measurementsStillNeeded(90, 0.5));
+    assertEquals(0, target.measurementsStillNeeded(10, 0.005));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void precisionTarget_maxLessThanMin() {
+    MeasurementTarget.precision(0.01, 10, 5);
+  }
+}
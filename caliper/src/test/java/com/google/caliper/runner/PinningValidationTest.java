@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.runner;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.junit.Assert.assertEquals;
+
+import com.google.caliper.Benchmark;
+import com.google.caliper.config.VmConfig;
+import com.google.caliper.model.BenchmarkSpec;
+import com.google.caliper.model.Host;
+import com.google.caliper.model.InstrumentSpec;
+import com.google.caliper.model.Measurement;
+import com.google.caliper.model.Run;
+import com.google.caliper.model.Scenario;
+import com.google.caliper.model.Trial;
+import com.google.caliper.model.Value;
+import com.google.caliper.model.VmSpec;
+import com.google.caliper.platform.jvm.JvmPlatform;
+import com.google.caliper.util.ShortDuration;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Tests {@link PinningValidation}.
+ */
+@RunWith(JUnit4.class)
+public class PinningValidationTest {
+  private static final Run RUN =
+      new Run.Builder(UUID.randomUUID()).label("test").startTime(Instant.now()).build();
+
+  private RuntimeInstrument instrument;
+  private PinningValidation validation;
+
+  @Before public void setUp() {
+    instrument = new RuntimeInstrument(ShortDuration.of(100, NANOSECONDS), new JvmPlatform());
+    instrument.setOptions(ImmutableMap.<String, String>of());
+    validation = new PinningValidation();
+  }
+
+  @Test public void comparesMedians() throws Exception {
+    Experiment both = experiment("both");
+    Experiment pinnedOnly = experiment("pinnedOnly");
+    validation.processTrial(result(both, "1-2", 110, 100, 120));
+    validation.processTrial(result(both, "3-4", 130));
+    validation.processTrial(result(both, null, 100, 100));
+    validation.processTrial(result(both, null, 100));
+    validation.processTrial(result(pinnedOnly, "1-2", 500));
+    assertEquals(
+        ImmutableList.of(
+            "Pinned-parallel vs. serial trials:",
+            "  " + both,
+            "    runtime: pinned median=115.00, serial median=100.00 (+15.00%)",
+            "  Largest difference: 15.00%, mean absolute difference: 15.00%"),
+        print());
+  }
+
+  @Test public void largestAndMeanDifference() throws Exception {
+    Experiment faster = experiment("faster");
+    Experiment slower = experiment("slower");
+    validation.processTrial(result(faster, "1-2", 90));
+    validation.processTrial(result(faster, null, 100));
+    validation.processTrial(result(slower, "3-4", 130));
+    validation.processTrial(result(slower, null, 100));
+    assertEquals(
+        ImmutableList.of(
+            "Pinned-parallel vs. serial trials:",
+            "  " + faster,
+            "    runtime: pinned median=90.00, serial median=100.00 (-10.00%)",
+            "  " + slower,
+            "    runtime: pinned median=130.00, serial median=100.00 (+30.00%)",
+            "  Largest difference: 30.00%, mean absolute difference: 20.00%"),
+        print());
+  }
+
+  @Test public void nothingToCompare() throws Exception {
+    validation.processTrial(result(experiment("pinnedOnly"), "1-2", 100));
+    validation.processTrial(result(experiment("serialOnly"), null, 100));
+    assertEquals(
+        ImmutableList.of(
+            "Pinned-parallel vs. serial trials:",
+            "  No experiment completed both pinned and serially."),
+        print());
+  }
+
+  private List<String> print() {
+    StringWriter output = new StringWriter();
+    validation.print(new PrintWriter(output));
+    return Arrays.asList(output.toString().split("\\r?\\n"));
+  }
+
+  private Experiment experiment(String name) throws Exception {
+    return new Experiment(
+        instrument.createInstrumentation(TestBenchmark.class.getDeclaredMethod("time", int.class)),
+        ImmutableMap.of("name", name),
+        new VirtualMachine("foo-jvm", new VmConfig(
+            new File("foo"), ImmutableList.<String>of(), new File("java"), new JvmPlatform())));
+  }
+
+  /**
+   * Returns the result of a trial of {@code experiment} that ran on {@code cpuSet}, or serially if
+   * it is {@code null}, with a runtime measurement of each of {@code nanosPerRep}.
+   */
+  private static TrialResult result(Experiment experiment, String cpuSet, double... nanosPerRep) {
+    Trial.Builder trial = new Trial.Builder(UUID.randomUUID())
+        .run(RUN)
+        .instrumentSpec(new InstrumentSpec.Builder().className(RuntimeInstrument.class.getName()))
+        .scenario(new Scenario.Builder()
+            .host(new Host.Builder())
+            .vmSpec(new VmSpec.Builder())
+            .benchmarkSpec(new BenchmarkSpec.Builder()
+                .className(TestBenchmark.class.getName())
+                .methodName("time")));
+    for (double nanos : nanosPerRep) {
+      trial.addMeasurement(new Measurement.Builder()
+          .value(Value.create(nanos * 1000, "ns"))
+          .weight(1000)
+          .description("runtime"));
+    }
+    if (cpuSet != null) {
+      trial.cpuSet(cpuSet);
+    }
+    return new TrialResult(trial.build(), experiment, ImmutableList.<String>of());
+  }
+
+  static final class TestBenchmark {
+    @Benchmark void time(int reps) {}
+  }
+}
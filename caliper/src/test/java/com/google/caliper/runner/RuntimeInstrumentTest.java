@@ -16,6 +16,7 @@
 
 package com.google.caliper.runner;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -24,14 +25,28 @@ import static org.junit.Assert.fail;
 
 import com.google.caliper.Benchmark;
 import com.google.caliper.api.BeforeRep;
+import com.google.caliper.api.Blackhole;
 import com.google.caliper.api.Macrobenchmark;
+import com.google.caliper.bridge.HotspotLogMessage;
+import com.google.caliper.bridge.StartMeasurementLogMessage;
+import com.google.caliper.bridge.StopMeasurementLogMessage;
+import com.google.caliper.bridge.VmActivity;
+import com.google.caliper.config.InvalidConfigurationException;
+import com.google.caliper.model.LatencyHistogram;
+import com.google.caliper.model.Measurement;
+import com.google.caliper.model.Value;
+import com.google.caliper.platform.dalvik.DalvikPlatform;
+import com.google.caliper.platform.jvm.JvmPlatform;
 import com.google.caliper.runner.Instrument.Instrumentation;
+import com.google.caliper.runner.Instrument.MeasurementCollectingVisitor;
 import com.google.caliper.util.ShortDuration;
 import com.google.caliper.worker.MacrobenchmarkWorker;
 import com.google.caliper.worker.RuntimeWorker;
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.Uninterruptibles;
 
@@ -55,12 +70,15 @@ public class RuntimeInstrumentTest {
   private RuntimeInstrument instrument;
 
   @Before public void createInstrument() {
-    this.instrument = new RuntimeInstrument(ShortDuration.of(100, NANOSECONDS));
+    this.instrument =
+        new RuntimeInstrument(ShortDuration.of(100, NANOSECONDS), new JvmPlatform());
+    instrument.setOptions(ImmutableMap.<String, String>of());
   }
 
   @Test public void isBenchmarkMethod() {
     assertEquals(
-        ImmutableSet.of("macrobenchmark", "microbenchmark", "picobenchmark", "integerParam"),
+        ImmutableSet.of("macrobenchmark", "microbenchmark", "picobenchmark", "integerParam",
+            "macrobenchmarkWithBlackhole", "picobenchmarkWithBlackhole", "blackholeNotLast"),
         FluentIterable.from(Arrays.asList(RuntimeBenchmark.class.getDeclaredMethods()))
             .filter(new Predicate<Method>() {
               @Override public boolean apply(Method input) {
@@ -99,6 +117,54 @@ public class RuntimeInstrumentTest {
     assertEquals(RuntimeWorker.Pico.class, instrumentation.workerClass());
   }
 
+  @Test public void createInstrumentation_picobenchmarkWithBlackhole() throws Exception {
+    Method benchmarkMethod = RuntimeBenchmark.class.getDeclaredMethod(
+        "picobenchmarkWithBlackhole", long.class, Blackhole.class);
+    Instrumentation instrumentation = instrument.createInstrumentation(benchmarkMethod);
+    assertEquals(RuntimeWorker.Pico.class, instrumentation.workerClass());
+  }
+
+  @Test public void createInstrumentation_harnessedWithBlackhole() throws Exception {
+    instrument.setOptions(ImmutableMap.of("generateHarness", "true"));
+    Method benchmarkMethod =
+        RuntimeBenchmark.class.getDeclaredMethod("macrobenchmarkWithBlackhole", Blackhole.class);
+    Instrumentation instrumentation = instrument.createInstrumentation(benchmarkMethod);
+    assertEquals(RuntimeWorker.Harnessed.class, instrumentation.workerClass());
+  }
+
+  @Test public void createInstrumentation_blackholeNotLast() throws Exception {
+    Method benchmarkMethod = RuntimeBenchmark.class.getDeclaredMethod(
+        "blackholeNotLast", Blackhole.class, long.class);
+    try {
+      instrument.createInstrumentation(benchmarkMethod);
+      fail();
+    } catch (InvalidBenchmarkException expected) {}
+  }
+
+  @Test public void createInstrumentation_harnessed() throws Exception {
+    instrument.setOptions(ImmutableMap.of("generateHarness", "true"));
+    Method benchmarkMethod = RuntimeBenchmark.class.getDeclaredMethod("macrobenchmark");
+    Instrumentation instrumentation = instrument.createInstrumentation(benchmarkMethod);
+    assertEquals(benchmarkMethod, instrumentation.benchmarkMethod());
+    assertEquals(instrument, instrumentation.instrument());
+    assertEquals(RuntimeWorker.Harnessed.class, instrumentation.workerClass());
+  }
+
+  @Test public void createInstrumentation_harnessedExplicitMacrobenchmark() throws Exception {
+    instrument.setOptions(ImmutableMap.of("generateHarness", "true"));
+    Method benchmarkMethod = TestBenchmark.class.getDeclaredMethod("macro");
+    Instrumentation instrumentation = instrument.createInstrumentation(benchmarkMethod);
+    assertEquals(MacrobenchmarkWorker.class, instrumentation.workerClass());
+  }
+
+  @Test public void createInstrumentation_harnessedWithBeforeRep() throws Exception {
+    instrument.setOptions(ImmutableMap.of("generateHarness", "true"));
+    Method benchmarkMethod =
+        MacroBenchmarkWithLongBeforeRep.class.getDeclaredMethod("prettyFastMacroBenchmark");
+    Instrumentation instrumentation = instrument.createInstrumentation(benchmarkMethod);
+    assertEquals(MacrobenchmarkWorker.class, instrumentation.workerClass());
+  }
+
   @Test public void createInstrumentation_badParam() throws Exception {
     Method benchmarkMethod =
         RuntimeBenchmark.class.getDeclaredMethod("integerParam", Integer.class);
@@ -134,13 +200,306 @@ public class RuntimeInstrumentTest {
     } catch (IllegalArgumentException expected) {}
   }
 
+  @Test public void setOptions_warmupPolicyAndBatchWindow() {
+    instrument.setOptions(ImmutableMap.of("warmupPolicy", "Adaptive",
+        "measurementBatchWindow", "0"));
+    instrument.setOptions(ImmutableMap.of("warmupPolicy", "fixed",
+        "measurementBatchWindow", "100ms"));
+    assertInvalidOptions(ImmutableMap.of("warmupPolicy", "foo"));
+    assertInvalidOptions(ImmutableMap.of("measurementBatchWindow", "soon"));
+    assertInvalidOptions(ImmutableMap.of("measurementBatchWindow", "-1s"));
+  }
+
+  @Test public void setOptions_measurementTarget() {
+    instrument.setOptions(ImmutableMap.of("measurements", "9", "targetPrecision", "0",
+        "minMeasurements", "5", "maxMeasurements", "5"));
+    instrument.setOptions(ImmutableMap.of("targetPrecision", "0.01", "minMeasurements", "100"));
+    assertInvalidOptions(ImmutableMap.of("measurements", "0"));
+    assertInvalidOptions(ImmutableMap.of("measurements", "many"));
+    assertInvalidOptions(ImmutableMap.of("targetPrecision", "-0.1"));
+    assertInvalidOptions(ImmutableMap.of("targetPrecision", "NaN"));
+    assertInvalidOptions(ImmutableMap.of("targetPrecision", "one percent"));
+    assertInvalidOptions(ImmutableMap.of("minMeasurements", "0"));
+    assertInvalidOptions(ImmutableMap.of("maxMeasurements", "lots"));
+    assertInvalidOptions(ImmutableMap.of("minMeasurements", "10", "maxMeasurements", "9"));
+    // the default maximum is 100
+    assertInvalidOptions(ImmutableMap.of("minMeasurements", "101"));
+  }
+
+  @Test public void measurementBudget_noBatchWindow() throws Exception {
+    instrument.setOptions(ImmutableMap.<String, String>builder()
+        .putAll(measurementOptions("0"))
+        .put("warmup", "10ms")
+        .build());
+    MeasurementCollectingVisitor visitor = picobenchmarkVisitor();
+    reportMeasurement(visitor, MILLISECONDS.toNanos(1));
+    assertFalse(visitor.isWarmupComplete());
+    assertEquals(1, visitor.measurementBudget());
+  }
+
+  @Test public void measurementBudget_batchWindow() throws Exception {
+    instrument.setOptions(ImmutableMap.<String, String>builder()
+        .putAll(measurementOptions("100ms"))
+        .put("warmup", "10ms")
+        .build());
+    MeasurementCollectingVisitor visitor = picobenchmarkVisitor();
+    // nothing has been measured yet, so there's no basis for a budget
+    assertEquals(1, visitor.measurementBudget());
+
+    // 9ms of the 10ms warmup remains, so the budget stops at the end of warmup
+    reportMeasurement(visitor, MILLISECONDS.toNanos(1));
+    assertFalse(visitor.isWarmupComplete());
+    assertEquals(9, visitor.measurementBudget());
+    for (int i = 0; i < 9; i++) {
+      reportMeasurement(visitor, MILLISECONDS.toNanos(1));
+    }
+    assertTrue(visitor.isWarmupComplete());
+    assertTrue(visitor.getMeasurements().isEmpty());
+
+    // the budget now stops at the last of the 9 measurements
+    assertEquals(9, visitor.measurementBudget());
+    for (int i = 0; i < 6; i++) {
+      reportMeasurement(visitor, MILLISECONDS.toNanos(1));
+    }
+    assertEquals(6, visitor.getMeasurements().size());
+    assertEquals(3, visitor.measurementBudget());
+
+    // measurements that take longer make for smaller budgets
+    reportMeasurement(visitor, MILLISECONDS.toNanos(60));
+    assertEquals(1, visitor.measurementBudget());
+  }
+
+  @Test public void adaptiveWarmup_steadyState() throws Exception {
+    instrument.setOptions(ImmutableMap.<String, String>builder()
+        .putAll(measurementOptions("0"))
+        .put("warmup", "10s")
+        .put("warmupPolicy", "adaptive")
+        .build());
+    MeasurementCollectingVisitor visitor = picobenchmarkVisitor();
+    for (int i = 0; i < SteadyStateDetector.WINDOW_SIZE - 1; i++) {
+      reportMeasurement(visitor, MILLISECONDS.toNanos(1));
+      assertFalse(visitor.isWarmupComplete());
+    }
+    reportMeasurement(visitor, MILLISECONDS.toNanos(1));
+    assertTrue(visitor.isWarmupComplete());
+    assertEquals(1, visitor.getMessages().size());
+    assertTrue(visitor.getMessages().get(0).startsWith("INFO: Steady state was detected"));
+  }
+
+  @Test public void fixedWarmup_ignoresSteadyState() throws Exception {
+    instrument.setOptions(ImmutableMap.<String, String>builder()
+        .putAll(measurementOptions("0"))
+        .put("warmup", "10s")
+        .put("warmupPolicy", "fixed")
+        .build());
+    MeasurementCollectingVisitor visitor = picobenchmarkVisitor();
+    for (int i = 0; i < 2 * SteadyStateDetector.WINDOW_SIZE; i++) {
+      reportMeasurement(visitor, MILLISECONDS.toNanos(1));
+      assertFalse(visitor.isWarmupComplete());
+    }
+  }
+
+  @Test public void targetPrecision_stableMeasurements() throws Exception {
+    instrument.setOptions(ImmutableMap.<String, String>builder()
+        .putAll(measurementOptions("0"))
+        .put("warmup", "0")
+        .put("targetPrecision", "0.01")
+        .put("minMeasurements", "5")
+        .put("maxMeasurements", "100")
+        .build());
+    MeasurementCollectingVisitor visitor = picobenchmarkVisitor();
+    assertTrue(visitor.isWarmupComplete());
+    for (int i = 0; i < 4; i++) {
+      reportMeasurement(visitor, MILLISECONDS.toNanos(1));
+      assertFalse(visitor.isDoneCollecting());
+    }
+    reportMeasurement(visitor, MILLISECONDS.toNanos(1));
+    assertTrue(visitor.isDoneCollecting());
+    assertEquals(0.0, visitor.getPrecision().get(), 0.0);
+  }
+
+  @Test public void targetPrecision_noisyMeasurements() throws Exception {
+    instrument.setOptions(ImmutableMap.<String, String>builder()
+        .putAll(measurementOptions("0"))
+        .put("warmup", "0")
+        .put("targetPrecision", "0.01")
+        .put("minMeasurements", "5")
+        .put("maxMeasurements", "20")
+        .build());
+    MeasurementCollectingVisitor visitor = picobenchmarkVisitor();
+    assertTrue(visitor.isWarmupComplete());
+    for (int i = 0; i < 19; i++) {
+      reportMeasurement(visitor, MILLISECONDS.toNanos(1 + i % 2));
+      assertFalse(visitor.isDoneCollecting());
+    }
+    reportMeasurement(visitor, MILLISECONDS.toNanos(1));
+    // the maximum was reached without reaching the target precision
+    assertTrue(visitor.isDoneCollecting());
+    assertTrue(visitor.getPrecision().get() > 0.01);
+  }
+
+  @Test public void latencyHistogramsAreMergedAfterWarmup() throws Exception {
+    instrument.setOptions(ImmutableMap.<String, String>builder()
+        .putAll(measurementOptions("0"))
+        .put("warmup", "1ms")
+        .build());
+    MeasurementCollectingVisitor visitor = instrument.createInstrumentation(
+        RuntimeBenchmark.class.getDeclaredMethod("macrobenchmark"))
+        .getMeasurementCollectingVisitor();
+    LatencyHistogram.Recorder recorder = new LatencyHistogram.Recorder();
+    recorder.record(MILLISECONDS.toNanos(2));
+    LatencyHistogram warmupLatencies = recorder.toHistogram();
+    reportMeasurement(visitor, MILLISECONDS.toNanos(2), warmupLatencies);
+    assertTrue(visitor.isWarmupComplete());
+    recorder.reset();
+    recorder.record(MILLISECONDS.toNanos(1));
+    recorder.record(MILLISECONDS.toNanos(3));
+    LatencyHistogram latencies = recorder.toHistogram();
+    reportMeasurement(visitor, MILLISECONDS.toNanos(4), latencies);
+    reportMeasurement(visitor, MILLISECONDS.toNanos(4), latencies);
+    LatencyHistogram merged = visitor.getLatencyHistogram().get();
+    assertEquals(4, merged.totalCount());
+    assertEquals(MILLISECONDS.toNanos(1), merged.min());
+    assertEquals(MILLISECONDS.toNanos(3), merged.max());
+  }
+
+  @Test public void throughputMeasurementsDontCountTowardsTheTarget() throws Exception {
+    instrument.setOptions(ImmutableMap.<String, String>builder()
+        .putAll(measurementOptions("0"))
+        .put("warmup", "0")
+        .put("targetRate", "1000")
+        .build());
+    MeasurementCollectingVisitor visitor = instrument.createInstrumentation(
+        RuntimeBenchmark.class.getDeclaredMethod("macrobenchmark"))
+        .getMeasurementCollectingVisitor();
+    assertTrue(visitor.isWarmupComplete());
+    for (int i = 0; i < 9; i++) {
+      assertFalse(visitor.isDoneCollecting());
+      visitor.visit(new StartMeasurementLogMessage());
+      visitor.visit(new StopMeasurementLogMessage(ImmutableList.of(
+          new Measurement.Builder()
+              .value(Value.create(MILLISECONDS.toNanos(100), "ns"))
+              .weight(100)
+              .description("runtime")
+              .build(),
+          new Measurement.Builder()
+              .value(Value.create(1000, "ops/s"))
+              .weight(100)
+              .description("throughput")
+              .build())));
+    }
+    assertTrue(visitor.isDoneCollecting());
+    assertEquals(18, visitor.getMeasurements().size());
+  }
+
+  @Test public void measurementsOverlappingGcOrCompilationAreDiscarded() throws Exception {
+    instrument.setOptions(ImmutableMap.<String, String>builder()
+        .putAll(measurementOptions("0"))
+        .put("warmup", "0")
+        .build());
+    MeasurementCollectingVisitor visitor = picobenchmarkVisitor();
+    assertTrue(visitor.isWarmupComplete());
+    reportMeasurement(visitor, 1000, new VmActivity(1, 5, 0));
+    reportMeasurement(visitor, 1000, new VmActivity(0, 0, 2));
+    assertEquals(0, visitor.getMeasurements().size());
+    reportMeasurement(visitor, 1000, new VmActivity(0, 0, 0));
+    assertEquals(1, visitor.getMeasurements().size());
+    assertEquals(2, visitor.getMessages().size());
+  }
+
+  @Test public void compilationTooShortForTheVmActivityIsStillDetected() throws Exception {
+    instrument.setOptions(ImmutableMap.<String, String>builder()
+        .putAll(measurementOptions("0"))
+        .put("warmup", "0")
+        .build());
+    MeasurementCollectingVisitor visitor = picobenchmarkVisitor();
+    assertTrue(visitor.isWarmupComplete());
+    reportMeasurement(visitor, 1000, new VmActivity(0, 0, 0));
+    assertEquals(1, visitor.getMeasurements().size());
+    // the compilation took less than a millisecond, so only the VM's output shows it
+    visitor.visit(new StartMeasurementLogMessage());
+    visitor.visit(new HotspotLogMessage());
+    visitor.visit(new StopMeasurementLogMessage(ImmutableList.of(new Measurement.Builder()
+        .value(Value.create(1000, "ns"))
+        .weight(1000)
+        .description("runtime")
+        .build()), null, new VmActivity(0, 0, 0)));
+    assertEquals(1, visitor.getMeasurements().size());
+    assertEquals(1, visitor.getMessages().size());
+  }
+
+  @Test public void setOptions_generateHarnessOnlyOnTheJvm() throws Exception {
+    instrument.setOptions(ImmutableMap.of("generateHarness", "true"));
+    RuntimeInstrument dalvikInstrument =
+        new RuntimeInstrument(ShortDuration.of(100, NANOSECONDS), new DalvikPlatform());
+    dalvikInstrument.setOptions(ImmutableMap.of("generateHarness", "false"));
+    try {
+      dalvikInstrument.setOptions(ImmutableMap.of("generateHarness", "true"));
+      fail();
+    } catch (InvalidConfigurationException expected) {}
+  }
+
+  private static void reportMeasurement(
+      MeasurementCollectingVisitor visitor, long nanos, VmActivity vmActivity) {
+    visitor.visit(new StartMeasurementLogMessage());
+    visitor.visit(new StopMeasurementLogMessage(ImmutableList.of(new Measurement.Builder()
+        .value(Value.create(nanos, "ns"))
+        .weight(1000)
+        .description("runtime")
+        .build()), null, vmActivity));
+  }
+
+  private static void reportMeasurement(
+      MeasurementCollectingVisitor visitor, long nanos, LatencyHistogram latencies) {
+    visitor.visit(new StartMeasurementLogMessage());
+    visitor.visit(new StopMeasurementLogMessage(ImmutableList.of(new Measurement.Builder()
+        .value(Value.create(nanos, "ns"))
+        .weight(latencies.totalCount())
+        .description("runtime")
+        .build()), latencies));
+  }
+
+  private void assertInvalidOptions(ImmutableMap<String, String> options) {
+    try {
+      instrument.setOptions(options);
+      fail(options.toString());
+    } catch (InvalidConfigurationException expected) {}
+  }
+
+  private ImmutableMap<String, String> measurementOptions(String measurementBatchWindow) {
+    return ImmutableMap.<String, String>builder()
+        .put("maxWarmupWallTime", "10m")
+        .put("measurements", "9")
+        .put("suggestGranularity", "false")
+        .put("measurementBatchWindow", measurementBatchWindow)
+        .build();
+  }
+
+  private MeasurementCollectingVisitor picobenchmarkVisitor() throws Exception {
+    return instrument.createInstrumentation(
+        RuntimeBenchmark.class.getDeclaredMethod("picobenchmark", long.class))
+        .getMeasurementCollectingVisitor();
+  }
+
+  private static void reportMeasurement(MeasurementCollectingVisitor visitor, long nanos) {
+    visitor.visit(new StartMeasurementLogMessage());
+    visitor.visit(new StopMeasurementLogMessage(ImmutableList.of(new Measurement.Builder()
+        .value(Value.create(nanos, "ns"))
+        .weight(1000)
+        .description("runtime")
+        .build())));
+  }
+
   @SuppressWarnings("unused")
   private static final class RuntimeBenchmark {
     @Benchmark void macrobenchmark() {}
     @Benchmark void microbenchmark(int reps) {}
     @Benchmark void picobenchmark(long reps) {}
+    @Benchmark void macrobenchmarkWithBlackhole(Blackhole blackhole) {}
+    @Benchmark void picobenchmarkWithBlackhole(long reps, Blackhole blackhole) {}
 
     @Benchmark void integerParam(Integer oops) {}
+    @Benchmark void blackholeNotLast(Blackhole blackhole, long reps) {}
 
     void notAMacrobenchmark() {}
     void notAMicrobenchmark(int reps) {}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectableChannel;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests {@link SelectorService}.
+ */
+@RunWith(JUnit4.class)
+public class SelectorServiceTest {
+  private final SelectorService service = new SelectorService();
+
+  @Before public void startService() {
+    service.startAsync().awaitRunning();
+  }
+
+  @After public void stopService() {
+    service.stopAsync().awaitTerminated();
+  }
+
+  @Test public void scheduledTasksRunInOrder() throws Exception {
+    final List<Integer> order = Lists.newArrayList();
+    final CountDownLatch done = new CountDownLatch(1);
+    service.schedule(new Runnable() {
+      @Override public void run() {
+        order.add(2);
+        done.countDown();
+      }
+    }, 20, TimeUnit.MILLISECONDS);
+    service.schedule(new Runnable() {
+      @Override public void run() {
+        order.add(1);
+      }
+    }, 10, TimeUnit.MILLISECONDS);
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(ImmutableList.of(1, 2), order);
+  }
+
+  @Test public void readsChannelUntilEof() throws Exception {
+    final Pipe pipe = Pipe.open();
+    final ByteBuffer buffer = ByteBuffer.allocate(16);
+    final SettableFuture<Integer> bytesRead = SettableFuture.create();
+    service.register(new SelectorService.Handler() {
+      @Override SelectableChannel channel() {
+        return pipe.source();
+      }
+
+      @Override boolean read() throws IOException {
+        int read;
+        while ((read = pipe.source().read(buffer)) > 0) {}
+        if (read == -1) {
+          bytesRead.set(buffer.position());
+          return false;
+        }
+        return true;
+      }
+
+      @Override void failed(Exception e) {
+        bytesRead.setException(e);
+      }
+    });
+    pipe.sink().write(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+    pipe.sink().close();
+    assertEquals(3, (int) bytesRead.get(10, TimeUnit.SECONDS));
+  }
+
+  @Test public void pollsHandlersWithoutChannels() throws Exception {
+    final CountDownLatch polls = new CountDownLatch(3);
+    service.register(new SelectorService.Handler() {
+      @Override SelectableChannel channel() {
+        return null;
+      }
+
+      @Override boolean read() {
+        polls.countDown();
+        return polls.getCount() > 0;
+      }
+
+      @Override void failed(Exception e) {}
+    });
+    assertTrue(polls.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test public void idleHandlersArePolledLessOften() throws Exception {
+    final AtomicInteger polls = new AtomicInteger();
+    SelectorService.Handler handler = new SelectorService.Handler() {
+      @Override SelectableChannel channel() {
+        return null;
+      }
+
+      @Override boolean read() {
+        polls.incrementAndGet();
+        return true;
+      }
+
+      @Override boolean wasIdle() {
+        return true;
+      }
+
+      @Override void failed(Exception e) {}
+    };
+    service.register(handler);
+    Thread.sleep(500);
+    // every 5ms it would be 100 polls, but backing off to every 50ms it is no more than 16
+    assertTrue("Polled " + polls.get() + " times", polls.get() <= 20);
+    int before = polls.get();
+    service.wake(handler);
+    long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(25);
+    while (polls.get() == before) {
+      assertTrue("Not polled once woken", System.nanoTime() - deadlineNanos < 0);
+      Thread.sleep(1);
+    }
+  }
+}
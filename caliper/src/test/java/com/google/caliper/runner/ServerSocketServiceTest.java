@@ -18,9 +18,15 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 
 import com.google.caliper.bridge.OpenedSocket;
+import com.google.caliper.bridge.SharedMemoryRing;
 import com.google.caliper.bridge.StartupAnnounceMessage;
+import com.google.caliper.bridge.Transport;
+import com.google.caliper.bridge.UnixDomainSockets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.ListenableFuture;
 
 import org.junit.After;
@@ -29,6 +35,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.Socket;
@@ -42,16 +49,20 @@ import java.util.concurrent.ExecutionException;
 
 public class ServerSocketServiceTest {
 
-  private final ServerSocketService service = new ServerSocketService();
+  private final SelectorService selectorService = new SelectorService();
+  private final ServerSocketService service =
+      new ServerSocketService(Transport.TCP, selectorService);
   private int port;
 
   @Before public void startService() {
+    selectorService.startAsync().awaitRunning();
     service.startAsync().awaitRunning();
     port = service.getPort();
   }
 
   @After public void stopService() {
     service.stopAsync().awaitTerminated();
+    selectorService.stopAsync().awaitTerminated();
   }
 
   @Test public void getConnectionId_requestComesInFirst() throws Exception {
@@ -98,6 +109,46 @@ public class ServerSocketServiceTest {
     } catch (IllegalStateException expected) {}
   }
 
+  @Test public void unixDomainSocket() throws Exception {
+    assumeTrue(UnixDomainSockets.isSupported());
+    ServerSocketService unixService = new ServerSocketService(Transport.UNIX, selectorService);
+    unixService.startAsync().awaitRunning();
+    try {
+      ImmutableList<String> workerArgs = unixService.workerArgs();
+      assertEquals(2, workerArgs.size());
+      File path = new File(
+          workerArgs.get(1).substring(UnixDomainSockets.ADDRESS_PREFIX.length()));
+      UUID id = UUID.randomUUID();
+      OpenedSocket clientSocket = OpenedSocket.fromSocket(UnixDomainSockets.connect(path));
+      clientSocket.writer().write(new StartupAnnounceMessage(id));
+      clientSocket.writer().flush();
+      assertEndsConnected(clientSocket, unixService.getConnection(id).get());
+    } finally {
+      unixService.stopAsync().awaitTerminated();
+    }
+  }
+
+  @Test public void sharedMemoryRing() throws Exception {
+    ServerSocketService sharedMemoryService =
+        new ServerSocketService(Transport.SHARED_MEMORY, selectorService);
+    sharedMemoryService.startAsync().awaitRunning();
+    try {
+      assertEquals("shared-memory", Iterables.getLast(sharedMemoryService.workerArgs()));
+      UUID id = UUID.randomUUID();
+      OpenedSocket clientSocket = OpenedSocket.fromSocket(
+          new Socket(InetAddress.getLoopbackAddress(), sharedMemoryService.getPort()));
+      SharedMemoryRing ring = SharedMemoryRing.create(1024);
+      clientSocket.writer().write(new StartupAnnounceMessage(id, ring.file().getPath()));
+      clientSocket.writer().flush();
+      OpenedSocket serverSocket = sharedMemoryService.getConnection(id).get();
+      // the runner deletes the file once it has mapped the ring
+      assertFalse(ring.file().exists());
+      assertEndsConnected(clientSocket.withSharedMemoryWriter(ring), serverSocket);
+    } finally {
+      sharedMemoryService.stopAsync().awaitTerminated();
+    }
+  }
+
   private OpenedSocket openClientConnection() throws IOException {
     return OpenedSocket.fromSocket(new Socket(InetAddress.getLoopbackAddress(), port));
   }
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.runner;
+
+import static com.google.caliper.runner.SteadyStateDetector.WINDOW_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Random;
+
+/**
+ * Tests {@link SteadyStateDetector}.
+ */
+@RunWith(JUnit4.class)
+public class SteadyStateDetectorTest {
+  private final SteadyStateDetector detector = new SteadyStateDetector();
+
+  @Test public void notSteadyUntilWindowIsFull() {
+    for (int i = 0; i < WINDOW_SIZE - 1; i++) {
+      detector.addValue(10.0);
+      assertFalse(detector.isSteady());
+    }
+    assertEquals(1, detector.valuesUntilWindowIsFull());
+    detector.addValue(10.0);
+    assertTrue(detector.isSteady());
+  }
+
+  @Test public void noisyButFlat() {
+    Random random = new Random(0);
+    for (int i = 0; i < WINDOW_SIZE; i++) {
+      detector.addValue(100.0 + 20 * random.nextGaussian());
+    }
+    assertTrue(detector.isSteady());
+  }
+
+  @Test public void decreasing() {
+    // e.g. code getting faster as it is compiled
+    for (int i = 0; i < WINDOW_SIZE; i++) {
+      detector.addValue(100.0 - 5 * i);
+    }
+    assertFalse(detector.isSteady());
+  }
+
+  @Test public void negligibleDrift() {
+    // a significant trend, but the values only change by 0.1%
+    for (int i = 0; i < WINDOW_SIZE; i++) {
+      detector.addValue(1000.0 + 0.1 * i);
+    }
+    assertTrue(detector.isSteady());
+  }
+
+  @Test public void onlyRecentValuesCount() {
+    for (int i = 0; i < WINDOW_SIZE; i++) {
+      detector.addValue(1000.0 - 50 * i);
+    }
+    assertFalse(detector.isSteady());
+    for (int i = 0; i < WINDOW_SIZE; i++) {
+      detector.addValue(10.0);
+    }
+    assertTrue(detector.isSteady());
+  }
+
+  @Test public void compilationRestartsWindow() {
+    for (int i = 0; i < WINDOW_SIZE; i++) {
+      detector.addValue(10.0);
+    }
+    detector.compilationObserved();
+    assertFalse(detector.isSteady());
+    assertEquals(WINDOW_SIZE, detector.valuesUntilWindowIsFull());
+  }
+}
@@ -70,12 +70,14 @@ public class StreamServiceTest {
     }
   };
 
+  private final SelectorService selectorService = new SelectorService();
   private StreamService service;
   private final CountDownLatch terminalLatch = new CountDownLatch(1);
   private static final int TRIAL_NUMBER = 3;
 
   @Before public void setUp() throws IOException {
     serverSocket = new ServerSocket(0);
+    selectorService.startAsync().awaitRunning();
   }
 
   @After public void closeSocket() throws IOException {
@@ -86,6 +88,7 @@ public class StreamServiceTest {
     if (service != null && service.state() != State.FAILED && service.state() != State.TERMINATED) {
       service.stopAsync().awaitTerminated();
     }
+    selectorService.stopAsync().awaitTerminated();
   }
 
   @Test public void testReadOutput() throws Exception {
@@ -123,6 +126,29 @@ public class StreamServiceTest {
     assertEquals(State.FAILED, service.state());
   }
 
+  @Test public void moreOutputThanTheQueueHolds() throws Exception {
+    String[] lines = new String[3 * StreamService.QUEUE_CAPACITY];
+    for (int i = 0; i < lines.length; i++) {
+      lines[i] = Integer.toString(i);
+    }
+    makeService(FakeWorkers.PrintClient.class, lines);
+    service.startAsync().awaitRunning();
+    // wait for the worker to fill the queue, so that it has to wait for us
+    long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!service.isPaused()) {
+      assertTrue("The queue never filled up", System.nanoTime() - deadlineNanos < 0);
+      Thread.sleep(1);
+    }
+    Set<String> read = Sets.newHashSet();
+    StreamItem item;
+    while ((item = readItem()).kind() == Kind.DATA) {
+      read.add(item.content().toString());
+    }
+    assertEquals(Sets.newHashSet(lines), read);
+    awaitStopped(100, TimeUnit.MILLISECONDS);
+    assertTerminated();
+  }
+
   @Test public void testSocketInputOutput() throws Exception {
     int localport = serverSocket.getLocalPort();
     // read from the socket and echo it back
@@ -220,7 +246,8 @@ public class StreamServiceTest {
             getSocketFuture(),
             new RuntimeShutdownHookRegistrar()),
         parser,
-        trialOutput);
+        trialOutput,
+        selectorService);
     service.addListener(new Listener() {
       @Override public void starting() {}
       @Override public void running() {}
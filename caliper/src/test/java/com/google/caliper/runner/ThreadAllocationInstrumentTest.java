@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.caliper.Benchmark;
+import com.google.caliper.model.Measurement;
+import com.google.caliper.model.Trial;
+import com.google.caliper.runner.Instrument.Instrumentation;
+import com.google.caliper.worker.ThreadAllocationWorker;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.lang.reflect.Method;
+
+/**
+ * Tests {@link ThreadAllocationInstrument}.
+ */
+@RunWith(JUnit4.class)
+public class ThreadAllocationInstrumentTest {
+  @Rule public CaliperTestWatcher runner = new CaliperTestWatcher();
+
+  @Test public void createInstrumentation() throws Exception {
+    ThreadAllocationInstrument instrument = new ThreadAllocationInstrument();
+    instrument.setOptions(ImmutableMap.of("warmup", "2s"));
+    Method benchmarkMethod = EscapingBenchmark.class.getDeclaredMethod("escaping", int.class);
+    Instrumentation instrumentation = instrument.createInstrumentation(benchmarkMethod);
+    assertEquals(ThreadAllocationWorker.class, instrumentation.workerClass());
+    assertEquals(ImmutableMap.of("warmupNanos", "2000000000"), instrumentation.workerOptions());
+  }
+
+  @Test public void createInstrumentation_macrobenchmark() throws Exception {
+    try {
+      new ThreadAllocationInstrument().createInstrumentation(
+          EscapingBenchmark.class.getDeclaredMethod("macro"));
+      fail();
+    } catch (InvalidBenchmarkException expected) {}
+  }
+
+  @Test public void escapingAllocationsAreMeasured() throws Exception {
+    runner.forBenchmark(EscapingBenchmark.class)
+        .instrument("threadAllocation")
+        .options("-Cinstrument.threadAllocation.options.warmup=1s")
+        .run();
+    Trial trial = Iterables.getOnlyElement(runner.trials());
+    assertFalse(trial.measurements().isEmpty());
+    for (Measurement measurement : trial.measurements()) {
+      assertEquals("bytes", measurement.description());
+      // a long[16] is at least 128 bytes of elements, whatever the header size
+      assertTrue(measurement.toString(),
+          measurement.value().magnitude() / measurement.weight() >= 128);
+    }
+  }
+
+  public static class EscapingBenchmark {
+    Object sink;
+
+    @Benchmark public int escaping(int reps) {
+      for (int i = 0; i < reps; i++) {
+        sink = new long[16];
+      }
+      return sink.hashCode();
+    }
+
+    @Benchmark public void macro() {}
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.runner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.caliper.Benchmark;
+import com.google.caliper.api.Blackhole;
+import com.google.caliper.bridge.StartMeasurementLogMessage;
+import com.google.caliper.bridge.StopMeasurementLogMessage;
+import com.google.caliper.config.InvalidConfigurationException;
+import com.google.caliper.model.Measurement;
+import com.google.caliper.model.Value;
+import com.google.caliper.runner.Instrument.MeasurementCollectingVisitor;
+import com.google.caliper.worker.ThroughputWorker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests {@link ThroughputInstrument}.
+ */
+@RunWith(JUnit4.class)
+public class ThroughputInstrumentTest {
+  private ThroughputInstrument instrument;
+
+  @Before public void createInstrument() {
+    this.instrument = new ThroughputInstrument();
+    instrument.setOptions(ImmutableMap.of(
+        "window", "100ms",
+        "warmup", "250ms",
+        "measurements", "2",
+        "gcBeforeEach", "false"));
+  }
+
+  @Test public void createInstrumentation() throws Exception {
+    assertEquals(ThroughputWorker.class, instrument.createInstrumentation(
+        ThroughputBenchmark.class.getDeclaredMethod("reps", long.class)).workerClass());
+    assertEquals(ThroughputWorker.class, instrument.createInstrumentation(
+        ThroughputBenchmark.class.getDeclaredMethod("single", Blackhole.class)).workerClass());
+  }
+
+  @Test public void createInstrumentation_badParameter() throws Exception {
+    try {
+      instrument.createInstrumentation(
+          ThroughputBenchmark.class.getDeclaredMethod("badParameter", String.class));
+      fail();
+    } catch (InvalidBenchmarkException expected) {}
+  }
+
+  @Test public void workerOptions() throws Exception {
+    assertEquals(
+        ImmutableMap.of("windowNanos", "100000000", "threads", "1", "gcBeforeEach", "false"),
+        instrument.createInstrumentation(
+            ThroughputBenchmark.class.getDeclaredMethod("reps", long.class)).workerOptions());
+  }
+
+  @Test public void workerOptions_resolveThreadCount() throws Exception {
+    ThroughputInstrument instrument = new ThroughputInstrument(6);
+    instrument.setOptions(ImmutableMap.of("window", "100ms", "threads", "0",
+        "gcBeforeEach", "false"));
+    assertEquals("6", instrument.createInstrumentation(
+        ThroughputBenchmark.class.getDeclaredMethod("reps", long.class))
+        .workerOptions().get("threads"));
+  }
+
+  @Test public void setOptions_invalid() {
+    try {
+      instrument.setOptions(ImmutableMap.of("window", "0s"));
+      fail();
+    } catch (InvalidConfigurationException expected) {}
+    try {
+      instrument.setOptions(ImmutableMap.of("measurements", "0"));
+      fail();
+    } catch (InvalidConfigurationException expected) {}
+    try {
+      instrument.setOptions(ImmutableMap.of("threads", "many"));
+      fail();
+    } catch (InvalidConfigurationException expected) {}
+  }
+
+  @Test public void visitor_warmsUpForWholeWindows() throws Exception {
+    MeasurementCollectingVisitor visitor = instrument.createInstrumentation(
+        ThroughputBenchmark.class.getDeclaredMethod("reps", long.class))
+        .getMeasurementCollectingVisitor();
+    // 250ms of warmup takes three 100ms windows
+    for (int i = 0; i < 3; i++) {
+      assertFalse(visitor.isWarmupComplete());
+      reportMeasurement(visitor, 1000.0);
+    }
+    assertTrue(visitor.isWarmupComplete());
+    reportMeasurement(visitor, 1000.0);
+    assertFalse(visitor.isDoneCollecting());
+    reportMeasurement(visitor, 1000.0);
+    assertTrue(visitor.isDoneCollecting());
+    assertEquals(2, visitor.getMeasurements().size());
+    assertEquals(0.0, visitor.getPrecision().get(), 0.0);
+  }
+
+  @Test public void valuePerWeight() {
+    Measurement throughput = new Measurement.Builder()
+        .value(Value.create(1000.0, "ops/s"))
+        .weight(100)
+        .description("throughput")
+        .build();
+    assertEquals(1000.0, ConsoleOutput.valuePerWeight(throughput), 0.0);
+    Measurement runtime = new Measurement.Builder()
+        .value(Value.create(1000.0, "ns"))
+        .weight(100)
+        .description("runtime")
+        .build();
+    assertEquals(10.0, ConsoleOutput.valuePerWeight(runtime), 0.0);
+  }
+
+  private static void reportMeasurement(MeasurementCollectingVisitor visitor, double opsPerSecond) {
+    visitor.visit(new StartMeasurementLogMessage());
+    visitor.visit(new StopMeasurementLogMessage(ImmutableList.of(new Measurement.Builder()
+        .value(Value.create(opsPerSecond, "ops/s"))
+        .weight(opsPerSecond / 10)
+        .description("throughput")
+        .build())));
+  }
+
+  @SuppressWarnings("unused")
+  static final class ThroughputBenchmark {
+    @Benchmark void reps(long reps) {}
+    @Benchmark void single(Blackhole blackhole) {}
+    @Benchmark void badParameter(String s) {}
+  }
+}
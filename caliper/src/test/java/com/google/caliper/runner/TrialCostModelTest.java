@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.runner;
+
+import static com.google.caliper.runner.TrialCostModel.makespanNanos;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.caliper.Benchmark;
+import com.google.caliper.config.VmConfig;
+import com.google.caliper.platform.jvm.JvmPlatform;
+import com.google.caliper.util.ShortDuration;
+import com.google.common.base.Charsets;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.Callables;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.Reader;
+import java.util.Properties;
+
+/**
+ * Tests {@link TrialCostModel} and {@link TrialProgress}.
+ */
+@RunWith(JUnit4.class)
+public class TrialCostModelTest {
+  private static final ImmutableList<Long> NONE = ImmutableList.of();
+
+  private File caliperDirectory;
+  private File historyFile;
+
+  @Before public void createCaliperDirectory() {
+    caliperDirectory = Files.createTempDir();
+    historyFile = new File(caliperDirectory, "trial-durations.properties");
+  }
+
+  @After public void deleteCaliperDirectory() {
+    historyFile.delete();
+    caliperDirectory.delete();
+  }
+
+  @Test public void estimate_fromOptions() throws Exception {
+    TrialCostModel costModel = new TrialCostModel(historyFile, 1);
+    // starting the worker, then the warmup, then each measurement
+    assertEquals(SECONDS.toNanos(2 + 3) + 4 * MILLISECONDS.toNanos(500),
+        costModel.estimateNanos(experiment("a", ImmutableMap.of(
+            "warmup", "3s", "timingInterval", "500ms", "measurements", "4"))));
+    // with a target precision, at least the minimum number of measurements are taken
+    assertEquals(SECONDS.toNanos(2 + 3) + 6 * MILLISECONDS.toNanos(500),
+        costModel.estimateNanos(experiment("a", ImmutableMap.of(
+            "warmup", "3s", "timingInterval", "500ms", "measurements", "4",
+            "targetPrecision", "0.01", "minMeasurements", "6"))));
+    // a measurement takes a second if the instrument doesn't say
+    assertEquals(SECONDS.toNanos(2 + 1),
+        costModel.estimateNanos(experiment("a", ImmutableMap.<String, String>of())));
+  }
+
+  @Test public void estimate_observedThenHistoryThenOptions() throws Exception {
+    Experiment experiment = experiment("a", ImmutableMap.<String, String>of());
+    TrialCostModel costModel = new TrialCostModel(historyFile, 1);
+    costModel.record(experiment, 10);
+    costModel.save();
+
+    costModel = new TrialCostModel(historyFile, 1);
+    assertEquals(10, costModel.estimateNanos(experiment));
+    costModel.record(experiment, 4);
+    costModel.record(experiment, 6);
+    assertEquals(5, costModel.estimateNanos(experiment));
+    assertEquals(SECONDS.toNanos(3),
+        costModel.estimateNanos(experiment("b", ImmutableMap.<String, String>of())));
+  }
+
+  @Test public void history_roundTrips() throws Exception {
+    Experiment a = experiment("a", ImmutableMap.<String, String>of());
+    Experiment b = experiment("b", ImmutableMap.<String, String>of());
+    TrialCostModel first = new TrialCostModel(historyFile, 1);
+    first.record(a, 10);
+    first.record(a, 20);
+    first.save();
+    TrialCostModel second = new TrialCostModel(historyFile, 1);
+    second.record(b, 30);
+    second.save();
+
+    // each run keeps the durations of experiments that it didn't run
+    TrialCostModel third = new TrialCostModel(historyFile, 1);
+    assertEquals(15, third.estimateNanos(a));
+    assertEquals(30, third.estimateNanos(b));
+    Properties properties = new Properties();
+    Reader reader = Files.newReader(historyFile, Charsets.UTF_8);
+    try {
+      properties.load(reader);
+    } finally {
+      reader.close();
+    }
+    assertEquals(ImmutableSet.of("15", "30"), ImmutableSet.copyOf(properties.values()));
+  }
+
+  @Test public void history_ignoresInvalidDurations() throws Exception {
+    Experiment experiment = experiment("a", ImmutableMap.<String, String>of());
+    TrialCostModel costModel = new TrialCostModel(historyFile, 1);
+    costModel.record(experiment, 10);
+    costModel.save();
+    String history = Files.toString(historyFile, Charsets.UTF_8);
+    Files.write(history.replace("=10", "=soon"), historyFile, Charsets.UTF_8);
+    assertEquals(SECONDS.toNanos(3), new TrialCostModel(historyFile, 1).estimateNanos(experiment));
+  }
+
+  @Test public void longestFirst() throws Exception {
+    TrialCostModel costModel = new TrialCostModel(historyFile, 1);
+    ScheduledTrial shortest = scheduledTrial(costModel, "shortest", 1);
+    ScheduledTrial longest = scheduledTrial(costModel, "longest", 3);
+    ScheduledTrial middle = scheduledTrial(costModel, "middle", 2);
+    assertEquals(ImmutableList.of(longest, middle, shortest),
+        costModel.longestFirst(ImmutableList.of(shortest, longest, middle)));
+  }
+
+  @Test public void makespan_longestFirst() {
+    // in the given order, two slots would finish at 2 + 2 and 3 + 7
+    assertEquals(7, makespanNanos(NONE, ImmutableList.of(2L, 3L, 2L, 7L), 2));
+  }
+
+  @Test public void makespan_runningTrialsHoldSlots() {
+    assertEquals(9, makespanNanos(ImmutableList.of(6L), ImmutableList.of(5L, 4L), 2));
+    assertEquals(6, makespanNanos(ImmutableList.of(6L, 1L), NONE, 4));
+  }
+
+  @Test public void makespan_serial() {
+    assertEquals(10, makespanNanos(NONE, ImmutableList.of(1L, 2L, 3L, 4L), 1));
+    assertEquals(0, makespanNanos(NONE, NONE, 2));
+  }
+
+  @Test public void progress_estimateUntilMeasuring() {
+    FakeTicker ticker = new FakeTicker();
+    TrialProgress progress = new TrialProgress(ticker);
+    assertEquals(100, progress.remainingNanos(100, 10));
+    progress.started();
+    ticker.advance(30);
+    assertTrue(progress.isStarted());
+    assertEquals(70, progress.remainingNanos(100, 10));
+    progress.measured(false);
+    ticker.advance(50);
+    assertEquals(20, progress.remainingNanos(100, 10));
+  }
+
+  @Test public void progress_overrunningTheEstimate() {
+    FakeTicker ticker = new FakeTicker();
+    TrialProgress progress = new TrialProgress(ticker);
+    progress.started();
+    ticker.advance(200);
+    assertEquals(50, progress.remainingNanos(100, 10));
+  }
+
+  @Test public void progress_measurementRate() {
+    FakeTicker ticker = new FakeTicker();
+    TrialProgress progress = new TrialProgress(ticker);
+    progress.started();
+    ticker.advance(1000);
+    progress.measured(true);
+    // each report counts once, however many values it holds, e.g. one per thread
+    for (int i = 0; i < 4; i++) {
+      ticker.advance(10);
+      progress.measured(true);
+    }
+    // 10 per measurement, with 6 to go
+    assertEquals(60, progress.remainingNanos(100, 10));
+  }
+
+  @Test public void progress_finished() {
+    FakeTicker ticker = new FakeTicker();
+    TrialProgress progress = new TrialProgress(ticker);
+    progress.started();
+    ticker.advance(25);
+    assertFalse(progress.isFinished());
+    progress.finished();
+    ticker.advance(25);
+    progress.finished();
+    assertTrue(progress.isFinished());
+    assertEquals(25, progress.elapsedNanos());
+    assertEquals(0, progress.remainingNanos(100, 10));
+  }
+
+  private static ScheduledTrial scheduledTrial(TrialCostModel costModel, String name, long nanos)
+      throws Exception {
+    Experiment experiment = experiment(name, ImmutableMap.<String, String>of());
+    costModel.record(experiment, nanos);
+    return new ScheduledTrial(experiment, Callables.<TrialResult>returning(null),
+        TrialSchedulingPolicy.PARALLEL, new TrialProgress());
+  }
+
+  private static Experiment experiment(String name, ImmutableMap<String, String> options)
+      throws Exception {
+    RuntimeInstrument instrument =
+        new RuntimeInstrument(ShortDuration.of(100, NANOSECONDS), new JvmPlatform());
+    instrument.setOptions(options);
+    return new Experiment(
+        instrument.createInstrumentation(TestBenchmark.class.getDeclaredMethod("time", int.class)),
+        ImmutableMap.of("name", name),
+        new VirtualMachine("foo-jvm", new VmConfig(
+            new File("foo"), ImmutableList.<String>of(), new File("java"), new JvmPlatform())));
+  }
+
+  static final class TestBenchmark {
+    @Benchmark void time(int reps) {}
+  }
+
+  private static final class FakeTicker extends Ticker {
+    private long nanos;
+
+    void advance(long nanos) {
+      this.nanos += nanos;
+    }
+
+    @Override public long read() {
+      return nanos;
+    }
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.caliper.runner;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.caliper.bridge.OpenedSocket;
+import com.google.caliper.bridge.Transport;
+import com.google.caliper.bridge.WorkerSpec;
+import com.google.caliper.config.CaliperConfig;
+import com.google.caliper.model.BenchmarkSpec;
+import com.google.caliper.runner.FakeWorkers.DummyLogMessage;
+import com.google.caliper.runner.WorkerPool.LaunchedWorker;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Tests {@link WorkerPool}.
+ */
+@RunWith(JUnit4.class)
+public class WorkerPoolTest {
+  private static final ImmutableList<String> COMMAND = ImmutableList.copyOf(
+      FakeWorkers.createProcessBuilder(FakeWorkers.AnnouncingClient.class).command());
+
+  private static class MockRegistrar implements ShutdownHookRegistrar {
+    Set<Thread> hooks = Sets.newHashSet();
+    @Override public void addShutdownHook(Thread hook) {
+      hooks.add(hook);
+    }
+    @Override public boolean removeShutdownHook(Thread hook) {
+      return hooks.remove(hook);
+    }
+  }
+
+  private final SelectorService selectorService = new SelectorService();
+  private final ServerSocketService serverSocketService =
+      new ServerSocketService(Transport.TCP, selectorService);
+  private final MockRegistrar registrar = new MockRegistrar();
+  private File systemFiles;
+  private WorkerPool pool;
+
+  @Before public void startServices() {
+    systemFiles = Files.createTempDir();
+    selectorService.startAsync().awaitRunning();
+    serverSocketService.startAsync().awaitRunning();
+    startPool(ImmutableMap.<String, String>of());
+  }
+
+  @After public void stopServices() {
+    pool.stopAsync().awaitTerminated();
+    serverSocketService.stopAsync().awaitTerminated();
+    selectorService.stopAsync().awaitTerminated();
+    new File(systemFiles, "meminfo").delete();
+    systemFiles.delete();
+  }
+
+  @Test public void claim_startsWorkerOnDemand() throws Exception {
+    pool.expect(COMMAND);
+    assertWorks(pool.claim(COMMAND));
+    assertTrue(registrar.hooks.isEmpty());
+  }
+
+  @Test public void claim_usesPrestartedWorker() throws Exception {
+    pool.expect(COMMAND);
+    pool.expect(COMMAND);
+    assertWorks(pool.claim(COMMAND));
+    pool.prestartNextWorker();
+    Thread hook = Iterables.getOnlyElement(registrar.hooks);
+    LaunchedWorker worker = pool.claim(COMMAND);
+    assertEquals("idle-worker-shutdown-hook-" + worker.id(), hook.getName());
+    assertTrue(registrar.hooks.isEmpty());
+    assertWorks(worker);
+  }
+
+  @Test public void prestartNextWorker_nothingExpected() throws Exception {
+    pool.expect(COMMAND);
+    assertWorks(pool.claim(COMMAND));
+    pool.prestartNextWorker();
+    assertTrue(registrar.hooks.isEmpty());
+  }
+
+  @Test public void prestartNextWorker_disabled() throws Exception {
+    pool.stopAsync().awaitTerminated();
+    startPool(ImmutableMap.of("runner.prestartWorkers", "false"));
+    pool.expect(COMMAND);
+    pool.prestartNextWorker();
+    assertTrue(registrar.hooks.isEmpty());
+  }
+
+  @Test public void shutDown_destroysIdleWorkers() throws Exception {
+    pool.expect(COMMAND);
+    pool.prestartNextWorker();
+    assertEquals(1, registrar.hooks.size());
+    pool.stopAsync().awaitTerminated();
+    assertTrue(registrar.hooks.isEmpty());
+  }
+
+  @Test public void prestartNextWorker_noMemory() throws Exception {
+    pool.stopAsync().awaitTerminated();
+    // 2GB available, less 512MB of headroom, holds one worker with a 1GB heap, which is a quarter
+    // of the 4GB total, and 256MB besides
+    Files.write("MemTotal: 4194304 kB\nMemAvailable: 2097152 kB\n",
+        new File(systemFiles, "meminfo"), Charsets.UTF_8);
+    startPool(ImmutableMap.<String, String>of());
+    pool.expect(COMMAND);
+    pool.expect(COMMAND);
+    LaunchedWorker worker = pool.claim(COMMAND);
+    pool.prestartNextWorker();
+    assertTrue(registrar.hooks.isEmpty());
+
+    worker.process().destroy();
+    pool.release(worker);
+    pool.prestartNextWorker();
+    assertEquals(1, registrar.hooks.size());
+  }
+
+  private void startPool(ImmutableMap<String, String> properties) {
+    CaliperConfig config = new CaliperConfig(properties);
+    HostResources hostResources =
+        new HostResources(config, new File(systemFiles, "meminfo"), systemFiles, 4);
+    pool = new WorkerPool(serverSocketService, registrar, hostResources, config);
+    pool.startAsync().awaitRunning();
+  }
+
+  /** Sends the worker a spec and checks that it echoes the trial id back. */
+  private static void assertWorks(LaunchedWorker worker) throws Exception {
+    UUID trialId = UUID.randomUUID();
+    OpenedSocket socket = worker.socket().get(10, SECONDS);
+    socket.writer().write(new WorkerSpec(
+        trialId,
+        Object.class,
+        ImmutableMap.<String, String>of(),
+        new BenchmarkSpec.Builder().className("Foo").methodName("bar").build(),
+        ImmutableList.<Class<?>>of()));
+    socket.writer().flush();
+    assertEquals(new DummyLogMessage(trialId.toString()), socket.reader().read());
+    assertEquals(0, worker.process().waitFor());
+  }
+}
@@ -18,30 +18,41 @@ package com.google.caliper.runner;
 
 import static java.util.concurrent.TimeUnit.MINUTES;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.google.caliper.Benchmark;
+import com.google.caliper.bridge.Transport;
+import com.google.caliper.bridge.WorkerSpec;
+import com.google.caliper.config.CaliperConfig;
 import com.google.caliper.config.VmConfig;
 import com.google.caliper.model.BenchmarkSpec;
 import com.google.caliper.platform.jvm.JvmPlatform;
+import com.google.caliper.runner.CpuPinning.Mode;
 import com.google.caliper.worker.WorkerMain;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
+import com.google.common.io.Files;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.io.File;
+import java.io.InterruptedIOException;
 import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Tests {@link WorkerProcess}.
@@ -51,8 +62,10 @@ import java.util.UUID;
 
 @RunWith(JUnit4.class)
 public class WorkerProcessTest {
-  private static final int PORT_NUMBER = 4004;
   private static final UUID TRIAL_ID = UUID.randomUUID();
+  private static final ImmutableList<String> COMMAND = ImmutableList.copyOf(
+      FakeWorkers.createProcessBuilder(FakeWorkers.AnnouncingClient.class).command());
+  private static final long MB = 1024 * 1024;
 
   private static class MockRegistrar implements ShutdownHookRegistrar {
     Set<Thread> hooks = Sets.newHashSet();
@@ -65,10 +78,38 @@ public class WorkerProcessTest {
   }
 
   private final MockRegistrar registrar = new MockRegistrar();
+  private final SelectorService selectorService = new SelectorService();
+  private final ServerSocketService serverSocketService =
+      new ServerSocketService(Transport.TCP, selectorService);
   private BenchmarkClass benchmarkClass;
+  private File systemFiles;
+  private HostResources hostResources;
+  private WorkerPool pool;
+  private CpuPinning cpuPinning;
 
-  @Before public void setUp() throws InvalidBenchmarkException {
+  @Before public void setUp() throws Exception {
     benchmarkClass = BenchmarkClass.forClass(TestBenchmark.class);
+    selectorService.startAsync().awaitRunning();
+    serverSocketService.startAsync().awaitRunning();
+    systemFiles = Files.createTempDir();
+    // 2GB available, less 512MB of headroom, holds one worker with a 1GB heap
+    Files.write("MemTotal: 4194304 kB\nMemAvailable: 2097152 kB\n",
+        new File(systemFiles, "meminfo"), Charsets.UTF_8);
+    CaliperConfig config = new CaliperConfig(ImmutableMap.<String, String>of());
+    hostResources = new HostResources(config, new File(systemFiles, "meminfo"), systemFiles, 5);
+    pool = new WorkerPool(serverSocketService, registrar, hostResources, config);
+    pool.startAsync().awaitRunning();
+    // five CPUs without topology: the runner gets cpu 0, and pinned trials 1-2 and 3-4
+    cpuPinning =
+        new CpuPinning(Mode.ON, CpuTopology.read(systemFiles, CpuSet.parse("0-4")), 2);
+  }
+
+  @After public void stopServices() {
+    pool.stopAsync().awaitTerminated();
+    serverSocketService.stopAsync().awaitTerminated();
+    selectorService.stopAsync().awaitTerminated();
+    new File(systemFiles, "meminfo").delete();
+    systemFiles.delete();
   }
 
   @Test public void simpleArgsTest() throws Exception {
@@ -88,8 +129,7 @@ public class WorkerProcessTest {
         .className(TestBenchmark.class.getName())
         .methodName(method.getName())
         .build();
-    ProcessBuilder builder = createProcess(experiment, spec);
-    List<String> commandLine = builder.command();
+    List<String> commandLine = WorkerProcess.buildCommand(experiment, benchmarkClass);
     assertEquals(new File("java").getAbsolutePath(), commandLine.get(0));
     assertEquals("--doTheHustle", commandLine.get(1));  // vm specific flags come next
     assertEquals("-cp", commandLine.get(2));  // then the classpath
@@ -103,7 +143,13 @@ public class WorkerProcessTest {
     assertEquals("-XX:+PrintCompilation", commandLine.get(++index));
     assertEquals("-XX:+PrintGC", commandLine.get(++index));
     assertEquals(WorkerMain.class.getName(), commandLine.get(++index));
-    // followed by worker args...
+    // the worker id and port are added when the worker is launched
+    assertEquals(index + 1, commandLine.size());
+
+    WorkerSpec workerSpec = WorkerProcess.buildWorkerSpec(TRIAL_ID, experiment, spec);
+    assertEquals(TRIAL_ID, workerSpec.trialId);
+    assertEquals(spec, workerSpec.benchmarkSpec);
+    assertEquals(ImmutableList.<Class<?>>of(long.class), workerSpec.methodParameterClasses);
   }
 
   @Test public void shutdownHook_waitFor() throws Exception {
@@ -150,6 +196,80 @@ public class WorkerProcessTest {
     assertTrue(registrar.hooks.isEmpty());
   }
 
+  @Test public void pinnedWorker_holdsCpusUntilItExits() throws Exception {
+    WorkerProcess workerProcess = createPinnedWorkerProcess();
+    assertFalse(workerProcess.cpuSet().isPresent());
+    Process worker = workerProcess.startWorker();
+    try {
+      assertEquals(CpuSet.parse("1-2"), workerProcess.cpuSet().get());
+      // only the other set is free while the worker runs
+      CpuSet other = cpuPinning.acquire();
+      assertEquals(CpuSet.parse("3-4"), other);
+      cpuPinning.release(other);
+    } finally {
+      worker.destroy();
+    }
+    workerProcess.workerExited();
+    // the set stays recorded for the trial, but is free for the next one
+    assertEquals(CpuSet.parse("1-2"), workerProcess.cpuSet().get());
+    assertEquals(CpuSet.parse("3-4"), cpuPinning.acquire());
+    assertEquals(CpuSet.parse("1-2"), cpuPinning.acquire());
+  }
+
+  @Test public void pinnedWorker_releasesCpusIfClaimFails() throws Exception {
+    final WorkerProcess workerProcess = createPinnedWorkerProcess();
+    // hold all of the memory, so that claiming the worker waits until it is interrupted
+    assertTrue(hostResources.tryReserve(1536 * MB));
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread starter = new Thread() {
+      @Override public void run() {
+        try {
+          workerProcess.startWorker();
+        } catch (Throwable t) {
+          failure.set(t);
+        }
+      }
+    };
+    starter.start();
+    while (starter.getState() != Thread.State.WAITING) {
+      Thread.sleep(10);
+    }
+    starter.interrupt();
+    starter.join();
+    assertTrue(String.valueOf(failure.get()), failure.get() instanceof InterruptedIOException);
+    assertEquals(CpuSet.parse("1-2"), workerProcess.cpuSet().get());
+    assertEquals(CpuSet.parse("3-4"), cpuPinning.acquire());
+    assertEquals(CpuSet.parse("1-2"), cpuPinning.acquire());
+  }
+
+  @Test public void concurrentInstrumentWithPinning() throws Exception {
+    // the runner resolves the thread count from its own CPUs before it is pinned to one of them
+    ConcurrentInstrument instrument = new ConcurrentInstrument(6);
+    instrument.setOptions(ImmutableMap.of("threads", "0", "timingInterval", "500ms",
+        "gcBeforeEach", "false"));
+    Method method = TestBenchmark.class.getDeclaredMethods()[0];
+    Experiment experiment = new Experiment(
+        instrument.createInstrumentation(method),
+        ImmutableMap.<String, String>of(),
+        new VirtualMachine("foo-jvm", new VmConfig(
+            new File("foo"), ImmutableList.<String>of(), new File("java"), new JvmPlatform())));
+    BenchmarkSpec spec = new BenchmarkSpec.Builder()
+        .className(TestBenchmark.class.getName())
+        .methodName(method.getName())
+        .build();
+    WorkerProcess workerProcess = new WorkerProcess(TRIAL_ID, experiment, spec, benchmarkClass,
+        pool, registrar, instrument.schedulingPolicy(), cpuPinning);
+    assertEquals(TrialSchedulingPolicy.SERIAL, instrument.schedulingPolicy());
+    assertEquals("6", workerProcess.workerSpec().workerOptions.get("threads"));
+    // the worker isn't pinned, and runs on all of the CPUs rather than the runner's
+    assertFalse(workerProcess.cpuSet().isPresent());
+    assertEquals(
+        ImmutableList.of(
+            cpuPinning.command(null, WorkerProcess.buildCommand(experiment, benchmarkClass))),
+        pool.expectedCommands());
+    assertEquals("taskset", pool.expectedCommands().get(0).get(0));
+  }
+
   static final class TestBenchmark {
     @Benchmark long thing(long reps) {
       long dummy = 0;
@@ -160,15 +280,15 @@ public class WorkerProcessTest {
     }
   }
 
-  private ProcessBuilder createProcess(Experiment experiment, BenchmarkSpec benchmarkSpec) {
-    return WorkerProcess.buildProcess(TRIAL_ID, experiment, benchmarkSpec, PORT_NUMBER,
-        benchmarkClass);
-  }
-
   private WorkerProcess createWorkerProcess(Class<?> main, String ...args) {
     return new WorkerProcess(FakeWorkers.createProcessBuilder(main, args),
         TRIAL_ID,
         null,
         registrar);
   }
+
+  private WorkerProcess createPinnedWorkerProcess() {
+    return new WorkerProcess(TRIAL_ID, null, COMMAND, pool, registrar,
+        TrialSchedulingPolicy.PINNED, cpuPinning);
+  }
 }
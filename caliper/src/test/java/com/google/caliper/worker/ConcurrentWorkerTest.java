@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.model.Measurement;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Sets;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests {@link ConcurrentWorker}.
+ */
+@RunWith(JUnit4.class)
+public class ConcurrentWorkerTest {
+  private static final ImmutableSortedMap<String, String> NO_PARAMETERS =
+      ImmutableSortedMap.of();
+
+  @Test public void threadCount_parameterOverridesOption() {
+    ImmutableMap<String, String> options = ImmutableMap.of("threads", "3");
+    assertEquals(3, ConcurrentWorker.threadCount(NO_PARAMETERS, options));
+    assertEquals(8, ConcurrentWorker.threadCount(ImmutableMap.of("threads", "8"), options));
+    // a parameter of 0 asks for the runner's default
+    assertEquals(3, ConcurrentWorker.threadCount(ImmutableMap.of("threads", "0"), options));
+  }
+
+  @Test public void threadCount_isResolvedByTheRunner() {
+    try {
+      ConcurrentWorker.threadCount(NO_PARAMETERS, ImmutableMap.of("threads", "0"));
+      fail();
+    } catch (IllegalArgumentException expected) {}
+    try {
+      ConcurrentWorker.threadCount(NO_PARAMETERS, ImmutableMap.<String, String>of());
+      fail();
+    } catch (IllegalArgumentException expected) {}
+  }
+
+  @Test public void measure_runsEveryThreadForTheSameReps() throws Exception {
+    CountingBenchmark benchmark = new CountingBenchmark(3);
+    ConcurrentWorker worker = createWorker(benchmark, "reps", 3);
+    worker.bootstrap();
+    for (int round = 0; round < 2; round++) {
+      benchmark.clear();
+      worker.preMeasure(false);
+      ImmutableList<Measurement> measurements = ImmutableList.copyOf(worker.measure());
+
+      // all threads were released together and each ran the same reps
+      assertEquals(4, measurements.size());
+      assertEquals(3, benchmark.repsByThread.size());
+      long reps = benchmark.repsByThread.values().iterator().next();
+      for (long threadReps : benchmark.repsByThread.values()) {
+        assertEquals(reps, threadReps);
+      }
+      for (int i = 0; i < 3; i++) {
+        assertEquals("runtime", measurements.get(i).description());
+        assertEquals(reps, measurements.get(i).weight(), 0.0);
+      }
+      assertEquals("throughput", measurements.get(3).description());
+      assertEquals(reps * 3, measurements.get(3).weight(), 0.0);
+    }
+    Set<String> threadNames = Sets.newHashSet(benchmark.repsByThread.keySet());
+    worker.cleanUp();
+    assertEquals(3, threadNames.size());
+    for (String threadName : threadNames) {
+      assertTrue(threadName, threadName.startsWith("caliper-benchmark-"));
+    }
+  }
+
+  @Test public void cleanUp_tearsDownEachThreadsState() throws Exception {
+    StateBenchmark benchmark = new StateBenchmark();
+    ConcurrentWorker worker = createWorker(benchmark, "withState", 2, ThreadState.class);
+    worker.bootstrap();
+    worker.preMeasure(false);
+    worker.measure();
+    assertEquals(0, ThreadState.tornDown.get());
+    worker.cleanUp();
+    assertEquals(2, benchmark.states.size());
+    assertEquals(2, ThreadState.tornDown.getAndSet(0));
+  }
+
+  @Test public void measure_failureOnOneThread() throws Exception {
+    FailingBenchmark benchmark = new FailingBenchmark();
+    ConcurrentWorker worker = createWorker(benchmark, "reps", 2);
+    try {
+      worker.bootstrap();
+      fail();
+    } catch (IllegalStateException expected) {
+      assertSame(FailingBenchmark.FAILURE, expected);
+    }
+    // the threads are back at the start barrier, so they can still be stopped
+    try {
+      worker.cleanUp();
+      fail();
+    } catch (IllegalStateException expected) {
+      assertSame(FailingBenchmark.FAILURE, expected);
+    }
+  }
+
+  private static ConcurrentWorker createWorker(
+      Object benchmark, String methodName, int threads, Class<?>... stateTypes) throws Exception {
+    Class<?>[] parameterTypes = new Class<?>[stateTypes.length + 1];
+    parameterTypes[0] = long.class;
+    System.arraycopy(stateTypes, 0, parameterTypes, 1, stateTypes.length);
+    Method method = benchmark.getClass().getDeclaredMethod(methodName, parameterTypes);
+    method.setAccessible(true);
+    return new ConcurrentWorker(benchmark, method, new Random(0), Ticker.systemTicker(),
+        ImmutableMap.of(
+            "timingIntervalNanos", "1000000",
+            "gcBeforeEach", "false",
+            "threads", String.valueOf(threads)),
+        NO_PARAMETERS);
+  }
+
+  static final class CountingBenchmark {
+    final Map<String, Long> repsByThread = new ConcurrentHashMap<String, Long>();
+    /** Holds each call until every thread has made one, so a round only ends if all of them run. */
+    private final CyclicBarrier allThreads;
+
+    CountingBenchmark(int threads) {
+      this.allThreads = new CyclicBarrier(threads);
+    }
+
+    void clear() {
+      repsByThread.clear();
+    }
+
+    void reps(long reps) throws Exception {
+      allThreads.await();
+      repsByThread.put(Thread.currentThread().getName(), reps);
+    }
+  }
+
+  static final class ThreadState {
+    static final AtomicInteger tornDown = new AtomicInteger();
+
+    @AfterExperiment void tearDown() {
+      tornDown.incrementAndGet();
+    }
+  }
+
+  static final class StateBenchmark {
+    final Set<ThreadState> states = Sets.newConcurrentHashSet();
+
+    void withState(long reps, ThreadState state) {
+      states.add(state);
+    }
+  }
+
+  static final class FailingBenchmark {
+    static final IllegalStateException FAILURE = new IllegalStateException();
+
+    void reps(long reps) {
+      if (Thread.currentThread().getName().endsWith("-0")) {
+        throw FAILURE;
+      }
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.worker;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.caliper.api.Footprint;
+import com.google.caliper.model.Measurement;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests {@link FootprintWorker}.
+ */
+@RunWith(JUnit4.class)
+public class FootprintWorkerTest {
+  @Test public void measuresReachableGraph() throws Exception {
+    ImmutableListMultimap<String, Measurement> measurements = measure("list", 0);
+    // three nodes, each with a reference and an int; the last reference is null
+    assertEquals(3, magnitude(measurements, "objects"), 0);
+    assertEquals(3, magnitude(measurements, "references"), 0);
+    assertEquals(3, magnitude(measurements, "primitives"), 0);
+  }
+
+  @Test public void excludedTypesAreNotExplored() throws Exception {
+    ImmutableListMultimap<String, Measurement> measurements = measure("holder", 0);
+    // the holder and its int[2], but not the node list
+    assertEquals(2, magnitude(measurements, "objects"), 0);
+    assertEquals(2, magnitude(measurements, "references"), 0);
+    assertEquals(3, magnitude(measurements, "primitives"), 0);
+  }
+
+  @Test public void breaksDownByClassAndPath() throws Exception {
+    ImmutableListMultimap<String, Measurement> measurements = measure("holder", 5);
+    String holder = Holder.class.getCanonicalName();
+    assertEquals(1, magnitude(measurements, "objects of " + holder), 0);
+    assertEquals(1, magnitude(measurements, "objects of int[]"), 0);
+    assertEquals(1, magnitude(measurements, "objects at root.values"), 0);
+    assertEquals(magnitude(measurements, "bytes"),
+        magnitude(measurements, "bytes of " + holder) + magnitude(measurements, "bytes of int[]"),
+        0);
+    assertEquals(magnitude(measurements, "bytes of int[]"),
+        magnitude(measurements, "bytes at root.values"), 0);
+  }
+
+  @Test public void breakdownIsBounded() throws Exception {
+    ImmutableListMultimap<String, Measurement> measurements = measure("holder", 1);
+    int classes = 0;
+    int paths = 0;
+    for (String description : measurements.keySet()) {
+      if (description.startsWith("bytes of ")) {
+        classes++;
+      } else if (description.startsWith("bytes at ")) {
+        paths++;
+      }
+    }
+    assertEquals(1, classes);
+    assertEquals(1, paths);
+    // with no breakdown, only the totals
+    assertEquals(ImmutableSet.of("objects", "references", "primitives", "bytes"),
+        measure("holder", 0).keySet());
+  }
+
+  private static ImmutableListMultimap<String, Measurement> measure(
+      String methodName, int breakdown) throws Exception {
+    FootprintWorker worker = new FootprintWorker(
+        new FootprintBenchmark(), FootprintBenchmark.class.getDeclaredMethod(methodName),
+        ImmutableMap.of("breakdown", String.valueOf(breakdown)));
+    return Measurement.indexByDescription(worker.measure());
+  }
+
+  private static double magnitude(
+      ImmutableListMultimap<String, Measurement> measurements, String description) {
+    return Iterables.getOnlyElement(measurements.get(description)).value().magnitude();
+  }
+
+  static final class Node {
+    final Node next;
+    final int value;
+
+    Node(Node next, int value) {
+      this.next = next;
+      this.value = value;
+    }
+  }
+
+  static final class Holder {
+    final Node nodes = new Node(new Node(null, 2), 1);
+    final int[] values = new int[2];
+    int count;
+  }
+
+  static final class FootprintBenchmark {
+    @Footprint Node list() {
+      return new Node(new Node(new Node(null, 3), 2), 1);
+    }
+
+    @Footprint(exclude = Node.class) Holder holder() {
+      return new Holder();
+    }
+  }
+}
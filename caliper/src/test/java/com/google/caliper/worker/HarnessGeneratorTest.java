@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.google.caliper.Benchmark;
+import com.google.caliper.api.Blackhole;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.lang.reflect.Method;
+
+/**
+ * Tests {@link HarnessGenerator}.
+ */
+@RunWith(JUnit4.class)
+public class HarnessGeneratorTest {
+  @Test public void loop_void() throws Exception {
+    assertInvokedRepsTimes("voidMethod");
+  }
+
+  @Test public void loop_int() throws Exception {
+    assertInvokedRepsTimes("intMethod");
+  }
+
+  @Test public void loop_long() throws Exception {
+    assertInvokedRepsTimes("longMethod");
+  }
+
+  @Test public void loop_double() throws Exception {
+    assertInvokedRepsTimes("doubleMethod");
+  }
+
+  @Test public void loop_float() throws Exception {
+    assertInvokedRepsTimes("floatMethod");
+  }
+
+  @Test public void loop_boolean() throws Exception {
+    assertInvokedRepsTimes("booleanMethod");
+  }
+
+  @Test public void loop_object() throws Exception {
+    assertInvokedRepsTimes("objectMethod");
+  }
+
+  @Test public void loop_blackhole() throws Exception {
+    CountingBenchmark benchmark = new CountingBenchmark();
+    Method method = CountingBenchmark.class.getDeclaredMethod("withBlackhole", Blackhole.class);
+    method.setAccessible(true);
+    MethodInvoker harness = HarnessGenerator.generate(benchmark, method);
+    harness.invoke(1L);
+    harness.invoke(1000L);
+    assertEquals(1001, benchmark.invocations);
+  }
+
+  @Test public void loop_zeroReps() throws Exception {
+    CountingBenchmark benchmark = new CountingBenchmark();
+    HarnessGenerator.generate(benchmark, method("intMethod")).invoke(0L);
+    assertEquals(0, benchmark.invocations);
+  }
+
+  @Test public void loop_userException() throws Exception {
+    CountingBenchmark benchmark = new CountingBenchmark();
+    MethodInvoker harness = HarnessGenerator.generate(benchmark, method("fail"));
+    try {
+      harness.invoke(10L);
+      fail();
+    } catch (IllegalStateException expected) {
+      assertSame(CountingBenchmark.FAILURE, expected);
+    }
+  }
+
+  @Test public void generate_methodWithParameters() throws Exception {
+    Method method = CountingBenchmark.class.getDeclaredMethod("withReps", long.class);
+    method.setAccessible(true);
+    try {
+      HarnessGenerator.generate(new CountingBenchmark(), method);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+  }
+
+  private static void assertInvokedRepsTimes(String methodName) throws Exception {
+    CountingBenchmark benchmark = new CountingBenchmark();
+    MethodInvoker harness = HarnessGenerator.generate(benchmark, method(methodName));
+    harness.invoke(1L);
+    harness.invoke(1000L);
+    assertEquals(1001, benchmark.invocations);
+  }
+
+  private static Method method(String name) throws Exception {
+    Method method = CountingBenchmark.class.getDeclaredMethod(name);
+    method.setAccessible(true);
+    return method;
+  }
+
+  @SuppressWarnings("unused")
+  static final class CountingBenchmark {
+    static final IllegalStateException FAILURE = new IllegalStateException();
+
+    long invocations;
+
+    @Benchmark void voidMethod() {
+      invocations++;
+    }
+
+    @Benchmark int intMethod() {
+      return (int) ++invocations;
+    }
+
+    @Benchmark long longMethod() {
+      return ++invocations;
+    }
+
+    @Benchmark double doubleMethod() {
+      return ++invocations;
+    }
+
+    @Benchmark float floatMethod() {
+      return ++invocations;
+    }
+
+    @Benchmark boolean booleanMethod() {
+      return ++invocations % 2 == 0;
+    }
+
+    @Benchmark Object objectMethod() {
+      invocations++;
+      return new Object();
+    }
+
+    @Benchmark void withBlackhole(Blackhole blackhole) {
+      blackhole.consume(++invocations);
+    }
+
+    @Benchmark void fail() {
+      throw FAILURE;
+    }
+
+    @Benchmark long withReps(long reps) {
+      return reps;
+    }
+  }
+}
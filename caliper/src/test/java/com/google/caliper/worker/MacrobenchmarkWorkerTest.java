@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.worker;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.caliper.model.LatencyHistogram;
+import com.google.caliper.model.Measurement;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests {@link MacrobenchmarkWorker}.
+ */
+@RunWith(JUnit4.class)
+public class MacrobenchmarkWorkerTest {
+  @Test public void targetRate_parameterOverridesOption() {
+    ImmutableMap<String, String> options = ImmutableMap.of("targetRate", "1000");
+    assertEquals(1000.0,
+        MacrobenchmarkWorker.targetRate(ImmutableMap.<String, String>of(), options), 0.0);
+    assertEquals(50000.0,
+        MacrobenchmarkWorker.targetRate(ImmutableMap.of("targetRate", "50000"), options), 0.0);
+    assertEquals(0.0, MacrobenchmarkWorker.targetRate(
+        ImmutableMap.<String, String>of(), ImmutableMap.<String, String>of()), 0.0);
+  }
+
+  @Test public void fixedRate_latencyIncludesTimeSpentWaitingForAStall() throws Exception {
+    FakeClock clock = new FakeClock();
+    StallingBenchmark benchmark = new StallingBenchmark(clock);
+    MacrobenchmarkWorker worker = new MacrobenchmarkWorker(benchmark,
+        StallingBenchmark.class.getDeclaredMethod("handle"), clock,
+        ImmutableMap.of("gcBeforeEach", "false", "timingInterval", "1ms"),
+        ImmutableSortedMap.of("targetRate", "100000"));
+
+    ImmutableList<Measurement> measurements = ImmutableList.copyOf(worker.measure());
+    LatencyHistogram latencies = worker.latencyHistogram();
+
+    // one invocation every 10us for 1ms
+    assertEquals(100, latencies.totalCount());
+    assertEquals(100, benchmark.invocations);
+    assertTrue(latencies.max() >= MICROSECONDS.toNanos(100));
+    // the invocations scheduled during the stall were late, even though they only took 2us each
+    assertTrue(latencies.percentile(90) > MICROSECONDS.toNanos(10));
+    assertEquals("runtime", measurements.get(0).description());
+    assertEquals(100, measurements.get(0).weight(), 0.0);
+    assertEquals("throughput", measurements.get(1).description());
+    assertEquals(100000, measurements.get(1).value().magnitude(), 5000);
+  }
+
+  /** A ticker that only advances when the benchmark does work, plus a nanosecond per read. */
+  private static final class FakeClock extends Ticker {
+    long nanos;
+
+    @Override public long read() {
+      return nanos++;
+    }
+  }
+
+  public static final class StallingBenchmark {
+    private final FakeClock clock;
+    int invocations;
+
+    StallingBenchmark(FakeClock clock) {
+      this.clock = clock;
+    }
+
+    public void handle() {
+      clock.nanos += (invocations++ == 10) ? MICROSECONDS.toNanos(100) : MICROSECONDS.toNanos(2);
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import com.google.caliper.Benchmark;
+import com.google.caliper.api.Blackhole;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * Tests {@link MethodInvoker}.
+ */
+@RunWith(JUnit4.class)
+public class MethodInvokerTest {
+  private static final int WARMUP_INVOCATIONS = 20000;
+  private static final int MEASURED_INVOCATIONS = 100000;
+
+  @Test public void invoke_noArgs() throws Exception {
+    RecordingBenchmark benchmark = new RecordingBenchmark();
+    MethodInvoker.create(benchmark, method("macro")).invoke();
+    assertEquals(1, benchmark.invocations);
+  }
+
+  @Test public void invoke_int() throws Exception {
+    RecordingBenchmark benchmark = new RecordingBenchmark();
+    MethodInvoker.create(benchmark, method("micro", int.class)).invoke(42);
+    assertEquals(42, benchmark.lastReps);
+  }
+
+  @Test public void invoke_long() throws Exception {
+    RecordingBenchmark benchmark = new RecordingBenchmark();
+    MethodInvoker.create(benchmark, method("pico", long.class)).invoke(Long.MAX_VALUE);
+    assertEquals(Long.MAX_VALUE, benchmark.lastReps);
+  }
+
+  @Test public void invoke_blackholeIsBound() throws Exception {
+    RecordingBenchmark benchmark = new RecordingBenchmark();
+    MethodInvoker invoker =
+        MethodInvoker.create(benchmark, method("picoWithBlackhole", long.class, Blackhole.class));
+    invoker.invoke(42L);
+    Blackhole first = benchmark.lastBlackhole;
+    invoker.invoke(43L);
+    assertEquals(43, benchmark.lastReps);
+    assertNotNull(first);
+    assertSame(first, benchmark.lastBlackhole);
+  }
+
+  @Test public void invoke_userExceptionIsNotWrapped() throws Exception {
+    RecordingBenchmark benchmark = new RecordingBenchmark();
+    MethodInvoker invoker = MethodInvoker.create(benchmark, method("fail"));
+    try {
+      invoker.invoke();
+      fail();
+    } catch (IllegalStateException expected) {
+      assertSame(RecordingBenchmark.FAILURE, expected);
+    }
+  }
+
+  /**
+   * Reflective invocation boxes {@code reps} and allocates a varargs array on every call, all of
+   * which happens inside the timed region. The bound invoker shouldn't allocate at all.
+   */
+  @Test public void invoke_lowerOverheadThanReflection() throws Exception {
+    ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean allocationBean =
+        (com.sun.management.ThreadMXBean) threadMXBean;
+    assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+    allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+    NoOpBenchmark benchmark = new NoOpBenchmark();
+    Method method = NoOpBenchmark.class.getDeclaredMethod("increment", long.class);
+    method.setAccessible(true);
+    MethodInvoker invoker = MethodInvoker.create(benchmark, method);
+    long threadId = Thread.currentThread().getId();
+
+    for (int i = 0; i < WARMUP_INVOCATIONS; i++) {
+      method.invoke(benchmark, 1000L + i);
+      invoker.invoke(1000L + i);
+    }
+
+    long before = allocationBean.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < MEASURED_INVOCATIONS; i++) {
+      method.invoke(benchmark, 1000L + i);
+    }
+    long reflectiveBytes = allocationBean.getThreadAllocatedBytes(threadId) - before;
+
+    before = allocationBean.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < MEASURED_INVOCATIONS; i++) {
+      invoker.invoke(1000L + i);
+    }
+    long invokerBytes = allocationBean.getThreadAllocatedBytes(threadId) - before;
+
+    assertTrue(String.format("invoker allocated %d bytes, reflection allocated %d bytes",
+        invokerBytes, reflectiveBytes), invokerBytes < reflectiveBytes);
+  }
+
+  private static Method method(String name, Class<?>... parameterTypes) throws Exception {
+    Method method = RecordingBenchmark.class.getDeclaredMethod(name, parameterTypes);
+    method.setAccessible(true);
+    return method;
+  }
+
+  /** The same benchmark as {@code examples.NoOpBenchmark}. */
+  static final class NoOpBenchmark {
+    @Benchmark long increment(long reps) {
+      long result = 0;
+      for (; result < reps; result++) {}
+      return result;
+    }
+  }
+
+  static final class RecordingBenchmark {
+    static final IllegalStateException FAILURE = new IllegalStateException();
+
+    int invocations;
+    long lastReps;
+    Blackhole lastBlackhole;
+
+    @Benchmark void macro() {
+      invocations++;
+    }
+
+    @Benchmark int micro(int reps) {
+      lastReps = reps;
+      return reps;
+    }
+
+    @Benchmark long pico(long reps) {
+      lastReps = reps;
+      return reps;
+    }
+
+    @Benchmark void picoWithBlackhole(long reps, Blackhole blackhole) {
+      lastReps = reps;
+      lastBlackhole = blackhole;
+      blackhole.consume(reps);
+    }
+
+    @Benchmark void fail() {
+      throw FAILURE;
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.caliper.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.caliper.model.Measurement;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Sets;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests {@link ThroughputWorker}.
+ */
+@RunWith(JUnit4.class)
+public class ThroughputWorkerTest {
+  /** A millisecond window, of which each batch should take at least a thousandth. */
+  private static final long WINDOW_NANOS = 1000000;
+
+  @Test public void bootstrap_calibratesTheBatchSize() throws Exception {
+    FakeClock clock = new FakeClock();
+    // 10ns per rep, so a batch must be at least 100 reps to take a microsecond
+    RepsBenchmark benchmark = new RepsBenchmark(clock, 10);
+    ThroughputWorker worker = createWorker(benchmark, clock, 1, "reps", long.class);
+    worker.bootstrap();
+    assertEquals(ImmutableList.of(1L, 2L, 4L, 8L, 16L, 32L, 64L, 128L), benchmark.batches);
+    worker.cleanUp();
+  }
+
+  @Test public void measure_runsBatchesForTheWindow() throws Exception {
+    FakeClock clock = new FakeClock();
+    RepsBenchmark benchmark = new RepsBenchmark(clock, 10);
+    ThroughputWorker worker = createWorker(benchmark, clock, 1, "reps", long.class);
+    worker.bootstrap();
+    benchmark.batches.clear();
+    worker.preMeasure(false);
+    Measurement measurement = getOnlyMeasurement(worker);
+    worker.cleanUp();
+
+    // batches of 128 reps take 1280ns each, so the window ends after the 782nd
+    assertEquals(782, benchmark.batches.size());
+    for (long batch : benchmark.batches) {
+      assertEquals(128, batch);
+    }
+    assertEquals("throughput", measurement.description());
+    assertEquals(782 * 128, measurement.weight(), 0.0);
+    // each rep takes 10ns of the fake clock
+    assertEquals(1e8, measurement.value().magnitude(), 1.0);
+    assertEquals("ops/s", measurement.value().unit());
+  }
+
+  @Test public void measure_addsUpTheOperationsOfAllThreads() throws Exception {
+    InvocationBenchmark benchmark = new InvocationBenchmark();
+    ThroughputWorker worker =
+        createWorker(benchmark, Ticker.systemTicker(), 3, "invoke");
+    worker.bootstrap();
+    worker.preMeasure(false);
+    Measurement measurement = getOnlyMeasurement(worker);
+    worker.cleanUp();
+
+    // without a reps parameter, each invocation is an operation
+    assertEquals(benchmark.invocations.get(), measurement.weight(), 0.0);
+    assertTrue(measurement.weight() >= 3);
+    assertEquals(3, benchmark.threads.size());
+  }
+
+  private static ThroughputWorker createWorker(Object benchmark, Ticker ticker, int threads,
+      String methodName, Class<?>... parameterTypes) throws Exception {
+    Method method = benchmark.getClass().getDeclaredMethod(methodName, parameterTypes);
+    method.setAccessible(true);
+    return new ThroughputWorker(benchmark, method, ticker,
+        ImmutableMap.of(
+            "windowNanos", String.valueOf(WINDOW_NANOS),
+            "gcBeforeEach", "false",
+            "threads", String.valueOf(threads)),
+        ImmutableSortedMap.<String, String>of());
+  }
+
+  private static Measurement getOnlyMeasurement(ThroughputWorker worker) throws Exception {
+    ImmutableList<Measurement> measurements = ImmutableList.copyOf(worker.measure());
+    assertEquals(1, measurements.size());
+    return measurements.get(0);
+  }
+
+  /** A ticker that only advances when the benchmark does work. */
+  private static final class FakeClock extends Ticker {
+    final AtomicLong nanos = new AtomicLong();
+
+    @Override public long read() {
+      return nanos.get();
+    }
+  }
+
+  static final class RepsBenchmark {
+    final List<Long> batches = new CopyOnWriteArrayList<Long>();
+    private final FakeClock clock;
+    private final long nanosPerRep;
+
+    RepsBenchmark(FakeClock clock, long nanosPerRep) {
+      this.clock = clock;
+      this.nanosPerRep = nanosPerRep;
+    }
+
+    void reps(long reps) {
+      batches.add(reps);
+      clock.nanos.addAndGet(reps * nanosPerRep);
+    }
+  }
+
+  static final class InvocationBenchmark {
+    final AtomicLong invocations = new AtomicLong();
+    final Set<String> threads = Sets.newConcurrentHashSet();
+
+    void invoke() {
+      invocations.incrementAndGet();
+      threads.add(Thread.currentThread().getName());
+    }
+  }
+}
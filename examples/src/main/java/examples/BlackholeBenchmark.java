@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package examples;
+
+import com.google.caliper.Benchmark;
+import com.google.caliper.api.Blackhole;
+
+/**
+ * Calibrates the cost of {@link Blackhole#consume}. Each benchmark is compared against
+ * {@link #baseline}, which runs the same loop but folds the values into its return value instead.
+ * The difference should be well under a nanosecond per call.
+ */
+public class BlackholeBenchmark {
+  private final Object object = new Object();
+
+  @Benchmark long baseline(long reps) {
+    long dummy = 0;
+    for (long i = 0; i < reps; i++) {
+      dummy += i;
+    }
+    return dummy;
+  }
+
+  @Benchmark void consumeInt(long reps, Blackhole blackhole) {
+    for (long i = 0; i < reps; i++) {
+      blackhole.consume((int) i);
+    }
+  }
+
+  @Benchmark void consumeLong(long reps, Blackhole blackhole) {
+    for (long i = 0; i < reps; i++) {
+      blackhole.consume(i);
+    }
+  }
+
+  @Benchmark void consumeDouble(long reps, Blackhole blackhole) {
+    for (long i = 0; i < reps; i++) {
+      blackhole.consume((double) i);
+    }
+  }
+
+  @Benchmark void consumeObject(long reps, Blackhole blackhole) {
+    for (long i = 0; i < reps; i++) {
+      blackhole.consume(object);
+    }
+  }
+}